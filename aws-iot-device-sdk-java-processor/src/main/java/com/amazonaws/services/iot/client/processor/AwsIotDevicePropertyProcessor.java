@@ -0,0 +1,344 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * This annotation processor generates an accessor for every device class with
+ * fields annotated with {@code @AWSIotDeviceProperty}. The accessor reads and
+ * writes the shadow properties through direct calls to the getters and
+ * setters, so device reports and shadow deltas don't go through reflection.
+ * The SDK picks up the generated accessor automatically; device classes it
+ * can't access, e.g. private or inner classes, keep using reflection.
+ * <p>
+ * A reflection configuration for GraalVM native images is also generated,
+ * registering the device classes and their accessors.
+ * </p>
+ * <p>
+ * The processor is enabled by adding this artifact to the compile class path
+ * or the annotation processor path of the application.
+ * </p>
+ */
+@SupportedAnnotationTypes(AwsIotDevicePropertyProcessor.ANNOTATION_NAME)
+public class AwsIotDevicePropertyProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION_NAME = "com.amazonaws.services.iot.client.AWSIotDeviceProperty";
+    static final String CLASS_NAME_SUFFIX = "_AwsIotShadowAccessor";
+    static final String NATIVE_IMAGE_CONFIG = "META-INF/native-image/aws-iot-device-shadow/reflect-config.json";
+
+    private static final String ACCESSOR_INTERFACE = "com.amazonaws.services.iot.client.shadow.AwsIotDeviceShadowAccessor";
+    private static final String DEVICE_CLASS = "com.amazonaws.services.iot.client.shadow.AbstractAwsIotDevice";
+
+    private final Map<String, String> generatedAccessors = new LinkedHashMap<>();
+    private final List<Element> originatingElements = new ArrayList<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION_NAME);
+        if (annotation != null) {
+            Map<TypeElement, List<VariableElement>> devices = new LinkedHashMap<>();
+            for (VariableElement field : ElementFilter.fieldsIn(roundEnv.getElementsAnnotatedWith(annotation))) {
+                TypeElement device = (TypeElement) field.getEnclosingElement();
+                List<VariableElement> fields = devices.get(device);
+                if (fields == null) {
+                    fields = new ArrayList<>();
+                    devices.put(device, fields);
+                }
+                fields.add(field);
+            }
+
+            for (Map.Entry<TypeElement, List<VariableElement>> device : devices.entrySet()) {
+                if (isAccessible(device.getKey())) {
+                    generateAccessor(device.getKey(), device.getValue());
+                }
+            }
+        }
+
+        if (roundEnv.processingOver() && !generatedAccessors.isEmpty()) {
+            generateNativeImageConfig();
+        }
+        return false;
+    }
+
+    private boolean isAccessible(TypeElement device) {
+        Element element = device;
+        while (element.getKind().isClass() || element.getKind().isInterface()) {
+            TypeElement type = (TypeElement) element;
+            if (type.getModifiers().contains(Modifier.PRIVATE)
+                    || type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS
+                    || (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC))) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        "Shadow accessor not generated for inaccessible class, reflection is used instead", device);
+                return false;
+            }
+            element = element.getEnclosingElement();
+        }
+
+        TypeMirror deviceClass = processingEnv.getElementUtils().getTypeElement(DEVICE_CLASS).asType();
+        if (!processingEnv.getTypeUtils().isAssignable(device.asType(),
+                processingEnv.getTypeUtils().erasure(deviceClass))) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "@AWSIotDeviceProperty is only used in subclasses of AWSIotDevice", device);
+            return false;
+        }
+        return true;
+    }
+
+    private void generateAccessor(TypeElement device, List<VariableElement> fields) {
+        Map<String, VariableElement> reported = new LinkedHashMap<>();
+        Map<String, VariableElement> updatable = new LinkedHashMap<>();
+        for (VariableElement field : fields) {
+            AnnotationMirror mirror = getAnnotationMirror(field);
+            String name = (String) getAnnotationValue(mirror, "name");
+            String property = name.isEmpty() ? field.getSimpleName().toString() : name;
+            if ((Boolean) getAnnotationValue(mirror, "enableReport")) {
+                reported.put(property, field);
+            }
+            if ((Boolean) getAnnotationValue(mirror, "allowUpdate")) {
+                updatable.put(property, field);
+            }
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(device).getQualifiedName().toString();
+        String className = getFlatName(device) + CLASS_NAME_SUFFIX;
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        String deviceType = processingEnv.getTypeUtils().erasure(device.asType()).toString();
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n * Shadow accessor of {@link ").append(deviceType)
+                .append("}, generated by the AWS IoT Device SDK annotation processor.\n */\n");
+        source.append("@SuppressWarnings({ \"rawtypes\", \"unchecked\" })\n");
+        source.append("public final class ").append(className).append(" implements ").append(ACCESSOR_INTERFACE)
+                .append(" {\n\n");
+
+        source.append("    @Override\n");
+        source.append("    public void writeReportedProperties(").append(DEVICE_CLASS).append(" device,\n");
+        source.append("            com.fasterxml.jackson.core.JsonGenerator generator) throws java.io.IOException {\n");
+        if (!reported.isEmpty()) {
+            source.append("        ").append(deviceType).append(" d = (").append(deviceType).append(") device;\n");
+        }
+        for (Map.Entry<String, VariableElement> property : reported.entrySet()) {
+            source.append("        ").append(getWriteStatement(device, property.getKey(), property.getValue()))
+                    .append("\n");
+        }
+        source.append("    }\n\n");
+
+        source.append("    @Override\n");
+        source.append("    public boolean readUpdatableProperty(").append(DEVICE_CLASS).append(" device, String property,\n");
+        source.append("            com.fasterxml.jackson.databind.JsonNode node,\n");
+        source.append("            com.fasterxml.jackson.databind.ObjectMapper objectMapper) throws java.io.IOException {\n");
+        if (updatable.isEmpty()) {
+            source.append("        return false;\n");
+        } else {
+            source.append("        ").append(deviceType).append(" d = (").append(deviceType).append(") device;\n");
+            source.append("        switch (property) {\n");
+            for (Map.Entry<String, VariableElement> property : updatable.entrySet()) {
+                source.append("        case ").append(quote(property.getKey())).append(":\n");
+                source.append("            ").append(getReadStatement(property.getKey(), property.getValue()))
+                        .append("\n");
+                source.append("            return true;\n");
+            }
+            source.append("        default:\n");
+            source.append("            return false;\n");
+            source.append("        }\n");
+        }
+        source.append("    }\n\n");
+
+        source.append("    private static <T> T requireValue(T value, String property) throws java.io.IOException {\n");
+        source.append("        if (value == null) {\n");
+        source.append("            throw new java.io.IOException(\"Null value received for property \" + property);\n");
+        source.append("        }\n");
+        source.append("        return value;\n");
+        source.append("    }\n\n");
+        source.append("}\n");
+
+        try {
+            try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, device).openWriter()) {
+                writer.write(source.toString());
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Failed to generate shadow accessor: " + e.getMessage(), device);
+            return;
+        }
+
+        generatedAccessors.put(processingEnv.getElementUtils().getBinaryName(device).toString(), qualifiedName);
+        originatingElements.add(device);
+    }
+
+    private String getWriteStatement(TypeElement device, String property, VariableElement field) {
+        TypeMirror type = field.asType();
+        String value = "d." + getGetterName(device, field) + "()";
+        switch (type.getKind()) {
+        case BOOLEAN:
+            return "generator.writeBooleanField(" + quote(property) + ", " + value + ");";
+        case BYTE:
+        case SHORT:
+            return "generator.writeNumberField(" + quote(property) + ", (int) " + value + ");";
+        case INT:
+        case LONG:
+        case FLOAT:
+        case DOUBLE:
+            return "generator.writeNumberField(" + quote(property) + ", " + value + ");";
+        default:
+            return "generator.writeObjectField(" + quote(property) + ", " + value + ");";
+        }
+    }
+
+    private String getReadStatement(String property, VariableElement field) {
+        TypeMirror type = field.asType();
+        String setter = "set" + capitalize(field.getSimpleName().toString());
+        if (type.getKind().isPrimitive()) {
+            String boxedType = processingEnv.getTypeUtils().boxedClass((PrimitiveType) type)
+                    .getQualifiedName().toString();
+            return "d." + setter + "(requireValue(objectMapper.treeToValue(node, " + boxedType + ".class), "
+                    + quote(property) + "));";
+        }
+
+        String erasedType = processingEnv.getTypeUtils().erasure(type).toString();
+        return "d." + setter + "(objectMapper.treeToValue(node, " + erasedType + ".class));";
+    }
+
+    private String getGetterName(TypeElement device, VariableElement field) {
+        String name = capitalize(field.getSimpleName().toString());
+        if (field.asType().getKind() != TypeKind.BOOLEAN) {
+            return "get" + name;
+        }
+
+        // boolean getters are named isX, unless the class declares getX
+        for (ExecutableElement method : ElementFilter.methodsIn(device.getEnclosedElements())) {
+            if (method.getSimpleName().contentEquals("get" + name) && method.getParameters().isEmpty()) {
+                return "get" + name;
+            }
+        }
+        return "is" + name;
+    }
+
+    private void generateNativeImageConfig() {
+        StringBuilder config = new StringBuilder("[\n");
+        boolean first = true;
+        for (Map.Entry<String, String> accessor : generatedAccessors.entrySet()) {
+            if (!first) {
+                config.append(",\n");
+            }
+            first = false;
+            config.append("  { \"name\": ").append(quote(accessor.getKey()))
+                    .append(", \"allDeclaredFields\": true, \"allPublicMethods\": true },\n");
+            config.append("  { \"name\": ").append(quote(accessor.getValue()))
+                    .append(", \"methods\": [ { \"name\": \"<init>\", \"parameterTypes\": [] } ] }");
+        }
+        config.append("\n]\n");
+
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    NATIVE_IMAGE_CONFIG, originatingElements.toArray(new Element[originatingElements.size()]));
+            try (Writer writer = file.openWriter()) {
+                writer.write(config.toString());
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Failed to generate native image configuration: " + e.getMessage());
+        }
+    }
+
+    private AnnotationMirror getAnnotationMirror(VariableElement field) {
+        for (AnnotationMirror mirror : field.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(ANNOTATION_NAME)) {
+                return mirror;
+            }
+        }
+        throw new IllegalStateException("Missing annotation on " + field);
+    }
+
+    private Object getAnnotationValue(AnnotationMirror mirror, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : processingEnv
+                .getElementUtils().getElementValuesWithDefaults(mirror).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        throw new IllegalStateException("Missing annotation value " + name);
+    }
+
+    private static String getFlatName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+        Element enclosing = type.getEnclosingElement();
+        while (!(enclosing instanceof PackageElement)) {
+            name = enclosing.getSimpleName() + "_" + name;
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name;
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                // unicode escapes of line breaks would end the literal
+                quoted.append(String.format("\\%03o", (int) c));
+            } else if (c > 0x7e) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.amazonaws.services.iot.client.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.iot.client.AWSIotDevice;
+import com.amazonaws.services.iot.client.shadow.AwsIotDeviceMetadata;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class AwsIotDevicePropertyProcessorTest {
+
+    private static final String WINDOW_SOURCE = "package test;\n"
+            + "import java.util.List;\n"
+            + "import com.amazonaws.services.iot.client.AWSIotDevice;\n"
+            + "import com.amazonaws.services.iot.client.AWSIotDeviceProperty;\n"
+            + "public class Window extends AWSIotDevice {\n"
+            + "    @AWSIotDeviceProperty(name = \"temperature\") private double value;\n"
+            + "    @AWSIotDeviceProperty private boolean open;\n"
+            + "    @AWSIotDeviceProperty private char mode = 'a';\n"
+            + "    @AWSIotDeviceProperty(allowUpdate = false) private String reportOnly = \"r\";\n"
+            + "    @AWSIotDeviceProperty(enableReport = false) private List<Integer> updateOnly;\n"
+            + "    private String notAProperty;\n"
+            + "    public Window(String thingName) { super(thingName); }\n"
+            + "    public double getValue() { return value; }\n"
+            + "    public void setValue(double value) { this.value = value; }\n"
+            + "    public boolean isOpen() { return open; }\n"
+            + "    public void setOpen(boolean open) { this.open = open; }\n"
+            + "    public char getMode() { return mode; }\n"
+            + "    public void setMode(char mode) { this.mode = mode; }\n"
+            + "    public String getReportOnly() { return reportOnly; }\n"
+            + "    public List<Integer> getUpdateOnly() { return updateOnly; }\n"
+            + "    public void setUpdateOnly(List<Integer> updateOnly) { this.updateOnly = updateOnly; }\n"
+            + "    public static class Nested extends AWSIotDevice {\n"
+            + "        @AWSIotDeviceProperty private int count;\n"
+            + "        public Nested(String thingName) { super(thingName); }\n"
+            + "        public int getCount() { return count; }\n"
+            + "        public void setCount(int count) { this.count = count; }\n"
+            + "    }\n"
+            + "    private static class Hidden extends AWSIotDevice {\n"
+            + "        @AWSIotDeviceProperty private int count;\n"
+            + "        Hidden(String thingName) { super(thingName); }\n"
+            + "    }\n"
+            + "}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File outputDir;
+    private URLClassLoader classLoader;
+
+    @Before
+    public void setup() throws IOException {
+        outputDir = folder.newFolder("classes");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (classLoader != null) {
+            classLoader.close();
+        }
+    }
+
+    @Test
+    public void testGeneratesAccessor() throws Exception {
+        compile(WINDOW_SOURCE);
+
+        assertTrue(new File(outputDir, "test/Window_AwsIotShadowAccessor.class").exists());
+        AWSIotDevice window = newDevice("test.Window");
+        assertNotNull(AwsIotDeviceMetadata.forClass(window.getClass()).getAccessor());
+
+        assertEquals("{\"temperature\":0.0,\"open\":false,\"mode\":\"a\",\"reportOnly\":\"r\"}",
+                window.onDeviceReport());
+
+        window.onShadowUpdate("{\"temperature\":21.5,\"open\":true,\"mode\":\"b\",\"reportOnly\":\"x\","
+                + "\"updateOnly\":[1,2],\"notAProperty\":\"y\"}");
+        assertEquals("{\"temperature\":21.5,\"open\":true,\"mode\":\"b\",\"reportOnly\":\"r\"}",
+                window.onDeviceReport());
+        assertEquals(Arrays.asList(1, 2), window.getClass().getMethod("getUpdateOnly").invoke(window));
+    }
+
+    @Test
+    public void testNullPrimitiveValueIsRejected() throws Exception {
+        compile(WINDOW_SOURCE);
+        AWSIotDevice window = newDevice("test.Window");
+
+        window.onShadowUpdate("{\"temperature\":null}");
+
+        assertEquals(0.0, window.getClass().getMethod("getValue").invoke(window));
+    }
+
+    @Test
+    public void testNestedClasses() throws Exception {
+        compile(WINDOW_SOURCE);
+
+        assertTrue(new File(outputDir, "test/Window_Nested_AwsIotShadowAccessor.class").exists());
+        AWSIotDevice nested = newDevice("test.Window$Nested");
+        assertNotNull(AwsIotDeviceMetadata.forClass(nested.getClass()).getAccessor());
+        nested.onShadowUpdate("{\"count\":3}");
+        assertEquals("{\"count\":3}", nested.onDeviceReport());
+
+        // private classes can't be accessed from the generated class
+        assertFalse(new File(outputDir, "test/Window_Hidden_AwsIotShadowAccessor.class").exists());
+    }
+
+    @Test
+    public void testNativeImageConfig() throws Exception {
+        compile(WINDOW_SOURCE);
+
+        String config = new String(
+                Files.readAllBytes(new File(outputDir, AwsIotDevicePropertyProcessor.NATIVE_IMAGE_CONFIG).toPath()),
+                StandardCharsets.UTF_8);
+        assertTrue(config.contains("{ \"name\": \"test.Window\", \"allDeclaredFields\": true"));
+        assertTrue(config.contains("{ \"name\": \"test.Window_AwsIotShadowAccessor\", \"methods\""));
+        assertTrue(config.contains("{ \"name\": \"test.Window$Nested\""));
+        assertFalse(config.contains("Hidden"));
+    }
+
+    @Test
+    public void testNonDeviceClassIsSkipped() throws Exception {
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = compile("package test;\n"
+                + "import com.amazonaws.services.iot.client.AWSIotDeviceProperty;\n"
+                + "public class NotADevice {\n"
+                + "    @AWSIotDeviceProperty private int count;\n"
+                + "}\n");
+
+        assertFalse(new File(outputDir, "test/NotADevice_AwsIotShadowAccessor.class").exists());
+        assertEquals(Diagnostic.Kind.WARNING, diagnostics.get(0).getKind());
+    }
+
+    private List<Diagnostic<? extends JavaFileObject>> compile(String source) throws Exception {
+        File sourceFile = new File(folder.newFolder(), "Source.java");
+        String className = source.replaceAll("(?s).*public class (\\w+).*", "$1");
+        sourceFile = new File(sourceFile.getParentFile(), className + ".java");
+        Files.write(sourceFile.toPath(), source.getBytes(StandardCharsets.UTF_8));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null,
+                StandardCharsets.UTF_8)) {
+            List<String> options = Arrays.asList("-d", outputDir.getPath(), "-classpath", getClassPath());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                    fileManager.getJavaFileObjects(sourceFile));
+            task.setProcessors(Collections.singletonList(new AwsIotDevicePropertyProcessor()));
+            assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+        }
+
+        List<Diagnostic<? extends JavaFileObject>> reported = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() != Diagnostic.Kind.NOTE) {
+                reported.add(diagnostic);
+            }
+        }
+        return reported;
+    }
+
+    private AWSIotDevice newDevice(String className) throws Exception {
+        if (classLoader == null) {
+            classLoader = new URLClassLoader(new URL[] { outputDir.toURI().toURL() }, getClass().getClassLoader());
+        }
+        return (AWSIotDevice) classLoader.loadClass(className).getConstructor(String.class).newInstance("thing");
+    }
+
+    private static String getClassPath() throws URISyntaxException {
+        StringBuilder classPath = new StringBuilder();
+        for (Class<?> type : Arrays.asList(AWSIotDevice.class, ObjectMapper.class, JsonGenerator.class,
+                JsonInclude.class)) {
+            if (classPath.length() > 0) {
+                classPath.append(File.pathSeparator);
+            }
+            classPath.append(new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+        }
+        return classPath.toString();
+    }
+
+}
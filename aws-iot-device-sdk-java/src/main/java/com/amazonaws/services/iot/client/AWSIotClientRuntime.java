@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.net.SocketFactory;
+
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotTransport;
+import com.amazonaws.services.iot.client.core.AwsIotTransportFactory;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
+import com.amazonaws.services.iot.client.mqtt.AwsIotPahoTransportFactory;
+import com.amazonaws.services.iot.client.nio.AwsIotNioEventLoopGroup;
+import com.amazonaws.services.iot.client.nio.AwsIotNioTransport;
+import com.amazonaws.services.iot.client.nio.AwsIotNioTransportFactory;
+
+/**
+ * This class holds the execution resources that can be shared by many
+ * {@link AWSIotMqttClient} instances in the same process, such as device
+ * simulators or gateways. Without it, every client creates its own thread pool
+ * when it connects, and the Paho engine adds a few threads for each
+ * connection.
+ * <p>
+ * Clients using a runtime, see
+ * {@link AWSIotMqttClient#setClientRuntime(AWSIotClientRuntime)}, run their
+ * callbacks and timers on the shared thread pool, and their connections on the
+ * shared NIO event loops. Connections not supported by the NIO transport, e.g.
+ * TLS connections with a custom socket factory, fall back to Paho. SSL
+ * contexts and the JSON mapper used for device shadows are shared across the
+ * process in any case.
+ * </p>
+ */
+public class AWSIotClientRuntime {
+
+    private final ScheduledExecutorService executionService;
+    private final AwsIotNioEventLoopGroup eventLoopGroup;
+    private final AwsIotTransportFactory transportFactory;
+
+    /**
+     * Instantiates a new runtime with one client thread and one event-loop
+     * thread per available processor.
+     *
+     * @throws AWSIotException
+     *             exception thrown if the event loops cannot be created
+     */
+    public AWSIotClientRuntime() throws AWSIotException {
+        this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Instantiates a new runtime.
+     *
+     * @param numOfClientThreads
+     *            the number of threads running the callbacks and timers of all
+     *            the clients
+     * @param numOfEventLoopThreads
+     *            the number of threads driving the connections of all the
+     *            clients
+     * @throws AWSIotException
+     *             exception thrown if the event loops cannot be created
+     */
+    public AWSIotClientRuntime(int numOfClientThreads, int numOfEventLoopThreads) throws AWSIotException {
+        eventLoopGroup = new AwsIotNioEventLoopGroup(numOfEventLoopThreads);
+        executionService = Executors.newScheduledThreadPool(numOfClientThreads);
+        transportFactory = new SharedTransportFactory(new AwsIotNioTransportFactory(eventLoopGroup));
+    }
+
+    public ScheduledExecutorService getExecutionService() {
+        return executionService;
+    }
+
+    public AwsIotNioEventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    /**
+     * Gets the transport factory set on the clients using this runtime.
+     *
+     * @return the transport factory
+     */
+    public AwsIotTransportFactory getTransportFactory() {
+        return transportFactory;
+    }
+
+    /**
+     * Stops the shared threads. It should be called after all the clients
+     * using the runtime have been disconnected.
+     */
+    public void shutdown() {
+        executionService.shutdown();
+        eventLoopGroup.shutdown();
+    }
+
+    /**
+     * This class creates NIO transports for the connections supporting them,
+     * and Paho transports for the others.
+     */
+    private static class SharedTransportFactory implements AwsIotTransportFactory {
+
+        private final AwsIotTransportFactory nioTransportFactory;
+        private final AwsIotTransportFactory pahoTransportFactory = new AwsIotPahoTransportFactory();
+
+        SharedTransportFactory(AwsIotTransportFactory nioTransportFactory) {
+            this.nioTransportFactory = nioTransportFactory;
+        }
+
+        @Override
+        public AwsIotTransport createTransport(AbstractAwsIotClient client, SocketFactory socketFactory,
+                String serverUri, AwsIotTransportListener listener) throws AWSIotException {
+            if (AwsIotNioTransport.isSupported(socketFactory, serverUri)) {
+                return nioTransportFactory.createTransport(client, socketFactory, serverUri, listener);
+            }
+            return pahoTransportFactory.createTransport(client, socketFactory, serverUri, listener);
+        }
+
+    }
+
+}
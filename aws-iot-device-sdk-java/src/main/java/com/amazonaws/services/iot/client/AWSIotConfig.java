@@ -15,6 +15,10 @@
 
 package com.amazonaws.services.iot.client;
 
+import java.util.List;
+
+import com.amazonaws.services.iot.client.util.AwsIotTlsSocketFactory;
+
 /**
  * The class provides default values for the library. All the values defined
  * here can be overridden at runtime through setter functions in
@@ -46,6 +50,32 @@ public class AWSIotConfig {
      */
     public static final int KEEP_ALIVE_INTERVAL = 600000;
 
+    /**
+     * The default value for enabling the adaptive keep-alive mode. See also
+     * {@link AWSIotMqttClient#isAdaptiveKeepAlive()}.
+     */
+    public static final boolean ADAPTIVE_KEEP_ALIVE = false;
+
+    /**
+     * The default value for the minimum keep-alive interval used by the
+     * adaptive keep-alive mode (milliseconds). See also
+     * {@link AWSIotMqttClient#getMinKeepAliveInterval()}.
+     */
+    public static final int MIN_KEEP_ALIVE_INTERVAL = 5000;
+
+    /**
+     * The default value for the MQTT protocol version. See also
+     * {@link AWSIotMqttClient#getProtocolVersion()}.
+     */
+    public static final AWSIotProtocolVersion PROTOCOL_VERSION = AWSIotProtocolVersion.MQTT_3_1_1;
+
+    /**
+     * The default value for the maximum number of topic aliases used on MQTT 5
+     * connections, which is the limit of AWS IoT. See also
+     * {@link AWSIotMqttClient#getMaxTopicAliases()}.
+     */
+    public static final int MAX_TOPIC_ALIASES = 8;
+
     /**
      * The default value for maximum connection retry times. See also
      * {@link AWSIotMqttClient#getMaxConnectionRetries()}.
@@ -64,12 +94,32 @@ public class AWSIotConfig {
      */
     public static final int CONNECTION_MAX_RETRY_DELAY = 30000;
 
+    /**
+     * The default value for the TLS protocols enabled on connections, in order
+     * of preference. See also {@link AWSIotMqttClient#getTlsProtocols()}.
+     */
+    public static final List<String> TLS_PROTOCOLS = AwsIotTlsSocketFactory.DEFAULT_PROTOCOLS;
+
     /**
      * The default value for clean session connections.
      * See also {@link AWSIotMqttClient#isCleanSession()}.
      */
     public static final boolean CLEAN_SESSION = true;
 
+    /**
+     * The default value for the session expiry interval (seconds) of MQTT 5
+     * connections without a clean session, which is the default of AWS IoT.
+     * See also {@link AWSIotMqttClient#getSessionExpiryInterval()}.
+     */
+    public static final long SESSION_EXPIRY_INTERVAL = 3600;
+
+    /**
+     * The default value for subscribing to shadow topics of attached devices
+     * through shared wildcard subscriptions. See also
+     * {@link AWSIotMqttClient#isFleetShadowMode()}.
+     */
+    public static final boolean FLEET_SHADOW_MODE = false;
+
     /**
      * The default value for maximum offline queue size. See also
      * {@link AWSIotMqttClient#getMaxOfflineQueueSize()}.
@@ -88,6 +138,19 @@ public class AWSIotConfig {
      */
     public static final boolean DEVICE_ENABLE_VERSIONING = false;
 
+    /**
+     * The default value for enabling delta reporting of changed device
+     * properties. See also {@link AWSIotDevice#isEnableDeltaReporting()}.
+     */
+    public static final boolean DEVICE_ENABLE_DELTA_REPORTING = false;
+
+    /**
+     * The default value for the window (milliseconds) within which shadow
+     * updates are coalesced. See also
+     * {@link AWSIotDevice#getUpdateCoalescingWindow()}.
+     */
+    public static final int DEVICE_UPDATE_COALESCING_WINDOW = 0;
+
     /**
      * The default value for device reporting QoS level. See also
      * {@link AWSIotDevice#getDeviceReportQos()}.
@@ -163,6 +163,71 @@ public class AWSIotDevice extends AbstractAwsIotDevice {
         super.setEnableVersioning(enableVersioning);
     }
 
+    /**
+     * Checks if delta reporting is enabled for device reports.
+     *
+     * @return true, if only changed properties are reported.
+     */
+    @Override
+    public boolean isEnableDeltaReporting() {
+        return super.isEnableDeltaReporting();
+    }
+
+    /**
+     * Sets delta reporting to be enabled or disabled. When enabled, the device
+     * keeps the last reported state sent to the shadow, and each report only
+     * includes the properties whose values have changed since. Reports are
+     * skipped entirely when nothing has changed. If a report fails, changes
+     * are computed against the last state acknowledged by the shadow instead.
+     * The full state is reported again after the device is reconnected, after
+     * a version conflict, and after the shadow is updated or deleted through
+     * this device. This value must be set before the device is attached to a
+     * client via the {@link AWSIotMqttClient#attach(AWSIotDevice)} call.
+     * <p>
+     * Unlike full reporting, delta reporting doesn't correct reported
+     * properties changed or deleted by another writer of the shadow, unless
+     * the properties have a {@code maxReportInterval} in their
+     * {@link AWSIotDeviceProperty} annotation.
+     * </p>
+     *
+     * @param enableDeltaReporting
+     *            true to report only changed properties; false to report all
+     *            properties in every report.
+     */
+    @Override
+    public void setEnableDeltaReporting(boolean enableDeltaReporting) {
+        super.setEnableDeltaReporting(enableDeltaReporting);
+    }
+
+    /**
+     * Gets the window within which shadow updates are coalesced.
+     *
+     * @return the coalescing window in milliseconds, or 0 if updates are not
+     *         coalesced.
+     */
+    @Override
+    public long getUpdateCoalescingWindow() {
+        return super.getUpdateCoalescingWindow();
+    }
+
+    /**
+     * Sets the window in milliseconds within which shadow updates are
+     * coalesced. When set, the documents of the {@code update} calls made
+     * within the window after the first one are deep-merged, later values
+     * taking precedence, and sent to the shadow in a single update request.
+     * Each caller is notified of the result of that request, as if its own
+     * update had been sent. Updates with a {@code version} field are not
+     * coalesced. The default is 0, which sends every update on its own.
+     *
+     * @param updateCoalescingWindow
+     *            the coalescing window in milliseconds, or 0 to disable
+     *            coalescing
+     */
+    @Override
+    public void setUpdateCoalescingWindow(long updateCoalescingWindow) {
+        super.setUpdateCoalescingWindow(updateCoalescingWindow);
+    }
+
     /**
      * Gets the MQTT QoS level for publishing the device report. The default QoS
      * is QoS 0.
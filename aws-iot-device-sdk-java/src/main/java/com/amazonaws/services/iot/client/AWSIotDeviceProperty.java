@@ -29,6 +29,18 @@ import java.lang.annotation.RetentionPolicy;
  * function is not required. Likewise, if {@link #allowUpdate()} is disabled for
  * a property, its setter method is not required.
  * </p>
+ * <p>
+ * Reported properties can also be given a reporting policy, which is applied
+ * when only changed properties are reported to the shadow, see
+ * {@link AWSIotDevice#setEnableDeltaReporting(boolean)}. Devices with any
+ * property that has a reporting policy always report changed properties only.
+ * A policy can suppress small changes of numeric values with
+ * {@link #deadband()} or {@link #deadbandPercent()}, limit how often a
+ * property is reported with {@link #minReportInterval()}, and force a
+ * property to be reported again with {@link #maxReportInterval()}. Changes are
+ * always measured against the last value accepted by the shadow, so small
+ * changes that add up are eventually reported.
+ * </p>
  */
 @Retention(RetentionPolicy.RUNTIME)
 public @interface AWSIotDeviceProperty {
@@ -57,4 +69,41 @@ public @interface AWSIotDeviceProperty {
      */
     boolean allowUpdate() default true;
 
+    /**
+     * The absolute deadband of a numeric property. A changed value is only
+     * reported if it differs from the last reported value by more than the
+     * deadband. It's disabled by default.
+     *
+     * @return the absolute deadband, or 0 to disable it.
+     */
+    double deadband() default 0;
+
+    /**
+     * The deadband of a numeric property as a percentage of the last reported
+     * value. A changed value is only reported if it differs from the last
+     * reported value by more than this percentage of it. It's disabled by
+     * default.
+     *
+     * @return the deadband in percent, or 0 to disable it.
+     */
+    double deadbandPercent() default 0;
+
+    /**
+     * The minimum interval in milliseconds between reports of the property.
+     * Changes within the interval are held back and reported when it expires.
+     * It's disabled by default.
+     *
+     * @return the minimum report interval in milliseconds, or 0 to disable it.
+     */
+    long minReportInterval() default 0;
+
+    /**
+     * The maximum interval in milliseconds between reports of the property.
+     * The property is reported again when it expires, even if it hasn't
+     * changed or the change is within the deadband. It's disabled by default.
+     *
+     * @return the maximum report interval in milliseconds, or 0 to disable it.
+     */
+    long maxReportInterval() default 0;
+
 }
@@ -16,6 +16,7 @@
 package com.amazonaws.services.iot.client;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Map;
 
 import com.amazonaws.services.iot.client.core.AwsIotMessageCallback;
 import com.amazonaws.services.iot.client.core.AwsIotRuntimeException;
@@ -64,6 +65,19 @@ public class AWSIotMessage implements AwsIotMessageCallback {
      */
     protected byte[] payload;
 
+    /**
+     * The MQTT 5 user properties of the message, as name-value pairs. They are
+     * sent with published messages and set on received messages when the
+     * client is connected with {@link AWSIotProtocolVersion#MQTT_5}, and
+     * ignored otherwise.
+     *
+     * @param userProperties the new user properties of the message
+     * @return the current user properties of the message, or null if none
+     */
+    @Getter
+    @Setter
+    protected Map<String, String> userProperties;
+
     /**
      * Error code for shadow methods. It's only applicable to messages returned
      * by those shadow method APIs.
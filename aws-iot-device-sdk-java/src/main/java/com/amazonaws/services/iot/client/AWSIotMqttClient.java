@@ -17,9 +17,17 @@ package com.amazonaws.services.iot.client;
 
 import com.amazonaws.services.iot.client.auth.CredentialsProvider;
 import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotTransportFactory;
+import com.amazonaws.services.iot.client.retry.DecorrelatedJitterRetryPolicy;
+import com.amazonaws.services.iot.client.retry.ExponentialRetryPolicy;
+import com.amazonaws.services.iot.client.retry.FullJitterRetryPolicy;
+import com.amazonaws.services.iot.client.retry.RetryPolicy;
+import com.amazonaws.services.iot.client.util.AwsIotSslContextCache;
+import com.amazonaws.services.iot.client.util.AwsIotTlsHandshakeMetrics;
 
 import javax.net.ssl.SSLSocketFactory;
 import java.security.KeyStore;
+import java.util.List;
 
 /**
  * This class is the main interface of the AWS IoT Java library. It provides
@@ -34,7 +42,7 @@ import java.security.KeyStore;
  * IoT service:
  * </p>
  * <ul>
- * <li>MQTT (over TLS 1.2) with X.509 certificate based mutual authentication</li>
+ * <li>MQTT (over TLS 1.3 or 1.2) with X.509 certificate based mutual authentication</li>
  * <li>MQTT over Secure WebSocket with AWS SigV4 authentication</li>
  * </ul>
  * <p>
@@ -132,6 +140,41 @@ public class AWSIotMqttClient extends AbstractAwsIotClient {
         super(clientEndpoint, clientId, keyStore, keyPassword);
     }
 
+    /**
+     * Instantiates a new client using TLS mutual authentication on the given
+     * port. Client certificate and private key are passed in through the
+     * {@link KeyStore} argument. The key password protecting the private key
+     * in the {@link KeyStore} is also required. On port 443, the MQTT protocol
+     * is negotiated through ALPN, which allows MQTT connections with X.509
+     * certificates through firewalls that only open the HTTPS port. ALPN
+     * requires Java 9 or later, or Java 8u251 or later.
+     *
+     * @param clientEndpoint
+     *            the client endpoint in the form of {@code <account-specific
+     *            prefix>.iot.<aws-region>.amazonaws.com}. The account-specific
+     *            prefix can be found on the AWS IoT console or by using the
+     *            {@code describe-endpoint} command through the AWS command line
+     *            interface.
+     * @param clientId
+     *            the client ID uniquely identify a MQTT connection. Two clients
+     *            with the same client ID are not allowed to be connected
+     *            concurrently to a same endpoint.
+     * @param keyStore
+     *            the key store containing the client X.509 certificate and
+     *            private key. The {@link KeyStore} object can be constructed
+     *            using X.509 certificate file and private key file created on
+     *            the AWS IoT console. For more details, please refer to the
+     *            README file of this SDK.
+     * @param keyPassword
+     *            the key password protecting the private key in the
+     *            {@code keyStore} argument.
+     * @param port
+     *            the socket port to use, e.g. 8883 or 443.
+     */
+    public AWSIotMqttClient(String clientEndpoint, String clientId, KeyStore keyStore, String keyPassword, int port) {
+        super(clientEndpoint, clientId, keyStore, keyPassword, port);
+    }
+
     /**
      * Instantiates a new client using TLS 1.2 mutual authentication. Client
      * certificate and private key should be used to initialize the KeyManager
@@ -176,7 +219,8 @@ public class AWSIotMqttClient extends AbstractAwsIotClient {
      *            certificate and private key, and a Truststore containing trusted
      *            Certificate Authorities(CAs).
      * @param port
-     *            The socket port to use.
+     *            The socket port to use. On port 443, the MQTT protocol is
+     *            negotiated through ALPN.
      */
     public AWSIotMqttClient(String clientEndpoint, String clientId, SSLSocketFactory socketFactory, int port) {
         super(clientEndpoint, clientId, socketFactory, port);
@@ -457,6 +501,163 @@ public class AWSIotMqttClient extends AbstractAwsIotClient {
         super.setMaxRetryDelay(maxRetryDelay);
     }
 
+    /**
+     * Gets the retry policy currently configured. The retry policy determines
+     * the delay before each connection retry, based on the number of retries,
+     * the base retry delay and the maximum retry delay. By default,
+     * {@link ExponentialRetryPolicy} is used, which computes the delay with the
+     * formula
+     * {@code delay = min(baseRetryDelay * pow(2, numRetries), maxRetryDelay)}.
+     *
+     * @return the retry policy
+     */
+    @Override
+    public RetryPolicy getRetryPolicy() {
+        return super.getRetryPolicy();
+    }
+
+    /**
+     * Sets a new retry policy. This value must be set before
+     * {@link #connect()} is called. For large fleets of devices that may lose
+     * their connections at the same time, e.g. during a network outage, a
+     * jittered policy such as {@link FullJitterRetryPolicy} or
+     * {@link DecorrelatedJitterRetryPolicy} is recommended, so that the
+     * devices don't reconnect in lockstep.
+     *
+     * @param retryPolicy
+     *            the new retry policy. The default value is
+     *            {@link ExponentialRetryPolicy}.
+     */
+    @Override
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        super.setRetryPolicy(retryPolicy);
+    }
+
+    /**
+     * Gets the transport factory currently configured. The transport carries
+     * the MQTT traffic of the client, while the client keeps the connection
+     * retry logic and offline queues. The default factory creates transports
+     * based on the Paho MQTT library.
+     *
+     * @return the transport factory
+     */
+    @Override
+    public AwsIotTransportFactory getTransportFactory() {
+        return super.getTransportFactory();
+    }
+
+    /**
+     * Sets a new transport factory, which allows another MQTT engine to be
+     * plugged into the client. This value must be set before
+     * {@link #connect()} is called for the first time.
+     *
+     * @param transportFactory
+     *            the new transport factory
+     */
+    @Override
+    public void setTransportFactory(AwsIotTransportFactory transportFactory) {
+        super.setTransportFactory(transportFactory);
+    }
+
+    /**
+     * Gets the client runtime currently configured, or null if the client
+     * creates its own threads when connecting.
+     *
+     * @return the client runtime
+     */
+    @Override
+    public AWSIotClientRuntime getClientRuntime() {
+        return super.getClientRuntime();
+    }
+
+    /**
+     * Sets a client runtime shared with other clients in the same process. The
+     * client then runs its callbacks and timers on the thread pool of the
+     * runtime instead of creating its own, and its connections are driven by
+     * the event loops of the runtime. This also replaces the transport factory
+     * of the client. This value must be set before {@link #connect()} is
+     * called for the first time.
+     *
+     * @param clientRuntime
+     *            the new client runtime
+     */
+    @Override
+    public void setClientRuntime(AWSIotClientRuntime clientRuntime) {
+        super.setClientRuntime(clientRuntime);
+    }
+
+    /**
+     * Gets the compression options offered on WebSocket connections, or null
+     * if compression is disabled.
+     *
+     * @return the WebSocket compression options
+     */
+    @Override
+    public AWSIotWebSocketCompression getWebSocketCompression() {
+        return super.getWebSocketCompression();
+    }
+
+    /**
+     * Sets the compression options offered on WebSocket connections. When the
+     * server accepts the {@code permessage-deflate} extension, MQTT packets
+     * are compressed on the wire, which mostly benefits verbose JSON payloads
+     * such as shadow documents. Compression requires the NIO transport, e.g.
+     * through {@link #setClientRuntime(AWSIotClientRuntime)}. This value must
+     * be set before {@link #connect()} is called.
+     *
+     * @param webSocketCompression
+     *            the new compression options. The default value is null,
+     *            which disables compression.
+     */
+    @Override
+    public void setWebSocketCompression(AWSIotWebSocketCompression webSocketCompression) {
+        super.setWebSocketCompression(webSocketCompression);
+    }
+
+    /**
+     * Gets the TLS protocols currently configured to be enabled on
+     * connections, in order of preference. By default, TLS 1.3 is preferred
+     * and TLS 1.2 is used as fallback. Protocols not supported by the Java
+     * runtime are skipped.
+     *
+     * @return the enabled TLS protocols
+     */
+    @Override
+    public List<String> getTlsProtocols() {
+        return super.getTlsProtocols();
+    }
+
+    /**
+     * Sets the TLS protocols to be enabled on connections, e.g.
+     * {@code Arrays.asList("TLSv1.2")} to disable TLS 1.3. This value must be
+     * set before {@link #connect()} is called. This setting has no effect if
+     * the client is connected over WebSocket.
+     *
+     * @param tlsProtocols
+     *            the new TLS protocols. The default value is
+     *            {@link AWSIotConfig#TLS_PROTOCOLS}.
+     */
+    @Override
+    public void setTlsProtocols(List<String> tlsProtocols) {
+        super.setTlsProtocols(tlsProtocols);
+    }
+
+    /**
+     * Gets the metrics of the TLS handshakes performed by this client, which
+     * include the number of full and resumed handshakes, and the resumed
+     * handshake ratio. Whether a handshake resumed a session is estimated from
+     * the session creation time, and TLS 1.3 resumptions may be counted as full
+     * handshakes, so the resumed count and ratio are lower bounds. The TLS
+     * session cache is configured through {@link AwsIotSslContextCache}.
+     *
+     * @return the TLS handshake metrics, or null if the client is connected
+     *         over WebSocket
+     */
+    @Override
+    public AwsIotTlsHandshakeMetrics getTlsHandshakeMetrics() {
+        return super.getTlsHandshakeMetrics();
+    }
+
     /**
      * Gets the server acknowledge timeout in milliseconds currently configured.
      * This timeout is used internally by the SDK when subscribing to shadow
@@ -510,6 +711,116 @@ public class AWSIotMqttClient extends AbstractAwsIotClient {
         super.setKeepAliveInterval(keepAliveInterval);
     }
 
+    /**
+     * Gets whether the adaptive keep-alive mode is enabled. In this mode, the
+     * round-trip time of keep-alive pings is measured and the ping interval is
+     * adjusted for each connection. It starts at the minimum keep-alive
+     * interval and grows up to the keep-alive interval while the pings are
+     * answered in time, keeping idle traffic low on healthy links. It is
+     * tightened back to the minimum interval when a ping response is late or
+     * published messages remain unacknowledged, so that a half-open connection
+     * is detected and reconnected within a few multiples of the minimum
+     * interval instead of the full keep-alive interval.
+     *
+     * @return whether the adaptive keep-alive mode is enabled
+     */
+    @Override
+    public boolean isAdaptiveKeepAlive() {
+        return super.isAdaptiveKeepAlive();
+    }
+
+    /**
+     * Sets whether the adaptive keep-alive mode is enabled. This value must be
+     * set before {@link #connect()} is called. See also
+     * {@link #isAdaptiveKeepAlive()}.
+     *
+     * @param adaptiveKeepAlive
+     *            If true, the keep-alive ping interval is adjusted to the
+     *            health of the connection. The default value is {@code false}.
+     */
+    @Override
+    public void setAdaptiveKeepAlive(boolean adaptiveKeepAlive) {
+        super.setAdaptiveKeepAlive(adaptiveKeepAlive);
+    }
+
+    /**
+     * Gets the minimum keep-alive interval in milliseconds used by the adaptive
+     * keep-alive mode. See also {@link #isAdaptiveKeepAlive()}.
+     *
+     * @return the minimum keep-alive interval
+     */
+    @Override
+    public int getMinKeepAliveInterval() {
+        return super.getMinKeepAliveInterval();
+    }
+
+    /**
+     * Sets a new value in milliseconds for the minimum keep-alive interval used
+     * by the adaptive keep-alive mode. This value must be set before
+     * {@link #connect()} is called, and is capped by the keep-alive interval.
+     *
+     * @param minKeepAliveInterval
+     *            the new minimum keep-alive interval. The default value is
+     *            5,000ms.
+     */
+    @Override
+    public void setMinKeepAliveInterval(int minKeepAliveInterval) {
+        super.setMinKeepAliveInterval(minKeepAliveInterval);
+    }
+
+    /**
+     * Gets the MQTT protocol version used by the client.
+     *
+     * @return the MQTT protocol version
+     */
+    @Override
+    public AWSIotProtocolVersion getProtocolVersion() {
+        return super.getProtocolVersion();
+    }
+
+    /**
+     * Sets the MQTT protocol version used by the client. This value must be
+     * set before {@link #connect()} is called. With
+     * {@link AWSIotProtocolVersion#MQTT_5}, topic aliases are used for the
+     * most recently published topics, QoS 1 publishes are paced by the receive
+     * maximum of the server, and the user properties of messages are sent and
+     * received. MQTT 5 requires the NIO transport to be set through
+     * {@link #setTransportFactory(AwsIotTransportFactory)}.
+     *
+     * @param protocolVersion
+     *            the new MQTT protocol version. The default value is
+     *            {@link AWSIotProtocolVersion#MQTT_3_1_1}.
+     */
+    @Override
+    public void setProtocolVersion(AWSIotProtocolVersion protocolVersion) {
+        super.setProtocolVersion(protocolVersion);
+    }
+
+    /**
+     * Gets the maximum number of topic aliases used on MQTT 5 connections.
+     * The number used is also limited by the server.
+     *
+     * @return the maximum number of topic aliases
+     */
+    @Override
+    public int getMaxTopicAliases() {
+        return super.getMaxTopicAliases();
+    }
+
+    /**
+     * Sets the maximum number of topic aliases used on MQTT 5 connections.
+     * This value must be set before {@link #connect()} is called. Setting this
+     * value to 0 disables topic aliases.
+     *
+     * @param maxTopicAliases
+     *            the new maximum number of topic aliases. The default value is
+     *            8.
+     */
+    @Override
+    public void setMaxTopicAliases(int maxTopicAliases) {
+        super.setMaxTopicAliases(maxTopicAliases);
+    }
+
     /**
      * Gets the maximum offline queue size current configured. The offline
      * queues are used for temporarily holding outgoing requests while the
@@ -573,6 +884,61 @@ public class AWSIotMqttClient extends AbstractAwsIotClient {
     @Override
     public boolean isCleanSession() { return super.isCleanSession(); }
 
+    /**
+     * Gets the session expiry interval of MQTT 5 connections without a clean
+     * session.
+     *
+     * @return the session expiry interval in seconds
+     */
+    @Override
+    public long getSessionExpiryInterval() {
+        return super.getSessionExpiryInterval();
+    }
+
+    /**
+     * Sets how long the server keeps the session after an MQTT 5 connection
+     * without a clean session is closed. Unlike MQTT 3.1.1, an MQTT 5 session
+     * ends as soon as the connection is closed if no interval is sent, so this
+     * value must be greater than 0 for the session to be resumed. The server
+     * may use a shorter interval, e.g. AWS IoT limits it according to the
+     * persistent session expiry of the account. It's ignored for MQTT 3.1.1
+     * and clean sessions. This must be set before {@link #connect()} is
+     * called.
+     *
+     * @param sessionExpiryInterval
+     *            the session expiry interval in seconds, up to 4294967295
+     *            (0xFFFFFFFF), which means the session never expires. The
+     *            default value is 3600.
+     */
+    @Override
+    public void setSessionExpiryInterval(long sessionExpiryInterval) {
+        super.setSessionExpiryInterval(sessionExpiryInterval);
+    }
+
+    /**
+     * Sets whether the shadow topics of attached devices are subscribed to
+     * through shared wildcard subscriptions, e.g.
+     * {@code $aws/things/+/shadow/update/delta}, instead of seven exact
+     * subscriptions per device. Shadow responses and deltas are routed to the
+     * attached devices by thing name. This is intended for gateways that
+     * attach a large number of devices to one connection, and must be set
+     * before any device is attached.
+     *
+     * @param fleetShadowMode
+     *            If true, shadow topics are subscribed to once for all the
+     *            attached devices. The default value is {@code false}.
+     */
+    @Override
+    public void setFleetShadowMode(boolean fleetShadowMode) { super.setFleetShadowMode(fleetShadowMode); }
+
+    /**
+     * Gets whether shadow topics are subscribed to through shared wildcard
+     * subscriptions. See also {@link #setFleetShadowMode(boolean)}.
+     * @return whether shadow topics are subscribed to through wildcards.
+     */
+    @Override
+    public boolean isFleetShadowMode() { return super.isFleetShadowMode(); }
+
     /**
      * Sets a new Last Will and Testament message. The message must be set
      * before {@link #connect()} is called. By default, Last Will and Testament
@@ -699,6 +1065,31 @@ public class AWSIotMqttClient extends AbstractAwsIotClient {
         super.disconnect(timeout, blocking);
     }
 
+    /**
+     * Disconnect the client from the server after the messages already
+     * published have been delivered. New publish and subscribe requests are
+     * rejected from the moment this method is called. The calling thread is
+     * blocked until the offline publish queue and the messages in flight are
+     * delivered, or the drain timeout expires, and then until the connection
+     * is closed.
+     * <p>
+     * Messages not delivered before the drain timeout are returned to the
+     * caller, so they can be persisted or handed over before the process
+     * exits.
+     * </p>
+     *
+     * @param drainTimeout
+     *            the maximum time in milliseconds to wait for the messages to
+     *            be delivered
+     * @return the messages not delivered, or an empty list
+     * @throws AWSIotException
+     *             exception thrown if the operation fails
+     */
+    @Override
+    public List<AWSIotMessage> disconnectGracefully(long drainTimeout) throws AWSIotException {
+        return super.disconnectGracefully(drainTimeout);
+    }
+
     /**
      * Publishes the payload to a given topic. This is a blocking call so the
      * calling thread is blocked until the publish operation succeeded or
@@ -1056,6 +1447,74 @@ public class AWSIotMqttClient extends AbstractAwsIotClient {
         super.subscribe(topic, timeout);
     }
 
+    /**
+     * Subscribes to multiple topics. Topics are sent to the server in as few
+     * subscribe requests as possible, several topics per request, which is
+     * considerably faster than subscribing to them one by one when there are
+     * many topics. This is a non-blocking call so it immediately returns once
+     * the operation has been queued in the system. The result for each topic
+     * will be notified through its callback functions, in the same way as
+     * {@link #subscribe(AWSIotTopic)}.
+     *
+     * @param topics
+     *            the topics to subscribe to
+     * @throws AWSIotException
+     *             the exception thrown if the subscribe operation fails to be
+     *             queued
+     */
+    @Override
+    public void subscribe(List<AWSIotTopic> topics) throws AWSIotException {
+        super.subscribe(topics);
+    }
+
+    /**
+     * Subscribes to multiple topics with a timeout. Topics are sent to the
+     * server in as few subscribe requests as possible. This is a non-blocking
+     * call so it immediately returns once the operation has been queued in the
+     * system. The result for each topic will be notified through its callback
+     * functions, in the same way as {@link #subscribe(AWSIotTopic, long)}.
+     *
+     * @param topics
+     *            the topics to subscribe to
+     * @param timeout
+     *            the timeout in milliseconds for the operation to be considered
+     *            timed out
+     * @throws AWSIotException
+     *             the exception thrown if the subscribe operation fails to be
+     *             queued
+     */
+    @Override
+    public void subscribe(List<AWSIotTopic> topics, long timeout) throws AWSIotException {
+        super.subscribe(topics, timeout);
+    }
+
+    /**
+     * Subscribes to multiple topics with a timeout. Topics are sent to the
+     * server in as few subscribe requests as possible. When {@code blocking}
+     * is true, the calling thread is blocked until all the subscriptions
+     * completed, failed, or timed out, and the first error, if any, is thrown
+     * after all the results are received.
+     *
+     * @param topics
+     *            the topics to subscribe to
+     * @param timeout
+     *            the timeout in milliseconds for the operation to be considered
+     *            timed out
+     * @param blocking
+     *            whether the call should be blocking or non-blocking
+     * @throws AWSIotException
+     *             the exception thrown if any of the subscriptions fails
+     *             (blocking) or the operation fails to be queued
+     *             (non-blocking)
+     * @throws AWSIotTimeoutException
+     *             the exception thrown if any of the subscriptions times out
+     */
+    @Override
+    public void subscribe(List<AWSIotTopic> topics, long timeout, boolean blocking)
+            throws AWSIotException, AWSIotTimeoutException {
+        super.subscribe(topics, timeout, blocking);
+    }
+
     /**
      * Unsubscribes to a given topic. This is a blocking call, so the calling
      * thread is blocked until the unsubscribe operation completed or failed.
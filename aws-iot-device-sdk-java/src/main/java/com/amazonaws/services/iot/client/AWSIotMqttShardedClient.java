@@ -0,0 +1,604 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client;
+
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.services.iot.client.auth.CredentialsProvider;
+
+/**
+ * This class spreads the MQTT traffic of one application over a fixed number
+ * of {@link AWSIotMqttClient} instances, called shards, each of which owns its
+ * own MQTT connection. It can be used when the aggregate throughput required
+ * by the application is beyond the per-connection limits enforced by the AWS
+ * IoT service.
+ * <p>
+ * Requests are routed to the shards as follows:
+ * </p>
+ * <ul>
+ * <li>Publish requests are routed by the hash of the topic, so messages
+ * published to the same topic always go through the same connection and their
+ * order is preserved.</li>
+ * <li>Subscribe and unsubscribe requests are routed by the hash of the topic
+ * filter. The shard a topic filter is routed to is its home shard, and
+ * messages matching the filter are delivered through that shard only.</li>
+ * <li>Devices are attached to the shard selected by the hash of their thing
+ * names, so all the shadow traffic of a device goes through one connection.
+ * </li>
+ * </ul>
+ * <p>
+ * Each shard must use a distinct client ID. When the client is built from a
+ * {@link KeyStore} or a {@link CredentialsProvider}, client IDs are generated
+ * from a template using {@link String#format(String, Object...)} with the
+ * shard index as the only argument, e.g. {@code "gateway-%d"}. Shards can also
+ * be constructed by the application and passed in directly. Shard specific
+ * settings, such as timeouts and queue sizes, can be configured through
+ * {@link #getShards()} before {@link #connect()} is called.
+ * </p>
+ */
+public class AWSIotMqttShardedClient {
+
+    private static final Logger LOGGER = Logger.getLogger(AWSIotMqttShardedClient.class.getName());
+
+    private final List<AWSIotMqttClient> shards;
+
+    /**
+     * Instantiates a new sharded client using TLS 1.2 mutual authentication.
+     * All the shards share the same client certificate and private key.
+     *
+     * @param clientEndpoint
+     *            the client endpoint in the form of {@code <account-specific
+     *            prefix>.iot.<aws-region>.amazonaws.com}.
+     * @param clientIdTemplate
+     *            the template used to generate the client ID of each shard,
+     *            e.g. {@code "gateway-%d"}
+     * @param numOfShards
+     *            the number of shards, i.e. MQTT connections
+     * @param keyStore
+     *            the key store containing the client X.509 certificate and
+     *            private key.
+     * @param keyPassword
+     *            the key password protecting the private key in the
+     *            {@code keyStore} argument.
+     */
+    public AWSIotMqttShardedClient(String clientEndpoint, String clientIdTemplate, int numOfShards,
+            KeyStore keyStore, String keyPassword) {
+        List<AWSIotMqttClient> clients = new ArrayList<>();
+        for (String clientId : getClientIds(clientIdTemplate, numOfShards)) {
+            clients.add(new AWSIotMqttClient(clientEndpoint, clientId, keyStore, keyPassword));
+        }
+        this.shards = Collections.unmodifiableList(clients);
+    }
+
+    /**
+     * Instantiates a new sharded client using Secure WebSocket and AWS SigV4
+     * authentication. All the shards source their credentials from the same
+     * provider.
+     *
+     * @param clientEndpoint
+     *            the client endpoint in the form of {@code <account-specific
+     *            prefix>.iot.<aws-region>.amazonaws.com}.
+     * @param clientIdTemplate
+     *            the template used to generate the client ID of each shard,
+     *            e.g. {@code "gateway-%d"}
+     * @param numOfShards
+     *            the number of shards, i.e. MQTT connections
+     * @param provider
+     *            credentials provider to source AWS credentials from
+     * @param region
+     *            the AWS region
+     */
+    public AWSIotMqttShardedClient(String clientEndpoint, String clientIdTemplate, int numOfShards,
+            CredentialsProvider provider, String region) {
+        List<AWSIotMqttClient> clients = new ArrayList<>();
+        for (String clientId : getClientIds(clientIdTemplate, numOfShards)) {
+            clients.add(new AWSIotMqttClient(clientEndpoint, clientId, provider, region));
+        }
+        this.shards = Collections.unmodifiableList(clients);
+    }
+
+    /**
+     * Instantiates a new sharded client with shards constructed by the
+     * application. The order of the shards determines how requests are routed,
+     * so it must be kept the same across application restarts if persistent
+     * sessions are used.
+     *
+     * @param shards
+     *            the clients to be used as shards, each with a distinct client
+     *            ID
+     * @throws IllegalArgumentException
+     *             exception thrown if no shards are provided or two shards
+     *             share the same client ID
+     */
+    public AWSIotMqttShardedClient(List<AWSIotMqttClient> shards) {
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+
+        Set<String> clientIds = new HashSet<>();
+        for (AWSIotMqttClient shard : shards) {
+            if (shard == null) {
+                throw new IllegalArgumentException("Invalid shard");
+            }
+            if (!clientIds.add(shard.getClientId())) {
+                throw new IllegalArgumentException("Shards must have distinct client IDs: " + shard.getClientId());
+            }
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+    }
+
+    /**
+     * Gets the shards of this client.
+     *
+     * @return the unmodifiable list of shards
+     */
+    public List<AWSIotMqttClient> getShards() {
+        return shards;
+    }
+
+    /**
+     * Gets the number of shards.
+     *
+     * @return the number of shards
+     */
+    public int getNumOfShards() {
+        return shards.size();
+    }
+
+    /**
+     * Gets the shard a topic, topic filter or thing name is routed to.
+     *
+     * @param key
+     *            the topic, topic filter or thing name
+     * @return the shard the key is routed to
+     */
+    public AWSIotMqttClient getShard(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Invalid topic or thing name");
+        }
+        return shards.get((key.hashCode() & Integer.MAX_VALUE) % shards.size());
+    }
+
+    /**
+     * Connects all the shards to the AWS IoT service. This is a blocking call
+     * that returns once all the shards are connected. If any of the shards
+     * fails to connect, the shards already connected are disconnected before
+     * the exception is thrown.
+     *
+     * @throws AWSIotException
+     *             exception thrown if any of the shards fails to connect
+     */
+    public void connect() throws AWSIotException {
+        for (int i = 0; i < shards.size(); i++) {
+            try {
+                shards.get(i).connect();
+            } catch (AWSIotException | RuntimeException e) {
+                disconnectShards(i);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Connects all the shards to the AWS IoT service. This is a blocking call
+     * that returns once all the shards are connected or the specified timeout
+     * has elapsed. If any of the shards fails to connect in time, the shards
+     * already connected are disconnected before the exception is thrown.
+     *
+     * @param timeout
+     *            the timeout in milliseconds for all the shards to be
+     *            connected
+     * @throws AWSIotException
+     *             exception thrown if any of the shards fails to connect
+     * @throws AWSIotTimeoutException
+     *             exception thrown if the shards are not connected within the
+     *             timeout
+     */
+    public void connect(long timeout) throws AWSIotException, AWSIotTimeoutException {
+        long deadline = System.currentTimeMillis() + timeout;
+        for (int i = 0; i < shards.size(); i++) {
+            AWSIotMqttClient shard = shards.get(i);
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                disconnectShards(i);
+                throw new AWSIotTimeoutException("Request timed out when connecting shard " + shard.getClientId());
+            }
+            try {
+                shard.connect(remaining);
+            } catch (AWSIotException | AWSIotTimeoutException | RuntimeException e) {
+                // the connection attempt of a timed out shard may still be in
+                // progress, so it's disconnected as well
+                disconnectShards(i + 1);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Disconnects all the shards from the AWS IoT service. All the shards are
+     * disconnected even if some of them fail to disconnect.
+     *
+     * @throws AWSIotException
+     *             exception thrown if any of the shards fails to disconnect
+     */
+    public void disconnect() throws AWSIotException {
+        AWSIotException error = null;
+        for (AWSIotMqttClient shard : shards) {
+            try {
+                shard.disconnect();
+            } catch (AWSIotException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Publishes the payload to a given topic through the shard the topic is
+     * routed to. See {@link AWSIotMqttClient#publish(String, AWSIotQos, String)}.
+     *
+     * @param topic
+     *            the topic to be published to
+     * @param qos
+     *            the MQTT QoS used for publishing
+     * @param payload
+     *            the payload to be published
+     * @throws AWSIotException
+     *             the exception thrown if the publish operation fails
+     */
+    public void publish(String topic, AWSIotQos qos, String payload) throws AWSIotException {
+        getShard(topic).publish(topic, qos, payload);
+    }
+
+    /**
+     * Publishes the payload to a given topic through the shard the topic is
+     * routed to. See
+     * {@link AWSIotMqttClient#publish(String, AWSIotQos, String, long)}.
+     *
+     * @param topic
+     *            the topic to be published to
+     * @param qos
+     *            the MQTT QoS used for publishing
+     * @param payload
+     *            the payload to be published
+     * @param timeout
+     *            the timeout in milliseconds that the calling thread will wait
+     * @throws AWSIotException
+     *             the exception thrown if the publish operation fails
+     * @throws AWSIotTimeoutException
+     *             the exception thrown if the publish operation times out
+     */
+    public void publish(String topic, AWSIotQos qos, String payload, long timeout)
+            throws AWSIotException, AWSIotTimeoutException {
+        getShard(topic).publish(topic, qos, payload, timeout);
+    }
+
+    /**
+     * Publishes the raw payload to a given topic through the shard the topic is
+     * routed to. See {@link AWSIotMqttClient#publish(String, AWSIotQos, byte[])}.
+     *
+     * @param topic
+     *            the topic to be published to
+     * @param qos
+     *            the MQTT QoS used for publishing
+     * @param payload
+     *            the payload to be published
+     * @throws AWSIotException
+     *             the exception thrown if the publish operation fails
+     */
+    public void publish(String topic, AWSIotQos qos, byte[] payload) throws AWSIotException {
+        getShard(topic).publish(topic, qos, payload);
+    }
+
+    /**
+     * Publishes the raw payload to a given topic through the shard the topic is
+     * routed to. See
+     * {@link AWSIotMqttClient#publish(String, AWSIotQos, byte[], long)}.
+     *
+     * @param topic
+     *            the topic to be published to
+     * @param qos
+     *            the MQTT QoS used for publishing
+     * @param payload
+     *            the payload to be published
+     * @param timeout
+     *            the timeout in milliseconds that the calling thread will wait
+     * @throws AWSIotException
+     *             the exception thrown if the publish operation fails
+     * @throws AWSIotTimeoutException
+     *             the exception thrown if the publish operation times out
+     */
+    public void publish(String topic, AWSIotQos qos, byte[] payload, long timeout)
+            throws AWSIotException, AWSIotTimeoutException {
+        getShard(topic).publish(topic, qos, payload, timeout);
+    }
+
+    /**
+     * Publishes a message through the shard its topic is routed to. This is a
+     * non-blocking call. See {@link AWSIotMqttClient#publish(AWSIotMessage)}.
+     *
+     * @param message
+     *            the message to be published
+     * @throws AWSIotException
+     *             the exception thrown if the publish operation fails to be
+     *             queued
+     */
+    public void publish(AWSIotMessage message) throws AWSIotException {
+        getShard(message.getTopic()).publish(message);
+    }
+
+    /**
+     * Publishes a message through the shard its topic is routed to. This is a
+     * non-blocking call. See
+     * {@link AWSIotMqttClient#publish(AWSIotMessage, long)}.
+     *
+     * @param message
+     *            the message to be published
+     * @param timeout
+     *            the timeout in milliseconds for the operation to be considered
+     *            timed out
+     * @throws AWSIotException
+     *             the exception thrown if the publish operation fails to be
+     *             queued
+     */
+    public void publish(AWSIotMessage message, long timeout) throws AWSIotException {
+        getShard(message.getTopic()).publish(message, timeout);
+    }
+
+    /**
+     * Subscribes to a given topic through the home shard of the topic filter.
+     * This is a non-blocking call. See
+     * {@link AWSIotMqttClient#subscribe(AWSIotTopic)}.
+     *
+     * @param topic
+     *            the topic to subscribe to
+     * @throws AWSIotException
+     *             the exception thrown if the subscribe operation fails to be
+     *             queued
+     */
+    public void subscribe(AWSIotTopic topic) throws AWSIotException {
+        getShard(topic.getTopic()).subscribe(topic);
+    }
+
+    /**
+     * Subscribes to a given topic through the home shard of the topic filter.
+     * This is a non-blocking call. See
+     * {@link AWSIotMqttClient#subscribe(AWSIotTopic, long)}.
+     *
+     * @param topic
+     *            the topic to subscribe to
+     * @param timeout
+     *            the timeout in milliseconds for the operation to be considered
+     *            timed out
+     * @throws AWSIotException
+     *             the exception thrown if the subscribe operation fails to be
+     *             queued
+     */
+    public void subscribe(AWSIotTopic topic, long timeout) throws AWSIotException {
+        getShard(topic.getTopic()).subscribe(topic, timeout);
+    }
+
+    /**
+     * Subscribes to a given topic through the home shard of the topic filter.
+     * See {@link AWSIotMqttClient#subscribe(AWSIotTopic, boolean)}.
+     *
+     * @param topic
+     *            the topic to subscribe to
+     * @param blocking
+     *            whether the call should be blocking or non-blocking
+     * @throws AWSIotException
+     *             the exception thrown if the subscribe operation fails
+     *             (blocking) or fails to be queued (non-blocking)
+     */
+    public void subscribe(AWSIotTopic topic, boolean blocking) throws AWSIotException {
+        getShard(topic.getTopic()).subscribe(topic, blocking);
+    }
+
+    /**
+     * Subscribes to a given topic through the home shard of the topic filter.
+     * See {@link AWSIotMqttClient#subscribe(AWSIotTopic, long, boolean)}.
+     *
+     * @param topic
+     *            the topic to subscribe to
+     * @param timeout
+     *            the timeout in milliseconds for the operation to be considered
+     *            timed out
+     * @param blocking
+     *            whether the call should be blocking or non-blocking
+     * @throws AWSIotException
+     *             the exception thrown if the subscribe operation fails
+     *             (blocking) or fails to be queued (non-blocking)
+     * @throws AWSIotTimeoutException
+     *             the exception thrown if the subscribe operation times out
+     */
+    public void subscribe(AWSIotTopic topic, long timeout, boolean blocking)
+            throws AWSIotException, AWSIotTimeoutException {
+        getShard(topic.getTopic()).subscribe(topic, timeout, blocking);
+    }
+
+    /**
+     * Unsubscribes to a given topic through the home shard of the topic
+     * filter. This is a blocking call. See
+     * {@link AWSIotMqttClient#unsubscribe(String)}.
+     *
+     * @param topic
+     *            the topic to unsubscribe to
+     * @throws AWSIotException
+     *             the exception thrown if the unsubscribe operation fails
+     */
+    public void unsubscribe(String topic) throws AWSIotException {
+        getShard(topic).unsubscribe(topic);
+    }
+
+    /**
+     * Unsubscribes to a given topic through the home shard of the topic
+     * filter. This is a blocking call. See
+     * {@link AWSIotMqttClient#unsubscribe(String, long)}.
+     *
+     * @param topic
+     *            the topic to unsubscribe to
+     * @param timeout
+     *            the timeout in milliseconds that the calling thread will wait
+     * @throws AWSIotException
+     *             the exception thrown if the unsubscribe operation fails
+     * @throws AWSIotTimeoutException
+     *             the exception thrown if the unsubscribe operation times out
+     */
+    public void unsubscribe(String topic, long timeout) throws AWSIotException, AWSIotTimeoutException {
+        getShard(topic).unsubscribe(topic, timeout);
+    }
+
+    /**
+     * Unsubscribes to a given topic through the home shard of the topic
+     * filter. This is a non-blocking call. See
+     * {@link AWSIotMqttClient#unsubscribe(AWSIotTopic)}.
+     *
+     * @param topic
+     *            the topic to unsubscribe to
+     * @throws AWSIotException
+     *             the exception thrown if the unsubscribe operation fails to be
+     *             queued
+     */
+    public void unsubscribe(AWSIotTopic topic) throws AWSIotException {
+        getShard(topic.getTopic()).unsubscribe(topic);
+    }
+
+    /**
+     * Unsubscribes to a given topic through the home shard of the topic
+     * filter. This is a non-blocking call. See
+     * {@link AWSIotMqttClient#unsubscribe(AWSIotTopic, long)}.
+     *
+     * @param topic
+     *            the topic to unsubscribe to
+     * @param timeout
+     *            the timeout in milliseconds for the operation to be considered
+     *            timed out
+     * @throws AWSIotException
+     *             the exception thrown if the unsubscribe operation fails to be
+     *             queued
+     */
+    public void unsubscribe(AWSIotTopic topic, long timeout) throws AWSIotException {
+        getShard(topic.getTopic()).unsubscribe(topic, timeout);
+    }
+
+    /**
+     * Attaches a shadow device to the shard its thing name is routed to. See
+     * {@link AWSIotMqttClient#attach(AWSIotDevice)}.
+     *
+     * @param device
+     *            the device to be attached
+     * @throws AWSIotException
+     *             the exception thrown if the attach operation fails
+     */
+    public void attach(AWSIotDevice device) throws AWSIotException {
+        getShard(device.getThingName()).attach(device);
+    }
+
+    /**
+     * Detaches the given device from the shard it was attached to. See
+     * {@link AWSIotMqttClient#detach(AWSIotDevice)}.
+     *
+     * @param device
+     *            the device to be detached
+     * @throws AWSIotException
+     *             the exception thrown if the detach operation fails
+     */
+    public void detach(AWSIotDevice device) throws AWSIotException {
+        getShard(device.getThingName()).detach(device);
+    }
+
+    /**
+     * Gets the aggregated connection status of the shards. The client is
+     * considered connected only if all the shards are connected, and
+     * disconnected only if none of the shards is connected or reconnecting.
+     *
+     * @return the connection status
+     */
+    public AWSIotConnectionStatus getConnectionStatus() {
+        int connected = 0;
+        int disconnected = 0;
+        for (AWSIotMqttClient shard : shards) {
+            AWSIotConnectionStatus status = shard.getConnectionStatus();
+            if (AWSIotConnectionStatus.CONNECTED.equals(status)) {
+                connected++;
+            } else if (AWSIotConnectionStatus.DISCONNECTED.equals(status)) {
+                disconnected++;
+            }
+        }
+
+        if (connected == shards.size()) {
+            return AWSIotConnectionStatus.CONNECTED;
+        } else if (disconnected == shards.size()) {
+            return AWSIotConnectionStatus.DISCONNECTED;
+        }
+        return AWSIotConnectionStatus.RECONNECTING;
+    }
+
+    /**
+     * Disconnects the first shards after a failed connect request, ignoring
+     * any failure as the error of the connect request is reported instead.
+     *
+     * @param count
+     *            the number of shards to be disconnected
+     */
+    private void disconnectShards(int count) {
+        for (int i = 0; i < count; i++) {
+            AWSIotMqttClient shard = shards.get(i);
+            if (AWSIotConnectionStatus.DISCONNECTED.equals(shard.getConnectionStatus())) {
+                continue;
+            }
+            try {
+                shard.disconnect();
+            } catch (AWSIotException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to disconnect shard " + shard.getClientId(), e);
+            }
+        }
+    }
+
+    private static List<String> getClientIds(String clientIdTemplate, int numOfShards) {
+        if (clientIdTemplate == null) {
+            throw new IllegalArgumentException("Invalid client ID template");
+        }
+        if (numOfShards <= 0) {
+            throw new IllegalArgumentException("Invalid number of shards: " + numOfShards);
+        }
+
+        List<String> clientIds = new ArrayList<>();
+        Set<String> uniqueIds = new HashSet<>();
+        for (int i = 0; i < numOfShards; i++) {
+            String clientId = String.format(clientIdTemplate, i);
+            if (!uniqueIds.add(clientId)) {
+                throw new IllegalArgumentException(
+                        "Client ID template must generate distinct IDs: " + clientIdTemplate);
+            }
+            clientIds.add(clientId);
+        }
+        return clientIds;
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client;
+
+/**
+ * MQTT protocol versions supported by the client. See also
+ * {@link AWSIotMqttClient#setProtocolVersion(AWSIotProtocolVersion)}.
+ */
+public enum AWSIotProtocolVersion {
+
+    /** MQTT 3.1.1. */
+    MQTT_3_1_1(4),
+
+    /**
+     * MQTT 5, which adds topic aliases, broker-driven flow control and user
+     * properties. It requires the NIO transport.
+     */
+    MQTT_5(5);
+
+    /** The protocol level. */
+    private final int level;
+
+    /**
+     * Instantiates a protocol version object.
+     *
+     * @param level
+     *            the protocol level sent in the CONNECT packet
+     */
+    private AWSIotProtocolVersion(final int level) {
+        this.level = level;
+    }
+
+    /**
+     * Gets the protocol level sent in the CONNECT packet.
+     *
+     * @return the protocol level
+     */
+    public int getLevel() {
+        return this.level;
+    }
+
+}
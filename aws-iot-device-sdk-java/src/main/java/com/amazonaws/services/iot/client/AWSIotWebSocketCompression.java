@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * The options of the {@code permessage-deflate} extension (RFC 7692) offered
+ * on WebSocket connections. See also
+ * {@link AWSIotMqttClient#setWebSocketCompression(AWSIotWebSocketCompression)}.
+ * <p>
+ * Messages are compressed in both directions when the server accepts the
+ * extension, and sent uncompressed otherwise. The window bits of the client
+ * are always 15, the maximum, as they can't be lowered with
+ * {@link java.util.zip.Deflater}; if the server requires fewer, messages from
+ * the client are sent uncompressed while messages from the server are still
+ * decompressed.
+ * </p>
+ */
+public class AWSIotWebSocketCompression {
+
+    /** The smallest LZ77 window size allowed by the extension. */
+    public static final int MIN_WINDOW_BITS = 8;
+    /** The largest LZ77 window size allowed by the extension. */
+    public static final int MAX_WINDOW_BITS = 15;
+
+    /**
+     * The LZ77 window size, as a power of two, requested for messages from the
+     * server. Smaller windows reduce the memory held by the server for each
+     * connection at the cost of compression ratio.
+     *
+     * @return the current window bits
+     */
+    @Getter
+    private int serverMaxWindowBits = MAX_WINDOW_BITS;
+
+    /**
+     * Whether the client resets its compression context after each message.
+     * This saves the memory of the context between messages, but repeated
+     * content, e.g. the same JSON keys, is no longer compressed across
+     * messages.
+     *
+     * @param clientNoContextTakeover true to reset the context after each message
+     * @return true if the context is reset after each message
+     */
+    @Getter
+    @Setter
+    private boolean clientNoContextTakeover;
+
+    /**
+     * Whether the server is asked to reset its compression context after each
+     * message.
+     *
+     * @param serverNoContextTakeover true to ask the server to reset the context after each message
+     * @return true if the server is asked to reset the context after each message
+     */
+    @Getter
+    @Setter
+    private boolean serverNoContextTakeover;
+
+    /**
+     * Instantiates compression options with context takeover in both
+     * directions and the largest window.
+     */
+    public AWSIotWebSocketCompression() {
+    }
+
+    /**
+     * Instantiates compression options.
+     *
+     * @param serverMaxWindowBits
+     *            the LZ77 window size, as a power of two, requested for
+     *            messages from the server, from 8 to 15
+     * @param clientNoContextTakeover
+     *            whether the client resets its compression context after each
+     *            message
+     * @param serverNoContextTakeover
+     *            whether the server is asked to reset its compression context
+     *            after each message
+     */
+    public AWSIotWebSocketCompression(int serverMaxWindowBits, boolean clientNoContextTakeover,
+            boolean serverNoContextTakeover) {
+        setServerMaxWindowBits(serverMaxWindowBits);
+        this.clientNoContextTakeover = clientNoContextTakeover;
+        this.serverNoContextTakeover = serverNoContextTakeover;
+    }
+
+    /**
+     * Sets the LZ77 window size, as a power of two, requested for messages
+     * from the server.
+     *
+     * @param serverMaxWindowBits
+     *            the new window bits, from 8 to 15
+     */
+    public void setServerMaxWindowBits(int serverMaxWindowBits) {
+        if (serverMaxWindowBits < MIN_WINDOW_BITS || serverMaxWindowBits > MAX_WINDOW_BITS) {
+            throw new IllegalArgumentException("Invalid window bits: " + serverMaxWindowBits);
+        }
+        this.serverMaxWindowBits = serverMaxWindowBits;
+    }
+
+}
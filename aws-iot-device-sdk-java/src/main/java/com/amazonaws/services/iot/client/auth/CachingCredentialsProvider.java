@@ -0,0 +1,173 @@
+/**
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0.
+ */
+
+package com.amazonaws.services.iot.client.auth;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A credentials provider that caches the credentials of another provider, e.g.
+ * one calling STS or Amazon Cognito, until shortly before they expire.
+ * <p>
+ * Credentials are refreshed on a background thread when they are requested
+ * within the refresh period before their expiration, so callers keep getting
+ * the cached credentials without waiting. A random jitter is subtracted from
+ * the refresh time, so many clients sharing the same kind of credentials don't
+ * call the underlying provider at the same moment. Callers only wait when
+ * there are no valid credentials cached, and concurrent callers then share a
+ * single request to the underlying provider.
+ * </p>
+ * <p>
+ * Credentials without an expiration are cached indefinitely.
+ * </p>
+ */
+public class CachingCredentialsProvider implements CredentialsProvider {
+
+    private static final Logger LOGGER = Logger.getLogger(CachingCredentialsProvider.class.getName());
+
+    /** The default time before expiration at which credentials are refreshed. */
+    public static final long DEFAULT_REFRESH_BEFORE_EXPIRY = 5 * 60 * 1000;
+    /** The default maximum random time by which refreshes are brought forward. */
+    public static final long DEFAULT_REFRESH_JITTER = 60 * 1000;
+
+    private static final long RETRY_INTERVAL = 10 * 1000;
+    private static final String REFRESH_THREAD_NAME = "aws-iot-credentials-refresh";
+
+    private final CredentialsProvider provider;
+    private final long refreshBeforeExpiry;
+    private final long refreshJitter;
+    private final Random random = new Random();
+
+    private volatile Credentials credentials;
+    private volatile long refreshTime;
+    private FutureTask<Credentials> refreshTask;
+
+    public CachingCredentialsProvider(CredentialsProvider provider) {
+        this(provider, DEFAULT_REFRESH_BEFORE_EXPIRY, DEFAULT_REFRESH_JITTER);
+    }
+
+    /**
+     * Creates a caching provider.
+     *
+     * @param provider the provider to source credentials from
+     * @param refreshBeforeExpiry the time in milliseconds before expiration at which credentials are refreshed
+     * @param refreshJitter the maximum random time in milliseconds by which refreshes are brought forward
+     */
+    public CachingCredentialsProvider(CredentialsProvider provider, long refreshBeforeExpiry, long refreshJitter) {
+        if (provider == null) {
+            throw new IllegalArgumentException("Invalid credentials provider");
+        }
+        this.provider = provider;
+        this.refreshBeforeExpiry = refreshBeforeExpiry;
+        this.refreshJitter = refreshJitter;
+    }
+
+    @Override
+    public Credentials getCredentials() {
+        Credentials cached = credentials;
+        long now = System.currentTimeMillis();
+
+        if (cached != null && !isExpired(cached, now)) {
+            if (now >= refreshTime) {
+                refreshInBackground();
+            }
+            return cached;
+        }
+
+        FutureTask<Credentials> task = getRefreshTask();
+        // runs the request, unless another thread is already running it
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for credentials", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void refreshInBackground() {
+        FutureTask<Credentials> task;
+        synchronized (this) {
+            if (refreshTask != null) {
+                return;
+            }
+            task = getRefreshTask();
+        }
+
+        Thread thread = new Thread(task, REFRESH_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private synchronized FutureTask<Credentials> getRefreshTask() {
+        if (refreshTask == null) {
+            refreshTask = new FutureTask<Credentials>(new Callable<Credentials>() {
+                @Override
+                public Credentials call() {
+                    return refresh();
+                }
+            }) {
+                @Override
+                protected void done() {
+                    // cleared only once the result is available to the
+                    // callers sharing the task, so they don't start another
+                    clearRefreshTask(this);
+                }
+            };
+        }
+        return refreshTask;
+    }
+
+    private synchronized void clearRefreshTask(FutureTask<Credentials> task) {
+        if (refreshTask == task) {
+            refreshTask = null;
+        }
+    }
+
+    private Credentials refresh() {
+        try {
+            Credentials fresh = provider.getCredentials();
+            credentials = fresh;
+            refreshTime = getRefreshTime(fresh);
+            return fresh;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to refresh credentials", e);
+            refreshTime = System.currentTimeMillis() + RETRY_INTERVAL;
+            throw e;
+        }
+    }
+
+    private long getRefreshTime(Credentials credentials) {
+        Date expiration = (credentials != null) ? credentials.getExpiration() : null;
+        if (expiration == null) {
+            return Long.MAX_VALUE;
+        }
+
+        long jitter = 0;
+        if (refreshJitter > 0) {
+            synchronized (random) {
+                jitter = (long) (random.nextDouble() * refreshJitter);
+            }
+        }
+        return expiration.getTime() - refreshBeforeExpiry - jitter;
+    }
+
+    private static boolean isExpired(Credentials credentials, long now) {
+        Date expiration = credentials.getExpiration();
+        return expiration != null && now >= expiration.getTime();
+    }
+
+}
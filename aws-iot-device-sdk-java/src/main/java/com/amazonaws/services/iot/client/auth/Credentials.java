@@ -5,6 +5,8 @@
 
 package com.amazonaws.services.iot.client.auth;
 
+import java.util.Date;
+
 /**
  * A class representing a set of AWS credentials.
  */
@@ -13,18 +15,33 @@ public class Credentials {
     private String accessKeyId;
     private String secretAccessKey;
     private String sessionToken;
+    private Date expiration;
 
     public Credentials(String accessKeyId, String secretAccessKey) {
         this(accessKeyId, secretAccessKey, null);
     }
 
     public Credentials(String accessKeyId, String secretAccessKey, String sessionToken) {
+        this(accessKeyId, secretAccessKey, sessionToken, null);
+    }
+
+    /**
+     * Creates temporary credentials, e.g. from STS or Amazon Cognito.
+     *
+     * @param accessKeyId the AWS access key ID
+     * @param secretAccessKey the AWS secret access key
+     * @param sessionToken the session token, or null
+     * @param expiration the time the credentials expire, or null if they don't
+     */
+    public Credentials(String accessKeyId, String secretAccessKey, String sessionToken, Date expiration) {
         this.accessKeyId = accessKeyId.trim();
         this.secretAccessKey = secretAccessKey;
         this.sessionToken = sessionToken;
+        this.expiration = expiration;
     }
 
     public String getAccessKeyId() { return accessKeyId; }
     public String getSecretAccessKey() { return secretAccessKey; }
     public String getSessionToken() { return sessionToken; }
+    public Date getExpiration() { return expiration; }
 }
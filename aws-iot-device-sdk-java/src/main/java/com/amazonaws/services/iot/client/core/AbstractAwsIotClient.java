@@ -16,6 +16,11 @@
 package com.amazonaws.services.iot.client.core;
 
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
@@ -26,15 +31,23 @@ import java.util.logging.Logger;
 import javax.net.ssl.SSLSocketFactory;
 
 import com.amazonaws.services.iot.client.auth.CredentialsProvider;
+import com.amazonaws.services.iot.client.AWSIotClientRuntime;
 import com.amazonaws.services.iot.client.AWSIotConfig;
 import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
 import com.amazonaws.services.iot.client.AWSIotDevice;
 import com.amazonaws.services.iot.client.AWSIotException;
 import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotProtocolVersion;
 import com.amazonaws.services.iot.client.AWSIotQos;
 import com.amazonaws.services.iot.client.AWSIotTimeoutException;
 import com.amazonaws.services.iot.client.AWSIotTopic;
+import com.amazonaws.services.iot.client.AWSIotWebSocketCompression;
+import com.amazonaws.services.iot.client.mqtt.AwsIotPahoTransportFactory;
+import com.amazonaws.services.iot.client.retry.ExponentialRetryPolicy;
+import com.amazonaws.services.iot.client.retry.RetryPolicy;
 import com.amazonaws.services.iot.client.shadow.AbstractAwsIotDevice;
+import com.amazonaws.services.iot.client.shadow.AwsIotDeviceFleetManager;
+import com.amazonaws.services.iot.client.util.AwsIotTlsHandshakeMetrics;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -50,6 +63,9 @@ public abstract class AbstractAwsIotClient implements AwsIotConnectionCallback {
 
     private static final Logger LOGGER = Logger.getLogger(AbstractAwsIotClient.class.getName());
 
+    // set while a task scheduled by a client is running on the current thread
+    private static final ThreadLocal<Boolean> CLIENT_THREAD = new ThreadLocal<>();
+
     protected final String clientId;
     protected final String clientEndpoint;
     protected final boolean clientEnableMetrics;
@@ -60,24 +76,44 @@ public abstract class AbstractAwsIotClient implements AwsIotConnectionCallback {
     protected int connectionTimeout = AWSIotConfig.CONNECTION_TIMEOUT;
     protected int serverAckTimeout = AWSIotConfig.SERVER_ACK_TIMEOUT;
     protected int keepAliveInterval = AWSIotConfig.KEEP_ALIVE_INTERVAL;
+    protected boolean adaptiveKeepAlive = AWSIotConfig.ADAPTIVE_KEEP_ALIVE;
+    protected int minKeepAliveInterval = AWSIotConfig.MIN_KEEP_ALIVE_INTERVAL;
+    protected AWSIotProtocolVersion protocolVersion = AWSIotConfig.PROTOCOL_VERSION;
+    protected int maxTopicAliases = AWSIotConfig.MAX_TOPIC_ALIASES;
     protected int maxConnectionRetries = AWSIotConfig.MAX_CONNECTION_RETRIES;
     protected int baseRetryDelay = AWSIotConfig.CONNECTION_BASE_RETRY_DELAY;
     protected int maxRetryDelay = AWSIotConfig.CONNECTION_MAX_RETRY_DELAY;
     protected int maxOfflineQueueSize = AWSIotConfig.MAX_OFFLINE_QUEUE_SIZE;
+    protected List<String> tlsProtocols = AWSIotConfig.TLS_PROTOCOLS;
     protected boolean cleanSession = AWSIotConfig.CLEAN_SESSION;
+    protected long sessionExpiryInterval = AWSIotConfig.SESSION_EXPIRY_INTERVAL;
+    protected boolean fleetShadowMode = AWSIotConfig.FLEET_SHADOW_MODE;
     protected AWSIotMessage willMessage;
+    protected RetryPolicy retryPolicy = new ExponentialRetryPolicy();
+    protected AwsIotTransportFactory transportFactory = new AwsIotPahoTransportFactory();
+    protected AWSIotClientRuntime clientRuntime;
+    protected AWSIotWebSocketCompression webSocketCompression;
 
     private final ConcurrentMap<String, AWSIotTopic> subscriptions = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, AbstractAwsIotDevice> devices = new ConcurrentHashMap<>();
+    private final AwsIotDeviceFleetManager fleetManager = new AwsIotDeviceFleetManager(this);
     private final AwsIotConnection connection;
 
+    private final Set<Future<?>> routineTasks = Collections.newSetFromMap(new ConcurrentHashMap<Future<?>, Boolean>());
+
     private ScheduledExecutorService executionService;
 
     protected AbstractAwsIotClient(String clientEndpoint, String clientId, KeyStore keyStore, String keyPassword,
                                    boolean enableSdkMetrics) {
+        this(clientEndpoint, clientId, keyStore, keyPassword, DEFAULT_MQTT_PORT, enableSdkMetrics);
+    }
+
+    protected AbstractAwsIotClient(String clientEndpoint, String clientId, KeyStore keyStore, String keyPassword,
+                                   int port, boolean enableSdkMetrics) {
         this.clientEndpoint = clientEndpoint;
         this.clientId = clientId;
         this.connectionType = AwsIotConnectionType.MQTT_OVER_TLS;
+        this.port = port;
         this.clientEnableMetrics = enableSdkMetrics;
 
         try {
@@ -92,6 +128,11 @@ public abstract class AbstractAwsIotClient implements AwsIotConnectionCallback {
         this(clientEndpoint, clientId, keyStore, keyPassword, true);
     }
 
+    protected AbstractAwsIotClient(String clientEndpoint, String clientId, KeyStore keyStore, String keyPassword,
+                                   int port) {
+        this(clientEndpoint, clientId, keyStore, keyPassword, port, true);
+    }
+
     protected AbstractAwsIotClient(String clientEndpoint, String clientId, String awsAccessKeyId,
                                    String awsSecretAccessKey, String sessionToken, boolean enableSdkMetrics) {
         //setting the region blank to ensure it's determined from the clientEndpoint
@@ -211,7 +252,11 @@ public abstract class AbstractAwsIotClient implements AwsIotConnectionCallback {
     public void connect(long timeout, boolean blocking) throws AWSIotException, AWSIotTimeoutException {
         synchronized (this) {
             if (executionService == null) {
-                executionService = Executors.newScheduledThreadPool(numOfClientThreads);
+                if (clientRuntime != null) {
+                    executionService = clientRuntime.getExecutionService();
+                } else {
+                    executionService = Executors.newScheduledThreadPool(numOfClientThreads);
+                }
             }
         }
 
@@ -239,6 +284,12 @@ public abstract class AbstractAwsIotClient implements AwsIotConnectionCallback {
         completion.get(this);
     }
 
+    public List<AWSIotMessage> disconnectGracefully(long drainTimeout) throws AWSIotException {
+        List<AWSIotMessage> undelivered = connection.drain(drainTimeout);
+        disconnect();
+        return undelivered;
+    }
+
     public void publish(String topic, String payload) throws AWSIotException {
         publish(topic, AWSIotQos.QOS0, payload);
     }
@@ -338,6 +389,62 @@ public abstract class AbstractAwsIotClient implements AwsIotConnectionCallback {
         subscriptions.put(topic.getTopic(), topic);
     }
 
+    public void subscribe(List<AWSIotTopic> topics) throws AWSIotException {
+        subscribe(topics, 0);
+    }
+
+    public void subscribe(List<AWSIotTopic> topics, long timeout) throws AWSIotException {
+        try {
+            _subscribe(topics, timeout, true);
+        } catch (AWSIotTimeoutException e) {
+            // We shouldn't get timeout exception because it's asynchronous call
+            throw new AwsIotRuntimeException(e);
+        }
+    }
+
+    public void subscribe(List<AWSIotTopic> topics, long timeout, boolean blocking)
+            throws AWSIotException, AWSIotTimeoutException {
+        _subscribe(topics, timeout, !blocking);
+    }
+
+    private void _subscribe(List<AWSIotTopic> topics, long timeout, boolean async)
+            throws AWSIotException, AWSIotTimeoutException {
+        if (topics.isEmpty()) {
+            return;
+        }
+
+        List<AWSIotMessage> completions = new ArrayList<>(topics.size());
+        for (AWSIotTopic topic : topics) {
+            completions.add(new AwsIotCompletion(topic, timeout, async));
+        }
+        connection.subscribe(completions);
+
+        // wait for all the subscriptions, and report the first error if any
+        AWSIotException exception = null;
+        AWSIotTimeoutException timeoutException = null;
+        for (int i = 0; i < topics.size(); i++) {
+            try {
+                ((AwsIotCompletion) completions.get(i)).get(this);
+                subscriptions.put(topics.get(i).getTopic(), topics.get(i));
+            } catch (AWSIotException e) {
+                if (exception == null && timeoutException == null) {
+                    exception = e;
+                }
+            } catch (AWSIotTimeoutException e) {
+                if (exception == null && timeoutException == null) {
+                    timeoutException = e;
+                }
+            }
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+        if (timeoutException != null) {
+            throw timeoutException;
+        }
+    }
+
     public void unsubscribe(String topic) throws AWSIotException {
         try {
             unsubscribe(topic, 0);
@@ -451,19 +558,40 @@ public abstract class AbstractAwsIotClient implements AwsIotConnectionCallback {
         }
     }
 
+    public AwsIotTlsHandshakeMetrics getTlsHandshakeMetrics() {
+        if (connection instanceof AwsIotTlsConnection) {
+            return ((AwsIotTlsConnection) connection).getHandshakeMetrics();
+        } else {
+            return null;
+        }
+    }
+
     @Override
     public void onConnectionSuccess() {
         LOGGER.info("Client connection active: " + clientId);
 
+        // subscriptions are kept by the server if the previous session is resumed
+        boolean sessionPresent = !cleanSession && connection.isSessionPresent();
+
         try {
-            // resubscribe all the subscriptions
-            for (AWSIotTopic topic : subscriptions.values()) {
-                subscribe(topic, serverAckTimeout);
+            if (sessionPresent) {
+                LOGGER.info("Session resumed, skipping resubscription: " + clientId);
+            } else {
+                // resubscribe all the subscriptions, multiple topics per request
+                subscribe(new ArrayList<>(subscriptions.values()), serverAckTimeout);
+            }
+
+            if (fleetShadowMode) {
+                fleetManager.resume(sessionPresent);
             }
 
             // start device sync
             for (AbstractAwsIotDevice device : devices.values()) {
-                device.activate();
+                if (device.isSuspended()) {
+                    device.resume(sessionPresent);
+                } else {
+                    device.activate();
+                }
             }
         } catch (AWSIotException e) {
             // connection couldn't be fully recovered, disconnecting
@@ -480,6 +608,18 @@ public abstract class AbstractAwsIotClient implements AwsIotConnectionCallback {
     public void onConnectionFailure() {
         LOGGER.info("Client connection lost: " + clientId);
 
+        if (!cleanSession) {
+            // keep the subscriptions, which are expected to be restored along
+            // with the session when the connection is re-established
+            if (fleetShadowMode) {
+                fleetManager.suspend();
+            }
+            for (AbstractAwsIotDevice device : devices.values()) {
+                device.suspend();
+            }
+            return;
+        }
+
         // stop device sync
         for (AbstractAwsIotDevice device : devices.values()) {
             try {
@@ -508,10 +648,25 @@ public abstract class AbstractAwsIotClient implements AwsIotConnectionCallback {
         subscriptions.clear();
         devices.clear();
 
-        executionService.shutdown();
+        if (clientRuntime != null && executionService == clientRuntime.getExecutionService()) {
+            // the shared executor keeps running for the other clients
+            for (Future<?> task : routineTasks) {
+                task.cancel(false);
+            }
+            routineTasks.clear();
+        } else {
+            executionService.shutdown();
+        }
         executionService = null;
     }
 
+    public void setClientRuntime(AWSIotClientRuntime clientRuntime) {
+        this.clientRuntime = clientRuntime;
+        if (clientRuntime != null) {
+            transportFactory = clientRuntime.getTransportFactory();
+        }
+    }
+
     public Future<?> scheduleTask(Runnable runnable) {
         return scheduleTimeoutTask(runnable, 0);
     }
@@ -520,14 +675,55 @@ public abstract class AbstractAwsIotClient implements AwsIotConnectionCallback {
         if (executionService == null) {
             throw new AwsIotRuntimeException("Client is not connected");
         }
-        return executionService.schedule(runnable, timeout, TimeUnit.MILLISECONDS);
+        return executionService.schedule(new ClientTask(runnable), timeout, TimeUnit.MILLISECONDS);
     }
 
     public Future<?> scheduleRoutineTask(Runnable runnable, long initialDelay, long period) {
         if (executionService == null) {
             throw new AwsIotRuntimeException("Client is not connected");
         }
-        return executionService.scheduleAtFixedRate(runnable, initialDelay, period, TimeUnit.MILLISECONDS);
+        Future<?> future = executionService.scheduleAtFixedRate(new ClientTask(runnable), initialDelay, period,
+                TimeUnit.MILLISECONDS);
+        if (clientRuntime != null) {
+            for (Iterator<Future<?>> it = routineTasks.iterator(); it.hasNext();) {
+                if (it.next().isDone()) {
+                    it.remove();
+                }
+            }
+            routineTasks.add(future);
+        }
+        return future;
+    }
+
+    /**
+     * Checks whether the calling thread is one of the client threads, e.g.
+     * when called from a message callback. Blocking calls made on a client
+     * thread must not wait for tasks scheduled on the same threads.
+     *
+     * @return true if the calling thread is running a client task
+     */
+    public boolean isClientThread() {
+        return Boolean.TRUE.equals(CLIENT_THREAD.get());
+    }
+
+    private static class ClientTask implements Runnable {
+
+        private final Runnable runnable;
+
+        ClientTask(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            CLIENT_THREAD.set(Boolean.TRUE);
+            try {
+                runnable.run();
+            } finally {
+                CLIENT_THREAD.remove();
+            }
+        }
+
     }
 
 }
@@ -15,14 +15,19 @@
 
 package com.amazonaws.services.iot.client.core;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
 import com.amazonaws.services.iot.client.AWSIotException;
 import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.retry.ExponentialRetryPolicy;
+import com.amazonaws.services.iot.client.retry.RetryPolicy;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -37,6 +42,8 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
 
     private static final Logger LOGGER = Logger.getLogger(AwsIotConnection.class.getName());
 
+    private static final RetryPolicy DEFAULT_RETRY_POLICY = new ExponentialRetryPolicy();
+
     /**
      * The client the connection is associated with.
      *
@@ -72,6 +79,14 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
     @Getter
     private int retryTimes;
 
+    /**
+     * The delay before the last connection retry.
+     *
+     * @return the last retry delay
+     */
+    @Getter
+    private long lastRetryDelay;
+
     /**
      * The callback functions for the connect request.
      *
@@ -88,6 +103,75 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
     @Getter
     private boolean userDisconnect;
 
+    /**
+     * Flag to indicate the connection is being drained before it's closed,
+     * during which no new publish or subscribe requests are accepted from the
+     * application. Subscriptions and devices restored by the client after a
+     * reconnect are still accepted.
+     *
+     * @return the current draining flag
+     */
+    @Getter
+    private volatile boolean draining;
+
+    /**
+     * The thread restoring the subscriptions and devices of the client after
+     * the connection is established. Its requests are accepted even while the
+     * connection is being drained, as they are not new requests from the
+     * application.
+     */
+    private volatile Thread recoveryThread;
+
+    /**
+     * The lock notified when a request completes or the connection status
+     * changes, on which {@link #drain(long)} waits.
+     */
+    private final Object drainLock = new Object();
+
+    /**
+     * Flag to indicate the connection is being closed to be re-established
+     * right away.
+     *
+     * @return the current reconnect flag
+     */
+    @Getter
+    private volatile boolean reconnecting;
+
+    /**
+     * Flag to indicate the connection is waiting for the messages in flight to
+     * be acknowledged before it's re-established. New messages are held in the
+     * offline publish queue meanwhile, and sent once the connection succeeds.
+     *
+     * @return the current quiescing flag
+     */
+    @Getter
+    private volatile boolean quiescing;
+
+    /**
+     * Whether the connection still has to be closed to be re-established, set
+     * by {@link #reconnect()} and cleared by the first of the last
+     * acknowledgement and the quiesce timeout.
+     */
+    private final AtomicBoolean reconnectPending = new AtomicBoolean();
+
+    /**
+     * The future object holding the task closing the connection when the
+     * messages in flight are not acknowledged in time.
+     */
+    private Future<?> quiesceTask;
+
+    /**
+     * Whether the server resumed a previous session when the connection was
+     * last established, as reported by the session present flag in CONNACK.
+     *
+     * @param sessionPresent
+     *            the new session present flag
+     * @return the current session present flag
+     */
+    @Getter
+    @Setter
+    private boolean sessionPresent;
+
     /**
      * The offline publish queue holding messages while the connection is being
      * established.
@@ -175,6 +259,35 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
      */
     protected abstract void subscribeTopic(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException;
 
+    /**
+     * Method which is called to subscribe to multiple topics. The default
+     * implementation subscribes to the topics one by one. Subclasses can
+     * override it to subscribe to multiple topics in one request.
+     *
+     * @param messages
+     *            the topics to be subscribed to
+     * @throws AWSIotException
+     *             this exception is thrown when there's an unrecoverable error
+     *             happened while processing the request
+     * @throws AwsIotRetryableException
+     *             this exception is thrown when the request is failed to be
+     *             sent, which will be queued and retried. If some of the
+     *             topics have been subscribed to, the exception holds the
+     *             remaining ones.
+     */
+    protected void subscribeTopics(List<AWSIotMessage> messages) throws AWSIotException, AwsIotRetryableException {
+        for (int i = 0; i < messages.size(); i++) {
+            try {
+                subscribeTopic(messages.get(i));
+            } catch (AwsIotRetryableException e) {
+                if (i == 0) {
+                    throw e;
+                }
+                throw new AwsIotRetryableException(e, new ArrayList<>(messages.subList(i, messages.size())));
+            }
+        }
+    }
+
     /**
      * Abstract method which is called to unsubscribe to a topic.
      *
@@ -189,6 +302,21 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
      */
     protected abstract void unsubscribeTopic(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException;
 
+    /**
+     * Method which is called to get the messages that have been published but
+     * not yet delivered, i.e. QoS 1 messages not yet acknowledged by the server
+     * and QoS 0 messages not yet written to the network. The default
+     * implementation returns an empty list.
+     *
+     * @return the messages in flight
+     * @throws AWSIotException
+     *             this exception is thrown when the messages cannot be
+     *             retrieved
+     */
+    protected List<AWSIotMessage> getPendingPublishes() throws AWSIotException {
+        return new ArrayList<>();
+    }
+
     /**
      * The actual publish method exposed by this class.
      *
@@ -199,7 +327,15 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
      *             process the request
      */
     public void publish(AWSIotMessage message) throws AWSIotException {
+        if (isRejectedWhileDraining()) {
+            throw new AWSIotException("Connection is being drained");
+        }
+
         try {
+            if (quiescing) {
+                // sent once the connection is re-established
+                throw new AwsIotRetryableException("Connection is being re-established");
+            }
             publishMessage(message);
         } catch (AwsIotRetryableException e) {
             if (client.getMaxOfflineQueueSize() > 0 && publishQueue.size() < client.getMaxOfflineQueueSize()) {
@@ -237,6 +373,10 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
      *             process the request
      */
     public void subscribe(AWSIotMessage message) throws AWSIotException {
+        if (isRejectedWhileDraining()) {
+            throw new AWSIotException("Connection is being drained");
+        }
+
         try {
             subscribeTopic(message);
         } catch (AwsIotRetryableException e) {
@@ -250,6 +390,36 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
 
     }
 
+    /**
+     * The actual method exposed by this class for subscribing to multiple
+     * topics.
+     *
+     * @param messages
+     *            the topics to be subscribed to
+     * @throws AWSIotException
+     *             this exception is thrown when the underneath failed to
+     *             process the request
+     */
+    public void subscribe(List<AWSIotMessage> messages) throws AWSIotException {
+        if (isRejectedWhileDraining()) {
+            throw new AWSIotException("Connection is being drained");
+        }
+
+        try {
+            subscribeTopics(messages);
+        } catch (AwsIotRetryableException e) {
+            // topics already subscribed to are not queued again
+            List<AWSIotMessage> unsent = (e.getUnsentMessages() != null) ? e.getUnsentMessages() : messages;
+            if (client.getMaxOfflineQueueSize() > 0
+                    && subscribeQueue.size() + unsent.size() <= client.getMaxOfflineQueueSize()) {
+                subscribeQueue.addAll(unsent);
+            } else {
+                LOGGER.info("Failed to subscribe to " + unsent.size() + " topics");
+                throw new AWSIotException(e);
+            }
+        }
+    }
+
     /**
      * The actual unsubscribe method exposed by this class.
      *
@@ -286,7 +456,9 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
         cancelRetry();
 
         retryTimes = 0;
+        lastRetryDelay = 0;
         userDisconnect = false;
+        draining = false;
         connectCallback = callback;
 
         openConnection(null);
@@ -305,12 +477,167 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
         cancelRetry();
 
         retryTimes = 0;
+        lastRetryDelay = 0;
         userDisconnect = true;
+        reconnecting = false;
         connectCallback = null;
+        reconnectPending.set(false);
+        cancelQuiesce();
 
         closeConnection(callback);
     }
 
+    /**
+     * Closes the connection and establishes it again right away, e.g. to pick
+     * up new credentials before the ones the connection was established with
+     * expire. Subscriptions and devices are restored as they are after a lost
+     * connection, and the connection is retried if it can't be re-established.
+     * Nothing is done if the connection is not established.
+     * <p>
+     * The connection is quiesced first: messages published from then on are
+     * held in the offline publish queue, and the connection is only closed
+     * once the messages in flight have been acknowledged, or after the server
+     * acknowledge timeout of the client, so they are not dropped along with
+     * the connection.
+     * </p>
+     *
+     * @throws AWSIotException
+     *             this exception is thrown when the underneath layer failed to
+     *             process the request
+     */
+    public void reconnect() throws AWSIotException {
+        if (connectionStatus != AWSIotConnectionStatus.CONNECTED || userDisconnect || quiescing) {
+            return;
+        }
+
+        LOGGER.info("Connection is being re-established");
+        reconnecting = true;
+        quiescing = true;
+        reconnectPending.set(true);
+
+        boolean inFlight;
+        try {
+            inFlight = !getPendingPublishes().isEmpty();
+        } catch (AWSIotException e) {
+            reconnectPending.set(false);
+            reconnecting = false;
+            quiescing = false;
+            throw e;
+        }
+        if (!inFlight) {
+            closeForReconnect();
+            return;
+        }
+
+        synchronized (reconnectPending) {
+            quiesceTask = client.scheduleTimeoutTask(new Runnable() {
+                @Override
+                public void run() {
+                    if (!reconnectPending.get()) {
+                        return;
+                    }
+                    LOGGER.warning("Messages in flight not acknowledged before the connection is re-established");
+                    try {
+                        closeForReconnect();
+                    } catch (AWSIotException e) {
+                        LOGGER.log(Level.WARNING, "Failed to re-establish connection", e);
+                    }
+                }
+            }, client.getServerAckTimeout());
+        }
+    }
+
+    /**
+     * Closes the connection to be re-established, unless it has already been
+     * closed by the quiesce timeout or the last acknowledgement.
+     */
+    private void closeForReconnect() throws AWSIotException {
+        if (!reconnectPending.compareAndSet(true, false)) {
+            return;
+        }
+        cancelQuiesce();
+
+        try {
+            closeConnection(null);
+        } catch (AWSIotException e) {
+            // messages held meanwhile are sent when the connection is next
+            // established
+            reconnecting = false;
+            quiescing = false;
+            throw e;
+        }
+    }
+
+    private void cancelQuiesce() {
+        synchronized (reconnectPending) {
+            if (quiesceTask != null) {
+                quiesceTask.cancel(false);
+                quiesceTask = null;
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new publish and subscribe requests, and waits for the
+     * offline publish queue and the messages in flight to be delivered. If the
+     * connection is being re-established, the queued messages are sent once it
+     * succeeds. The connection itself is left open, and should be closed with
+     * {@link #disconnect(AwsIotMessageCallback)} afterwards.
+     * <p>
+     * The caller is woken up whenever a message is acknowledged or the
+     * connection status changes, rather than polling the queues.
+     * </p>
+     * <p>
+     * Queued messages not sent before the deadline are removed from the queue
+     * and failed. They are returned along with the messages still in flight.
+     * </p>
+     *
+     * @param drainTimeout
+     *            the maximum time in milliseconds to wait for the messages to
+     *            be delivered
+     * @return the messages not delivered before the deadline
+     * @throws AWSIotException
+     *             this exception is thrown when the messages in flight cannot
+     *             be retrieved
+     */
+    public List<AWSIotMessage> drain(long drainTimeout) throws AWSIotException {
+        draining = true;
+
+        long deadline = System.currentTimeMillis() + drainTimeout;
+        try {
+            synchronized (drainLock) {
+                while (!publishQueue.isEmpty() || !getPendingPublishes().isEmpty()) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    if (connectionStatus == AWSIotConnectionStatus.DISCONNECTED && retryTask == null) {
+                        // nothing will be delivered without a connection
+                        break;
+                    }
+                    drainLock.wait(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<AWSIotMessage> undelivered = new ArrayList<>();
+        for (AWSIotMessage message : getPendingPublishes()) {
+            undelivered.add(getRequest(message));
+        }
+        AWSIotMessage message;
+        while ((message = publishQueue.poll()) != null) {
+            undelivered.add(getRequest(message));
+            message.onFailure();
+        }
+
+        if (!undelivered.isEmpty()) {
+            LOGGER.warning("Connection drained with " + undelivered.size() + " messages undelivered");
+        }
+        return undelivered;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -323,14 +650,19 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
 
         connectionStatus = AWSIotConnectionStatus.CONNECTED;
         retryTimes = 0;
+        lastRetryDelay = 0;
 
         cancelRetry();
 
         // process offline messages
         try {
-            while (subscribeQueue.size() > 0) {
-                AWSIotMessage message = subscribeQueue.poll();
-                subscribeTopic(message);
+            if (subscribeQueue.size() > 0) {
+                List<AWSIotMessage> messages = new ArrayList<>();
+                AWSIotMessage message;
+                while ((message = subscribeQueue.poll()) != null) {
+                    messages.add(message);
+                }
+                subscribeTopics(messages);
             }
             while (unsubscribeQueue.size() > 0) {
                 AWSIotMessage message = unsubscribeQueue.poll();
@@ -351,7 +683,14 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
             }
         }
 
-        client.onConnectionSuccess();
+        notifyDrain();
+
+        recoveryThread = Thread.currentThread();
+        try {
+            client.onConnectionSuccess();
+        } finally {
+            recoveryThread = null;
+        }
 
         if (connectCallback != null) {
             connectCallback.onSuccess();
@@ -370,6 +709,9 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
         LOGGER.info("Connection temporarily lost");
 
         connectionStatus = AWSIotConnectionStatus.DISCONNECTED;
+        quiescing = false;
+        reconnectPending.set(false);
+        cancelQuiesce();
 
         cancelRetry();
 
@@ -386,6 +728,8 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
 
             client.onConnectionClosed();
         }
+
+        notifyDrain();
     }
 
     /*
@@ -396,6 +740,24 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
      */
     @Override
     public void onConnectionClosed() {
+        quiescing = false;
+        reconnectPending.set(false);
+        cancelQuiesce();
+
+        if (reconnecting && !userDisconnect) {
+            reconnecting = false;
+            connectionStatus = AWSIotConnectionStatus.RECONNECTING;
+            client.onConnectionFailure();
+            try {
+                openConnection(null);
+            } catch (AWSIotException e) {
+                LOGGER.log(Level.WARNING, "Failed to re-establish connection", e);
+                onConnectionFailure();
+            }
+            return;
+        }
+        reconnecting = false;
+
         LOGGER.info("Connection permanently closed");
 
         connectionStatus = AWSIotConnectionStatus.DISCONNECTED;
@@ -408,6 +770,55 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
         }
 
         client.onConnectionClosed();
+
+        notifyDrain();
+    }
+
+    /**
+     * Called when the transport has completed a request, e.g. a publish has
+     * been acknowledged, to wake up {@link #drain(long)} and to close a
+     * quiesced connection once nothing is in flight.
+     */
+    public void onRequestCompleted() {
+        if (reconnectPending.get()) {
+            try {
+                if (getPendingPublishes().isEmpty()) {
+                    closeForReconnect();
+                }
+            } catch (AWSIotException e) {
+                LOGGER.log(Level.WARNING, "Failed to re-establish connection", e);
+            }
+        }
+
+        notifyDrain();
+    }
+
+    private void notifyDrain() {
+        if (!draining) {
+            return;
+        }
+        synchronized (drainLock) {
+            drainLock.notifyAll();
+        }
+    }
+
+    private boolean isRejectedWhileDraining() {
+        return draining && Thread.currentThread() != recoveryThread;
+    }
+
+    /**
+     * Gets the message passed in by the user for a request, which is wrapped
+     * in a completion object by the client.
+     *
+     * @param message
+     *            the message of the request
+     * @return the user message
+     */
+    private static AWSIotMessage getRequest(AWSIotMessage message) {
+        if (message instanceof AwsIotCompletion && ((AwsIotCompletion) message).request != null) {
+            return ((AwsIotCompletion) message).request;
+        }
+        return message;
     }
 
     /**
@@ -431,16 +842,20 @@ public abstract class AwsIotConnection implements AwsIotConnectionCallback {
     }
 
     /**
-     * Gets the exponentially back-off retry delay based on the number of times
-     * the connection has been retried.
+     * Gets the retry delay from the retry policy of the client based on the
+     * number of times the connection has been retried.
      *
      * @return the retry delay
      */
     long getRetryDelay() {
-        double delay = Math.pow(2.0, retryTimes) * client.getBaseRetryDelay();
-        delay = Math.min(delay, (double)client.getMaxRetryDelay());
-        delay = Math.max(delay, 0.0);
-        return (long)delay;
+        RetryPolicy retryPolicy = client.getRetryPolicy();
+        if (retryPolicy == null) {
+            retryPolicy = DEFAULT_RETRY_POLICY;
+        }
+
+        lastRetryDelay = retryPolicy.getRetryDelay(retryTimes, lastRetryDelay, client.getBaseRetryDelay(),
+                client.getMaxRetryDelay());
+        return lastRetryDelay;
     }
 
     /**
@@ -15,6 +15,10 @@
 
 package com.amazonaws.services.iot.client.core;
 
+import java.util.List;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+
 /**
  * This exception class is used internally in the library to track retryable
  * events.
@@ -23,12 +27,40 @@ public class AwsIotRetryableException extends Exception {
 
     private static final long serialVersionUID = 1L;
 
+    private final transient List<AWSIotMessage> unsentMessages;
+
     public AwsIotRetryableException(String message) {
         super(message);
+        this.unsentMessages = null;
     }
 
     public AwsIotRetryableException(Throwable e) {
         super(e);
+        this.unsentMessages = null;
+    }
+
+    /**
+     * Instantiates an exception for a request on multiple messages that has
+     * been sent partially.
+     *
+     * @param e
+     *            the cause of the failure
+     * @param unsentMessages
+     *            the messages that have not been sent, which are to be retried
+     */
+    public AwsIotRetryableException(Throwable e, List<AWSIotMessage> unsentMessages) {
+        super(e);
+        this.unsentMessages = unsentMessages;
+    }
+
+    /**
+     * Gets the messages not sent by a request on multiple messages.
+     *
+     * @return the unsent messages, or null if none of the messages have been
+     *         sent
+     */
+    public List<AWSIotMessage> getUnsentMessages() {
+        return unsentMessages;
     }
 
 }
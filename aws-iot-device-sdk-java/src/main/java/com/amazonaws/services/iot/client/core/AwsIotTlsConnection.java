@@ -16,26 +16,55 @@
 package com.amazonaws.services.iot.client.core;
 
 import java.security.KeyStore;
-import javax.net.SocketFactory;
+import java.util.Collections;
 import javax.net.ssl.SSLSocketFactory;
 
 import com.amazonaws.services.iot.client.AWSIotException;
 import com.amazonaws.services.iot.client.mqtt.AwsIotMqttConnection;
+import com.amazonaws.services.iot.client.util.AwsIotTlsHandshakeMetrics;
 import com.amazonaws.services.iot.client.util.AwsIotTlsSocketFactory;
 
 /**
  * This is a thin layer on top of {@link AwsIotMqttConnection} that provides a
- * TLS v1.2 based communication channel to the MQTT implementation.
+ * TLS based communication channel to the MQTT implementation. When connecting
+ * on port 443, the MQTT protocol is negotiated through ALPN, as required by
+ * AWS IoT to tell MQTT connections from HTTPS ones on that port.
  */
 public class AwsIotTlsConnection extends AwsIotMqttConnection {
 
+    private static final int ALPN_PORT = 443;
+    private static final String ALPN_PROTOCOL_MQTT = "x-amzn-mqtt-ca";
+
+    private final AwsIotTlsSocketFactory tlsSocketFactory;
+
     public AwsIotTlsConnection(AbstractAwsIotClient client, KeyStore keyStore, String keyPassword)
             throws AWSIotException {
-        super(client, new AwsIotTlsSocketFactory(keyStore, keyPassword), "ssl://" + client.getClientEndpoint() + ":" + client.getPort());
+        this(client, new AwsIotTlsSocketFactory(keyStore, keyPassword));
     }
 
     public AwsIotTlsConnection(AbstractAwsIotClient client, SSLSocketFactory socketFactory) throws AWSIotException {
-        super(client, new AwsIotTlsSocketFactory(socketFactory), "ssl://" + client.getClientEndpoint() + ":" + client.getPort());
+        this(client, new AwsIotTlsSocketFactory(socketFactory));
+    }
+
+    private AwsIotTlsConnection(AbstractAwsIotClient client, AwsIotTlsSocketFactory tlsSocketFactory)
+            throws AWSIotException {
+        super(client, tlsSocketFactory, "ssl://" + client.getClientEndpoint() + ":" + client.getPort());
+        this.tlsSocketFactory = tlsSocketFactory;
+
+        if (client.getPort() == ALPN_PORT) {
+            tlsSocketFactory.setApplicationProtocols(Collections.singletonList(ALPN_PROTOCOL_MQTT));
+        }
     }
-    
+
+    @Override
+    public void openConnection(AwsIotMessageCallback callback) throws AWSIotException {
+        tlsSocketFactory.setEnabledProtocols(client.getTlsProtocols());
+
+        super.openConnection(callback);
+    }
+
+    public AwsIotTlsHandshakeMetrics getHandshakeMetrics() {
+        return tlsSocketFactory.getHandshakeMetrics();
+    }
+
 }
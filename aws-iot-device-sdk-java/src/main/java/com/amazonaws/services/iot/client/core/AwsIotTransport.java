@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.core;
+
+import java.util.List;
+import java.util.Set;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+
+/**
+ * This interface defines the service provider interface between
+ * {@link AwsIotConnection} and the MQTT engine carrying the wire traffic. The
+ * connection layer keeps the retry logic, offline queues and service limits,
+ * and hands each request to the transport, which reports the outcome
+ * asynchronously through the {@link AwsIotTransportListener} it was created
+ * with. Transports are created through the {@link AwsIotTransportFactory}
+ * configured on the client, so different engines can be plugged in without
+ * changes to the rest of the library.
+ */
+public interface AwsIotTransport {
+
+    /**
+     * Establishes the MQTT connection using the settings of the client. The
+     * result is reported through
+     * {@link AwsIotTransportListener#onConnected(boolean, AwsIotMessageCallback)}
+     * or
+     * {@link AwsIotTransportListener#onConnectFailed(Throwable, AwsIotMessageCallback)}.
+     *
+     * @param userName
+     *            the MQTT user name, or null if none should be sent
+     * @param serverUris
+     *            the server URIs to connect to instead of the one the transport
+     *            was created with, e.g. signed WebSocket URLs, or an empty set
+     * @param callback
+     *            the callback to be passed back with the result
+     * @throws AWSIotException
+     *             this exception is thrown when the request is failed to be
+     *             sent
+     */
+    void connect(String userName, Set<String> serverUris, AwsIotMessageCallback callback) throws AWSIotException;
+
+    /**
+     * Closes the MQTT connection. The result is reported through
+     * {@link AwsIotTransportListener#onDisconnected(boolean, AwsIotMessageCallback)}.
+     *
+     * @param callback
+     *            the callback to be passed back with the result
+     * @throws AWSIotException
+     *             this exception is thrown when the request is failed to be
+     *             sent
+     */
+    void disconnect(AwsIotMessageCallback callback) throws AWSIotException;
+
+    /**
+     * Publishes a message. The acknowledgement is reported through
+     * {@link AwsIotTransportListener#onAcknowledged(AWSIotMessage, boolean)}.
+     *
+     * @param message
+     *            the message to be published
+     * @throws AWSIotException
+     *             this exception is thrown when there's an unrecoverable error
+     *             happened while processing the request
+     * @throws AwsIotRetryableException
+     *             this exception is thrown when the request is failed to be
+     *             sent, which will be queued and retried
+     */
+    void publish(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException;
+
+    /**
+     * Subscribes to one or more topics in one request. The acknowledgement of
+     * each topic is reported separately through
+     * {@link AwsIotTransportListener#onAcknowledged(AWSIotMessage, boolean)}.
+     *
+     * @param messages
+     *            the topics to be subscribed to
+     * @throws AWSIotException
+     *             this exception is thrown when there's an unrecoverable error
+     *             happened while processing the request
+     * @throws AwsIotRetryableException
+     *             this exception is thrown when the request is failed to be
+     *             sent, which will be queued and retried
+     */
+    void subscribe(List<AWSIotMessage> messages) throws AWSIotException, AwsIotRetryableException;
+
+    /**
+     * Unsubscribes from a topic. The acknowledgement is reported through
+     * {@link AwsIotTransportListener#onAcknowledged(AWSIotMessage, boolean)}.
+     *
+     * @param message
+     *            the topic to be unsubscribed from
+     * @throws AWSIotException
+     *             this exception is thrown when there's an unrecoverable error
+     *             happened while processing the request
+     * @throws AwsIotRetryableException
+     *             this exception is thrown when the request is failed to be
+     *             sent, which will be queued and retried
+     */
+    void unsubscribe(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException;
+
+    /**
+     * Gets the messages that have been published but not yet delivered, i.e.
+     * QoS 1 messages not yet acknowledged by the server and QoS 0 messages not
+     * yet written to the network. It's used to drain the connection before
+     * it's closed.
+     *
+     * @return the messages in flight
+     * @throws AWSIotException
+     *             this exception is thrown when the messages cannot be
+     *             retrieved
+     */
+    List<AWSIotMessage> getPendingPublishes() throws AWSIotException;
+
+}
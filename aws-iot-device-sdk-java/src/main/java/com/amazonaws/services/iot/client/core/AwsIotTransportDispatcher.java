@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.core;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+
+/**
+ * This class implements the {@link AwsIotTransportListener} used by the
+ * connection layer. Events reported by the transport are handed over to the
+ * client threads, so the transport I/O threads are never blocked by the
+ * connection logic or user callbacks.
+ */
+public class AwsIotTransportDispatcher implements AwsIotTransportListener {
+
+    private final AbstractAwsIotClient client;
+
+    public AwsIotTransportDispatcher(AbstractAwsIotClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public void onConnected(final boolean sessionPresent, final AwsIotMessageCallback callback) {
+        client.scheduleTask(new Runnable() {
+            @Override
+            public void run() {
+                client.getConnection().setSessionPresent(sessionPresent);
+                client.getConnection().onConnectionSuccess();
+                if (callback != null) {
+                    callback.onSuccess();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onConnectFailed(Throwable cause, final AwsIotMessageCallback callback) {
+        client.scheduleTask(new Runnable() {
+            @Override
+            public void run() {
+                client.getConnection().onConnectionFailure();
+                if (callback != null) {
+                    callback.onFailure();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onDisconnected(final boolean isSuccess, final AwsIotMessageCallback callback) {
+        client.scheduleTask(new Runnable() {
+            @Override
+            public void run() {
+                client.getConnection().onConnectionClosed();
+                if (callback != null) {
+                    if (isSuccess) {
+                        callback.onSuccess();
+                    } else {
+                        callback.onFailure();
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onConnectionLost(Throwable cause) {
+        client.scheduleTask(new Runnable() {
+            @Override
+            public void run() {
+                client.getConnection().onConnectionFailure();
+            }
+        });
+    }
+
+    @Override
+    public void onAcknowledged(final AWSIotMessage message, final boolean isSuccess) {
+        client.scheduleTask(new Runnable() {
+            @Override
+            public void run() {
+                if (isSuccess) {
+                    message.onSuccess();
+                } else {
+                    message.onFailure();
+                }
+                client.getConnection().onRequestCompleted();
+            }
+        });
+    }
+
+    @Override
+    public void onMessageArrived(AWSIotMessage message) {
+        client.dispatch(message);
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.core;
+
+import javax.net.SocketFactory;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+
+/**
+ * This interface class defines the function used by the connection layer to
+ * create the {@link AwsIotTransport} for a client. See also
+ * {@link AbstractAwsIotClient#setTransportFactory(AwsIotTransportFactory)}.
+ */
+public interface AwsIotTransportFactory {
+
+    /**
+     * Creates a transport.
+     *
+     * @param client
+     *            the client providing the connection settings
+     * @param socketFactory
+     *            the socket factory for TLS connections, or null for WebSocket
+     *            connections
+     * @param serverUri
+     *            the server URI, e.g. {@code ssl://<endpoint>:8883}
+     * @param listener
+     *            the listener to report connection and message events to
+     * @return the new transport
+     * @throws AWSIotException
+     *             this exception is thrown when the transport cannot be created
+     */
+    AwsIotTransport createTransport(AbstractAwsIotClient client, SocketFactory socketFactory, String serverUri,
+            AwsIotTransportListener listener) throws AWSIotException;
+
+}
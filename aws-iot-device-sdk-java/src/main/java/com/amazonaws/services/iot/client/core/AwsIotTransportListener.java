@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.core;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+
+/**
+ * This interface class defines functions called by an {@link AwsIotTransport}
+ * under different connection and message events. They may be called on the
+ * I/O threads of the transport, so implementations must not block.
+ */
+public interface AwsIotTransportListener {
+
+    /**
+     * On connection established.
+     *
+     * @param sessionPresent
+     *            whether the server resumed a persistent session
+     * @param callback
+     *            the callback the connect request was made with
+     */
+    void onConnected(boolean sessionPresent, AwsIotMessageCallback callback);
+
+    /**
+     * On connect request failure.
+     *
+     * @param cause
+     *            the cause of the failure
+     * @param callback
+     *            the callback the connect request was made with
+     */
+    void onConnectFailed(Throwable cause, AwsIotMessageCallback callback);
+
+    /**
+     * On connection closed through a disconnect request.
+     *
+     * @param isSuccess
+     *            whether the connection was closed gracefully
+     * @param callback
+     *            the callback the disconnect request was made with
+     */
+    void onDisconnected(boolean isSuccess, AwsIotMessageCallback callback);
+
+    /**
+     * On established connection lost.
+     *
+     * @param cause
+     *            the cause of the connection loss
+     */
+    void onConnectionLost(Throwable cause);
+
+    /**
+     * On publish, subscribe or unsubscribe request acknowledged or failed.
+     *
+     * @param message
+     *            the message of the request
+     * @param isSuccess
+     *            whether the request was accepted by the server
+     */
+    void onAcknowledged(AWSIotMessage message, boolean isSuccess);
+
+    /**
+     * On message received on a subscribed topic.
+     *
+     * @param message
+     *            the message received
+     */
+    void onMessageArrived(AWSIotMessage message);
+
+}
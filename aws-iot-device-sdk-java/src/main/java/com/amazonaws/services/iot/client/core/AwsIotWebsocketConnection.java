@@ -15,9 +15,15 @@
 
 package com.amazonaws.services.iot.client.core;
 
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import com.amazonaws.services.iot.client.auth.CachingCredentialsProvider;
+import com.amazonaws.services.iot.client.auth.Credentials;
 import com.amazonaws.services.iot.client.auth.CredentialsProvider;
 import com.amazonaws.services.iot.client.AWSIotException;
 import com.amazonaws.services.iot.client.mqtt.AwsIotMqttConnection;
@@ -26,11 +32,39 @@ import com.amazonaws.services.iot.client.util.AwsIotWebSocketUrlSigner;
 /**
  * This is a thin layer on top of {@link AwsIotMqttConnection} that provides a
  * WebSocket based communication channel to the MQTT implementation.
+ * <p>
+ * The signed URL is cached and refreshed in the background while the client is
+ * connected, so connection attempts don't wait on the credentials provider or
+ * the signing. A URL is only signed inline when no fresh one is available, e.g.
+ * on the first connection or after the credentials have been updated.
+ * </p>
+ * <p>
+ * When the connection is established with temporary credentials carrying an
+ * expiration, it's re-established with new credentials from the provider
+ * shortly before they expire, e.g. with a {@link CachingCredentialsProvider}
+ * that has already refreshed them in the background. The messages in flight
+ * are acknowledged before the connection is closed, see
+ * {@link AwsIotConnection#reconnect()}.
+ * </p>
  */
 public class AwsIotWebsocketConnection extends AwsIotMqttConnection {
 
+    private static final Logger LOGGER = Logger.getLogger(AwsIotWebsocketConnection.class.getName());
+
+    // the service accepts signatures dated within 15 minutes of its clock
+    private static final long SIGNED_URL_MAX_AGE = 5 * 60 * 1000;
+    private static final long SIGNED_URL_REFRESH_INTERVAL = 4 * 60 * 1000;
+    // the connection is re-established this long before the credentials expire
+    private static final long RECONNECT_BEFORE_EXPIRY = 60 * 1000;
+
     private AwsIotWebSocketUrlSigner urlSigner;
 
+    private volatile SignedUrl signedUrl;
+    private int credentialsVersion;
+    private Future<?> refreshTask;
+    private Future<?> reconnectTask;
+    private volatile SignedUrl connectingUrl;
+
     public AwsIotWebsocketConnection(AbstractAwsIotClient client, String awsAccessKeyId, String awsSecretAccessKey)
             throws AWSIotException {
         this(client, awsAccessKeyId, awsSecretAccessKey, null);
@@ -67,18 +101,152 @@ public class AwsIotWebsocketConnection extends AwsIotMqttConnection {
     @Override
     public void updateCredentials(String awsAccessKeyId, String awsSecretAccessKey, String sessionToken) {
         urlSigner.updateCredentials(awsAccessKeyId, awsSecretAccessKey, sessionToken);
+        synchronized (this) {
+            credentialsVersion++;
+            signedUrl = null;
+        }
+    }
+
+    @Override
+    public void openConnection(AwsIotMessageCallback callback) throws AWSIotException {
+        scheduleRefresh();
+        super.openConnection(callback);
+    }
+
+    @Override
+    public void onConnectionSuccess() {
+        super.onConnectionSuccess();
+        scheduleReconnect(connectingUrl);
+    }
+
+    @Override
+    public void onConnectionFailure() {
+        scheduleReconnect(null);
+        super.onConnectionFailure();
+    }
+
+    @Override
+    public void onConnectionClosed() {
+        scheduleReconnect(null);
+        super.onConnectionClosed();
     }
 
     @Override
     public Set<String> getServerUris() {
+        SignedUrl url = signedUrl;
+        if (url == null || url.isExpired()) {
+            try {
+                url = refreshSignedUrl();
+            } catch (AWSIotException e) {
+                throw new AwsIotRuntimeException(e);
+            }
+        }
+        connectingUrl = url;
+
         Set<String> uris = new HashSet<>();
+        uris.add(url.url);
+        return uris;
+    }
+
+    private SignedUrl refreshSignedUrl() throws AWSIotException {
+        int version;
+        synchronized (this) {
+            version = credentialsVersion;
+        }
+
+        Credentials credentials = urlSigner.getCredentials();
+        SignedUrl url = new SignedUrl(urlSigner.getSignedUrl(null, credentials), credentials.getExpiration());
+        synchronized (this) {
+            // a URL signed with replaced credentials is not cached
+            if (version == credentialsVersion) {
+                signedUrl = url;
+            }
+        }
+        return url;
+    }
+
+    private synchronized void scheduleRefresh() {
+        if (refreshTask != null && !refreshTask.isDone()) {
+            return;
+        }
+
+        refreshTask = client.scheduleRoutineTask(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refreshSignedUrl();
+                } catch (AWSIotException | RuntimeException e) {
+                    // the cached URL is used until it expires
+                    LOGGER.log(Level.WARNING, "Failed to refresh signed WebSocket URL", e);
+                }
+            }
+        }, SIGNED_URL_REFRESH_INTERVAL, SIGNED_URL_REFRESH_INTERVAL);
+    }
+
+    /**
+     * Schedules the connection to be re-established before the credentials of
+     * the URL expire, replacing any reconnect already scheduled.
+     *
+     * @param url
+     *            the URL the connection was established with, or null to only
+     *            cancel the scheduled reconnect
+     */
+    private synchronized void scheduleReconnect(final SignedUrl url) {
+        if (reconnectTask != null) {
+            reconnectTask.cancel(false);
+            reconnectTask = null;
+        }
+        if (url == null || url.expiration == null) {
+            return;
+        }
+
+        long delay = url.expiration.getTime() - RECONNECT_BEFORE_EXPIRY - System.currentTimeMillis();
+        if (delay <= 0) {
+            LOGGER.warning("Credentials expire within " + RECONNECT_BEFORE_EXPIRY + "ms of the connection");
+            return;
+        }
+
+        reconnectTask = client.scheduleTimeoutTask(new Runnable() {
+            @Override
+            public void run() {
+                reconnectWithNewCredentials(url);
+            }
+        }, delay);
+    }
+
+    private void reconnectWithNewCredentials(SignedUrl currentUrl) {
         try {
-            uris.add(urlSigner.getSignedUrl(null));
-        } catch (AWSIotException e) {
-            throw new AwsIotRuntimeException(e);
+            SignedUrl url = refreshSignedUrl();
+            if (url.expiration != null && !url.expiration.after(currentUrl.expiration)) {
+                LOGGER.warning("No new credentials available before the current ones expire");
+                return;
+            }
+            reconnect();
+        } catch (AWSIotException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to re-establish connection with new credentials", e);
+        }
+    }
+
+    /**
+     * This class holds a signed URL along with the time it was signed and the
+     * expiration of the credentials it was signed with.
+     */
+    private static class SignedUrl {
+
+        private final String url;
+        private final Date expiration;
+        private final long signedTime = System.currentTimeMillis();
+
+        SignedUrl(String url, Date expiration) {
+            this.url = url;
+            this.expiration = expiration;
+        }
+
+        boolean isExpired() {
+            long now = System.currentTimeMillis();
+            return now - signedTime >= SIGNED_URL_MAX_AGE || (expiration != null && now >= expiration.getTime());
         }
 
-        return uris;
     }
 
 }
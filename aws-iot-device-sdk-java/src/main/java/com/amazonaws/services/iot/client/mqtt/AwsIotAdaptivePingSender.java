@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.mqtt;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttPingSender;
+import org.eclipse.paho.client.mqttv3.internal.ClientComms;
+
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+
+import lombok.Getter;
+
+/**
+ * This class implements the {@link MqttPingSender} used by the Paho MQTT
+ * library for scheduling keep-alive pings. When the adaptive keep-alive mode is
+ * enabled on the client, it measures the round-trip time of PINGREQ/PINGRESP
+ * exchanges and adjusts the keep-alive interval used by the library for the
+ * current connection. The interval starts at the minimum keep-alive interval
+ * and doubles after each timely ping response until it reaches the configured
+ * keep-alive interval, so healthy idle links are pinged rarely. The interval is
+ * tightened back to the minimum when a ping response is late compared to the
+ * measured round-trip time, or when outgoing messages remain unacknowledged for
+ * longer than the server acknowledge timeout. Because the library considers the
+ * connection lost when no ping response is received within the keep-alive
+ * interval, a half-open connection is then detected, and
+ * {@code onConnectionFailure} fired, within a few multiples of the minimum
+ * interval. The keep-alive interval negotiated with the server is not changed.
+ * <p>
+ * Like the default ping sender of the library, pings are scheduled on a
+ * dedicated timer thread rather than the client threads, so slow message
+ * callbacks cannot delay them. The client only installs this ping sender when
+ * the adaptive keep-alive mode is enabled.
+ * </p>
+ */
+public class AwsIotAdaptivePingSender implements MqttPingSender {
+
+    private static final Logger LOGGER = Logger.getLogger(AwsIotAdaptivePingSender.class.getName());
+
+    private final AbstractAwsIotClient client;
+
+    private ClientComms comms;
+    private ScheduledExecutorService timer;
+    private Future<?> pingTask;
+    private Future<?> watchdogTask;
+    private boolean adaptive;
+    private long baseInterval;
+    private long minInterval;
+    private long inFlightSince;
+    private boolean rttMeasured;
+
+    /**
+     * The keep-alive interval in milliseconds currently used for the
+     * connection.
+     */
+    @Getter
+    private long keepAliveInterval;
+
+    /**
+     * The smoothed round-trip time of ping requests in milliseconds, or 0 if no
+     * ping response has been received on the current connection.
+     */
+    @Getter
+    private long smoothedRtt;
+
+    @Getter
+    private long rttVariance;
+
+    public AwsIotAdaptivePingSender(AbstractAwsIotClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public void init(ClientComms comms) {
+        if (comms == null) {
+            throw new IllegalArgumentException("ClientComms cannot be null.");
+        }
+        this.comms = comms;
+    }
+
+    @Override
+    public void start() {
+        synchronized (this) {
+            if (timer == null) {
+                timer = createTimer();
+            }
+            baseInterval = comms.getKeepAlive();
+            adaptive = client.isAdaptiveKeepAlive() && baseInterval > 0;
+            minInterval = Math.min(Math.max(client.getMinKeepAliveInterval(), 1), baseInterval);
+            smoothedRtt = 0;
+            rttVariance = 0;
+            rttMeasured = false;
+            inFlightSince = 0;
+            setKeepAliveInterval(adaptive ? minInterval : baseInterval);
+
+            if (adaptive) {
+                watchdogTask = scheduleRoutine(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkAcknowledgements();
+                    }
+                }, minInterval);
+            }
+        }
+
+        schedule(keepAliveInterval);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (pingTask != null) {
+            pingTask.cancel(false);
+            pingTask = null;
+        }
+        if (watchdogTask != null) {
+            watchdogTask.cancel(false);
+            watchdogTask = null;
+        }
+        if (timer != null) {
+            // not interrupted, as the connection may be stopped from a ping
+            timer.shutdown();
+            timer = null;
+        }
+    }
+
+    @Override
+    public synchronized void schedule(long delayInMilliseconds) {
+        if (pingTask != null) {
+            pingTask.cancel(false);
+        }
+        pingTask = scheduleOnce(new Runnable() {
+            @Override
+            public void run() {
+                sendPing();
+            }
+        }, delayInMilliseconds);
+    }
+
+    /**
+     * Lets the library check the connection activity, which sends a ping
+     * request when there has been no activity within the current keep-alive
+     * interval and fails the connection when a previous ping request has not
+     * been answered in time. No lock is held here because a failed connection
+     * is shut down by the library on this thread.
+     */
+    void sendPing() {
+        comms.checkForActivity(new PingListener(System.nanoTime()));
+    }
+
+    void onPingResponse(long rtt) {
+        synchronized (this) {
+            if (!adaptive) {
+                return;
+            }
+
+            boolean late = rttMeasured && rtt > getRttThreshold();
+            if (!rttMeasured) {
+                smoothedRtt = rtt;
+                rttVariance = rtt / 2;
+                rttMeasured = true;
+            } else {
+                rttVariance = (3 * rttVariance + Math.abs(smoothedRtt - rtt)) / 4;
+                smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+            }
+
+            if (!late) {
+                setKeepAliveInterval(Math.min(keepAliveInterval * 2, baseInterval));
+                return;
+            }
+            LOGGER.info("Ping response took " + rtt + "ms, tightening keep-alive interval to " + minInterval + "ms");
+            setKeepAliveInterval(minInterval);
+        }
+
+        schedule(0);
+    }
+
+    void checkAcknowledgements() {
+        int inFlight = comms.getActualInFlight();
+
+        synchronized (this) {
+            if (inFlight == 0) {
+                inFlightSince = 0;
+                return;
+            }
+
+            long now = System.nanoTime();
+            if (inFlightSince == 0) {
+                inFlightSince = now;
+            }
+            long pending = TimeUnit.NANOSECONDS.toMillis(now - inFlightSince);
+            if (pending < Math.max(client.getServerAckTimeout(), getRttThreshold())
+                    || keepAliveInterval == minInterval) {
+                return;
+            }
+
+            LOGGER.info(inFlight + " messages unacknowledged for " + pending
+                    + "ms, tightening keep-alive interval to " + minInterval + "ms");
+            setKeepAliveInterval(minInterval);
+        }
+
+        schedule(0);
+    }
+
+    long getRttThreshold() {
+        return Math.max(2 * smoothedRtt, smoothedRtt + 4 * rttVariance);
+    }
+
+    private void setKeepAliveInterval(long keepAliveInterval) {
+        this.keepAliveInterval = keepAliveInterval;
+        comms.getClientState().setKeepAliveInterval(keepAliveInterval);
+    }
+
+    ScheduledExecutorService createTimer() {
+        final String threadName = "AWS IoT Ping: " + client.getClientId();
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private Future<?> scheduleOnce(Runnable runnable, long delay) {
+        if (timer == null) {
+            LOGGER.warning("Keep-alive ping scheduled after the ping sender was stopped");
+            return null;
+        }
+        try {
+            return timer.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.WARNING, "Failed to schedule keep-alive ping", e);
+            return null;
+        }
+    }
+
+    private Future<?> scheduleRoutine(Runnable runnable, long period) {
+        try {
+            return timer.scheduleAtFixedRate(runnable, period, period, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.WARNING, "Failed to schedule acknowledgement check", e);
+            return null;
+        }
+    }
+
+    private class PingListener implements IMqttActionListener {
+
+        private final long sentAt;
+
+        PingListener(long sentAt) {
+            this.sentAt = sentAt;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken token) {
+            onPingResponse(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt));
+        }
+
+        @Override
+        public void onFailure(IMqttToken token, Throwable cause) {
+            // the connection failure is reported through the client listener
+        }
+
+    }
+
+}
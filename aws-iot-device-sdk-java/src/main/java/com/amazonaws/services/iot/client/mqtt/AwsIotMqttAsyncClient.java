@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.mqtt;
+
+import java.net.URI;
+import java.util.Properties;
+
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttPingSender;
+import org.eclipse.paho.client.mqttv3.MqttSecurityException;
+import org.eclipse.paho.client.mqttv3.internal.NetworkModule;
+import org.eclipse.paho.client.mqttv3.internal.security.SSLSocketFactoryFactory;
+
+import com.amazonaws.services.iot.client.util.AwsIotEndpointResolver;
+import com.amazonaws.services.iot.client.util.AwsIotTlsSocketFactory;
+
+/**
+ * This class extends {@link MqttAsyncClient} to open TLS connections through
+ * {@link AwsIotTlsNetworkModule}, which caches the resolved endpoint addresses
+ * and races connection attempts across them. Also, the SSL network module of
+ * the Paho library replaces the SSL parameters of the socket before the
+ * handshake, which would drop the application protocols offered through ALPN
+ * by {@link AwsIotTlsSocketFactory}. The TLS settings of the connect options,
+ * i.e. the enabled cipher suites, the hostname verifier and HTTPS hostname
+ * verification, are passed on to the network module.
+ */
+public class AwsIotMqttAsyncClient extends MqttAsyncClient {
+
+    private static final String SSL_SCHEME = "ssl";
+
+    public AwsIotMqttAsyncClient(String serverURI, String clientId, MqttClientPersistence persistence)
+            throws MqttException {
+        super(serverURI, clientId, persistence);
+    }
+
+    public AwsIotMqttAsyncClient(String serverURI, String clientId, MqttClientPersistence persistence,
+            MqttPingSender pingSender) throws MqttException {
+        super(serverURI, clientId, persistence, pingSender);
+    }
+
+    @Override
+    protected NetworkModule[] createNetworkModules(String address, MqttConnectOptions options)
+            throws MqttException, MqttSecurityException {
+        NetworkModule[] networkModules = super.createNetworkModules(address, options);
+        if (!(options.getSocketFactory() instanceof AwsIotTlsSocketFactory)) {
+            return networkModules;
+        }
+
+        AwsIotTlsSocketFactory socketFactory = (AwsIotTlsSocketFactory) options.getSocketFactory();
+        for (int i = 0; i < networkModules.length; i++) {
+            URI uri = URI.create(networkModules[i].getServerURI());
+            if (SSL_SCHEME.equals(uri.getScheme())) {
+                AwsIotTlsNetworkModule networkModule = new AwsIotTlsNetworkModule(socketFactory,
+                        AwsIotEndpointResolver.getDefault(), uri.getHost(), uri.getPort(),
+                        options.getConnectionTimeout());
+                networkModule.setEnabledCipherSuites(getEnabledCipherSuites(options));
+                networkModule.setHostnameVerifier(options.getSSLHostnameVerifier());
+                networkModule.setHttpsHostnameVerificationEnabled(options.isHttpsHostnameVerificationEnabled());
+                networkModules[i] = networkModule;
+            }
+        }
+        return networkModules;
+    }
+
+    private static String[] getEnabledCipherSuites(MqttConnectOptions options) {
+        Properties sslProperties = options.getSSLProperties();
+        if (sslProperties == null) {
+            return null;
+        }
+
+        String cipherSuites = sslProperties.getProperty(SSLSocketFactoryFactory.CIPHERSUITES);
+        return (cipherSuites != null) ? SSLSocketFactoryFactory.unpackCipherSuites(cipherSuites) : null;
+    }
+
+}
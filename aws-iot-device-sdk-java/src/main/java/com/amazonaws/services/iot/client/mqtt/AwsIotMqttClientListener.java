@@ -21,7 +21,7 @@ import org.eclipse.paho.client.mqttv3.MqttMessage;
 
 import com.amazonaws.services.iot.client.AWSIotMessage;
 import com.amazonaws.services.iot.client.AWSIotQos;
-import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
 
 /**
  * This class implements listener functions for client related events from the
@@ -29,20 +29,15 @@ import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
  */
 public class AwsIotMqttClientListener implements MqttCallback {
 
-    private AbstractAwsIotClient client;
+    private final AwsIotTransportListener listener;
 
-    public AwsIotMqttClientListener(AbstractAwsIotClient client) {
-        this.client = client;
+    public AwsIotMqttClientListener(AwsIotTransportListener listener) {
+        this.listener = listener;
     }
 
     @Override
     public void connectionLost(Throwable arg0) {
-        client.scheduleTask(new Runnable() {
-            @Override
-            public void run() {
-                client.getConnection().onConnectionFailure();
-            }
-        });
+        listener.onConnectionLost(arg0);
     }
 
     @Override
@@ -53,7 +48,7 @@ public class AwsIotMqttClientListener implements MqttCallback {
     @Override
     public void messageArrived(String topic, MqttMessage arg1) throws Exception {
         AWSIotMessage message = new AWSIotMessage(topic, AWSIotQos.valueOf(arg1.getQos()), arg1.getPayload());
-        client.dispatch(message);
+        listener.onMessageArrived(message);
     }
 
 }
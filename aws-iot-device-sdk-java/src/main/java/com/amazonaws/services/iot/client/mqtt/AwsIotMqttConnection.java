@@ -15,16 +15,15 @@
 
 package com.amazonaws.services.iot.client.mqtt;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.net.SocketFactory;
 
 import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
-import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 import com.amazonaws.services.iot.client.AWSIotException;
 import com.amazonaws.services.iot.client.AWSIotMessage;
@@ -32,13 +31,17 @@ import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
 import com.amazonaws.services.iot.client.core.AwsIotConnection;
 import com.amazonaws.services.iot.client.core.AwsIotMessageCallback;
 import com.amazonaws.services.iot.client.core.AwsIotRetryableException;
+import com.amazonaws.services.iot.client.core.AwsIotTransport;
+import com.amazonaws.services.iot.client.core.AwsIotTransportDispatcher;
 
 import lombok.Getter;
 import lombok.Setter;
 
 /**
  * This class extends {@link AwsIotConnection} to provide the basic MQTT pub/sub
- * functionalities using the Paho MQTT library.
+ * functionalities. The wire traffic is carried by an {@link AwsIotTransport}
+ * created through the transport factory of the client, which is the Paho MQTT
+ * library by default.
  */
 @Getter
 @Setter
@@ -46,126 +49,97 @@ public class AwsIotMqttConnection extends AwsIotConnection {
 
     // Release Script will replace the version string on release. Refer to codebuild/cd/promote-release.yml
     private static final String USERNAME_METRIC_STRING = "?SDK=Java&Version=0.0.1-dev";
+    // Maximum number of topic filters AWS IoT accepts in one SUBSCRIBE packet
+    private static final int MAX_TOPICS_PER_SUBSCRIBE = 8;
     private final SocketFactory socketFactory;
+    private final String serverUri;
 
-    private MqttAsyncClient mqttClient;
-    private AwsIotMqttMessageListener messageListener;
-    private AwsIotMqttClientListener clientListener;
+    private AwsIotTransport transport;
 
     public AwsIotMqttConnection(AbstractAwsIotClient client, SocketFactory socketFactory, String serverUri)
             throws AWSIotException {
         super(client);
 
         this.socketFactory = socketFactory;
-
-        messageListener = new AwsIotMqttMessageListener(client);
-        clientListener = new AwsIotMqttClientListener(client);
-
-        try {
-            mqttClient = new MqttAsyncClient(serverUri, client.getClientId(), new MemoryPersistence());
-            mqttClient.setCallback(clientListener);
-        } catch (MqttException e) {
-            throw new AWSIotException(e);
-        }
+        this.serverUri = serverUri;
     }
 
     AwsIotMqttConnection(AbstractAwsIotClient client, MqttAsyncClient mqttClient) throws AWSIotException {
+        this(client, new AwsIotPahoTransport(client, null, mqttClient, new AwsIotTransportDispatcher(client)));
+    }
+
+    AwsIotMqttConnection(AbstractAwsIotClient client, AwsIotTransport transport) throws AWSIotException {
         super(client);
-        this.mqttClient = mqttClient;
+        this.transport = transport;
         this.socketFactory = null;
+        this.serverUri = null;
     }
 
-    public void openConnection(AwsIotMessageCallback callback) throws AWSIotException {
-        try {
-            AwsIotMqttConnectionListener connectionListener = new AwsIotMqttConnectionListener(client, true, callback);
-            MqttConnectOptions options = buildMqttConnectOptions(client, socketFactory);
-            mqttClient.connect(options, null, connectionListener);
-        } catch (MqttException e) {
-            throw new AWSIotException(e);
+    /**
+     * Gets the transport of the connection. It is created on first use, so the
+     * transport factory can be configured on the client after it has been
+     * constructed.
+     *
+     * @return the transport
+     * @throws AWSIotException
+     *             this exception is thrown when the transport cannot be created
+     */
+    public synchronized AwsIotTransport getTransport() throws AWSIotException {
+        if (transport == null) {
+            transport = client.getTransportFactory().createTransport(client, socketFactory, serverUri,
+                    new AwsIotTransportDispatcher(client));
         }
+        return transport;
+    }
+
+    public void openConnection(AwsIotMessageCallback callback) throws AWSIotException {
+        String userName = client.isClientEnableMetrics() ? USERNAME_METRIC_STRING : null;
+        getTransport().connect(userName, getServerUris(), callback);
     }
 
     public void closeConnection(AwsIotMessageCallback callback) throws AWSIotException {
-        try {
-            AwsIotMqttConnectionListener connectionListener = new AwsIotMqttConnectionListener(client, false, callback);
-            mqttClient.disconnect(0, null, connectionListener);
-        } catch (MqttException e) {
-            throw new AWSIotException(e);
-        }
+        getTransport().disconnect(callback);
     }
 
     @Override
     public void publishMessage(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException {
-        String topic = message.getTopic();
-        MqttMessage mqttMessage = new MqttMessage(message.getPayload());
-        mqttMessage.setQos(message.getQos().getValue());
-
-        try {
-            mqttClient.publish(topic, mqttMessage, message, messageListener);
-        } catch (MqttException e) {
-            if (e.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED) {
-                throw new AwsIotRetryableException(e);
-            } else {
-                throw new AWSIotException(e);
-            }
-        }
+        getTransport().publish(message);
     }
 
     @Override
     public void subscribeTopic(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException {
-        try {
-            mqttClient.subscribe(message.getTopic(), message.getQos().getValue(), message, messageListener);
-        } catch (MqttException e) {
-            if (e.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED) {
-                throw new AwsIotRetryableException(e);
-            } else {
-                throw new AWSIotException(e);
-            }
-        }
+        getTransport().subscribe(Collections.singletonList(message));
     }
 
     @Override
-    public void unsubscribeTopic(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException {
-        try {
-            mqttClient.unsubscribe(message.getTopic(), message, messageListener);
-        } catch (MqttException e) {
-            if (e.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED) {
-                throw new AwsIotRetryableException(e);
-            } else {
-                throw new AWSIotException(e);
+    public void subscribeTopics(List<AWSIotMessage> messages) throws AWSIotException, AwsIotRetryableException {
+        for (int start = 0; start < messages.size(); start += MAX_TOPICS_PER_SUBSCRIBE) {
+            List<AWSIotMessage> batch = new ArrayList<>(messages.subList(start,
+                    Math.min(start + MAX_TOPICS_PER_SUBSCRIBE, messages.size())));
+            try {
+                getTransport().subscribe(batch);
+            } catch (AwsIotRetryableException e) {
+                if (start == 0) {
+                    throw e;
+                }
+                // only the batches not sent yet are to be retried
+                throw new AwsIotRetryableException(e, new ArrayList<>(messages.subList(start, messages.size())));
             }
         }
     }
 
-    public Set<String> getServerUris() {
-        return new HashSet<>();
+    @Override
+    public void unsubscribeTopic(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException {
+        getTransport().unsubscribe(message);
     }
 
-    private MqttConnectOptions buildMqttConnectOptions(AbstractAwsIotClient client, SocketFactory socketFactory) {
-        MqttConnectOptions options = new MqttConnectOptions();
-
-        options.setSocketFactory(socketFactory);
-        options.setCleanSession(client.isCleanSession());
-        options.setConnectionTimeout(client.getConnectionTimeout() / 1000);
-        options.setKeepAliveInterval(client.getKeepAliveInterval() / 1000);
-        if(client.isClientEnableMetrics()) {
-            options.setUserName(USERNAME_METRIC_STRING);
-        }
-
-        Set<String> serverUris = getServerUris();
-        if (serverUris != null && !serverUris.isEmpty()) {
-            String[] uriArray = new String[serverUris.size()];
-            serverUris.toArray(uriArray);
-            options.setServerURIs(uriArray);
-        }
-
-        if (client.getWillMessage() != null) {
-            AWSIotMessage message = client.getWillMessage();
-
-            options.setWill(message.getTopic(), message.getPayload(), message.getQos().getValue(), false);
-        }
+    @Override
+    public List<AWSIotMessage> getPendingPublishes() throws AWSIotException {
+        return getTransport().getPendingPublishes();
+    }
 
-        return options;
+    public Set<String> getServerUris() {
+        return new HashSet<>();
     }
 
 }
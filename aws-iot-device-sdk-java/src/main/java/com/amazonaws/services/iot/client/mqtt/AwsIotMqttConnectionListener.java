@@ -21,8 +21,8 @@ import java.util.logging.Logger;
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
 
-import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
 import com.amazonaws.services.iot.client.core.AwsIotMessageCallback;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
 
 /**
  * This class implements listener functions for the connection events from the
@@ -32,51 +32,35 @@ public class AwsIotMqttConnectionListener implements IMqttActionListener {
 
     private static final Logger LOGGER = Logger.getLogger(AwsIotMqttConnectionListener.class.getName());
 
-    private final AbstractAwsIotClient client;
+    private final AwsIotTransportListener listener;
     private final boolean isConnect;
     private final AwsIotMessageCallback userCallback;
 
-    public AwsIotMqttConnectionListener(AbstractAwsIotClient client, boolean isConnect,
+    public AwsIotMqttConnectionListener(AwsIotTransportListener listener, boolean isConnect,
             AwsIotMessageCallback userCallback) {
-        this.client = client;
+        this.listener = listener;
         this.isConnect = isConnect;
         this.userCallback = userCallback;
     }
 
     @Override
-    public void onSuccess(IMqttToken arg0) {
-        client.scheduleTask(new Runnable() {
-            @Override
-            public void run() {
-                if (isConnect) {
-                    client.getConnection().onConnectionSuccess();
-                } else {
-                    client.getConnection().onConnectionClosed();
-                }
-                if (userCallback != null) {
-                    userCallback.onSuccess();
-                }
-            }
-        });
+    public void onSuccess(IMqttToken token) {
+        if (isConnect) {
+            listener.onConnected(token != null && token.getSessionPresent(), userCallback);
+        } else {
+            listener.onDisconnected(true, userCallback);
+        }
     }
 
     @Override
     public void onFailure(IMqttToken arg0, Throwable arg1) {
         LOGGER.log(Level.WARNING, (isConnect ? "Connect" : "Disconnect") + " request failure", arg1);
 
-        client.scheduleTask(new Runnable() {
-            @Override
-            public void run() {
-                if (isConnect) {
-                    client.getConnection().onConnectionFailure();
-                } else {
-                    client.getConnection().onConnectionClosed();
-                }
-                if (userCallback != null) {
-                    userCallback.onFailure();
-                }
-            }
-        });
+        if (isConnect) {
+            listener.onConnectFailed(arg1, userCallback);
+        } else {
+            listener.onDisconnected(false, userCallback);
+        }
     }
 
 }
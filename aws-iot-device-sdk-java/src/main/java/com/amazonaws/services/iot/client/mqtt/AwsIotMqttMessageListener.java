@@ -15,6 +15,7 @@
 
 package com.amazonaws.services.iot.client.mqtt;
 
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
@@ -22,7 +23,7 @@ import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.internal.wire.MqttSuback;
 
 import com.amazonaws.services.iot.client.AWSIotMessage;
-import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
 
 /**
  * This class implements listener functions for the message events from the Paho
@@ -34,14 +35,19 @@ public class AwsIotMqttMessageListener implements IMqttActionListener {
 
     private static final int SUB_ACK_RETURN_CODE_FAILURE = 0x80;
 
-    private AbstractAwsIotClient client;
+    private final AwsIotTransportListener listener;
 
-    public AwsIotMqttMessageListener(AbstractAwsIotClient client) {
-        this.client = client;
+    public AwsIotMqttMessageListener(AwsIotTransportListener listener) {
+        this.listener = listener;
     }
 
     @Override
     public void onSuccess(IMqttToken token) {
+        if (token.getUserContext() instanceof List) {
+            onBatchSuccess(token, getMessages(token));
+            return;
+        }
+
         final AWSIotMessage message = (AWSIotMessage) token.getUserContext();
         if (message == null) {
             return;
@@ -60,21 +66,19 @@ public class AwsIotMqttMessageListener implements IMqttActionListener {
             }
         }
 
-        final boolean isSuccess = !forceFailure;
-        client.scheduleTask(new Runnable() {
-            @Override
-            public void run() {
-                if (isSuccess) {
-                    message.onSuccess();
-                } else {
-                    message.onFailure();
-                }
-            }
-        });
+        onCompletion(message, !forceFailure);
     }
 
     @Override
     public void onFailure(IMqttToken token, Throwable cause) {
+        if (token.getUserContext() instanceof List) {
+            LOGGER.warning("Request failed: " + token.getException());
+            for (AWSIotMessage message : getMessages(token)) {
+                onCompletion(message, false);
+            }
+            return;
+        }
+
         final AWSIotMessage message = (AWSIotMessage) token.getUserContext();
         if (message == null) {
             LOGGER.warning("Request failed: " + token.getException());
@@ -82,12 +86,34 @@ public class AwsIotMqttMessageListener implements IMqttActionListener {
         }
 
         LOGGER.warning("Request failed for topic " + message.getTopic() + ": " + token.getException());
-        client.scheduleTask(new Runnable() {
-            @Override
-            public void run() {
-                message.onFailure();
+        onCompletion(message, false);
+    }
+
+    private void onBatchSuccess(IMqttToken token, List<AWSIotMessage> messages) {
+        // each topic in a multi-topic subscribe request has its own return code
+        int qos[] = null;
+        if (token.getResponse() instanceof MqttSuback) {
+            qos = ((MqttSuback) token.getResponse()).getGrantedQos();
+        }
+
+        for (int i = 0; i < messages.size(); i++) {
+            boolean isSuccess = true;
+            if (qos != null && i < qos.length && qos[i] == SUB_ACK_RETURN_CODE_FAILURE) {
+                LOGGER.warning("Request failed for topic " + messages.get(i).getTopic()
+                        + ": likely due to too many subscriptions or policy violations");
+                isSuccess = false;
             }
-        });
+            onCompletion(messages.get(i), isSuccess);
+        }
+    }
+
+    private void onCompletion(AWSIotMessage message, boolean isSuccess) {
+        listener.onAcknowledged(message, isSuccess);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<AWSIotMessage> getMessages(IMqttToken token) {
+        return (List<AWSIotMessage>) token.getUserContext();
     }
 
 }
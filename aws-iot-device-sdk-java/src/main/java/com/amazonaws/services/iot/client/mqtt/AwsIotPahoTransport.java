@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.mqtt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.net.SocketFactory;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotProtocolVersion;
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotMessageCallback;
+import com.amazonaws.services.iot.client.core.AwsIotRetryableException;
+import com.amazonaws.services.iot.client.core.AwsIotTransport;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
+
+import lombok.Getter;
+
+/**
+ * This class implements {@link AwsIotTransport} on top of the Paho MQTT
+ * library. Paho tokens and callbacks are translated into
+ * {@link AwsIotTransportListener} events by {@link AwsIotMqttConnectionListener},
+ * {@link AwsIotMqttMessageListener} and {@link AwsIotMqttClientListener}.
+ */
+@Getter
+public class AwsIotPahoTransport implements AwsIotTransport {
+
+    private final AbstractAwsIotClient client;
+    private final SocketFactory socketFactory;
+    private final AwsIotTransportListener listener;
+
+    private MqttAsyncClient mqttClient;
+    private AwsIotMqttMessageListener messageListener;
+    private AwsIotMqttClientListener clientListener;
+    // only used in the adaptive keep-alive mode
+    private AwsIotAdaptivePingSender pingSender;
+
+    public AwsIotPahoTransport(AbstractAwsIotClient client, SocketFactory socketFactory, String serverUri,
+            AwsIotTransportListener listener) throws AWSIotException {
+        this.client = client;
+        this.socketFactory = socketFactory;
+        this.listener = listener;
+
+        if (client.getProtocolVersion() == AWSIotProtocolVersion.MQTT_5) {
+            throw new AWSIotException("MQTT 5 is not supported by the Paho transport");
+        }
+        if (client.getWebSocketCompression() != null) {
+            throw new AWSIotException("WebSocket compression is not supported by the Paho transport");
+        }
+
+        messageListener = new AwsIotMqttMessageListener(listener);
+        clientListener = new AwsIotMqttClientListener(listener);
+
+        try {
+            if (client.isAdaptiveKeepAlive()) {
+                pingSender = new AwsIotAdaptivePingSender(client);
+                mqttClient = new AwsIotMqttAsyncClient(serverUri, client.getClientId(), new MemoryPersistence(),
+                        pingSender);
+            } else {
+                // the library's own timer based ping sender
+                mqttClient = new AwsIotMqttAsyncClient(serverUri, client.getClientId(), new MemoryPersistence());
+            }
+            mqttClient.setCallback(clientListener);
+        } catch (MqttException e) {
+            throw new AWSIotException(e);
+        }
+    }
+
+    AwsIotPahoTransport(AbstractAwsIotClient client, SocketFactory socketFactory, MqttAsyncClient mqttClient,
+            AwsIotTransportListener listener) {
+        this.client = client;
+        this.socketFactory = socketFactory;
+        this.listener = listener;
+        this.mqttClient = mqttClient;
+
+        messageListener = new AwsIotMqttMessageListener(listener);
+        clientListener = new AwsIotMqttClientListener(listener);
+    }
+
+    @Override
+    public void connect(String userName, Set<String> serverUris, AwsIotMessageCallback callback)
+            throws AWSIotException {
+        try {
+            AwsIotMqttConnectionListener connectionListener = new AwsIotMqttConnectionListener(listener, true,
+                    callback);
+            MqttConnectOptions options = buildMqttConnectOptions(userName, serverUris);
+            mqttClient.connect(options, null, connectionListener);
+        } catch (MqttException e) {
+            throw new AWSIotException(e);
+        }
+    }
+
+    @Override
+    public void disconnect(AwsIotMessageCallback callback) throws AWSIotException {
+        try {
+            AwsIotMqttConnectionListener connectionListener = new AwsIotMqttConnectionListener(listener, false,
+                    callback);
+            mqttClient.disconnect(0, null, connectionListener);
+        } catch (MqttException e) {
+            throw new AWSIotException(e);
+        }
+    }
+
+    @Override
+    public void publish(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException {
+        String topic = message.getTopic();
+        MqttMessage mqttMessage = new MqttMessage(message.getPayload());
+        mqttMessage.setQos(message.getQos().getValue());
+
+        try {
+            mqttClient.publish(topic, mqttMessage, message, messageListener);
+        } catch (MqttException e) {
+            if (e.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED) {
+                throw new AwsIotRetryableException(e);
+            } else {
+                throw new AWSIotException(e);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(List<AWSIotMessage> messages) throws AWSIotException, AwsIotRetryableException {
+        try {
+            if (messages.size() == 1) {
+                AWSIotMessage message = messages.get(0);
+                mqttClient.subscribe(message.getTopic(), message.getQos().getValue(), message, messageListener);
+                return;
+            }
+
+            String[] topics = new String[messages.size()];
+            int[] qos = new int[messages.size()];
+            for (int i = 0; i < messages.size(); i++) {
+                topics[i] = messages.get(i).getTopic();
+                qos[i] = messages.get(i).getQos().getValue();
+            }
+            mqttClient.subscribe(topics, qos, messages, messageListener);
+        } catch (MqttException e) {
+            if (e.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED) {
+                throw new AwsIotRetryableException(e);
+            } else {
+                throw new AWSIotException(e);
+            }
+        }
+    }
+
+    @Override
+    public void unsubscribe(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException {
+        try {
+            mqttClient.unsubscribe(message.getTopic(), message, messageListener);
+        } catch (MqttException e) {
+            if (e.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED) {
+                throw new AwsIotRetryableException(e);
+            } else {
+                throw new AWSIotException(e);
+            }
+        }
+    }
+
+    @Override
+    public List<AWSIotMessage> getPendingPublishes() {
+        List<AWSIotMessage> messages = new ArrayList<>();
+        for (IMqttDeliveryToken token : mqttClient.getPendingDeliveryTokens()) {
+            if (token.getUserContext() instanceof AWSIotMessage) {
+                messages.add((AWSIotMessage) token.getUserContext());
+            }
+        }
+        return messages;
+    }
+
+    private MqttConnectOptions buildMqttConnectOptions(String userName, Set<String> serverUris) {
+        MqttConnectOptions options = new MqttConnectOptions();
+
+        options.setSocketFactory(socketFactory);
+        options.setCleanSession(client.isCleanSession());
+        options.setConnectionTimeout(client.getConnectionTimeout() / 1000);
+        options.setKeepAliveInterval(client.getKeepAliveInterval() / 1000);
+        if (userName != null) {
+            options.setUserName(userName);
+        }
+
+        if (serverUris != null && !serverUris.isEmpty()) {
+            String[] uriArray = new String[serverUris.size()];
+            serverUris.toArray(uriArray);
+            options.setServerURIs(uriArray);
+        }
+
+        if (client.getWillMessage() != null) {
+            AWSIotMessage message = client.getWillMessage();
+
+            options.setWill(message.getTopic(), message.getPayload(), message.getQos().getValue(), false);
+        }
+
+        return options;
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.mqtt;
+
+import javax.net.SocketFactory;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotTransport;
+import com.amazonaws.services.iot.client.core.AwsIotTransportFactory;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
+
+/**
+ * This class creates {@link AwsIotPahoTransport} instances. It is the default
+ * transport factory of the client.
+ */
+public class AwsIotPahoTransportFactory implements AwsIotTransportFactory {
+
+    @Override
+    public AwsIotTransport createTransport(AbstractAwsIotClient client, SocketFactory socketFactory,
+            String serverUri, AwsIotTransportListener listener) throws AWSIotException {
+        return new AwsIotPahoTransport(client, socketFactory, serverUri, listener);
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.mqtt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.internal.NetworkModule;
+
+import com.amazonaws.services.iot.client.util.AwsIotEndpointResolver;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * This class implements the Paho {@link NetworkModule} for TLS connections
+ * opened by the library. The TCP connection is opened through
+ * {@link AwsIotEndpointResolver}, which caches the resolved addresses and races
+ * connection attempts across them, and the TLS socket is layered on top of it.
+ * Unlike the SSL network module of the Paho library, it keeps the SSL
+ * parameters configured by the socket factory, such as the application
+ * protocols offered through ALPN and the endpoint identification algorithm.
+ * The server name indication is derived from the host name by the JSSE
+ * provider.
+ * <p>
+ * The TLS settings of the Paho {@code MqttConnectOptions} are honored as they
+ * are by the Paho module: the enabled cipher suites, the hostname verifier
+ * called after the handshake, and whether HTTPS hostname verification is
+ * enabled.
+ * </p>
+ */
+public class AwsIotTlsNetworkModule implements NetworkModule {
+
+    private static final String SSL_SCHEME = "ssl://";
+
+    private final SSLSocketFactory socketFactory;
+    private final AwsIotEndpointResolver resolver;
+    @Getter
+    private final String host;
+    @Getter
+    private final int port;
+    private final int connectionTimeout;
+
+    /**
+     * The cipher suites enabled on the socket, or null to keep the ones
+     * enabled by the socket factory.
+     */
+    @Getter
+    @Setter
+    private String[] enabledCipherSuites;
+
+    /**
+     * The verifier checking the host name against the session after the
+     * handshake, or null if none.
+     */
+    @Getter
+    @Setter
+    private HostnameVerifier hostnameVerifier;
+
+    /**
+     * Whether the server certificate is checked against the host name during
+     * the handshake, as HTTPS does. If disabled, the endpoint identification
+     * algorithm set by the socket factory is removed.
+     */
+    @Getter
+    @Setter
+    private boolean httpsHostnameVerificationEnabled = true;
+
+    private Socket socket;
+
+    /**
+     * Instantiates a new network module.
+     *
+     * @param socketFactory
+     *            the socket factory creating the TLS sockets
+     * @param resolver
+     *            the resolver opening the TCP connections
+     * @param host
+     *            the server host name
+     * @param port
+     *            the server port
+     * @param connectionTimeout
+     *            the timeout in seconds for the TCP connection and the TLS
+     *            handshake, each; 0 means no timeout
+     */
+    public AwsIotTlsNetworkModule(SSLSocketFactory socketFactory, AwsIotEndpointResolver resolver, String host,
+            int port, int connectionTimeout) {
+        this.socketFactory = socketFactory;
+        this.resolver = resolver;
+        this.host = host;
+        this.port = port;
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    @Override
+    public void start() throws IOException, MqttException {
+        Socket tcpSocket;
+        try {
+            tcpSocket = resolver.connect(host, port, connectionTimeout * 1000);
+        } catch (ConnectException e) {
+            throw new MqttException(MqttException.REASON_CODE_SERVER_CONNECT_ERROR, e);
+        }
+
+        try {
+            socket = socketFactory.createSocket(tcpSocket, host, port, true);
+        } catch (IOException e) {
+            tcpSocket.close();
+            throw e;
+        }
+
+        if (socket instanceof SSLSocket) {
+            SSLSocket sslSocket = (SSLSocket) socket;
+            if (enabledCipherSuites != null) {
+                sslSocket.setEnabledCipherSuites(enabledCipherSuites);
+            }
+            if (!httpsHostnameVerificationEnabled) {
+                // the other parameters, e.g. ALPN, are kept
+                SSLParameters sslParams = sslSocket.getSSLParameters();
+                sslParams.setEndpointIdentificationAlgorithm(null);
+                sslSocket.setSSLParameters(sslParams);
+            }
+
+            int soTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(connectionTimeout * 1000);
+            sslSocket.startHandshake();
+            socket.setSoTimeout(soTimeout);
+
+            if (hostnameVerifier != null && !hostnameVerifier.verify(host, sslSocket.getSession())) {
+                socket.close();
+                throw new SSLPeerUnverifiedException(
+                        "Host: " + host + ", Peer Host: " + sslSocket.getSession().getPeerHost());
+            }
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void stop() throws IOException {
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    @Override
+    public String getServerURI() {
+        return SSL_SCHEME + host + ":" + port;
+    }
+
+}
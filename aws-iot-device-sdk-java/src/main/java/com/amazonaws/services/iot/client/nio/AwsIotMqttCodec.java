@@ -0,0 +1,516 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotProtocolVersion;
+
+/**
+ * This class encodes and decodes the MQTT 3.1.1 and MQTT 5 control packets used
+ * by {@link AwsIotNioTransport}. Only the packets needed by a client with QoS 0
+ * and 1 are supported. With MQTT 5, the topic alias, user property and the
+ * flow control properties are handled; other properties are skipped.
+ */
+class AwsIotMqttCodec {
+
+    static final int CONNECT = 1;
+    static final int CONNACK = 2;
+    static final int PUBLISH = 3;
+    static final int PUBACK = 4;
+    static final int SUBSCRIBE = 8;
+    static final int SUBACK = 9;
+    static final int UNSUBSCRIBE = 10;
+    static final int UNSUBACK = 11;
+    static final int PINGREQ = 12;
+    static final int PINGRESP = 13;
+    static final int DISCONNECT = 14;
+
+    /**
+     * Return and reason codes from this value on indicate failures, in both
+     * protocol versions.
+     */
+    static final int FAILURE = 0x80;
+
+    static final int DEFAULT_RECEIVE_MAXIMUM = 65535;
+
+    private static final int PROPERTY_SESSION_EXPIRY_INTERVAL = 0x11;
+    private static final int PROPERTY_SERVER_KEEP_ALIVE = 0x13;
+    private static final int PROPERTY_REASON_STRING = 0x1f;
+    private static final int PROPERTY_RECEIVE_MAXIMUM = 0x21;
+    private static final int PROPERTY_TOPIC_ALIAS_MAXIMUM = 0x22;
+    private static final int PROPERTY_TOPIC_ALIAS = 0x23;
+    private static final int PROPERTY_USER_PROPERTY = 0x26;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_REMAINING_LENGTH = 268435455;
+    private static final byte[] NO_PROPERTIES = new byte[] { 0 };
+
+    private final AWSIotProtocolVersion protocolVersion;
+    private final boolean mqtt5;
+
+    AwsIotMqttCodec(AWSIotProtocolVersion protocolVersion) {
+        this.protocolVersion = protocolVersion;
+        this.mqtt5 = (protocolVersion == AWSIotProtocolVersion.MQTT_5);
+    }
+
+    AWSIotProtocolVersion getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    /**
+     * This class represents a decoded control packet received from the server.
+     */
+    static class Packet {
+
+        int type;
+        int flags;
+        int packetId;
+        boolean sessionPresent;
+        int returnCode;
+        int[] returnCodes;
+        String topic;
+        int qos;
+        byte[] payload;
+
+        int receiveMaximum = DEFAULT_RECEIVE_MAXIMUM;
+        int topicAliasMaximum;
+        int serverKeepAlive = -1;
+        int topicAlias;
+        String reasonString;
+        Map<String, String> userProperties;
+
+    }
+
+    /**
+     * Encodes a CONNECT packet. With MQTT 5, the session ends when the network
+     * connection is closed unless a session expiry interval is sent, so the
+     * interval is sent whenever the session is not clean.
+     */
+    ByteBuffer encodeConnect(String clientId, String userName, boolean cleanSession, int keepAliveSeconds,
+            long sessionExpiryInterval, AWSIotMessage will) {
+        byte[] clientIdBytes = toBytes(clientId);
+        byte[] userNameBytes = (userName != null) ? toBytes(userName) : null;
+        byte[] willTopicBytes = (will != null) ? toBytes(will.getTopic()) : null;
+        byte[] willPayload = (will != null && will.getPayload() != null) ? will.getPayload() : new byte[0];
+        byte[] willProperties = mqtt5 ? NO_PROPERTIES : new byte[0];
+
+        byte[] properties = willProperties;
+        if (mqtt5 && !cleanSession && sessionExpiryInterval > 0) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(PROPERTY_SESSION_EXPIRY_INTERVAL);
+            writeInt(stream, (int) Math.min(sessionExpiryInterval, 0xffffffffL));
+            properties = withLength(stream.toByteArray());
+        }
+
+        int flags = cleanSession ? 0x02 : 0;
+        int length = 10 + properties.length + 2 + clientIdBytes.length;
+        if (will != null) {
+            flags |= 0x04 | (will.getQos().getValue() << 3);
+            length += willProperties.length + 2 + willTopicBytes.length + 2 + willPayload.length;
+        }
+        if (userNameBytes != null) {
+            flags |= 0x80;
+            length += 2 + userNameBytes.length;
+        }
+
+        ByteBuffer buffer = allocate(CONNECT << 4, length);
+        putString(buffer, toBytes("MQTT"));
+        buffer.put((byte) protocolVersion.getLevel());
+        buffer.put((byte) flags);
+        buffer.putShort((short) keepAliveSeconds);
+        buffer.put(properties);
+        putString(buffer, clientIdBytes);
+        if (will != null) {
+            buffer.put(willProperties);
+            putString(buffer, willTopicBytes);
+            putString(buffer, willPayload);
+        }
+        if (userNameBytes != null) {
+            putString(buffer, userNameBytes);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a PUBLISH packet. The topic alias and user properties are only
+     * sent with MQTT 5. When an established topic alias is reused, the topic
+     * should be empty.
+     */
+    ByteBuffer encodePublish(String topic, int qos, byte[] payload, int packetId, int topicAlias,
+            Map<String, String> userProperties) {
+        byte[] topicBytes = toBytes(topic);
+        if (payload == null) {
+            payload = new byte[0];
+        }
+
+        byte[] properties = new byte[0];
+        if (mqtt5) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            if (topicAlias > 0) {
+                stream.write(PROPERTY_TOPIC_ALIAS);
+                writeShort(stream, topicAlias);
+            }
+            if (userProperties != null) {
+                for (Map.Entry<String, String> property : userProperties.entrySet()) {
+                    stream.write(PROPERTY_USER_PROPERTY);
+                    writeString(stream, toBytes(property.getKey()));
+                    writeString(stream, toBytes(property.getValue()));
+                }
+            }
+            properties = withLength(stream.toByteArray());
+        }
+
+        int length = 2 + topicBytes.length + (qos > 0 ? 2 : 0) + properties.length + payload.length;
+        ByteBuffer buffer = allocate((PUBLISH << 4) | (qos << 1), length);
+        putString(buffer, topicBytes);
+        if (qos > 0) {
+            buffer.putShort((short) packetId);
+        }
+        buffer.put(properties);
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    ByteBuffer encodePuback(int packetId) {
+        // MQTT 5 allows the reason code to be omitted when it's success
+        ByteBuffer buffer = allocate(PUBACK << 4, 2);
+        buffer.putShort((short) packetId);
+        buffer.flip();
+        return buffer;
+    }
+
+    ByteBuffer encodeSubscribe(int packetId, List<AWSIotMessage> topics) {
+        byte[] properties = mqtt5 ? NO_PROPERTIES : new byte[0];
+        byte[][] topicBytes = new byte[topics.size()][];
+        int length = 2 + properties.length;
+        for (int i = 0; i < topicBytes.length; i++) {
+            topicBytes[i] = toBytes(topics.get(i).getTopic());
+            length += 2 + topicBytes[i].length + 1;
+        }
+
+        ByteBuffer buffer = allocate((SUBSCRIBE << 4) | 0x02, length);
+        buffer.putShort((short) packetId);
+        buffer.put(properties);
+        for (int i = 0; i < topicBytes.length; i++) {
+            putString(buffer, topicBytes[i]);
+            buffer.put((byte) topics.get(i).getQos().getValue());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    ByteBuffer encodeUnsubscribe(int packetId, String topic) {
+        byte[] properties = mqtt5 ? NO_PROPERTIES : new byte[0];
+        byte[] topicBytes = toBytes(topic);
+
+        ByteBuffer buffer = allocate((UNSUBSCRIBE << 4) | 0x02, 2 + properties.length + 2 + topicBytes.length);
+        buffer.putShort((short) packetId);
+        buffer.put(properties);
+        putString(buffer, topicBytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    ByteBuffer encodePingreq() {
+        return ByteBuffer.wrap(new byte[] { (byte) (PINGREQ << 4), 0 });
+    }
+
+    ByteBuffer encodeDisconnect() {
+        // MQTT 5 allows the reason code to be omitted for a normal disconnect
+        return ByteBuffer.wrap(new byte[] { (byte) (DISCONNECT << 4), 0 });
+    }
+
+    /**
+     * Decodes the next control packet from the buffer. If the buffer doesn't
+     * contain a complete packet, null is returned and the buffer position is
+     * left unchanged; otherwise the position is advanced past the packet.
+     *
+     * @param buffer
+     *            the buffer in read mode
+     * @return the decoded packet, or null if more data is needed
+     * @throws IOException
+     *             this exception is thrown when the packet is malformed
+     */
+    Packet decode(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        if (buffer.remaining() < 2) {
+            return null;
+        }
+
+        int header = buffer.get() & 0xff;
+        Integer length = getVarInt(buffer);
+        if (length == null || buffer.remaining() < length) {
+            buffer.position(start);
+            return null;
+        }
+
+        ByteBuffer body = buffer.slice();
+        body.limit(length);
+        buffer.position(buffer.position() + length);
+
+        Packet packet = new Packet();
+        packet.type = header >> 4;
+        packet.flags = header & 0x0f;
+
+        try {
+            switch (packet.type) {
+            case CONNACK:
+                packet.sessionPresent = (body.get() & 0x01) != 0;
+                packet.returnCode = body.get() & 0xff;
+                getProperties(body, packet);
+                break;
+            case PUBLISH:
+                packet.qos = (packet.flags >> 1) & 0x03;
+                packet.topic = getString(body);
+                if (packet.qos > 0) {
+                    packet.packetId = body.getShort() & 0xffff;
+                }
+                getProperties(body, packet);
+                packet.payload = new byte[body.remaining()];
+                body.get(packet.payload);
+                break;
+            case PUBACK:
+                packet.packetId = body.getShort() & 0xffff;
+                if (mqtt5 && body.hasRemaining()) {
+                    packet.returnCode = body.get() & 0xff;
+                    if (body.hasRemaining()) {
+                        getProperties(body, packet);
+                    }
+                }
+                break;
+            case SUBACK:
+            case UNSUBACK:
+                packet.packetId = body.getShort() & 0xffff;
+                getProperties(body, packet);
+                packet.returnCodes = new int[body.remaining()];
+                for (int i = 0; i < packet.returnCodes.length; i++) {
+                    packet.returnCodes[i] = body.get() & 0xff;
+                }
+                break;
+            case PINGRESP:
+                break;
+            case DISCONNECT:
+                if (!mqtt5) {
+                    throw new IOException("Unexpected packet type " + packet.type);
+                }
+                if (body.hasRemaining()) {
+                    packet.returnCode = body.get() & 0xff;
+                    if (body.hasRemaining()) {
+                        getProperties(body, packet);
+                    }
+                }
+                break;
+            default:
+                throw new IOException("Unexpected packet type " + packet.type);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Malformed packet of type " + packet.type, e);
+        }
+
+        return packet;
+    }
+
+    private void getProperties(ByteBuffer body, Packet packet) throws IOException {
+        if (!mqtt5) {
+            return;
+        }
+
+        Integer length = getVarInt(body);
+        if (length == null || length > body.remaining()) {
+            throw new IOException("Malformed properties in packet of type " + packet.type);
+        }
+
+        ByteBuffer properties = body.slice();
+        properties.limit(length);
+        body.position(body.position() + length);
+
+        while (properties.hasRemaining()) {
+            int id = properties.get() & 0xff;
+            switch (id) {
+            case PROPERTY_RECEIVE_MAXIMUM:
+                packet.receiveMaximum = properties.getShort() & 0xffff;
+                break;
+            case PROPERTY_TOPIC_ALIAS_MAXIMUM:
+                packet.topicAliasMaximum = properties.getShort() & 0xffff;
+                break;
+            case PROPERTY_TOPIC_ALIAS:
+                packet.topicAlias = properties.getShort() & 0xffff;
+                break;
+            case PROPERTY_SERVER_KEEP_ALIVE:
+                packet.serverKeepAlive = properties.getShort() & 0xffff;
+                break;
+            case PROPERTY_REASON_STRING:
+                packet.reasonString = getString(properties);
+                break;
+            case PROPERTY_USER_PROPERTY:
+                if (packet.userProperties == null) {
+                    packet.userProperties = new LinkedHashMap<>();
+                }
+                packet.userProperties.put(getString(properties), getString(properties));
+                break;
+            default:
+                skipProperty(properties, id);
+                break;
+            }
+        }
+    }
+
+    private static void skipProperty(ByteBuffer properties, int id) throws IOException {
+        switch (id) {
+        case 0x01: // payload format indicator
+        case 0x17: // request problem information
+        case 0x19: // request response information
+        case 0x24: // maximum QoS
+        case 0x25: // retain available
+        case 0x28: // wildcard subscription available
+        case 0x29: // subscription identifier available
+        case 0x2a: // shared subscription available
+            properties.get();
+            break;
+        case 0x02: // message expiry interval
+        case 0x11: // session expiry interval
+        case 0x18: // will delay interval
+        case 0x27: // maximum packet size
+            properties.getInt();
+            break;
+        case 0x03: // content type
+        case 0x08: // response topic
+        case 0x09: // correlation data
+        case 0x12: // assigned client identifier
+        case 0x15: // authentication method
+        case 0x16: // authentication data
+        case 0x1a: // response information
+        case 0x1c: // server reference
+            int length = properties.getShort() & 0xffff;
+            if (length > properties.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            properties.position(properties.position() + length);
+            break;
+        case 0x0b: // subscription identifier
+            if (getVarInt(properties) == null) {
+                throw new IOException("Malformed subscription identifier");
+            }
+            break;
+        default:
+            throw new IOException("Unknown property " + id);
+        }
+    }
+
+    /**
+     * Reads a variable byte integer.
+     *
+     * @return the value, or null if the buffer ends before the value does
+     */
+    private static Integer getVarInt(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        int multiplier = 1;
+        int encodedByte;
+        do {
+            if (!buffer.hasRemaining()) {
+                return null;
+            }
+            if (multiplier > 128 * 128 * 128) {
+                throw new IOException("Malformed variable byte integer");
+            }
+            encodedByte = buffer.get() & 0xff;
+            value += (encodedByte & 0x7f) * multiplier;
+            multiplier *= 128;
+        } while ((encodedByte & 0x80) != 0);
+        return value;
+    }
+
+    private static ByteBuffer allocate(int header, int length) {
+        if (length > MAX_REMAINING_LENGTH) {
+            throw new IllegalArgumentException("Packet too large: " + length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 + getVarIntSize(length) + length);
+        buffer.put((byte) header);
+        putVarInt(buffer, length);
+        return buffer;
+    }
+
+    private static int getVarIntSize(int value) {
+        int size = 1;
+        for (int v = value; v > 127; v /= 128) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarInt(ByteBuffer buffer, int value) {
+        int v = value;
+        do {
+            int encodedByte = v % 128;
+            v /= 128;
+            if (v > 0) {
+                encodedByte |= 0x80;
+            }
+            buffer.put((byte) encodedByte);
+        } while (v > 0);
+    }
+
+    private static byte[] withLength(byte[] properties) {
+        ByteBuffer buffer = ByteBuffer.allocate(getVarIntSize(properties.length) + properties.length);
+        putVarInt(buffer, properties.length);
+        buffer.put(properties);
+        return buffer.array();
+    }
+
+    private static byte[] toBytes(String value) {
+        return value.getBytes(UTF8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    private static void writeShort(ByteArrayOutputStream stream, int value) {
+        stream.write(value >> 8);
+        stream.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream stream, int value) {
+        writeShort(stream, value >>> 16);
+        writeShort(stream, value);
+    }
+
+    private static void writeString(ByteArrayOutputStream stream, byte[] value) {
+        writeShort(stream, value.length);
+        stream.write(value, 0, value.length);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, UTF8);
+    }
+
+}
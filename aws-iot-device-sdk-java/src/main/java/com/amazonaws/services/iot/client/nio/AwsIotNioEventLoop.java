@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class implements a single event-loop thread. It drives the I/O of all
+ * the channels registered with its selector, and runs the tasks and timers
+ * submitted to it. Channel state is only accessed on the event-loop thread, so
+ * no locking is needed for it.
+ */
+class AwsIotNioEventLoop implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(AwsIotNioEventLoop.class.getName());
+
+    /**
+     * This interface is implemented by the owners of the registered channels.
+     */
+    interface Handler {
+
+        /**
+         * On the channel ready for the operations selected by the key. Called
+         * on the event-loop thread.
+         *
+         * @param key
+         *            the selection key of the channel
+         */
+        void onReady(SelectionKey key);
+
+    }
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final AtomicLong timerSequence = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    AwsIotNioEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs the task on the event-loop thread.
+     *
+     * @param task
+     *            the task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs the task on the event-loop thread after the delay.
+     *
+     * @param task
+     *            the task to run
+     * @param delay
+     *            the delay in milliseconds
+     * @return the timer, which can be cancelled from any thread
+     */
+    Timer schedule(Runnable task, long delay) {
+        final Timer timer = new Timer(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay),
+                timerSequence.incrementAndGet());
+        if (inEventLoop()) {
+            timers.add(timer);
+        } else {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    timers.add(timer);
+                }
+            });
+        }
+        return timer;
+    }
+
+    /**
+     * Registers a channel with the selector. Must be called on the event-loop
+     * thread.
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                select();
+                processSelectedKeys();
+                runTimers();
+                runTasks();
+            } catch (Throwable e) {
+                LOGGER.log(Level.WARNING, "Unexpected error in event loop " + thread.getName(), e);
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to close selector", e);
+        }
+    }
+
+    private void select() throws IOException {
+        if (!tasks.isEmpty()) {
+            selector.selectNow();
+            return;
+        }
+
+        Timer timer = timers.peek();
+        if (timer == null) {
+            selector.select();
+            return;
+        }
+
+        long timeout = TimeUnit.NANOSECONDS.toMillis(timer.deadline - System.nanoTime());
+        if (timeout <= 0) {
+            selector.selectNow();
+        } else {
+            selector.select(timeout);
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+
+            try {
+                ((Handler) key.attachment()).onReady(key);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Unexpected error while processing channel events", e);
+            }
+        }
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        while (!timers.isEmpty() && timers.peek().deadline - now <= 0) {
+            Timer timer = timers.poll();
+            if (!timer.cancelled) {
+                runTask(timer.task);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runTask(task);
+        }
+    }
+
+    private static void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unexpected error while running event-loop task", e);
+        }
+    }
+
+    /**
+     * This class represents a task scheduled on the event loop.
+     */
+    static class Timer implements Comparable<Timer> {
+
+        private final Runnable task;
+        private final long deadline;
+        private final long sequence;
+        private volatile boolean cancelled;
+
+        Timer(Runnable task, long deadline, long sequence) {
+            this.task = task;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            long diff = deadline - other.deadline;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+
+    }
+
+}
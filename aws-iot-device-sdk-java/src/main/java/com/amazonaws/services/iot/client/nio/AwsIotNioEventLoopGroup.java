@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.nio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.core.AwsIotRuntimeException;
+
+/**
+ * This class provides a fixed set of event-loop threads shared by
+ * {@link AwsIotNioTransport} connections. Connections are assigned to the event
+ * loops in round-robin order, and each event loop drives any number of
+ * connections, so the number of threads doesn't grow with the number of
+ * clients. The event-loop threads are daemon threads.
+ */
+public class AwsIotNioEventLoopGroup {
+
+    private static AwsIotNioEventLoopGroup defaultGroup;
+
+    private final AwsIotNioEventLoop[] eventLoops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public AwsIotNioEventLoopGroup(int numOfThreads) throws AWSIotException {
+        if (numOfThreads <= 0) {
+            throw new IllegalArgumentException("Number of event-loop threads must be positive");
+        }
+
+        eventLoops = new AwsIotNioEventLoop[numOfThreads];
+        try {
+            for (int i = 0; i < numOfThreads; i++) {
+                eventLoops[i] = new AwsIotNioEventLoop("aws-iot-nio-" + i);
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw new AWSIotException(e);
+        }
+    }
+
+    /**
+     * Gets the group shared by default by all the NIO transports, with one
+     * event-loop thread per available processor.
+     *
+     * @return the default event-loop group
+     */
+    public static synchronized AwsIotNioEventLoopGroup getDefault() {
+        if (defaultGroup == null) {
+            try {
+                defaultGroup = new AwsIotNioEventLoopGroup(Runtime.getRuntime().availableProcessors());
+            } catch (AWSIotException e) {
+                throw new AwsIotRuntimeException(e);
+            }
+        }
+        return defaultGroup;
+    }
+
+    public int getNumOfThreads() {
+        return eventLoops.length;
+    }
+
+    /**
+     * Stops the event-loop threads. Connections still open on the group are
+     * not closed gracefully.
+     */
+    public void shutdown() {
+        for (AwsIotNioEventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.shutdown();
+            }
+        }
+    }
+
+    AwsIotNioEventLoop next() {
+        return eventLoops[(next.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * This class moves application data over a non-blocking socket channel without
+ * encryption. It's the base for {@link AwsIotNioTlsSession}, and is used
+ * directly for plain TCP connections. All the methods must be called on the
+ * event-loop thread.
+ */
+class AwsIotNioSession {
+
+    protected final SocketChannel channel;
+
+    AwsIotNioSession(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Progresses the handshake of the session, if any.
+     *
+     * @return true if the handshake is completed, false if it's waiting for
+     *         the channel to become readable or writable
+     * @throws IOException
+     *             this exception is thrown when the handshake fails
+     */
+    boolean handshake() throws IOException {
+        return true;
+    }
+
+    /**
+     * Reads application data from the channel.
+     *
+     * @param dst
+     *            the buffer to read into
+     * @return the number of bytes read, possibly zero, or -1 if the channel has
+     *         reached end-of-stream
+     * @throws IOException
+     *             this exception is thrown when the channel is failed to be
+     *             read
+     */
+    int read(ByteBuffer dst) throws IOException {
+        return channel.read(dst);
+    }
+
+    /**
+     * Writes application data to the channel, as much as it accepts without
+     * blocking.
+     *
+     * @param src
+     *            the data to be written
+     * @return true if all the data has been written to the channel, false if
+     *         the channel needs to become writable again
+     * @throws IOException
+     *             this exception is thrown when the channel is failed to be
+     *             written
+     */
+    boolean write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (channel.write(src) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the data held by the session to the channel, as much as it
+     * accepts without blocking.
+     *
+     * @return true if all the data has been written to the channel
+     * @throws IOException
+     *             this exception is thrown when the channel is failed to be
+     *             written
+     */
+    boolean flush() throws IOException {
+        return true;
+    }
+
+    /**
+     * Checks whether the session holds data that has not been written to the
+     * channel yet.
+     *
+     * @return true if there's pending data
+     */
+    boolean hasPendingWrites() {
+        return false;
+    }
+
+    /**
+     * Releases the resources held by the session. The channel itself is
+     * closed by the caller.
+     */
+    void close() {
+    }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+/**
+ * This class moves application data over a non-blocking socket channel with
+ * TLS, using an {@link SSLEngine}. Delegated tasks of the engine are run
+ * inline on the event-loop thread.
+ */
+class AwsIotNioTlsSession extends AwsIotNioSession {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+
+    // netIn and appIn are kept in write mode, netOut in read mode
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private boolean handshakeStarted;
+
+    AwsIotNioTlsSession(SocketChannel channel, SSLEngine engine) {
+        super(channel);
+        this.engine = engine;
+
+        netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        netOut.flip();
+        appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    SSLEngine getEngine() {
+        return engine;
+    }
+
+    @Override
+    boolean handshake() throws IOException {
+        if (!handshakeStarted) {
+            engine.beginHandshake();
+            handshakeStarted = true;
+        }
+
+        while (true) {
+            if (!flushNetOut()) {
+                return false;
+            }
+
+            HandshakeStatus status = engine.getHandshakeStatus();
+            switch (status) {
+            case NOT_HANDSHAKING:
+            case FINISHED:
+                return true;
+            case NEED_TASK:
+                runDelegatedTasks();
+                break;
+            case NEED_WRAP:
+                wrap(EMPTY);
+                break;
+            case NEED_UNWRAP:
+                if (!unwrap() && engine.getHandshakeStatus() == HandshakeStatus.NEED_UNWRAP && fill() == 0) {
+                    return false;
+                }
+                break;
+            default:
+                // NEED_UNWRAP_AGAIN, added in Java 9 for DTLS
+                unwrap();
+                break;
+            }
+        }
+    }
+
+    @Override
+    int read(ByteBuffer dst) throws IOException {
+        int count = drain(dst);
+        while (dst.hasRemaining()) {
+            if (!unwrap()) {
+                int filled = fill();
+                if (filled == 0) {
+                    break;
+                }
+                continue;
+            }
+
+            // handle post-handshake messages, e.g. TLS 1.3 key updates
+            HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            } else if (status == HandshakeStatus.NEED_WRAP) {
+                flush();
+            }
+            count += drain(dst);
+        }
+        return count;
+    }
+
+    @Override
+    boolean write(ByteBuffer src) throws IOException {
+        while (true) {
+            if (!flushNetOut()) {
+                return false;
+            }
+            if (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+                wrap(EMPTY);
+                continue;
+            }
+            if (!src.hasRemaining()) {
+                return true;
+            }
+            wrap(src);
+        }
+    }
+
+    @Override
+    boolean flush() throws IOException {
+        return write(EMPTY);
+    }
+
+    @Override
+    boolean hasPendingWrites() {
+        return netOut.hasRemaining();
+    }
+
+    private boolean flushNetOut() throws IOException {
+        while (netOut.hasRemaining()) {
+            if (channel.write(netOut) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void wrap(ByteBuffer src) throws IOException {
+        netOut.clear();
+        while (true) {
+            SSLEngineResult result = engine.wrap(src, netOut);
+            switch (result.getStatus()) {
+            case OK:
+                netOut.flip();
+                return;
+            case BUFFER_OVERFLOW:
+                netOut = ByteBuffer.allocate(netOut.capacity() * 2);
+                break;
+            default:
+                netOut.flip();
+                throw new SSLException("Unexpected wrap status " + result.getStatus());
+            }
+        }
+    }
+
+    /**
+     * Unwraps the next TLS record from netIn into appIn.
+     *
+     * @return true if a record has been consumed, false if more network data
+     *         is needed or the engine made no progress
+     */
+    private boolean unwrap() throws IOException {
+        while (true) {
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+
+            switch (result.getStatus()) {
+            case OK:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            case BUFFER_UNDERFLOW:
+                int packetSize = engine.getSession().getPacketBufferSize();
+                if (netIn.capacity() < packetSize) {
+                    ByteBuffer buffer = ByteBuffer.allocate(packetSize);
+                    netIn.flip();
+                    buffer.put(netIn);
+                    netIn = buffer;
+                }
+                return false;
+            case BUFFER_OVERFLOW:
+                ByteBuffer buffer = ByteBuffer.allocate(
+                        Math.max(appIn.capacity() * 2, engine.getSession().getApplicationBufferSize()));
+                appIn.flip();
+                buffer.put(appIn);
+                appIn = buffer;
+                break;
+            default:
+                throw new EOFException("TLS session closed by server");
+            }
+        }
+    }
+
+    private int fill() throws IOException {
+        int count = channel.read(netIn);
+        if (count < 0) {
+            throw new EOFException("Connection closed by server");
+        }
+        return count;
+    }
+
+    private int drain(ByteBuffer dst) {
+        appIn.flip();
+        int count = Math.min(appIn.remaining(), dst.remaining());
+        if (count > 0) {
+            ByteBuffer slice = appIn.duplicate();
+            slice.limit(slice.position() + count);
+            dst.put(slice);
+            appIn.position(appIn.position() + count);
+        }
+        appIn.compact();
+        return count;
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+}
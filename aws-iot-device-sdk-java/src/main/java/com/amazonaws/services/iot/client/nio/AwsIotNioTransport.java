@@ -0,0 +1,1014 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotProtocolVersion;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotMessageCallback;
+import com.amazonaws.services.iot.client.core.AwsIotRetryableException;
+import com.amazonaws.services.iot.client.core.AwsIotTransport;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
+import com.amazonaws.services.iot.client.nio.AwsIotMqttCodec.Packet;
+import com.amazonaws.services.iot.client.util.AwsIotEndpointResolver;
+import com.amazonaws.services.iot.client.util.AwsIotTlsSocketFactory;
+
+/**
+ * This class implements an MQTT 3.1.1 client on a non-blocking socket channel.
+ * All the I/O, timers and protocol state of the connection are handled by one
+ * thread of an {@link AwsIotNioEventLoopGroup}, which is shared with other
+ * connections, so no threads are dedicated to a connection.
+ * <p>
+ * TLS ({@code ssl://}) connections require the socket factory to be an
+ * {@link AwsIotTlsSocketFactory} created from a key store, as the
+ * {@link SSLEngine} is created from its SSL context. Plain TCP ({@code tcp://})
+ * is also supported. QoS 0 and 1 are supported in both directions.
+ * </p>
+ * <p>
+ * WebSocket connections ({@code wss://} with the default SSL context, and
+ * {@code ws://}) carry MQTT in binary messages, see
+ * {@link AwsIotNioWebSocketSession}. The {@code permessage-deflate} extension
+ * is offered when {@link AbstractAwsIotClient#getWebSocketCompression()} is
+ * set.
+ * </p>
+ * <p>
+ * With {@link AWSIotProtocolVersion#MQTT_5}, topic aliases are assigned to the
+ * most recently published topics, up to the limit allowed by the server and
+ * {@link AbstractAwsIotClient#getMaxTopicAliases()}. QoS 1 messages beyond the
+ * receive maximum of the server are held back until earlier ones are
+ * acknowledged, and user properties are sent and received with messages.
+ * </p>
+ * <p>
+ * The resolved server addresses are raced the same way as by
+ * {@link AwsIotEndpointResolver#connect(String, int, int)}: a new connection
+ * attempt is started every attempt delay of the resolver, or right away when
+ * an attempt fails, and the first TCP connection established is used. The
+ * cached addresses are invalidated when none of them could be connected to.
+ * The connection is considered lost when nothing has been received from the
+ * server within 1.5 times the keep-alive interval.
+ * </p>
+ */
+public class AwsIotNioTransport implements AwsIotTransport {
+
+    private static final Logger LOGGER = Logger.getLogger(AwsIotNioTransport.class.getName());
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_PACKET_ID = 65535;
+
+    enum State {
+        DISCONNECTED, CONNECTING, CONNECTED, DISCONNECTING
+    }
+
+    private final AbstractAwsIotClient client;
+    private final AwsIotEndpointResolver resolver;
+    private final AwsIotTlsSocketFactory tlsSocketFactory;
+    private final String serverUri;
+    private final AwsIotTransportListener listener;
+    private final AwsIotNioEventLoop eventLoop;
+    private final ChannelHandler handler = new ChannelHandler();
+    private final AtomicReference<State> state = new AtomicReference<>(State.DISCONNECTED);
+
+    private final Set<AWSIotMessage> pendingPublishes = Collections
+            .newSetFromMap(new ConcurrentHashMap<AWSIotMessage, Boolean>());
+
+    private volatile AwsIotMessageCallback disconnectCallback;
+
+    // the fields below are only accessed on the event-loop thread
+    private final Queue<Outbound> outbound = new ArrayDeque<>();
+    private final Map<Integer, List<AWSIotMessage>> pendingAcks = new HashMap<>();
+    private final Queue<AWSIotMessage> throttledPublishes = new ArrayDeque<>();
+    private final Map<String, Integer> topicAliases = new LinkedHashMap<>(16, 0.75f, true);
+    private int lastPacketId;
+    private int sendQuota;
+    private int topicAliasMaximum;
+
+    private AwsIotMqttCodec codec;
+
+    private List<Endpoint> endpoints;
+    private int endpointIndex;
+    private final List<Attempt> attempts = new ArrayList<>();
+    private IOException attemptError;
+    private ByteBuffer connectPacket;
+    private AwsIotMessageCallback connectCallback;
+    private long connectStartTime;
+
+    private SocketChannel channel;
+    private SelectionKey key;
+    private AwsIotNioSession session;
+    private ByteBuffer inbound;
+    private boolean handshakeCompleted;
+
+    private AwsIotNioEventLoop.Timer connectTimer;
+    private AwsIotNioEventLoop.Timer attemptTimer;
+    private AwsIotNioEventLoop.Timer keepAliveTimer;
+    private long lastOutboundTime;
+    private long lastInboundTime;
+    private long pingSentTime;
+    private boolean pingOutstanding;
+
+    public AwsIotNioTransport(AbstractAwsIotClient client, SocketFactory socketFactory, String serverUri,
+            AwsIotTransportListener listener, AwsIotNioEventLoopGroup eventLoopGroup) throws AWSIotException {
+        this(client, socketFactory, serverUri, listener, eventLoopGroup, AwsIotEndpointResolver.getDefault());
+    }
+
+    AwsIotNioTransport(AbstractAwsIotClient client, SocketFactory socketFactory, String serverUri,
+            AwsIotTransportListener listener, AwsIotNioEventLoopGroup eventLoopGroup, AwsIotEndpointResolver resolver)
+            throws AWSIotException {
+        this.client = client;
+        this.resolver = resolver;
+        this.serverUri = serverUri;
+        this.listener = listener;
+
+        if ("ssl".equals(parseUri(serverUri).getScheme())) {
+            if (!isKeyStoreTlsSocketFactory(socketFactory)) {
+                throw new AWSIotException(
+                        "NIO transport requires a TLS socket factory created from a key store: " + serverUri);
+            }
+            tlsSocketFactory = (AwsIotTlsSocketFactory) socketFactory;
+        } else {
+            tlsSocketFactory = null;
+        }
+
+        eventLoop = eventLoopGroup.next();
+    }
+
+    /**
+     * Checks whether a connection can be carried by this transport.
+     *
+     * @param socketFactory
+     *            the socket factory of the connection
+     * @param serverUri
+     *            the server URI of the connection
+     * @return true if the connection is supported
+     */
+    public static boolean isSupported(SocketFactory socketFactory, String serverUri) {
+        if (serverUri == null) {
+            return false;
+        }
+        if (serverUri.startsWith("tcp://") || serverUri.startsWith("ws://")) {
+            return true;
+        }
+        if (serverUri.startsWith("wss://")) {
+            return socketFactory == null;
+        }
+        return serverUri.startsWith("ssl://") && isKeyStoreTlsSocketFactory(socketFactory);
+    }
+
+    private static boolean isKeyStoreTlsSocketFactory(SocketFactory socketFactory) {
+        return (socketFactory instanceof AwsIotTlsSocketFactory)
+                && ((AwsIotTlsSocketFactory) socketFactory).getSessionContext() != null;
+    }
+
+    State getState() {
+        return state.get();
+    }
+
+    @Override
+    public void connect(String userName, Set<String> serverUris, final AwsIotMessageCallback callback)
+            throws AWSIotException {
+        List<String> uris = new ArrayList<>();
+        if (serverUris != null && !serverUris.isEmpty()) {
+            uris.addAll(serverUris);
+        } else {
+            uris.add(serverUri);
+        }
+
+        // resolved on the calling thread as lookups block
+        final List<Endpoint> endpoints = new ArrayList<>();
+        IOException error = null;
+        for (String uri : uris) {
+            URI parsedUri = parseUri(uri);
+            try {
+                for (InetAddress address : resolver.resolve(parsedUri.getHost())) {
+                    endpoints.add(new Endpoint(parsedUri, new InetSocketAddress(address, parsedUri.getPort())));
+                }
+            } catch (UnknownHostException e) {
+                error = e;
+            }
+        }
+        final IOException resolveError = error;
+
+        final AwsIotMqttCodec codec = new AwsIotMqttCodec(client.getProtocolVersion());
+        final ByteBuffer packet = codec.encodeConnect(client.getClientId(), userName,
+                client.isCleanSession(), client.getKeepAliveInterval() / 1000, client.getSessionExpiryInterval(),
+                client.getWillMessage());
+
+        if (!state.compareAndSet(State.DISCONNECTED, State.CONNECTING)) {
+            throw new AWSIotException("Client is already connected or connecting");
+        }
+
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                startConnect(codec, endpoints, resolveError, packet, callback);
+            }
+        });
+    }
+
+    @Override
+    public void disconnect(AwsIotMessageCallback callback) throws AWSIotException {
+        disconnectCallback = callback;
+        if (!state.compareAndSet(State.CONNECTED, State.DISCONNECTING)) {
+            throw new AWSIotException("Client is not connected");
+        }
+
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeGracefully();
+            }
+        });
+    }
+
+    @Override
+    public void publish(final AWSIotMessage message) throws AWSIotException, AwsIotRetryableException {
+        checkConnected();
+        pendingPublishes.add(message);
+
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state.get() != State.CONNECTED) {
+                    acknowledge(message, false);
+                    return;
+                }
+
+                if (message.getQos().getValue() > 0 && sendQuota == 0) {
+                    // held back until the server acknowledges an earlier message
+                    throttledPublishes.add(message);
+                    return;
+                }
+
+                enqueuePublish(message);
+                writeOutbound();
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(final List<AWSIotMessage> messages) throws AWSIotException, AwsIotRetryableException {
+        checkConnected();
+
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state.get() != State.CONNECTED) {
+                    for (AWSIotMessage message : messages) {
+                        acknowledge(message, false);
+                    }
+                    return;
+                }
+
+                int packetId = addPendingAck(messages);
+                if (packetId == 0) {
+                    return;
+                }
+                enqueue(codec.encodeSubscribe(packetId, messages), null);
+                writeOutbound();
+            }
+        });
+    }
+
+    @Override
+    public void unsubscribe(final AWSIotMessage message) throws AWSIotException, AwsIotRetryableException {
+        checkConnected();
+
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state.get() != State.CONNECTED) {
+                    acknowledge(message, false);
+                    return;
+                }
+
+                int packetId = addPendingAck(Collections.singletonList(message));
+                if (packetId == 0) {
+                    return;
+                }
+                enqueue(codec.encodeUnsubscribe(packetId, message.getTopic()), null);
+                writeOutbound();
+            }
+        });
+    }
+
+    @Override
+    public List<AWSIotMessage> getPendingPublishes() {
+        return new ArrayList<>(pendingPublishes);
+    }
+
+    private void acknowledge(AWSIotMessage message, boolean isSuccess) {
+        pendingPublishes.remove(message);
+        listener.onAcknowledged(message, isSuccess);
+    }
+
+    private void checkConnected() throws AwsIotRetryableException {
+        if (state.get() != State.CONNECTED) {
+            throw new AwsIotRetryableException("Client is not connected");
+        }
+    }
+
+    private void startConnect(AwsIotMqttCodec codec, List<Endpoint> endpoints, IOException resolveError,
+            ByteBuffer connectPacket, AwsIotMessageCallback callback) {
+        this.codec = codec;
+        this.endpoints = endpoints;
+        this.endpointIndex = 0;
+        this.connectPacket = connectPacket;
+        this.connectCallback = callback;
+        this.connectStartTime = System.currentTimeMillis();
+
+        int timeout = client.getConnectionTimeout();
+        if (timeout > 0) {
+            connectTimer = eventLoop.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (state.get() == State.CONNECTING) {
+                        fail(new SocketTimeoutException("Timed out connecting to " + serverUri));
+                    }
+                }
+            }, timeout);
+        }
+
+        attemptError = resolveError;
+        startNextAttempt();
+    }
+
+    /**
+     * Starts a connection attempt to the next endpoint, and schedules the one
+     * after it in case this attempt doesn't complete within the attempt delay.
+     */
+    private void startNextAttempt() {
+        cancelAttemptTimer();
+
+        while (endpointIndex < endpoints.size()) {
+            Endpoint endpoint = endpoints.get(endpointIndex++);
+            Attempt attempt = null;
+            try {
+                attempt = new Attempt(endpoint);
+                if (!attempt.channel.connect(endpoint.address)) {
+                    attempt.key = eventLoop.register(attempt.channel, SelectionKey.OP_CONNECT, attempt);
+                    attempts.add(attempt);
+                    break;
+                }
+            } catch (IOException e) {
+                LOGGER.fine("Failed to connect to " + endpoint.address + ": " + e.getMessage());
+                if (attempt != null) {
+                    attempt.close();
+                }
+                attemptError = e;
+                continue;
+            }
+
+            // connected right away, e.g. on the loopback interface
+            try {
+                onAttemptConnected(attempt);
+            } catch (IOException e) {
+                fail(e);
+            }
+            return;
+        }
+
+        if (attempts.isEmpty()) {
+            fail(attemptError != null ? attemptError : new IOException("No server address to connect to"));
+            return;
+        }
+        if (endpointIndex < endpoints.size()) {
+            attemptTimer = eventLoop.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    attemptTimer = null;
+                    if (state.get() == State.CONNECTING) {
+                        startNextAttempt();
+                    }
+                }
+            }, resolver.getAttemptDelay());
+        }
+    }
+
+    private void onAttemptFailed(Attempt attempt, IOException e) {
+        LOGGER.fine("Failed to connect to " + attempt.endpoint.address + ": " + e.getMessage());
+        attempts.remove(attempt);
+        attempt.close();
+        attemptError = e;
+
+        // the next address is tried right away
+        startNextAttempt();
+    }
+
+    private void onAttemptConnected(Attempt attempt) throws IOException {
+        attempts.remove(attempt);
+        cancelAttemptTimer();
+        closeAttempts();
+
+        channel = attempt.channel;
+        openSession(attempt.endpoint);
+        key = eventLoop.register(channel, SelectionKey.OP_READ, handler);
+        onChannelConnected();
+    }
+
+    private void openSession(Endpoint endpoint) throws IOException {
+        String scheme = endpoint.uri.getScheme();
+        if (tlsSocketFactory != null) {
+            SSLEngine engine = tlsSocketFactory.createSSLEngine(endpoint.host, endpoint.address.getPort());
+            session = new AwsIotNioTlsSession(channel, engine);
+        } else if ("wss".equals(scheme)) {
+            session = new AwsIotNioTlsSession(channel, createWebSocketSSLEngine(endpoint));
+        } else {
+            session = new AwsIotNioSession(channel);
+        }
+
+        if ("ws".equals(scheme) || "wss".equals(scheme)) {
+            String path = endpoint.uri.getRawPath();
+            if (path == null || path.isEmpty()) {
+                path = "/";
+            }
+            if (endpoint.uri.getRawQuery() != null) {
+                path += "?" + endpoint.uri.getRawQuery();
+            }
+            session = new AwsIotNioWebSocketSession(session, endpoint.host, endpoint.address.getPort(), path,
+                    client.getWebSocketCompression());
+        }
+        inbound = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        handshakeCompleted = false;
+    }
+
+    private static SSLEngine createWebSocketSSLEngine(Endpoint endpoint) throws IOException {
+        SSLContext context;
+        try {
+            context = SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Failed to get default SSL context", e);
+        }
+
+        SSLEngine engine = context.createSSLEngine(endpoint.host, endpoint.address.getPort());
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    private void onChannelConnected() throws IOException {
+        key.interestOps(SelectionKey.OP_READ);
+        continueHandshake();
+    }
+
+    private void continueHandshake() throws IOException {
+        if (!session.handshake()) {
+            updateInterestOps();
+            return;
+        }
+
+        handshakeCompleted = true;
+        if (tlsSocketFactory != null) {
+            tlsSocketFactory.onHandshakeCompleted(((AwsIotNioTlsSession) session).getEngine().getSession(),
+                    connectStartTime);
+        }
+
+        enqueue(connectPacket, null);
+        flushOutbound();
+    }
+
+    private void onReadable() throws IOException {
+        while (true) {
+            if (!inbound.hasRemaining()) {
+                ByteBuffer buffer = ByteBuffer.allocate(inbound.capacity() * 2);
+                inbound.flip();
+                buffer.put(inbound);
+                inbound = buffer;
+            }
+
+            int count = session.read(inbound);
+            if (count < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+            if (count == 0) {
+                break;
+            }
+            lastInboundTime = System.nanoTime();
+
+            inbound.flip();
+            Packet packet;
+            while ((packet = codec.decode(inbound)) != null) {
+                onPacket(packet);
+            }
+            inbound.compact();
+        }
+
+        if (!outbound.isEmpty() || session.hasPendingWrites()) {
+            flushOutbound();
+        }
+    }
+
+    private void onPacket(Packet packet) throws IOException {
+        List<AWSIotMessage> messages;
+
+        switch (packet.type) {
+        case AwsIotMqttCodec.CONNACK:
+            if (state.get() != State.CONNECTING) {
+                throw new IOException("Unexpected CONNACK received");
+            }
+            if (packet.returnCode != 0) {
+                throw new IOException("Connection refused by server: return code " + packet.returnCode);
+            }
+
+            cancelTimers();
+            sendQuota = packet.receiveMaximum;
+            topicAliasMaximum = Math.min(packet.topicAliasMaximum, client.getMaxTopicAliases());
+            topicAliases.clear();
+            state.set(State.CONNECTED);
+            startKeepAlive(packet.serverKeepAlive >= 0 ? packet.serverKeepAlive * 1000L
+                    : client.getKeepAliveInterval());
+            listener.onConnected(packet.sessionPresent, connectCallback);
+            break;
+        case AwsIotMqttCodec.PUBLISH:
+            if (packet.qos > 1) {
+                throw new IOException("Unsupported QoS " + packet.qos + " received");
+            }
+            if (packet.topicAlias > 0) {
+                // topic aliases from the server are not enabled in CONNECT
+                throw new IOException("Unexpected topic alias received");
+            }
+            if (packet.qos == 1) {
+                enqueue(codec.encodePuback(packet.packetId), null);
+            }
+
+            AWSIotMessage message = new AWSIotMessage(packet.topic, AWSIotQos.valueOf(packet.qos), packet.payload);
+            message.setUserProperties(packet.userProperties);
+            listener.onMessageArrived(message);
+            break;
+        case AwsIotMqttCodec.PUBACK:
+            messages = pendingAcks.remove(packet.packetId);
+            if (messages != null) {
+                acknowledge(messages.get(0), packet.returnCode < AwsIotMqttCodec.FAILURE);
+                sendQuota++;
+                releaseThrottledPublishes();
+            }
+            break;
+        case AwsIotMqttCodec.SUBACK:
+        case AwsIotMqttCodec.UNSUBACK:
+            messages = pendingAcks.remove(packet.packetId);
+            if (messages != null) {
+                for (int i = 0; i < messages.size(); i++) {
+                    // an MQTT 3.1.1 UNSUBACK has no return codes
+                    boolean isSuccess = (i < packet.returnCodes.length)
+                            ? packet.returnCodes[i] < AwsIotMqttCodec.FAILURE
+                            : packet.type == AwsIotMqttCodec.UNSUBACK;
+                    acknowledge(messages.get(i), isSuccess);
+                }
+            }
+            break;
+        case AwsIotMqttCodec.PINGRESP:
+            pingOutstanding = false;
+            break;
+        case AwsIotMqttCodec.DISCONNECT:
+            throw new IOException("Disconnected by server: reason code " + packet.returnCode
+                    + (packet.reasonString != null ? " (" + packet.reasonString + ")" : ""));
+        default:
+            throw new IOException("Unexpected packet type " + packet.type);
+        }
+    }
+
+    private int addPendingAck(List<AWSIotMessage> messages) {
+        if (pendingAcks.size() >= MAX_PACKET_ID) {
+            LOGGER.warning("No packet identifier available for request");
+            for (AWSIotMessage message : messages) {
+                acknowledge(message, false);
+            }
+            return 0;
+        }
+
+        do {
+            lastPacketId = (lastPacketId % MAX_PACKET_ID) + 1;
+        } while (pendingAcks.containsKey(lastPacketId));
+
+        pendingAcks.put(lastPacketId, messages);
+        return lastPacketId;
+    }
+
+    private void enqueuePublish(AWSIotMessage message) {
+        int qos = message.getQos().getValue();
+        int packetId = 0;
+        if (qos > 0) {
+            packetId = addPendingAck(Collections.singletonList(message));
+            if (packetId == 0) {
+                return;
+            }
+            sendQuota--;
+        }
+
+        String topic = message.getTopic();
+        int topicAlias = 0;
+        if (topicAliasMaximum > 0) {
+            // aliases are kept for the most recently published topics
+            Integer alias = topicAliases.get(topic);
+            if (alias != null) {
+                topicAlias = alias;
+                topic = "";
+            } else {
+                if (topicAliases.size() < topicAliasMaximum) {
+                    topicAlias = topicAliases.size() + 1;
+                } else {
+                    Iterator<Map.Entry<String, Integer>> eldest = topicAliases.entrySet().iterator();
+                    topicAlias = eldest.next().getValue();
+                    eldest.remove();
+                }
+                topicAliases.put(topic, topicAlias);
+            }
+        }
+
+        ByteBuffer packet = codec.encodePublish(topic, qos, message.getPayload(), packetId, topicAlias,
+                message.getUserProperties());
+        // QoS 0 messages are acknowledged once written to the channel
+        enqueue(packet, (qos == 0) ? message : null);
+    }
+
+    private void releaseThrottledPublishes() {
+        while (sendQuota > 0 && !throttledPublishes.isEmpty()) {
+            enqueuePublish(throttledPublishes.poll());
+        }
+    }
+
+    private void enqueue(ByteBuffer packet, AWSIotMessage message) {
+        outbound.add(new Outbound(packet, message));
+    }
+
+    private void writeOutbound() {
+        if (!handshakeCompleted) {
+            return;
+        }
+
+        try {
+            flushOutbound();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void flushOutbound() throws IOException {
+        Outbound head;
+        while ((head = outbound.peek()) != null) {
+            if (!session.write(head.packet)) {
+                break;
+            }
+
+            outbound.poll();
+            lastOutboundTime = System.nanoTime();
+            if (head.message != null) {
+                acknowledge(head.message, true);
+            }
+        }
+
+        if (outbound.isEmpty()) {
+            session.flush();
+        }
+        updateInterestOps();
+    }
+
+    private void updateInterestOps() {
+        int ops = SelectionKey.OP_READ;
+        if (!outbound.isEmpty() || session.hasPendingWrites()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    private void startKeepAlive(final long keepAlive) {
+        if (keepAlive <= 0) {
+            return;
+        }
+
+        pingOutstanding = false;
+        lastInboundTime = System.nanoTime();
+        final long inboundTimeout = keepAlive * 3 / 2;
+        keepAliveTimer = eventLoop.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (state.get() != State.CONNECTED) {
+                    return;
+                }
+
+                long now = System.nanoTime();
+                long sincePing = TimeUnit.NANOSECONDS.toMillis(now - pingSentTime);
+                if (pingOutstanding && sincePing >= keepAlive) {
+                    fail(new SocketTimeoutException("Timed out waiting for ping response"));
+                    return;
+                }
+                // a half-open connection may still accept outgoing packets
+                long sinceInbound = TimeUnit.NANOSECONDS.toMillis(now - lastInboundTime);
+                if (sinceInbound >= inboundTimeout) {
+                    fail(new SocketTimeoutException("Nothing received from server for " + sinceInbound + "ms"));
+                    return;
+                }
+
+                long delay;
+                long sinceOutbound = TimeUnit.NANOSECONDS.toMillis(now - lastOutboundTime);
+                if (pingOutstanding) {
+                    delay = keepAlive - sincePing;
+                } else if (sinceOutbound >= keepAlive || sinceInbound >= keepAlive) {
+                    pingOutstanding = true;
+                    pingSentTime = now;
+                    enqueue(codec.encodePingreq(), null);
+                    writeOutbound();
+                    delay = keepAlive;
+                } else {
+                    delay = keepAlive - Math.max(sinceOutbound, sinceInbound);
+                }
+                delay = Math.min(delay, inboundTimeout - sinceInbound);
+
+                if (state.get() == State.CONNECTED) {
+                    keepAliveTimer = eventLoop.schedule(this, delay);
+                }
+            }
+        }, keepAlive);
+    }
+
+    private void closeGracefully() {
+        if (state.get() != State.DISCONNECTING) {
+            return;
+        }
+
+        try {
+            enqueue(codec.encodeDisconnect(), null);
+            flushOutbound();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to send DISCONNECT", e);
+        }
+
+        state.set(State.DISCONNECTED);
+        close();
+        listener.onDisconnected(true, disconnectCallback);
+    }
+
+    private void fail(Throwable cause) {
+        State previous = state.getAndSet(State.DISCONNECTED);
+        if (previous == State.DISCONNECTED) {
+            return;
+        }
+
+        if (previous == State.CONNECTING && channel == null) {
+            // the cached addresses may be stale, resolve again next time
+            for (Endpoint endpoint : endpoints) {
+                resolver.invalidate(endpoint.host);
+            }
+        }
+        close();
+        if (previous == State.CONNECTING) {
+            listener.onConnectFailed(cause, connectCallback);
+        } else if (previous == State.DISCONNECTING) {
+            listener.onDisconnected(true, disconnectCallback);
+        } else {
+            listener.onConnectionLost(cause);
+        }
+    }
+
+    private void close() {
+        cancelTimers();
+        closeAttempts();
+        closeChannel();
+
+        for (Outbound request : outbound) {
+            if (request.message != null) {
+                acknowledge(request.message, false);
+            }
+        }
+        outbound.clear();
+
+        for (AWSIotMessage message : throttledPublishes) {
+            acknowledge(message, false);
+        }
+        throttledPublishes.clear();
+
+        for (List<AWSIotMessage> messages : pendingAcks.values()) {
+            for (AWSIotMessage message : messages) {
+                acknowledge(message, false);
+            }
+        }
+        pendingAcks.clear();
+    }
+
+    private void cancelTimers() {
+        if (connectTimer != null) {
+            connectTimer.cancel();
+            connectTimer = null;
+        }
+        if (keepAliveTimer != null) {
+            keepAliveTimer.cancel();
+            keepAliveTimer = null;
+        }
+    }
+
+    private void cancelAttemptTimer() {
+        if (attemptTimer != null) {
+            attemptTimer.cancel();
+            attemptTimer = null;
+        }
+    }
+
+    private void closeAttempts() {
+        cancelAttemptTimer();
+        for (Attempt attempt : attempts) {
+            attempt.close();
+        }
+        attempts.clear();
+    }
+
+    private void closeChannel() {
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close channel", e);
+            }
+            channel = null;
+        }
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        handshakeCompleted = false;
+    }
+
+    private static URI parseUri(String uri) throws AWSIotException {
+        URI parsedUri;
+        try {
+            parsedUri = new URI(uri);
+        } catch (URISyntaxException e) {
+            throw new AWSIotException(e);
+        }
+
+        String scheme = parsedUri.getScheme();
+        if (!"ssl".equals(scheme) && !"tcp".equals(scheme) && !"wss".equals(scheme) && !"ws".equals(scheme)) {
+            throw new AWSIotException("Unsupported server URI for NIO transport: " + uri);
+        }
+        if (parsedUri.getHost() == null || parsedUri.getPort() < 0) {
+            throw new AWSIotException("Server host and port are required: " + uri);
+        }
+        return parsedUri;
+    }
+
+    /**
+     * This class handles the events of the current channel.
+     */
+    private class ChannelHandler implements AwsIotNioEventLoop.Handler {
+
+        @Override
+        public void onReady(SelectionKey readyKey) {
+            if (readyKey != key) {
+                return;
+            }
+
+            try {
+                if (!handshakeCompleted) {
+                    continueHandshake();
+                    return;
+                }
+
+                if (readyKey.isReadable()) {
+                    onReadable();
+                }
+                if (readyKey == key && readyKey.isValid() && readyKey.isWritable()) {
+                    flushOutbound();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+    }
+
+    /**
+     * This class represents a pending TCP connection attempt to an endpoint.
+     */
+    private class Attempt implements AwsIotNioEventLoop.Handler {
+
+        private final Endpoint endpoint;
+        private final SocketChannel channel;
+        private SelectionKey key;
+
+        Attempt(Endpoint endpoint) throws IOException {
+            this.endpoint = endpoint;
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+        }
+
+        @Override
+        public void onReady(SelectionKey readyKey) {
+            if (readyKey != key || !attempts.contains(this)) {
+                return;
+            }
+
+            try {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+            } catch (IOException e) {
+                onAttemptFailed(this, e);
+                return;
+            }
+
+            try {
+                onAttemptConnected(this);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close channel", e);
+            }
+        }
+
+    }
+
+    /**
+     * This class represents a resolved server address.
+     */
+    private static class Endpoint {
+
+        private final URI uri;
+        private final String host;
+        private final InetSocketAddress address;
+
+        Endpoint(URI uri, InetSocketAddress address) {
+            this.uri = uri;
+            this.host = uri.getHost();
+            this.address = address;
+        }
+
+    }
+
+    /**
+     * This class represents an encoded packet waiting to be written.
+     */
+    private static class Outbound {
+
+        private final ByteBuffer packet;
+        private final AWSIotMessage message;
+
+        Outbound(ByteBuffer packet, AWSIotMessage message) {
+            this.packet = packet;
+            this.message = message;
+        }
+
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.nio;
+
+import javax.net.SocketFactory;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotTransport;
+import com.amazonaws.services.iot.client.core.AwsIotTransportFactory;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
+
+/**
+ * This class creates {@link AwsIotNioTransport} instances driven by an
+ * {@link AwsIotNioEventLoopGroup}. The same factory can be set on any number
+ * of clients, which then share the threads of the group instead of creating
+ * their own connection threads.
+ */
+public class AwsIotNioTransportFactory implements AwsIotTransportFactory {
+
+    private final AwsIotNioEventLoopGroup eventLoopGroup;
+
+    /**
+     * Creates a factory using the default event-loop group.
+     */
+    public AwsIotNioTransportFactory() {
+        this(AwsIotNioEventLoopGroup.getDefault());
+    }
+
+    public AwsIotNioTransportFactory(AwsIotNioEventLoopGroup eventLoopGroup) {
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    public AwsIotNioEventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    @Override
+    public AwsIotTransport createTransport(AbstractAwsIotClient client, SocketFactory socketFactory,
+            String serverUri, AwsIotTransportListener listener) throws AWSIotException {
+        return new AwsIotNioTransport(client, socketFactory, serverUri, listener, eventLoopGroup);
+    }
+
+}
@@ -0,0 +1,618 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.amazonaws.services.iot.client.AWSIotWebSocketCompression;
+
+/**
+ * This class moves application data in WebSocket binary messages (RFC 6455)
+ * over another session, which is a TLS session for {@code wss://} connections.
+ * The HTTP upgrade is part of the handshake, and the {@code mqtt} subprotocol
+ * is requested.
+ * <p>
+ * When compression options are given, the {@code permessage-deflate} extension
+ * (RFC 7692) is offered, and messages are compressed in the directions the
+ * server agrees to. Each write is sent as one message; ping frames from the
+ * server are answered, and a close frame ends the stream.
+ * </p>
+ */
+class AwsIotNioWebSocketSession extends AwsIotNioSession {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final String EXTENSION_NAME = "permessage-deflate";
+    private static final byte[] DEFLATE_TAIL = { 0, 0, (byte) 0xff, (byte) 0xff };
+    private static final char[] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .toCharArray();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final int MAX_RESPONSE_SIZE = 8192;
+    private static final int MAX_FRAME_SIZE = 256 * 1024 * 1024 + 16;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MIN_INFLATE_SPACE = 1024;
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xa;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final AwsIotNioSession session;
+    private final String host;
+    private final int port;
+    private final String path;
+    private final AWSIotWebSocketCompression compression;
+    private final String key;
+
+    // netIn and appIn are kept in write mode, netOut in read mode
+    private ByteBuffer netIn = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer netOut = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer appIn = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private byte[] deflateBuffer;
+
+    private boolean requestSent;
+    private boolean upgraded;
+    private boolean closed;
+    private boolean inMessage;
+    private boolean messageCompressed;
+
+    private Deflater deflater;
+    private Inflater inflater;
+    private boolean clientNoContextTakeover;
+    private boolean serverNoContextTakeover;
+
+    /**
+     * Instantiates a WebSocket session.
+     *
+     * @param session
+     *            the session carrying the WebSocket frames
+     * @param host
+     *            the server host, used in the Host header
+     * @param port
+     *            the server port, always included in the Host header as it's
+     *            part of the signed request
+     * @param path
+     *            the request path, including the query
+     * @param compression
+     *            the options of the compression extension, or null to not offer
+     *            it
+     */
+    AwsIotNioWebSocketSession(AwsIotNioSession session, String host, int port, String path,
+            AWSIotWebSocketCompression compression) {
+        super(session.channel);
+        this.session = session;
+        this.host = host;
+        this.port = port;
+        this.path = path;
+        this.compression = compression;
+
+        byte[] nonce = new byte[16];
+        RANDOM.nextBytes(nonce);
+        key = base64(nonce);
+        netOut.flip();
+    }
+
+    /**
+     * Checks whether messages from the client are compressed.
+     *
+     * @return true if outgoing messages are compressed
+     */
+    boolean isCompressing() {
+        return deflater != null;
+    }
+
+    @Override
+    boolean handshake() throws IOException {
+        if (upgraded) {
+            return true;
+        }
+        if (!session.handshake()) {
+            return false;
+        }
+
+        if (!requestSent) {
+            append(buildRequest().getBytes(ASCII));
+            requestSent = true;
+        }
+        if (!session.write(netOut)) {
+            return false;
+        }
+
+        while (true) {
+            int end = findHeaderEnd();
+            if (end >= 0) {
+                byte[] response = new byte[end];
+                netIn.flip();
+                netIn.get(response);
+                netIn.compact();
+                onResponse(new String(response, ASCII));
+                upgraded = true;
+                return true;
+            }
+
+            if (netIn.position() >= MAX_RESPONSE_SIZE) {
+                throw new IOException("WebSocket upgrade response is too large");
+            }
+            ensureNetInCapacity(MAX_RESPONSE_SIZE);
+            int count = session.read(netIn);
+            if (count < 0) {
+                throw new IOException("Connection closed during WebSocket upgrade");
+            }
+            if (count == 0) {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    int read(ByteBuffer dst) throws IOException {
+        int count = drain(dst);
+        while (dst.hasRemaining()) {
+            if (closed) {
+                return (count > 0) ? count : -1;
+            }
+            if (decodeFrame()) {
+                count += drain(dst);
+                continue;
+            }
+
+            int filled = session.read(netIn);
+            if (filled < 0) {
+                closed = true;
+            } else if (filled == 0) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    boolean write(ByteBuffer src) throws IOException {
+        if (!session.write(netOut)) {
+            return false;
+        }
+        if (!src.hasRemaining()) {
+            return session.flush();
+        }
+
+        byte[] data = new byte[src.remaining()];
+        src.get(data);
+        if (deflater != null) {
+            writeFrame(OPCODE_BINARY, true, compress(data));
+        } else {
+            writeFrame(OPCODE_BINARY, false, data);
+        }
+        return session.write(netOut);
+    }
+
+    @Override
+    boolean flush() throws IOException {
+        return write(EMPTY);
+    }
+
+    @Override
+    boolean hasPendingWrites() {
+        return netOut.hasRemaining() || session.hasPendingWrites();
+    }
+
+    @Override
+    void close() {
+        // the native memory of the compression streams is only freed by end()
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        session.close();
+    }
+
+    private String buildRequest() {
+        StringBuilder request = new StringBuilder();
+        request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(host).append(':').append(port).append("\r\n");
+        request.append("Upgrade: websocket\r\n");
+        request.append("Connection: Upgrade\r\n");
+        request.append("Sec-WebSocket-Key: ").append(key).append("\r\n");
+        request.append("Sec-WebSocket-Version: 13\r\n");
+        request.append("Sec-WebSocket-Protocol: mqtt\r\n");
+
+        if (compression != null) {
+            // client_max_window_bits is not offered as the Deflater window is fixed
+            request.append("Sec-WebSocket-Extensions: ").append(EXTENSION_NAME);
+            if (compression.getServerMaxWindowBits() < AWSIotWebSocketCompression.MAX_WINDOW_BITS) {
+                request.append("; server_max_window_bits=").append(compression.getServerMaxWindowBits());
+            }
+            if (compression.isClientNoContextTakeover()) {
+                request.append("; client_no_context_takeover");
+            }
+            if (compression.isServerNoContextTakeover()) {
+                request.append("; server_no_context_takeover");
+            }
+            request.append("\r\n");
+        }
+
+        request.append("\r\n");
+        return request.toString();
+    }
+
+    private void onResponse(String response) throws IOException {
+        String[] lines = response.split("\r\n");
+        String[] status = lines[0].split(" ", 3);
+        if (status.length < 2 || !"101".equals(status[1])) {
+            throw new IOException("WebSocket upgrade rejected by server: " + lines[0]);
+        }
+
+        String upgrade = null;
+        String accept = null;
+        String extensions = null;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if ("Upgrade".equalsIgnoreCase(name)) {
+                upgrade = value;
+            } else if ("Sec-WebSocket-Accept".equalsIgnoreCase(name)) {
+                accept = value;
+            } else if ("Sec-WebSocket-Extensions".equalsIgnoreCase(name)) {
+                extensions = (extensions == null) ? value : extensions + ", " + value;
+            }
+        }
+
+        if (!"websocket".equalsIgnoreCase(upgrade)) {
+            throw new IOException("Invalid WebSocket upgrade header: " + upgrade);
+        }
+        if (!getAcceptKey(key).equals(accept)) {
+            throw new IOException("Invalid WebSocket accept key: " + accept);
+        }
+        if (extensions != null) {
+            onExtensions(extensions);
+        }
+    }
+
+    private void onExtensions(String extensions) throws IOException {
+        boolean negotiated = false;
+        for (String extension : extensions.split(",")) {
+            String[] params = extension.split(";");
+            if (!EXTENSION_NAME.equals(params[0].trim()) || compression == null || negotiated) {
+                throw new IOException("Unexpected WebSocket extension: " + extension.trim());
+            }
+            negotiated = true;
+
+            boolean compressing = true;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                int equals = param.indexOf('=');
+                String name = (equals < 0) ? param : param.substring(0, equals).trim();
+                String value = (equals < 0) ? null : param.substring(equals + 1).trim().replace("\"", "");
+
+                if ("client_no_context_takeover".equals(name)) {
+                    clientNoContextTakeover = true;
+                } else if ("server_no_context_takeover".equals(name)) {
+                    serverNoContextTakeover = true;
+                } else if ("client_max_window_bits".equals(name)) {
+                    // the Deflater window can't be lowered from 15 bits
+                    compressing = (parseWindowBits(value) == AWSIotWebSocketCompression.MAX_WINDOW_BITS);
+                } else if ("server_max_window_bits".equals(name)) {
+                    // any window up to 15 bits is decompressed by the Inflater
+                    parseWindowBits(value);
+                } else {
+                    throw new IOException("Unexpected WebSocket extension parameter: " + param);
+                }
+            }
+
+            clientNoContextTakeover |= compression.isClientNoContextTakeover();
+            inflater = new Inflater(true);
+            if (compressing) {
+                deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            }
+        }
+    }
+
+    private static int parseWindowBits(String value) throws IOException {
+        try {
+            int bits = Integer.parseInt(value);
+            if (bits >= AWSIotWebSocketCompression.MIN_WINDOW_BITS
+                    && bits <= AWSIotWebSocketCompression.MAX_WINDOW_BITS) {
+                return bits;
+            }
+        } catch (NumberFormatException e) {
+            // handled below
+        }
+        throw new IOException("Invalid WebSocket window bits: " + value);
+    }
+
+    private int findHeaderEnd() {
+        byte[] array = netIn.array();
+        for (int i = 3; i < netIn.position(); i++) {
+            if (array[i - 3] == '\r' && array[i - 2] == '\n' && array[i - 1] == '\r' && array[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes the next frame in netIn, and appends the data of the message to
+     * appIn.
+     *
+     * @return true if a frame has been consumed, false if more network data is
+     *         needed
+     */
+    private boolean decodeFrame() throws IOException {
+        netIn.flip();
+        try {
+            if (netIn.remaining() < 2) {
+                return false;
+            }
+
+            int start = netIn.position();
+            int b0 = netIn.get(start) & 0xff;
+            int b1 = netIn.get(start + 1) & 0xff;
+            if ((b1 & 0x80) != 0) {
+                throw new IOException("Masked WebSocket frame received from server");
+            }
+
+            int headerLength = 2;
+            long length = b1 & 0x7f;
+            if (length == 126) {
+                headerLength += 2;
+                if (netIn.remaining() < headerLength) {
+                    return false;
+                }
+                length = netIn.getShort(start + 2) & 0xffff;
+            } else if (length == 127) {
+                headerLength += 8;
+                if (netIn.remaining() < headerLength) {
+                    return false;
+                }
+                length = netIn.getLong(start + 2);
+            }
+            if (length < 0 || length > MAX_FRAME_SIZE) {
+                throw new IOException("WebSocket frame is too large: " + length);
+            }
+
+            int frameLength = headerLength + (int) length;
+            if (netIn.remaining() < frameLength) {
+                if (netIn.capacity() < frameLength) {
+                    ByteBuffer buffer = ByteBuffer.allocate(frameLength);
+                    buffer.put(netIn);
+                    netIn = buffer;
+                    netIn.flip();
+                }
+                return false;
+            }
+
+            byte[] payload = new byte[(int) length];
+            netIn.position(start + headerLength);
+            netIn.get(payload);
+            onFrame(b0, payload);
+            return true;
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    private void onFrame(int b0, byte[] payload) throws IOException {
+        boolean fin = (b0 & 0x80) != 0;
+        boolean rsv1 = (b0 & 0x40) != 0;
+        int opcode = b0 & 0x0f;
+        if ((b0 & 0x30) != 0 || (rsv1 && (inflater == null || opcode != OPCODE_TEXT && opcode != OPCODE_BINARY))) {
+            throw new IOException("Unexpected WebSocket frame flags: " + Integer.toHexString(b0));
+        }
+
+        switch (opcode) {
+        case OPCODE_TEXT:
+        case OPCODE_BINARY:
+            if (inMessage) {
+                throw new IOException("Unexpected WebSocket data frame within a fragmented message");
+            }
+            messageCompressed = rsv1;
+            onData(fin, payload);
+            break;
+        case OPCODE_CONTINUATION:
+            if (!inMessage) {
+                throw new IOException("Unexpected WebSocket continuation frame");
+            }
+            onData(fin, payload);
+            break;
+        case OPCODE_PING:
+            writeFrame(OPCODE_PONG, false, payload);
+            session.write(netOut);
+            break;
+        case OPCODE_PONG:
+            break;
+        case OPCODE_CLOSE:
+            closed = true;
+            break;
+        default:
+            throw new IOException("Unexpected WebSocket opcode " + opcode);
+        }
+    }
+
+    private void onData(boolean fin, byte[] payload) throws IOException {
+        inMessage = !fin;
+        if (!messageCompressed) {
+            ensureAppInSpace(payload.length);
+            appIn.put(payload);
+            return;
+        }
+
+        inflate(payload);
+        if (fin) {
+            inflate(DEFLATE_TAIL);
+            if (serverNoContextTakeover) {
+                inflater.reset();
+            }
+        }
+    }
+
+    private void inflate(byte[] input) throws IOException {
+        inflater.setInput(input);
+        try {
+            while (true) {
+                ensureAppInSpace(MIN_INFLATE_SPACE);
+                int count = inflater.inflate(appIn.array(), appIn.arrayOffset() + appIn.position(),
+                        appIn.remaining());
+                appIn.position(appIn.position() + count);
+                if (count == 0) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed WebSocket message", e);
+        }
+        if (!inflater.needsInput()) {
+            throw new IOException("Invalid compressed WebSocket message");
+        }
+    }
+
+    private byte[] compress(byte[] data) {
+        if (deflateBuffer == null || deflateBuffer.length < data.length + 64) {
+            deflateBuffer = new byte[Math.max(INITIAL_BUFFER_SIZE, data.length + 64)];
+        }
+
+        deflater.setInput(data);
+        int length = 0;
+        while (true) {
+            length += deflater.deflate(deflateBuffer, length, deflateBuffer.length - length, Deflater.SYNC_FLUSH);
+            if (length < deflateBuffer.length) {
+                break;
+            }
+            deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+        }
+        if (clientNoContextTakeover) {
+            deflater.reset();
+        }
+
+        // the empty block ending a sync flush is implied by the extension
+        return Arrays.copyOf(deflateBuffer, length - DEFLATE_TAIL.length);
+    }
+
+    private void writeFrame(int opcode, boolean compressed, byte[] payload) {
+        int headerLength = 6 + ((payload.length < 126) ? 0 : (payload.length <= 0xffff) ? 2 : 8);
+        ByteBuffer frame = ByteBuffer.allocate(headerLength + payload.length);
+        frame.put((byte) (0x80 | (compressed ? 0x40 : 0) | opcode));
+        if (payload.length < 126) {
+            frame.put((byte) (0x80 | payload.length));
+        } else if (payload.length <= 0xffff) {
+            frame.put((byte) (0x80 | 126));
+            frame.putShort((short) payload.length);
+        } else {
+            frame.put((byte) (0x80 | 127));
+            frame.putLong(payload.length);
+        }
+
+        byte[] mask = new byte[4];
+        RANDOM.nextBytes(mask);
+        frame.put(mask);
+        for (int i = 0; i < payload.length; i++) {
+            frame.put((byte) (payload[i] ^ mask[i & 3]));
+        }
+        append(frame.array());
+    }
+
+    private void append(byte[] data) {
+        if (netOut.capacity() - netOut.remaining() < data.length) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(netOut.capacity() * 2, netOut.remaining() + data.length));
+            buffer.put(netOut);
+            netOut = buffer;
+        } else {
+            netOut.compact();
+        }
+        netOut.put(data);
+        netOut.flip();
+    }
+
+    private void ensureNetInCapacity(int capacity) {
+        if (netIn.capacity() < capacity) {
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            netIn.flip();
+            buffer.put(netIn);
+            netIn = buffer;
+        }
+    }
+
+    private void ensureAppInSpace(int space) {
+        if (appIn.remaining() < space) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(appIn.capacity() * 2, appIn.position() + space));
+            appIn.flip();
+            buffer.put(appIn);
+            appIn = buffer;
+        }
+    }
+
+    private int drain(ByteBuffer dst) {
+        appIn.flip();
+        int count = Math.min(appIn.remaining(), dst.remaining());
+        if (count > 0) {
+            ByteBuffer slice = appIn.duplicate();
+            slice.limit(slice.position() + count);
+            dst.put(slice);
+            appIn.position(appIn.position() + count);
+        }
+        appIn.compact();
+        return count;
+    }
+
+    static String getAcceptKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return base64(digest.digest((key + ACCEPT_GUID).getBytes(ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String base64(byte[] data) {
+        StringBuilder result = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xff) << 16;
+            if (i + 1 < data.length) {
+                b |= (data[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < data.length) {
+                b |= data[i + 2] & 0xff;
+            }
+
+            result.append(BASE64_DIGITS[(b >> 18) & 0x3f]);
+            result.append(BASE64_DIGITS[(b >> 12) & 0x3f]);
+            result.append((i + 1 < data.length) ? BASE64_DIGITS[(b >> 6) & 0x3f] : '=');
+            result.append((i + 2 < data.length) ? BASE64_DIGITS[b & 0x3f] : '=');
+        }
+        return result.toString();
+    }
+
+}
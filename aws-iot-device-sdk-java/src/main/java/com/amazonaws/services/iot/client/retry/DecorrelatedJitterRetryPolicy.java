@@ -0,0 +1,42 @@
+/**
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0.
+ */
+
+package com.amazonaws.services.iot.client.retry;
+
+import java.util.Random;
+
+/**
+ * A retry policy that picks the delay uniformly at random between the base
+ * retry delay and three times the previous delay, capped by the maximum retry
+ * delay. The delay grows on average like the exponential backoff, but each
+ * client follows its own sequence, which keeps the attempts of a fleet spread
+ * out and never retries sooner than the base delay.
+ */
+public class DecorrelatedJitterRetryPolicy implements RetryPolicy {
+
+    private final Random random;
+
+    public DecorrelatedJitterRetryPolicy() {
+        this(new Random());
+    }
+
+    public DecorrelatedJitterRetryPolicy(Random random) {
+        this.random = random;
+    }
+
+    @Override
+    public long getRetryDelay(int retryTimes, long previousDelay, long baseRetryDelay, long maxRetryDelay) {
+        long base = Math.max(baseRetryDelay, 0);
+        long upper = Math.max(previousDelay, base) * 3;
+        if (upper < 0) {
+            // overflow
+            upper = Long.MAX_VALUE;
+        }
+
+        long delay = base + (long) (random.nextDouble() * (upper - base));
+        return Math.max(Math.min(delay, maxRetryDelay), 0);
+    }
+
+}
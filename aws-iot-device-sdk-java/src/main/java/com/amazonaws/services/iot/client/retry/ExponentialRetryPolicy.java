@@ -0,0 +1,28 @@
+/**
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0.
+ */
+
+package com.amazonaws.services.iot.client.retry;
+
+/**
+ * The default retry policy. The delay doubles on each attempt, starting from
+ * the base retry delay, and is capped by the maximum retry delay. Clients using
+ * this policy retry at the same instants, so it's not recommended for large
+ * fleets that may lose their connections at the same time.
+ */
+public class ExponentialRetryPolicy implements RetryPolicy {
+
+    @Override
+    public long getRetryDelay(int retryTimes, long previousDelay, long baseRetryDelay, long maxRetryDelay) {
+        return getExponentialDelay(retryTimes, baseRetryDelay, maxRetryDelay);
+    }
+
+    static long getExponentialDelay(int retryTimes, long baseRetryDelay, long maxRetryDelay) {
+        double delay = Math.pow(2.0, retryTimes) * baseRetryDelay;
+        delay = Math.min(delay, (double) maxRetryDelay);
+        delay = Math.max(delay, 0.0);
+        return (long) delay;
+    }
+
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0.
+ */
+
+package com.amazonaws.services.iot.client.retry;
+
+import java.util.Random;
+
+/**
+ * A retry policy that picks the delay uniformly at random between 0 and the
+ * exponential delay of {@link ExponentialRetryPolicy}. Clients that lost their
+ * connections at the same time spread their attempts over the whole backoff
+ * window instead of retrying in lockstep.
+ */
+public class FullJitterRetryPolicy implements RetryPolicy {
+
+    private final Random random;
+
+    public FullJitterRetryPolicy() {
+        this(new Random());
+    }
+
+    public FullJitterRetryPolicy(Random random) {
+        this.random = random;
+    }
+
+    @Override
+    public long getRetryDelay(int retryTimes, long previousDelay, long baseRetryDelay, long maxRetryDelay) {
+        long delay = ExponentialRetryPolicy.getExponentialDelay(retryTimes, baseRetryDelay, maxRetryDelay);
+        return (long) (random.nextDouble() * delay);
+    }
+
+}
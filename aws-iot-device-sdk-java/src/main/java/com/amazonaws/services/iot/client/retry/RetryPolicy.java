@@ -0,0 +1,32 @@
+/**
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0.
+ */
+
+package com.amazonaws.services.iot.client.retry;
+
+/**
+ * This interface defines how long the client waits before each attempt to
+ * re-establish a lost connection.
+ */
+public interface RetryPolicy {
+
+    /**
+     * Gets the delay before the next connection attempt.
+     *
+     * @param retryTimes
+     *            the number of attempts already made since the connection was
+     *            lost, starting from 0
+     * @param previousDelay
+     *            the delay returned for the previous attempt, or 0 if this is
+     *            the first attempt
+     * @param baseRetryDelay
+     *            the base retry delay in milliseconds configured on the client
+     * @param maxRetryDelay
+     *            the maximum retry delay in milliseconds configured on the
+     *            client
+     * @return the delay in milliseconds
+     */
+    long getRetryDelay(int retryTimes, long previousDelay, long baseRetryDelay, long maxRetryDelay);
+
+}
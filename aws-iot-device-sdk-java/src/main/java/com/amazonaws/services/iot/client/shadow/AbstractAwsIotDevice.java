@@ -18,13 +18,16 @@ package com.amazonaws.services.iot.client.shadow;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,12 +40,17 @@ import com.amazonaws.services.iot.client.AWSIotQos;
 import com.amazonaws.services.iot.client.AWSIotTimeoutException;
 import com.amazonaws.services.iot.client.AWSIotTopic;
 import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotRuntimeException;
 import com.amazonaws.services.iot.client.shadow.AwsIotDeviceCommandManager.Command;
 import com.amazonaws.services.iot.client.shadow.AwsIotDeviceCommandManager.CommandAck;
+import com.amazonaws.services.iot.client.shadow.AwsIotDeviceMetadata.Property;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -55,41 +63,89 @@ public abstract class AbstractAwsIotDevice {
 
     private static final Logger LOGGER = Logger.getLogger(AbstractAwsIotDevice.class.getName());
 
+    /**
+     * The JSON mapper shared by all the devices. Jackson mappers are thread
+     * safe once configured, and each of them holds its own serializer caches.
+     * It is never handed out to applications, as any change to its
+     * configuration would affect every device.
+     */
+    static final ObjectMapper JSON_OBJECT_MAPPER = createJsonObjectMapper();
+
     protected final String thingName;
 
     protected long reportInterval = AWSIotConfig.DEVICE_REPORT_INTERVAL;
     protected boolean enableVersioning = AWSIotConfig.DEVICE_ENABLE_VERSIONING;
+    protected boolean enableDeltaReporting = AWSIotConfig.DEVICE_ENABLE_DELTA_REPORTING;
+    protected long updateCoalescingWindow = AWSIotConfig.DEVICE_UPDATE_COALESCING_WINDOW;
     protected AWSIotQos deviceReportQos = AWSIotQos.valueOf(AWSIotConfig.DEVICE_REPORT_QOS);
     protected AWSIotQos shadowUpdateQos = AWSIotQos.valueOf(AWSIotConfig.DEVICE_SHADOW_UPDATE_QOS);
     protected AWSIotQos methodQos = AWSIotQos.valueOf(AWSIotConfig.DEVICE_METHOD_QOS);
     protected AWSIotQos methodAckQos = AWSIotQos.valueOf(AWSIotConfig.DEVICE_METHOD_ACK_QOS);
 
+    private final AwsIotDeviceMetadata deviceMetadata;
     private final Map<String, Field> reportedProperties;
     private final Map<String, Field> updatableProperties;
     private final AwsIotDeviceCommandManager commandManager;
+    private final AwsIotDeviceUpdateCoalescer updateCoalescer;
     private final ConcurrentMap<String, Boolean> deviceSubscriptions;
-    private final ObjectMapper jsonObjectMapper;
+    private final Set<String> suspendedTopics;
 
     private AbstractAwsIotClient client;
     private Future<?> syncTask;
     private AtomicLong localVersion;
+    private volatile boolean suspended;
+
+    /**
+     * The last reported state acknowledged by the shadow, and the times its
+     * properties were acknowledged, used for delta reporting. The state is
+     * null when the state of the shadow is unknown, in which case the next
+     * report includes all the properties.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final AtomicReference<ObjectNode> acknowledgedState = new AtomicReference<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ConcurrentMap<String, Long> acknowledgedTimes = new ConcurrentHashMap<>();
+
+    /**
+     * The last reported state sent to the shadow, i.e. the acknowledged state
+     * merged with the reports still in flight, and the times its properties
+     * were sent. Changes are computed against it so properties in flight are
+     * not sent again by the next rounds. The state is null when a report has
+     * failed, in which case changes are computed against the acknowledged
+     * state.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final AtomicReference<ObjectNode> sentState = new AtomicReference<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ConcurrentMap<String, Long> sentTimes = new ConcurrentHashMap<>();
+
+    /**
+     * The JSON mapper used by this device, which is the shared mapper until the
+     * application asks for a mapper of its own.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile ObjectMapper jsonObjectMapper = JSON_OBJECT_MAPPER;
 
     protected AbstractAwsIotDevice(String thingName) {
         this.thingName = thingName;
 
-        reportedProperties = getDeviceProperties(true, false);
-        updatableProperties = getDeviceProperties(false, true);
+        deviceMetadata = AwsIotDeviceMetadata.forClass(getClass());
+        reportedProperties = deviceMetadata.getReportedFields();
+        updatableProperties = deviceMetadata.getUpdatableFields();
         commandManager = new AwsIotDeviceCommandManager(this);
+        updateCoalescer = new AwsIotDeviceUpdateCoalescer(this);
 
         deviceSubscriptions = new ConcurrentHashMap<>();
         for (String topic : getDeviceTopics()) {
             deviceSubscriptions.put(topic, false);
         }
 
-        jsonObjectMapper = new ObjectMapper();
-        SimpleModule module = new SimpleModule();
-        module.addSerializer(AbstractAwsIotDevice.class, new AwsIotJsonSerializer());
-        jsonObjectMapper.registerModule(module);
+        suspendedTopics = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
         localVersion = new AtomicLong(-1);
     }
@@ -98,45 +154,108 @@ public abstract class AbstractAwsIotDevice {
         return this;
     }
 
+    /**
+     * Gets the JSON mapper used for serializing and deserializing the state of
+     * this device. On the first call, the device switches from the mapper
+     * shared by all the devices to a copy owned by this device, so the
+     * returned mapper can be customized without affecting other devices.
+     *
+     * @return the JSON mapper of this device
+     */
+    public ObjectMapper getJsonObjectMapper() {
+        if (jsonObjectMapper == JSON_OBJECT_MAPPER) {
+            synchronized (this) {
+                if (jsonObjectMapper == JSON_OBJECT_MAPPER) {
+                    jsonObjectMapper = JSON_OBJECT_MAPPER.copy();
+                }
+            }
+        }
+        return jsonObjectMapper;
+    }
+
+    /**
+     * Gets the JSON mapper used by this device for internal processing, without
+     * creating a copy of the shared mapper.
+     *
+     * @return the JSON mapper currently used by this device
+     */
+    ObjectMapper getJsonMapper() {
+        return jsonObjectMapper;
+    }
+
     protected String get() throws AWSIotException {
+        updateCoalescer.flush();
         AWSIotMessage message = new AWSIotMessage(null, methodQos);
         return commandManager.runCommandSync(Command.GET, message);
     }
 
     protected String get(long timeout) throws AWSIotException, AWSIotTimeoutException {
+        updateCoalescer.flush();
         AWSIotMessage message = new AWSIotMessage(null, methodQos);
         return commandManager.runCommandSync(Command.GET, message, timeout);
     }
 
     protected void get(AWSIotMessage message, long timeout) throws AWSIotException {
+        updateCoalescer.flush();
         commandManager.runCommand(Command.GET, message, timeout);
     }
 
     protected void update(String jsonState) throws AWSIotException {
+        resetAcknowledgedState();
         AWSIotMessage message = new AWSIotMessage(null, methodQos, jsonState);
+        if (updateCoalescingWindow > 0) {
+            try {
+                updateCoalescer.update(message, 0, false);
+            } catch (AWSIotTimeoutException e) {
+                // We shouldn't get timeout exception because timeout is 0
+                throw new AwsIotRuntimeException(e);
+            }
+            return;
+        }
         commandManager.runCommandSync(Command.UPDATE, message);
     }
 
     protected void update(String jsonState, long timeout) throws AWSIotException, AWSIotTimeoutException {
+        resetAcknowledgedState();
         AWSIotMessage message = new AWSIotMessage(null, methodQos, jsonState);
+        if (updateCoalescingWindow > 0) {
+            updateCoalescer.update(message, timeout, false);
+            return;
+        }
         commandManager.runCommandSync(Command.UPDATE, message, timeout);
     }
 
     protected void update(AWSIotMessage message, long timeout) throws AWSIotException {
+        resetAcknowledgedState();
+        if (updateCoalescingWindow > 0) {
+            try {
+                updateCoalescer.update(message, timeout, true);
+            } catch (AWSIotTimeoutException e) {
+                // We shouldn't get timeout exception because it's asynchronous call
+                throw new AwsIotRuntimeException(e);
+            }
+            return;
+        }
         commandManager.runCommand(Command.UPDATE, message, timeout);
     }
 
     protected void delete() throws AWSIotException {
+        updateCoalescer.flush();
+        resetAcknowledgedState();
         AWSIotMessage message = new AWSIotMessage(null, methodQos);
         commandManager.runCommandSync(Command.DELETE, message);
     }
 
     protected void delete(long timeout) throws AWSIotException, AWSIotTimeoutException {
+        updateCoalescer.flush();
+        resetAcknowledgedState();
         AWSIotMessage message = new AWSIotMessage(null, methodQos);
         commandManager.runCommandSync(Command.DELETE, message, timeout);
     }
 
     protected void delete(AWSIotMessage message, long timeout) throws AWSIotException {
+        updateCoalescer.flush();
+        resetAcknowledgedState();
         commandManager.runCommand(Command.DELETE, message, timeout);
     }
 
@@ -151,6 +270,58 @@ public abstract class AbstractAwsIotDevice {
         }
     }
 
+    /**
+     * Applies a shadow delta received from the delta topic to the device,
+     * after checking its version if versioning is enabled.
+     *
+     * @param message
+     *            the delta message
+     */
+    public void onShadowDelta(AWSIotMessage message) {
+        String payload = message.getStringPayload();
+        if (payload == null) {
+            LOGGER.warning("Received empty delta for device " + getThingName());
+            return;
+        }
+
+        JsonNode rootNode;
+        try {
+            rootNode = getJsonMapper().readTree(payload);
+            if (!rootNode.isObject()) {
+                throw new IOException();
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Received invalid delta for device " + getThingName());
+            return;
+        }
+
+        if (enableVersioning) {
+            JsonNode node = rootNode.get("version");
+            if (node == null) {
+                LOGGER.warning("Missing version field in delta for device " + getThingName());
+                return;
+            }
+
+            long receivedVersion = node.longValue();
+            long currentVersion = getLocalVersion().get();
+            if (receivedVersion < currentVersion) {
+                LOGGER.warning("An old version of delta received for " + getThingName() + ", local "
+                        + currentVersion + ", received " + receivedVersion);
+                return;
+            }
+
+            getLocalVersion().set(receivedVersion);
+            LOGGER.info("Local version number updated to " + receivedVersion);
+        }
+
+        JsonNode node = rootNode.get("state");
+        if (node == null) {
+            LOGGER.warning("Missing state field in delta for device " + getThingName());
+            return;
+        }
+        onShadowUpdate(node.toString());
+    }
+
     protected String onDeviceReport() {
         // synchronized block to serialize device accesses
         synchronized (this) {
@@ -166,18 +337,77 @@ public abstract class AbstractAwsIotDevice {
     public void activate() throws AWSIotException {
         stopSync();
 
+        if (client.isFleetShadowMode()) {
+            // shadow topics are subscribed to through shared wildcards
+            client.getFleetManager().activate(this);
+        } else {
+            List<AWSIotTopic> awsIotTopics = new ArrayList<>();
+            for (String topic : getDeviceTopics()) {
+                awsIotTopics.add(newTopicListener(topic));
+            }
+
+            client.subscribe(awsIotTopics, client.getServerAckTimeout());
+        }
+
+        startSync();
+    }
+
+    /**
+     * Suspends the device when the connection is lost but the session, and
+     * therefore the subscriptions, are expected to be kept by the server. The
+     * device stops reporting and is not ready for commands until
+     * {@link #resume(boolean)} is called, but nothing is unsubscribed.
+     */
+    public void suspend() {
+        stopSync();
+
+        commandManager.onDeactivate();
+
+        suspendedTopics.clear();
         for (String topic : getDeviceTopics()) {
-            AWSIotTopic awsIotTopic;
+            if (isTopicReady(topic)) {
+                suspendedTopics.add(topic);
+            }
+            deviceSubscriptions.put(topic, false);
+        }
+        suspended = true;
+    }
 
-            if (commandManager.isDeltaTopic(topic)) {
-                awsIotTopic = new AwsIotDeviceDeltaListener(topic, shadowUpdateQos, this);
-            } else {
-                awsIotTopic = new AwsIotDeviceCommandAckListener(topic, methodAckQos, this);
+    /**
+     * Resumes a suspended device after the connection is re-established. If
+     * the session was kept by the server, topics that were subscribed before
+     * the device was suspended are marked ready without any subscribe request,
+     * and only the rest are subscribed to again. Otherwise the device waits
+     * for its topics to be resubscribed along with the other subscriptions of
+     * the client.
+     *
+     * @param sessionPresent
+     *            whether the server resumed the previous session
+     * @throws AWSIotException
+     *             exception thrown if the missing topics can't be subscribed
+     *             to
+     */
+    public void resume(boolean sessionPresent) throws AWSIotException {
+        stopSync();
+
+        if (sessionPresent && !client.isFleetShadowMode()) {
+            List<AWSIotTopic> awsIotTopics = new ArrayList<>();
+            for (String topic : getDeviceTopics()) {
+                if (suspendedTopics.contains(topic)) {
+                    onSubscriptionAck(topic, true);
+                } else {
+                    awsIotTopics.add(newTopicListener(topic));
+                }
             }
 
-            client.subscribe(awsIotTopic, client.getServerAckTimeout());
+            if (!awsIotTopics.isEmpty()) {
+                client.subscribe(awsIotTopics, client.getServerAckTimeout());
+            }
         }
 
+        suspendedTopics.clear();
+        suspended = false;
+
         startSync();
     }
 
@@ -186,11 +416,18 @@ public abstract class AbstractAwsIotDevice {
 
         commandManager.onDeactivate();
 
+        boolean fleetShadowMode = client.isFleetShadowMode();
         for (String topic : getDeviceTopics()) {
             deviceSubscriptions.put(topic, false);
 
-            AWSIotTopic awsIotTopic = new AWSIotTopic(topic);
-            client.unsubscribe(awsIotTopic, client.getServerAckTimeout());
+            if (!fleetShadowMode) {
+                AWSIotTopic awsIotTopic = new AWSIotTopic(topic);
+                client.unsubscribe(awsIotTopic, client.getServerAckTimeout());
+            }
+        }
+
+        if (fleetShadowMode) {
+            client.getFleetManager().deactivate(this);
         }
     }
 
@@ -239,9 +476,15 @@ public abstract class AbstractAwsIotDevice {
                 }
 
                 String jsonState = onDeviceReport();
-                if (jsonState != null) {
+                if (jsonState == null) {
+                    return;
+                }
+
+                if (enableDeltaReporting || deviceMetadata.isReportPolicyDefined()) {
+                    sendChangedState(reportVersion, jsonState);
+                } else {
                     LOGGER.fine("Sending device report");
-                    sendDeviceReport(reportVersion, jsonState);
+                    sendDeviceReport(reportVersion, jsonState, null, null);
                 }
             }
         }, 0l, reportInterval);
@@ -254,10 +497,12 @@ public abstract class AbstractAwsIotDevice {
         }
 
         localVersion.set(-1);
+        resetAcknowledgedState();
     }
 
     protected void startVersionSync() {
         localVersion.set(-1);
+        resetAcknowledgedState();
 
         AwsIotDeviceSyncMessage message = new AwsIotDeviceSyncMessage(null, shadowUpdateQos, this);
         try {
@@ -269,7 +514,130 @@ public abstract class AbstractAwsIotDevice {
         }
     }
 
-    private void sendDeviceReport(long reportVersion, String jsonState) {
+    /**
+     * Called when a delta report is accepted by the shadow, to merge the
+     * reported properties into the acknowledged state. The report is dropped
+     * if the acknowledged state has been reset since it was generated, so the
+     * next report includes all the properties again.
+     *
+     * @param baseState
+     *            the acknowledged state the report was generated against, or
+     *            null if the report includes all the properties
+     * @param reportedState
+     *            the reported properties
+     */
+    void onDeviceReportAccepted(ObjectNode baseState, ObjectNode reportedState) {
+        while (true) {
+            ObjectNode current = acknowledgedState.get();
+            if (current == null && baseState != null) {
+                return;
+            }
+
+            ObjectNode merged = (current == null) ? jsonObjectMapper.createObjectNode() : current.deepCopy();
+            merged.setAll(reportedState);
+            if (acknowledgedState.compareAndSet(current, merged)) {
+                long now = System.currentTimeMillis();
+                for (Iterator<String> it = reportedState.fieldNames(); it.hasNext();) {
+                    acknowledgedTimes.put(it.next(), now);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called when a delta report is rejected or timed out, so the next report
+     * is computed against the acknowledged state and includes the properties
+     * that failed to be reported.
+     */
+    void onDeviceReportFailed() {
+        sentState.set(null);
+    }
+
+    private void sendChangedState(long reportVersion, String jsonState) {
+        JsonNode node;
+        try {
+            node = jsonObjectMapper.readTree(jsonState);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to parse device report", e);
+            return;
+        }
+        if (!(node instanceof ObjectNode)) {
+            LOGGER.warning("Device report is not a JSON object, skip reporting for this round");
+            return;
+        }
+
+        ObjectNode reportedState = (ObjectNode) node;
+        ObjectNode baseState = acknowledgedState.get();
+        ObjectNode lastSentState = sentState.get();
+        if (lastSentState == null) {
+            sentTimes.clear();
+            sentTimes.putAll(acknowledgedTimes);
+        }
+
+        ObjectNode diffState = (lastSentState != null) ? lastSentState : baseState;
+        if (diffState != null) {
+            reportedState = getChangedState(diffState, reportedState, sentTimes);
+            if (reportedState.size() == 0) {
+                LOGGER.fine("Device state unchanged, skip reporting for this round");
+                return;
+            }
+        }
+
+        // the state is updated before sending, as the report may fail before
+        // the call returns
+        ObjectNode newSentState = (diffState == null) ? jsonObjectMapper.createObjectNode() : diffState.deepCopy();
+        newSentState.setAll(reportedState);
+        if (!sentState.compareAndSet(lastSentState, newSentState)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Iterator<String> it = reportedState.fieldNames(); it.hasNext();) {
+            sentTimes.put(it.next(), now);
+        }
+
+        LOGGER.fine("Sending device report with " + reportedState.size() + " properties");
+        if (!sendDeviceReport(reportVersion, reportedState.toString(), baseState, reportedState)) {
+            sentState.compareAndSet(newSentState, null);
+        }
+    }
+
+    private ObjectNode getChangedState(ObjectNode baseState, ObjectNode currentState, Map<String, Long> reportTimes) {
+        ObjectNode changedState = jsonObjectMapper.createObjectNode();
+        long now = System.currentTimeMillis();
+
+        for (Iterator<Map.Entry<String, JsonNode>> it = currentState.fields(); it.hasNext();) {
+            Map.Entry<String, JsonNode> field = it.next();
+            JsonNode reportedValue = baseState.get(field.getKey());
+
+            boolean reportDue;
+            Property property = deviceMetadata.getReportedProperties().get(field.getKey());
+            if (property != null) {
+                Long reportTime = reportTimes.get(field.getKey());
+                reportDue = property.isReportDue(reportedValue, field.getValue(),
+                        (reportTime != null) ? reportTime : 0, now);
+            } else {
+                // properties added by an overridden onDeviceReport()
+                reportDue = !field.getValue().equals(reportedValue);
+            }
+
+            if (reportDue) {
+                changedState.set(field.getKey(), field.getValue());
+            }
+        }
+
+        return changedState;
+    }
+
+    private void resetAcknowledgedState() {
+        acknowledgedState.set(null);
+        acknowledgedTimes.clear();
+        sentState.set(null);
+        sentTimes.clear();
+    }
+
+    private boolean sendDeviceReport(long reportVersion, String jsonState, ObjectNode baseState,
+            ObjectNode reportedState) {
         StringBuilder payload = new StringBuilder("{");
 
         if (enableVersioning) {
@@ -278,10 +646,10 @@ public abstract class AbstractAwsIotDevice {
         payload.append("\"state\":{\"reported\":").append(jsonState).append("}}");
 
         AwsIotDeviceReportMessage message = new AwsIotDeviceReportMessage(null, shadowUpdateQos, reportVersion,
-                payload.toString(), this);
+                payload.toString(), this, baseState, reportedState);
         if (enableVersioning && reportVersion != localVersion.get()) {
             LOGGER.warning("Local version number has changed, skip reporting for this round");
-            return;
+            return false;
         }
 
         try {
@@ -290,25 +658,17 @@ public abstract class AbstractAwsIotDevice {
             // async command, shouldn't receive timeout exception
         } catch (AWSIotException e) {
             LOGGER.log(Level.WARNING, "Failed to publish device report message", e);
+            return false;
         }
+        return true;
     }
 
-    private Map<String, Field> getDeviceProperties(boolean enableReport, boolean allowUpdate) {
-        Map<String, Field> properties = new HashMap<>();
-
-        for (Field field : this.getClass().getDeclaredFields()) {
-            AWSIotDeviceProperty annotation = field.getAnnotation(AWSIotDeviceProperty.class);
-            if (annotation == null) {
-                continue;
-            }
-
-            String propertyName = annotation.name().length() > 0 ? annotation.name() : field.getName();
-            if ((enableReport && annotation.enableReport()) || (allowUpdate && annotation.allowUpdate())) {
-                properties.put(propertyName, field);
-            }
+    private AWSIotTopic newTopicListener(String topic) {
+        if (commandManager.isDeltaTopic(topic)) {
+            return new AwsIotDeviceDeltaListener(topic, shadowUpdateQos, this);
+        } else {
+            return new AwsIotDeviceCommandAckListener(topic, methodAckQos, this);
         }
-
-        return properties;
     }
 
     private List<String> getDeviceTopics() {
@@ -326,4 +686,12 @@ public abstract class AbstractAwsIotDevice {
         return topics;
     }
 
+    private static ObjectMapper createJsonObjectMapper() {
+        ObjectMapper jsonObjectMapper = new ObjectMapper();
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(AbstractAwsIotDevice.class, new AwsIotJsonSerializer());
+        jsonObjectMapper.registerModule(module);
+        return jsonObjectMapper;
+    }
+
 }
@@ -90,7 +90,7 @@ public class AwsIotDeviceCommandManager {
     public AwsIotDeviceCommandManager(AbstractAwsIotDevice device) {
         this.pendingCommands = new ConcurrentHashMap<>();
         this.device = device;
-        this.objectMapper = new ObjectMapper();
+        this.objectMapper = AbstractAwsIotDevice.JSON_OBJECT_MAPPER;
     }
 
     public String getTopic(Command command, CommandAck ack) {
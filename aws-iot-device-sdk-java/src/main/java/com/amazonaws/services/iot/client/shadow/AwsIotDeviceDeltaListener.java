@@ -15,13 +15,11 @@
 
 package com.amazonaws.services.iot.client.shadow;
 
-import java.io.IOException;
 import java.util.logging.Logger;
 
 import com.amazonaws.services.iot.client.AWSIotMessage;
 import com.amazonaws.services.iot.client.AWSIotQos;
 import com.amazonaws.services.iot.client.AWSIotTopic;
-import com.fasterxml.jackson.databind.JsonNode;
 
 /**
  * This class extends {@link AWSIotTopic} to provide a callback function for
@@ -40,62 +38,24 @@ public class AwsIotDeviceDeltaListener extends AWSIotTopic {
 
     @Override
     public void onMessage(AWSIotMessage message) {
-        String payload = message.getStringPayload();
-        if (payload == null) {
-            LOGGER.warning("Received empty delta for device " + device.getThingName());
-            return;
-        }
-
-        JsonNode rootNode;
-        try {
-            rootNode = device.getJsonObjectMapper().readTree(payload);
-            if (!rootNode.isObject()) {
-                throw new IOException();
-            }
-        } catch (IOException e) {
-            LOGGER.warning("Received invalid delta for device " + device.getThingName());
-            return;
-        }
-
-        if (device.enableVersioning) {
-            JsonNode node = rootNode.get("version");
-            if (node == null) {
-                LOGGER.warning("Missing version field in delta for device " + device.getThingName());
-                return;
-            }
-
-            long receivedVersion = node.longValue();
-            long localVersion = device.getLocalVersion().get();
-            if (receivedVersion < localVersion) {
-                LOGGER.warning("An old version of delta received for " + device.getThingName() + ", local "
-                        + localVersion + ", received " + receivedVersion);
-                return;
-            }
-
-            device.getLocalVersion().set(receivedVersion);
-            LOGGER.info("Local version number updated to " + receivedVersion);
-        }
-
-        JsonNode node = rootNode.get("state");
-        if (node == null) {
-            LOGGER.warning("Missing state field in delta for device " + device.getThingName());
-            return;
-        }
-        device.onShadowUpdate(node.toString());
+        device.onShadowDelta(message);
     }
 
     @Override
     public void onSuccess() {
+        device.onSubscriptionAck(topic, true);
     }
 
     @Override
     public void onFailure() {
         LOGGER.warning("Failed to subscribe to device topic " + topic);
+        device.onSubscriptionAck(topic, false);
     }
 
     @Override
     public void onTimeout() {
         LOGGER.warning("Timeout when subscribing to device topic " + topic);
+        device.onSubscriptionAck(topic, false);
     }
 
 }
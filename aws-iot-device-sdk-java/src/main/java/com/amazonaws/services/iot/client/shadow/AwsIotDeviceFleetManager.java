@@ -0,0 +1,359 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.shadow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.amazonaws.services.iot.client.AWSIotTopic;
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+
+/**
+ * This class manages the shadow subscriptions of all the devices attached to a
+ * client in fleet mode. Instead of subscribing to the shadow topics of each
+ * device, it subscribes once to the wildcard shadow topics, e.g.
+ * {@code $aws/things/+/shadow/update/delta}, and routes the received messages
+ * to the devices by thing name. The status of the wildcard subscriptions is
+ * propagated to the devices, so their readiness for shadow commands is tracked
+ * the same way as in the non-fleet mode.
+ */
+public class AwsIotDeviceFleetManager {
+
+    private static final Logger LOGGER = Logger.getLogger(AwsIotDeviceFleetManager.class.getName());
+
+    private static final String THING_NAME_WILDCARD = "+";
+    private static final String DELTA_TOPIC = "$aws/things/+/shadow/update/delta";
+    private static final List<String> TOPICS;
+
+    private final AbstractAwsIotClient client;
+    private final ConcurrentMap<String, AbstractAwsIotDevice> devices;
+    private final ConcurrentMap<String, Boolean> topicStatus;
+    private final ConcurrentMap<String, Boolean> suspendedTopicStatus;
+    private final ConcurrentMap<String, AWSIotTopic> listeners;
+    private final Set<String> failedTopics;
+
+    private boolean subscribed;
+
+    static {
+        List<String> topics = new ArrayList<>();
+        topics.add(DELTA_TOPIC);
+        topics.add("$aws/things/+/shadow/get/accepted");
+        topics.add("$aws/things/+/shadow/get/rejected");
+        topics.add("$aws/things/+/shadow/update/accepted");
+        topics.add("$aws/things/+/shadow/update/rejected");
+        topics.add("$aws/things/+/shadow/delete/accepted");
+        topics.add("$aws/things/+/shadow/delete/rejected");
+        TOPICS = Collections.unmodifiableList(topics);
+    }
+
+    public AwsIotDeviceFleetManager(AbstractAwsIotClient client) {
+        this.client = client;
+        this.devices = new ConcurrentHashMap<>();
+        this.topicStatus = new ConcurrentHashMap<>();
+        this.suspendedTopicStatus = new ConcurrentHashMap<>();
+        this.listeners = new ConcurrentHashMap<>();
+        this.failedTopics = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        for (String topic : TOPICS) {
+            topicStatus.put(topic, false);
+        }
+    }
+
+    /**
+     * Registers the device for shadow messages. The wildcard topics are
+     * subscribed to when the first device is activated, using the QoS levels
+     * configured on that device. Devices activated after the wildcard
+     * subscriptions are acknowledged become ready immediately. Wildcard topics
+     * rejected or timed out by the server are subscribed to again when the
+     * next device is activated or the connection is resumed.
+     *
+     * @param device
+     *            the device to be activated
+     * @throws AWSIotException
+     *             exception thrown if the wildcard topics can't be subscribed
+     *             to, in which case the device is not registered
+     */
+    public void activate(AbstractAwsIotDevice device) throws AWSIotException {
+        devices.put(device.getThingName(), device);
+
+        synchronized (this) {
+            if (!subscribed) {
+                for (String topic : TOPICS) {
+                    AWSIotQos qos = isDeltaTopic(topic) ? device.getShadowUpdateQos() : device.getMethodAckQos();
+                    listeners.put(topic, new FleetTopicListener(topic, qos));
+                }
+                failedTopics.clear();
+                try {
+                    client.subscribe(new ArrayList<>(listeners.values()), client.getServerAckTimeout());
+                } catch (AWSIotException e) {
+                    devices.remove(device.getThingName(), device);
+                    unsubscribeTopics();
+                    throw e;
+                }
+                subscribed = true;
+                return;
+            }
+
+            retryFailedTopics();
+        }
+
+        for (String topic : TOPICS) {
+            if (!isDeltaTopic(topic) && Boolean.TRUE.equals(topicStatus.get(topic))) {
+                device.onSubscriptionAck(getDeviceTopic(topic, device.getThingName()), true);
+            }
+        }
+    }
+
+    /**
+     * Unregisters the device. The wildcard topics are unsubscribed from when
+     * the last device is deactivated.
+     *
+     * @param device
+     *            the device to be deactivated
+     * @throws AWSIotException
+     *             exception thrown if the wildcard topics can't be
+     *             unsubscribed from
+     */
+    public void deactivate(AbstractAwsIotDevice device) throws AWSIotException {
+        devices.remove(device.getThingName(), device);
+
+        synchronized (this) {
+            if (!subscribed || !devices.isEmpty()) {
+                return;
+            }
+
+            subscribed = false;
+            listeners.clear();
+            suspendedTopicStatus.clear();
+            failedTopics.clear();
+            for (String topic : TOPICS) {
+                topicStatus.put(topic, false);
+                client.unsubscribe(new AWSIotTopic(topic), client.getServerAckTimeout());
+            }
+        }
+    }
+
+    /**
+     * Suspends the wildcard subscriptions when the connection is lost but the
+     * session is expected to be kept by the server. Their status is saved and
+     * will be restored by {@link #resume(boolean)}.
+     */
+    public synchronized void suspend() {
+        if (!subscribed) {
+            return;
+        }
+
+        for (String topic : TOPICS) {
+            suspendedTopicStatus.put(topic, isTopicReady(topic));
+            topicStatus.put(topic, false);
+        }
+    }
+
+    /**
+     * Resumes the wildcard subscriptions after the connection is
+     * re-established. If the session was kept by the server, the saved status
+     * is restored, and only the topics that were not subscribed to, including
+     * the ones previously rejected by the server, are subscribed to again.
+     * Otherwise the wildcard topics are resubscribed along with the other
+     * subscriptions of the client.
+     *
+     * @param sessionPresent
+     *            whether the server resumed the previous session
+     * @throws AWSIotException
+     *             exception thrown if the missing topics can't be subscribed
+     *             to
+     */
+    public synchronized void resume(boolean sessionPresent) throws AWSIotException {
+        if (!subscribed) {
+            return;
+        }
+
+        if (sessionPresent) {
+            List<AWSIotTopic> missing = new ArrayList<>();
+            for (String topic : TOPICS) {
+                if (Boolean.TRUE.equals(suspendedTopicStatus.get(topic))) {
+                    onTopicStatus(topic, true);
+                } else {
+                    missing.add(listeners.get(topic));
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                client.subscribe(missing, client.getServerAckTimeout());
+            }
+        }
+
+        // the failed topics have been subscribed to again, either above or by
+        // the client, and their listeners will report any new failure
+        failedTopics.clear();
+        suspendedTopicStatus.clear();
+    }
+
+    public boolean isTopicReady(String topic) {
+        return Boolean.TRUE.equals(topicStatus.get(topic));
+    }
+
+    public static List<String> getTopics() {
+        return TOPICS;
+    }
+
+    public static String getThingName(String topic) {
+        if (topic == null) {
+            return null;
+        }
+
+        String[] tokens = topic.split("/");
+        if (tokens.length < 4 || !"$aws".equals(tokens[0]) || !"things".equals(tokens[1])
+                || !"shadow".equals(tokens[3])) {
+            return null;
+        }
+        return tokens[2];
+    }
+
+    private void retryFailedTopics() {
+        List<AWSIotTopic> retries = new ArrayList<>();
+        for (String topic : failedTopics) {
+            if (failedTopics.remove(topic)) {
+                retries.add(listeners.get(topic));
+            }
+        }
+        if (retries.isEmpty()) {
+            return;
+        }
+
+        try {
+            client.subscribe(retries, client.getServerAckTimeout());
+        } catch (AWSIotException e) {
+            LOGGER.log(Level.WARNING, "Failed to subscribe to fleet topics again", e);
+            for (AWSIotTopic retry : retries) {
+                failedTopics.add(retry.getTopic());
+            }
+        }
+    }
+
+    private void unsubscribeTopics() {
+        // some of the topics may have been subscribed to before the failure
+        listeners.clear();
+        for (String topic : TOPICS) {
+            topicStatus.put(topic, false);
+            try {
+                client.unsubscribe(new AWSIotTopic(topic), client.getServerAckTimeout());
+            } catch (AWSIotException e) {
+                LOGGER.log(Level.WARNING, "Failed to unsubscribe from fleet topic " + topic, e);
+            }
+        }
+    }
+
+    private void onTopicStatus(String topic, boolean ready) {
+        topicStatus.put(topic, ready);
+        if (isDeltaTopic(topic)) {
+            return;
+        }
+
+        for (AbstractAwsIotDevice device : devices.values()) {
+            device.onSubscriptionAck(getDeviceTopic(topic, device.getThingName()), ready);
+        }
+    }
+
+    private void onMessage(AWSIotMessage message) {
+        String thingName = getThingName(message.getTopic());
+        AbstractAwsIotDevice device = (thingName != null) ? devices.get(thingName) : null;
+        if (device == null) {
+            LOGGER.fine("Shadow message received for unknown device from topic " + message.getTopic());
+            return;
+        }
+
+        if (isDeltaTopic(getDeviceTopic(message.getTopic(), null))) {
+            device.onShadowDelta(message);
+        } else {
+            device.onCommandAck(message);
+        }
+    }
+
+    private static boolean isDeltaTopic(String topic) {
+        return DELTA_TOPIC.equals(topic);
+    }
+
+    private static String getDeviceTopic(String topic, String thingName) {
+        String[] tokens = topic.split("/", -1);
+        tokens[2] = (thingName != null) ? thingName : THING_NAME_WILDCARD;
+
+        StringBuilder sb = new StringBuilder(tokens[0]);
+        for (int i = 1; i < tokens.length; i++) {
+            sb.append('/').append(tokens[i]);
+        }
+        return sb.toString();
+    }
+
+    private class FleetTopicListener extends AWSIotTopic {
+
+        public FleetTopicListener(String topic, AWSIotQos qos) {
+            super(topic, qos);
+        }
+
+        @Override
+        public void onMessage(AWSIotMessage message) {
+            AwsIotDeviceFleetManager.this.onMessage(message);
+        }
+
+        @Override
+        public void onSuccess() {
+            if (isStale()) {
+                return;
+            }
+            failedTopics.remove(topic);
+            onTopicStatus(topic, true);
+        }
+
+        @Override
+        public void onFailure() {
+            if (isStale()) {
+                return;
+            }
+            LOGGER.warning("Failed to subscribe to fleet topic " + topic);
+            failedTopics.add(topic);
+            onTopicStatus(topic, false);
+        }
+
+        @Override
+        public void onTimeout() {
+            if (isStale()) {
+                return;
+            }
+            LOGGER.warning("Timeout when subscribing to fleet topic " + topic);
+            failedTopics.add(topic);
+            onTopicStatus(topic, false);
+        }
+
+        /**
+         * Whether the listener has been replaced or removed, e.g. after a
+         * failed activation, in which case its acknowledgements are ignored.
+         */
+        private boolean isStale() {
+            return listeners.get(topic) != this;
+        }
+
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.shadow;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.services.iot.client.AWSIotDeviceProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import lombok.Getter;
+
+/**
+ * This class holds the shadow properties of a device class, i.e. the fields
+ * annotated with {@link AWSIotDeviceProperty}, and their accessor methods. The
+ * fields and methods are looked up once per class, when the first device of
+ * the class is created, and the metadata is shared by all the devices of the
+ * class afterwards.
+ * <p>
+ * If an {@link AwsIotDeviceShadowAccessor} has been generated for the class,
+ * it's loaded at the same time and used to read and write the properties
+ * instead of the reflective accessors.
+ * </p>
+ */
+@Getter
+public class AwsIotDeviceMetadata {
+
+    private static final Logger LOGGER = Logger.getLogger(AwsIotDeviceMetadata.class.getName());
+
+    /**
+     * The metadata of each device class. Unlike a map keyed by class, the
+     * values are attached to the classes themselves, so class loaders of
+     * unloaded applications are not kept alive.
+     */
+    private static final ClassValue<AwsIotDeviceMetadata> REGISTRY = new ClassValue<AwsIotDeviceMetadata>() {
+        @Override
+        protected AwsIotDeviceMetadata computeValue(Class<?> deviceClass) {
+            return new AwsIotDeviceMetadata(deviceClass);
+        }
+    };
+
+    private final Map<String, Property> reportedProperties;
+    private final Map<String, Property> updatableProperties;
+    private final Map<String, Field> reportedFields;
+    private final Map<String, Field> updatableFields;
+    private final AwsIotDeviceShadowAccessor accessor;
+    private final boolean reportPolicyDefined;
+
+    /**
+     * Gets the metadata of a device class, creating it on first use.
+     *
+     * @param deviceClass
+     *            the device class
+     * @return the metadata of the class
+     */
+    public static AwsIotDeviceMetadata forClass(Class<?> deviceClass) {
+        return REGISTRY.get(deviceClass);
+    }
+
+    private AwsIotDeviceMetadata(Class<?> deviceClass) {
+        Map<String, Property> reported = new LinkedHashMap<>();
+        Map<String, Property> updatable = new LinkedHashMap<>();
+        Map<String, Field> reportedFieldMap = new LinkedHashMap<>();
+        Map<String, Field> updatableFieldMap = new LinkedHashMap<>();
+        boolean policyDefined = false;
+
+        for (Field field : deviceClass.getDeclaredFields()) {
+            AWSIotDeviceProperty annotation = field.getAnnotation(AWSIotDeviceProperty.class);
+            if (annotation == null) {
+                continue;
+            }
+
+            String propertyName = annotation.name().length() > 0 ? annotation.name() : field.getName();
+            Property property = new Property(deviceClass, propertyName, field, annotation);
+            if (annotation.enableReport()) {
+                reported.put(propertyName, property);
+                reportedFieldMap.put(propertyName, field);
+                policyDefined |= property.isReportPolicyDefined();
+            }
+            if (annotation.allowUpdate()) {
+                updatable.put(propertyName, property);
+                updatableFieldMap.put(propertyName, field);
+            }
+        }
+
+        reportedProperties = Collections.unmodifiableMap(reported);
+        updatableProperties = Collections.unmodifiableMap(updatable);
+        reportedFields = Collections.unmodifiableMap(reportedFieldMap);
+        updatableFields = Collections.unmodifiableMap(updatableFieldMap);
+        accessor = loadAccessor(deviceClass);
+        reportPolicyDefined = policyDefined;
+    }
+
+    static String getAccessorClassName(Class<?> deviceClass) {
+        String name = deviceClass.getName();
+        int index = name.lastIndexOf('.') + 1;
+        // nested classes are flattened, e.g. Outer$Inner to Outer_Inner
+        return name.substring(0, index) + name.substring(index).replace('$', '_')
+                + AwsIotDeviceShadowAccessor.CLASS_NAME_SUFFIX;
+    }
+
+    private static AwsIotDeviceShadowAccessor loadAccessor(Class<?> deviceClass) {
+        Class<?> accessorClass;
+        try {
+            accessorClass = Class.forName(getAccessorClassName(deviceClass), true, deviceClass.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+
+        try {
+            return (AwsIotDeviceShadowAccessor) accessorClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            LOGGER.log(Level.WARNING, "Failed to load shadow accessor for " + deviceClass.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * This class represents a shadow property of a device class, and reads and
+     * writes it through the public getter and setter of the field. It also
+     * holds the reporting policy of the property.
+     */
+    @Getter
+    public static class Property {
+
+        private final String name;
+        private final Field field;
+        private final Method getter;
+        private final Method setter;
+        private final double deadband;
+        private final double deadbandPercent;
+        private final long minReportInterval;
+        private final long maxReportInterval;
+
+        Property(Class<?> deviceClass, String name, Field field, AWSIotDeviceProperty annotation) {
+            this.name = name;
+            this.field = field;
+            this.deadband = annotation.deadband();
+            this.deadbandPercent = annotation.deadbandPercent();
+            this.minReportInterval = annotation.minReportInterval();
+            this.maxReportInterval = annotation.maxReportInterval();
+
+            String fieldName = Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+            Method method = findMethod(deviceClass, "get" + fieldName);
+            if (method == null && boolean.class.equals(field.getType())) {
+                method = findMethod(deviceClass, "is" + fieldName);
+            }
+            this.getter = method;
+            this.setter = findMethod(deviceClass, "set" + fieldName, field.getType());
+        }
+
+        /**
+         * Reads the property of a device.
+         *
+         * @param device
+         *            the device
+         * @return the value of the property
+         * @throws IOException
+         *             this exception is thrown when the getter fails
+         * @throws IllegalArgumentException
+         *             this exception is thrown when the field has no public
+         *             getter
+         */
+        public Object getValue(Object device) throws IOException {
+            if (getter == null) {
+                throw new IllegalArgumentException("No getter found for property " + name);
+            }
+
+            try {
+                return getter.invoke(device);
+            } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * Writes the property of a device.
+         *
+         * @param device
+         *            the device
+         * @param value
+         *            the new value of the property
+         * @throws IOException
+         *             this exception is thrown when the setter fails
+         * @throws IllegalArgumentException
+         *             this exception is thrown when the field has no public
+         *             setter
+         */
+        public void setValue(Object device, Object value) throws IOException {
+            if (setter == null) {
+                throw new IllegalArgumentException("No setter found for property " + name);
+            }
+
+            try {
+                setter.invoke(device, value);
+            } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+                throw new IOException(e);
+            }
+        }
+
+        public boolean isReportPolicyDefined() {
+            return deadband > 0 || deadbandPercent > 0 || minReportInterval > 0 || maxReportInterval > 0;
+        }
+
+        /**
+         * Checks if the property is to be reported, according to its reporting
+         * policy. Without a policy, the property is reported whenever its
+         * value has changed.
+         *
+         * @param reportedValue
+         *            the last value accepted by the shadow, or null if unknown
+         * @param value
+         *            the current value
+         * @param reportTime
+         *            the time in milliseconds when the last value was accepted
+         * @param now
+         *            the current time in milliseconds
+         * @return true if the current value is to be reported
+         */
+        public boolean isReportDue(JsonNode reportedValue, JsonNode value, long reportTime, long now) {
+            if (reportedValue == null) {
+                return true;
+            }
+
+            long elapsed = now - reportTime;
+            if (maxReportInterval > 0 && elapsed >= maxReportInterval) {
+                return true;
+            }
+            if (value.equals(reportedValue)) {
+                return false;
+            }
+            if (minReportInterval > 0 && elapsed < minReportInterval) {
+                return false;
+            }
+
+            if (value.isNumber() && reportedValue.isNumber()) {
+                double change = Math.abs(value.asDouble() - reportedValue.asDouble());
+                if (deadband > 0 && change <= deadband) {
+                    return false;
+                }
+                if (deadbandPercent > 0 && change <= Math.abs(reportedValue.asDouble()) * deadbandPercent / 100) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+            try {
+                return type.getMethod(name, parameterTypes);
+            } catch (NoSuchMethodException | SecurityException e) {
+                return null;
+            }
+        }
+
+    }
+
+}
@@ -20,6 +20,7 @@ import java.util.logging.Logger;
 import com.amazonaws.services.iot.client.AWSIotDeviceErrorCode;
 import com.amazonaws.services.iot.client.AWSIotMessage;
 import com.amazonaws.services.iot.client.AWSIotQos;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 public class AwsIotDeviceReportMessage extends AWSIotMessage {
 
@@ -27,18 +28,31 @@ public class AwsIotDeviceReportMessage extends AWSIotMessage {
 
     private final AbstractAwsIotDevice device;
     private final long reportVersion;
+    private final ObjectNode baseState;
+    private final ObjectNode reportedState;
 
     public AwsIotDeviceReportMessage(String topic, AWSIotQos qos, long reportVersion, String jsonState,
             AbstractAwsIotDevice device) {
+        this(topic, qos, reportVersion, jsonState, device, null, null);
+    }
+
+    public AwsIotDeviceReportMessage(String topic, AWSIotQos qos, long reportVersion, String jsonState,
+            AbstractAwsIotDevice device, ObjectNode baseState, ObjectNode reportedState) {
         super(topic, qos, jsonState);
         this.device = device;
         this.reportVersion = reportVersion;
+        this.baseState = baseState;
+        this.reportedState = reportedState;
     }
 
     @Override
     public void onSuccess() {
         // increment local version only if it hasn't be updated
         device.getLocalVersion().compareAndSet(reportVersion, reportVersion + 1);
+
+        if (reportedState != null) {
+            device.onDeviceReportAccepted(baseState, reportedState);
+        }
     }
 
     @Override
@@ -49,6 +63,17 @@ public class AwsIotDeviceReportMessage extends AWSIotMessage {
         } else {
             LOGGER.warning("Failed to publish device report: " + errorMessage);
         }
+
+        if (reportedState != null) {
+            device.onDeviceReportFailed();
+        }
+    }
+
+    @Override
+    public void onTimeout() {
+        if (reportedState != null) {
+            device.onDeviceReportFailed();
+        }
     }
 
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.shadow;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * This interface reads and writes the shadow properties of a device class
+ * without reflection. Implementations are generated at compile time by the
+ * annotation processor in {@code aws-iot-device-sdk-java-processor}, in the
+ * package of the device class and named after it with
+ * {@link #CLASS_NAME_SUFFIX}, e.g. {@code ConnectedWindow_AwsIotShadowAccessor}.
+ * When such a class is present, it's used in place of the getter and setter
+ * lookups in {@link AwsIotDeviceMetadata}.
+ */
+public interface AwsIotDeviceShadowAccessor {
+
+    /** The suffix appended to the name of the device class. */
+    String CLASS_NAME_SUFFIX = "_AwsIotShadowAccessor";
+
+    /**
+     * Writes the reported properties of a device as fields of the current JSON
+     * object.
+     *
+     * @param device
+     *            the device
+     * @param generator
+     *            the JSON generator
+     * @throws IOException
+     *             this exception is thrown when a property fails to be
+     *             written
+     */
+    void writeReportedProperties(AbstractAwsIotDevice device, JsonGenerator generator) throws IOException;
+
+    /**
+     * Updates an updatable property of a device from a JSON value.
+     *
+     * @param device
+     *            the device
+     * @param property
+     *            the name of the property
+     * @param node
+     *            the new value of the property
+     * @param objectMapper
+     *            the mapper converting the value
+     * @return true if the property has been updated, false if it's not an
+     *         updatable property of the device
+     * @throws IOException
+     *             this exception is thrown when the value fails to be
+     *             converted
+     */
+    boolean readUpdatableProperty(AbstractAwsIotDevice device, String property, JsonNode node,
+            ObjectMapper objectMapper) throws IOException;
+
+}
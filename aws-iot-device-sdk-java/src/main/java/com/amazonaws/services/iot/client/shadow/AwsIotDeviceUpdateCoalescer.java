@@ -0,0 +1,251 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.shadow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotTimeoutException;
+import com.amazonaws.services.iot.client.core.AwsIotCompletion;
+import com.amazonaws.services.iot.client.core.AwsIotRuntimeException;
+import com.amazonaws.services.iot.client.shadow.AwsIotDeviceCommandManager.Command;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * This class coalesces the shadow updates of a device. Updates issued within
+ * the coalescing window of the device, see
+ * {@link AbstractAwsIotDevice#getUpdateCoalescingWindow()}, are deep-merged
+ * into a single shadow document, which is sent in one update request. Every
+ * caller is then notified of the result of that request, as if its own update
+ * had been sent.
+ * <p>
+ * Later updates take precedence over earlier ones for the same field, and
+ * nested objects are merged field by field, the same way the shadow merges
+ * updates. Updates with a version number are not coalesced, as the version
+ * applies to the whole document. Any pending updates are sent before them.
+ * </p>
+ * <p>
+ * Synchronous updates made on a client thread, e.g. from a message callback,
+ * are sent without waiting for the coalescing window, along with any pending
+ * updates, as the flush task would otherwise be queued behind the blocked
+ * thread.
+ * </p>
+ */
+public class AwsIotDeviceUpdateCoalescer {
+
+    private static final Logger LOGGER = Logger.getLogger(AwsIotDeviceUpdateCoalescer.class.getName());
+
+    private static final String VERSION_FIELD = "version";
+
+    private final AbstractAwsIotDevice device;
+    // makes sure batches are sent in the order they were created
+    private final Object sendLock = new Object();
+
+    private UpdateBatch pendingBatch;
+    private Future<?> flushTask;
+
+    public AwsIotDeviceUpdateCoalescer(AbstractAwsIotDevice device) {
+        this.device = device;
+    }
+
+    /**
+     * Adds an update to the pending batch, and waits for the result of the
+     * batch in the case of synchronous calls.
+     *
+     * @param request
+     *            the update request
+     * @param timeout
+     *            the timeout in milliseconds for the update, or 0 for none
+     * @param isAsync
+     *            whether or not the update is asynchronous
+     * @throws AWSIotException
+     *             exception thrown if the update is invalid, or for synchronous
+     *             calls, if the update has failed
+     * @throws AWSIotTimeoutException
+     *             for synchronous calls, exception thrown if the update times
+     *             out
+     */
+    public void update(AWSIotMessage request, long timeout, boolean isAsync) throws AWSIotException,
+            AWSIotTimeoutException {
+        ObjectNode document = parseDocument(request);
+
+        if (document.has(VERSION_FIELD)) {
+            flush();
+            device.getCommandManager().runCommand(Command.UPDATE, request, timeout, isAsync);
+            return;
+        }
+
+        AwsIotCompletion completion = new AwsIotCompletion(request, timeout, isAsync);
+        synchronized (this) {
+            if (pendingBatch == null) {
+                // the batch is only created once its flush is scheduled, so
+                // it's never left pending, e.g. when the client is not
+                // connected
+                try {
+                    flushTask = device.getClient().scheduleTimeoutTask(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush();
+                        }
+                    }, device.getUpdateCoalescingWindow());
+                } catch (AwsIotRuntimeException e) {
+                    throw new AWSIotException(e);
+                }
+                pendingBatch = new UpdateBatch(request);
+            }
+            pendingBatch.add(document, request, completion, timeout);
+        }
+
+        if (!isAsync && device.getClient().isClientThread()) {
+            // the flush task can't run while a client thread is blocked
+            // waiting for it, so the update is sent right away
+            flush();
+        }
+
+        completion.get(device.getClient());
+    }
+
+    /**
+     * Sends the pending batch, if any, without waiting for the coalescing
+     * window to expire. The device calls it before sending get and delete
+     * commands, so they aren't reordered with the pending updates.
+     */
+    public void flush() {
+        synchronized (sendLock) {
+            UpdateBatch batch;
+            synchronized (this) {
+                batch = pendingBatch;
+                pendingBatch = null;
+                if (flushTask != null) {
+                    flushTask.cancel(false);
+                    flushTask = null;
+                }
+            }
+            if (batch == null) {
+                return;
+            }
+
+            LOGGER.fine("Sending " + batch.completions.size() + " coalesced shadow updates");
+            batch.setStringPayload(batch.document.toString());
+            try {
+                device.getCommandManager().runCommand(Command.UPDATE, batch, batch.getTimeout(), true);
+            } catch (AWSIotException e) {
+                batch.setErrorMessage(e.getMessage());
+                batch.onFailure();
+            } catch (AWSIotTimeoutException e) {
+                // async command, shouldn't receive timeout exception
+            }
+        }
+    }
+
+    static void merge(ObjectNode target, ObjectNode update) {
+        for (Iterator<Map.Entry<String, JsonNode>> it = update.fields(); it.hasNext();) {
+            Map.Entry<String, JsonNode> field = it.next();
+            JsonNode current = target.get(field.getKey());
+            if (current != null && current.isObject() && field.getValue().isObject()) {
+                merge((ObjectNode) current, (ObjectNode) field.getValue());
+            } else {
+                target.set(field.getKey(), field.getValue());
+            }
+        }
+    }
+
+    private ObjectNode parseDocument(AWSIotMessage request) throws AWSIotException {
+        String payload = request.getStringPayload();
+        if (payload == null) {
+            throw new AWSIotException("Invalid Json string in payload");
+        }
+
+        try {
+            JsonNode node = device.getJsonMapper().readTree(payload);
+            if (node == null || !node.isObject()) {
+                throw new AWSIotException("Invalid Json string in payload");
+            }
+            return (ObjectNode) node;
+        } catch (IOException e) {
+            throw new AWSIotException(e);
+        }
+    }
+
+    /**
+     * The coalesced updates, sent as a single update request. The result of
+     * the request is passed on to the completion of every update.
+     */
+    private static class UpdateBatch extends AWSIotMessage {
+
+        private final ObjectNode document = AbstractAwsIotDevice.JSON_OBJECT_MAPPER.createObjectNode();
+        private final List<AWSIotMessage> requests = new ArrayList<>();
+        private final List<AwsIotCompletion> completions = new ArrayList<>();
+        private long timeout;
+        private boolean timeoutDisabled;
+
+        UpdateBatch(AWSIotMessage request) {
+            super(null, request.getQos());
+        }
+
+        void add(ObjectNode update, AWSIotMessage request, AwsIotCompletion completion, long updateTimeout) {
+            merge(document, update);
+            requests.add(request);
+            completions.add(completion);
+
+            if (updateTimeout > 0) {
+                timeout = Math.max(timeout, updateTimeout);
+            } else {
+                timeoutDisabled = true;
+            }
+        }
+
+        long getTimeout() {
+            // the batch never times out if any of the updates doesn't
+            return timeoutDisabled ? 0 : timeout;
+        }
+
+        @Override
+        public void onSuccess() {
+            for (int i = 0; i < completions.size(); i++) {
+                // the response document is passed on as for single updates
+                requests.get(i).setPayload(payload);
+                completions.get(i).onSuccess();
+            }
+        }
+
+        @Override
+        public void onFailure() {
+            for (AwsIotCompletion completion : completions) {
+                completion.setErrorCode(errorCode);
+                completion.setErrorMessage(errorMessage);
+                completion.onFailure();
+            }
+        }
+
+        @Override
+        public void onTimeout() {
+            for (AwsIotCompletion completion : completions) {
+                completion.onTimeout();
+            }
+        }
+
+    }
+
+}
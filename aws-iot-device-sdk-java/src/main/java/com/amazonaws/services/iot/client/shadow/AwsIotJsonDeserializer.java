@@ -16,11 +16,9 @@
 package com.amazonaws.services.iot.client.shadow;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.Iterator;
 
+import com.amazonaws.services.iot.client.shadow.AwsIotDeviceMetadata.Property;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -31,7 +29,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class AwsIotJsonDeserializer {
 
     public static void deserialize(AbstractAwsIotDevice device, String jsonState) throws IOException {
-        ObjectMapper jsonObjectMapper = device.getJsonObjectMapper();
+        ObjectMapper jsonObjectMapper = device.getJsonMapper();
+        AwsIotDeviceMetadata metadata = device.getDeviceMetadata();
 
         JsonNode node = jsonObjectMapper.readTree(jsonState);
         if (node == null) {
@@ -40,18 +39,25 @@ public class AwsIotJsonDeserializer {
 
         for (Iterator<String> it = node.fieldNames(); it.hasNext();) {
             String property = it.next();
-            Field field = device.getUpdatableProperties().get(property);
             JsonNode fieldNode = node.get(property);
-            if (field == null || fieldNode == null) {
+            if (fieldNode == null) {
+                continue;
+            }
+            if (metadata.getAccessor() != null) {
+                metadata.getAccessor().readUpdatableProperty(device, property, fieldNode, jsonObjectMapper);
                 continue;
             }
 
-            updateDeviceProperty(jsonObjectMapper, fieldNode, device, field);
+            Property deviceProperty = metadata.getUpdatableProperties().get(property);
+            if (deviceProperty == null) {
+                continue;
+            }
+            updateDeviceProperty(jsonObjectMapper, fieldNode, device, deviceProperty);
         }
     }
 
     public static long deserializeVersion(AbstractAwsIotDevice device, String jsonState) throws IOException {
-        ObjectMapper jsonObjectMapper = device.getJsonObjectMapper();
+        ObjectMapper jsonObjectMapper = device.getJsonMapper();
 
         JsonNode node = jsonObjectMapper.readTree(jsonState);
         if (node == null) {
@@ -67,26 +73,9 @@ public class AwsIotJsonDeserializer {
     }
 
     private static void updateDeviceProperty(ObjectMapper jsonObjectMapper, JsonNode node, AbstractAwsIotDevice device,
-            Field field) throws IOException {
-        Object value = jsonObjectMapper.treeToValue(node, field.getType());
-        invokeSetterMethod(device, field.getName(), field.getType(), value);
-    }
-
-    private static void invokeSetterMethod(Object target, String name, Class<?> type, Object value) throws IOException {
-        String setter = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
-
-        Method method;
-        try {
-            method = target.getClass().getMethod(setter, type);
-        } catch (NoSuchMethodException | SecurityException e) {
-            throw new IllegalArgumentException(e);
-        }
-
-        try {
-            method.invoke(target, value);
-        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-            throw new IOException(e);
-        }
+            Property property) throws IOException {
+        Object value = jsonObjectMapper.treeToValue(node, property.getField().getType());
+        property.setValue(device, value);
     }
 
 }
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.util;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * This class resolves endpoint host names and opens TCP connections to them.
+ * <p>
+ * Resolved addresses are cached for a configurable time, so reconnects don't
+ * wait for DNS. If a lookup fails after the cached addresses expired, e.g.
+ * because the DNS server is not reachable, the expired addresses are used
+ * instead. The Java runtime doesn't expose the TTL of DNS records, so the
+ * cache time should be set no longer than the TTL of the endpoint records.
+ * </p>
+ * <p>
+ * Connections are opened in the style of Happy Eyeballs (RFC 8305): the
+ * resolved IPv6 and IPv4 addresses are tried alternately, a new attempt is
+ * started whenever the previous one fails or hasn't completed within the
+ * attempt delay, and the first connection established is used while the other
+ * attempts are abandoned. The address that connected last is tried first on
+ * the next connection, so a dead address only costs one attempt delay.
+ * </p>
+ */
+public class AwsIotEndpointResolver {
+
+    private static final Logger LOGGER = Logger.getLogger(AwsIotEndpointResolver.class.getName());
+
+    /**
+     * The default time in milliseconds resolved addresses are cached for.
+     */
+    public static final long DEFAULT_CACHE_TTL = 60000;
+
+    /**
+     * The default delay in milliseconds before the next address is tried if
+     * the pending connection attempts haven't completed, as recommended by RFC
+     * 8305.
+     */
+    public static final long DEFAULT_ATTEMPT_DELAY = 250;
+
+    private static final AwsIotEndpointResolver DEFAULT_RESOLVER = new AwsIotEndpointResolver();
+
+    private final ConcurrentMap<String, CachedAddresses> cache = new ConcurrentHashMap<>();
+
+    private volatile long cacheTtl = DEFAULT_CACHE_TTL;
+    private volatile long attemptDelay = DEFAULT_ATTEMPT_DELAY;
+
+    /**
+     * Gets the resolver shared by all the clients of the application.
+     *
+     * @return the default resolver
+     */
+    public static AwsIotEndpointResolver getDefault() {
+        return DEFAULT_RESOLVER;
+    }
+
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * Sets the time in milliseconds resolved addresses are cached for. A value
+     * of 0 disables caching, though expired addresses are still used if a
+     * lookup fails.
+     *
+     * @param cacheTtl
+     *            the new cache time. The default value is 60,000ms.
+     */
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public long getAttemptDelay() {
+        return attemptDelay;
+    }
+
+    /**
+     * Sets the delay in milliseconds before the next address is tried while
+     * the pending connection attempts haven't completed.
+     *
+     * @param attemptDelay
+     *            the new attempt delay. The default value is 250ms.
+     */
+    public void setAttemptDelay(long attemptDelay) {
+        this.attemptDelay = attemptDelay;
+    }
+
+    /**
+     * Resolves the host name, returning the cached addresses if they haven't
+     * expired. The returned addresses are in the order connections are
+     * attempted.
+     *
+     * @param host
+     *            the host name
+     * @return the addresses of the host
+     * @throws UnknownHostException
+     *             exception thrown if the host can't be resolved and no
+     *             addresses are cached
+     */
+    public List<InetAddress> resolve(String host) throws UnknownHostException {
+        CachedAddresses cached = cache.get(host);
+        long now = System.currentTimeMillis();
+        if (cached != null && now < cached.expiration) {
+            return cached.addresses;
+        }
+
+        try {
+            List<InetAddress> addresses = interleave(lookup(host));
+            if (cached != null && addresses.remove(cached.preferred)) {
+                addresses.add(0, cached.preferred);
+            }
+            cached = new CachedAddresses(addresses, now + cacheTtl);
+            cache.put(host, cached);
+            return cached.addresses;
+        } catch (UnknownHostException e) {
+            if (cached != null) {
+                LOGGER.warning("Failed to resolve " + host + ", using expired addresses: " + e);
+                return cached.addresses;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the cached addresses of the host, so they are resolved again on
+     * the next connection.
+     *
+     * @param host
+     *            the host name
+     */
+    public void invalidate(String host) {
+        cache.remove(host);
+    }
+
+    /**
+     * Opens a TCP connection to the host, racing connection attempts across
+     * its addresses.
+     *
+     * @param host
+     *            the host name
+     * @param port
+     *            the port
+     * @param timeout
+     *            the timeout in milliseconds for the connection to be
+     *            established, 0 means no timeout
+     * @return the connected socket, in blocking mode
+     * @throws IOException
+     *             exception thrown if no connection could be established
+     */
+    public Socket connect(String host, int port, int timeout) throws IOException {
+        List<InetAddress> addresses = resolve(host);
+        try {
+            SocketChannel channel = race(addresses, port, timeout);
+            InetAddress connected = ((InetSocketAddress) channel.socket().getRemoteSocketAddress()).getAddress();
+            onConnected(host, connected);
+            LOGGER.fine("Connected to " + host + " at " + connected);
+            return channel.socket();
+        } catch (IOException e) {
+            // the cached addresses may be stale, resolve again next time
+            invalidate(host);
+            throw e;
+        }
+    }
+
+    protected InetAddress[] lookup(String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+
+    /**
+     * Orders the addresses alternating between address families, starting
+     * with the family of the first address.
+     */
+    static List<InetAddress> interleave(InetAddress[] addresses) {
+        List<InetAddress> primary = new ArrayList<>();
+        List<InetAddress> secondary = new ArrayList<>();
+        boolean primaryIpv6 = addresses.length > 0 && addresses[0] instanceof Inet6Address;
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == primaryIpv6) {
+                primary.add(address);
+            } else {
+                secondary.add(address);
+            }
+        }
+
+        List<InetAddress> result = new ArrayList<>(addresses.length);
+        for (int i = 0; i < Math.max(primary.size(), secondary.size()); i++) {
+            if (i < primary.size()) {
+                result.add(primary.get(i));
+            }
+            if (i < secondary.size()) {
+                result.add(secondary.get(i));
+            }
+        }
+        return result;
+    }
+
+    private void onConnected(String host, InetAddress connected) {
+        CachedAddresses cached = cache.get(host);
+        if (cached == null || cached.addresses.isEmpty() || cached.addresses.get(0).equals(connected)) {
+            return;
+        }
+
+        List<InetAddress> addresses = new ArrayList<>(cached.addresses);
+        if (addresses.remove(connected)) {
+            addresses.add(0, connected);
+            cache.replace(host, cached, new CachedAddresses(addresses, cached.expiration));
+        }
+    }
+
+    private SocketChannel race(List<InetAddress> addresses, int port, int timeout) throws IOException {
+        long now = System.currentTimeMillis();
+        long deadline = (timeout > 0) ? now + timeout : Long.MAX_VALUE;
+        long nextAttempt = now;
+        int next = 0;
+
+        List<SocketChannel> pending = new ArrayList<>();
+        SocketChannel connected = null;
+        IOException lastError = null;
+
+        Selector selector = Selector.open();
+        try {
+            while (connected == null) {
+                now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    // no new attempts are started once the timeout has elapsed
+                    throw new SocketTimeoutException("Connection timed out after " + timeout + "ms");
+                }
+                if (next < addresses.size() && (now >= nextAttempt || pending.isEmpty())) {
+                    InetSocketAddress address = new InetSocketAddress(addresses.get(next++), port);
+                    nextAttempt = now + attemptDelay;
+
+                    SocketChannel channel = SocketChannel.open();
+                    try {
+                        channel.configureBlocking(false);
+                        if (channel.connect(address)) {
+                            connected = channel;
+                        } else {
+                            channel.register(selector, SelectionKey.OP_CONNECT);
+                            pending.add(channel);
+                        }
+                    } catch (IOException e) {
+                        lastError = e;
+                        closeQuietly(channel);
+                    }
+                    continue;
+                }
+
+                if (pending.isEmpty()) {
+                    throw (lastError != null) ? lastError : new ConnectException("No address to connect to");
+                }
+
+                long wait = (next < addresses.size()) ? Math.min(nextAttempt, deadline) : deadline;
+                selector.select(Math.max(1, Math.min(wait - now, Integer.MAX_VALUE)));
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext() && connected == null) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (channel.finishConnect()) {
+                            connected = channel;
+                            pending.remove(channel);
+                        }
+                    } catch (IOException e) {
+                        lastError = e;
+                        pending.remove(channel);
+                        closeQuietly(channel);
+                        // try the next address right away
+                        nextAttempt = now;
+                    }
+                }
+            }
+        } finally {
+            for (SocketChannel channel : pending) {
+                closeQuietly(channel);
+            }
+            // deregisters the connected channel so it can be put in blocking
+            // mode
+            selector.close();
+        }
+
+        try {
+            connected.configureBlocking(true);
+        } catch (IOException e) {
+            closeQuietly(connected);
+            throw e;
+        }
+        return connected;
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    private static class CachedAddresses {
+
+        private final List<InetAddress> addresses;
+        private final InetAddress preferred;
+        private final long expiration;
+
+        public CachedAddresses(List<InetAddress> addresses, long expiration) {
+            this.addresses = Collections.unmodifiableList(addresses);
+            this.preferred = addresses.isEmpty() ? null : addresses.get(0);
+            this.expiration = expiration;
+        }
+
+    }
+
+}
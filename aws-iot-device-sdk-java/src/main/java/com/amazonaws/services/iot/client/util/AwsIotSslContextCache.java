@@ -0,0 +1,396 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.util;
+
+import java.nio.charset.Charset;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+
+/**
+ * This class caches the {@link SSLContext} initialized from a {@link KeyStore}
+ * and key password, so clients created from the same certificate share one
+ * context instead of initializing the JSSE provider and the key managers again.
+ * Sharing the context also shares its TLS session cache.
+ * <p>
+ * As the session cache is shared, its size and session timeout are settings of
+ * this class rather than of individual clients, see
+ * {@link #setSessionCacheSize(int)} and {@link #setSessionTimeout(int)}. They
+ * apply to all the cached contexts.
+ * </p>
+ * <p>
+ * Contexts are keyed by the content of the key store, i.e. the aliases and
+ * certificate chains it holds, and by the key password. Key stores loaded
+ * separately from the same files therefore share a context. Concurrent requests
+ * for the same key wait for a single initialization.
+ * </p>
+ * <p>
+ * The cache holds at most {@link #getMaxSize()} contexts, evicting the least
+ * recently used one beyond that, so key stores that are no longer used don't
+ * keep their private keys in memory for the life of the process. The context
+ * of a key store can also be removed explicitly with
+ * {@link #invalidate(KeyStore, String)}, e.g. after its certificate is
+ * rotated.
+ * </p>
+ * <p>
+ * An application creating many clients can call
+ * {@link #prewarm(KeyStore, String)} at startup to run the initialization on a
+ * background thread while it does other work.
+ * </p>
+ */
+public final class AwsIotSslContextCache {
+
+    private static final Logger LOGGER = Logger.getLogger(AwsIotSslContextCache.class.getName());
+
+    private static final String TLS = "TLS";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String PREWARM_THREAD_NAME = "aws-iot-ssl-context-prewarm";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The default maximum number of cached contexts. */
+    public static final int DEFAULT_MAX_SIZE = 16;
+
+    /** The default maximum number of TLS sessions cached by each context. */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 64;
+
+    /** The default lifetime of cached TLS sessions in milliseconds. */
+    public static final int DEFAULT_SESSION_TIMEOUT = 86400000;
+
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+    private static volatile int sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+    private static volatile int sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+
+    // access ordered, guarded by itself
+    private static final Map<String, FutureTask<SSLContext>> CONTEXTS =
+            new LinkedHashMap<String, FutureTask<SSLContext>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FutureTask<SSLContext>> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private static final ExecutorService PREWARM_EXECUTOR = createPrewarmExecutor();
+
+    private AwsIotSslContextCache() {
+    }
+
+    /**
+     * Gets the SSL context for the key store and key password, initializing it
+     * if it's not cached yet. If the context is being initialized by another
+     * thread, e.g. through {@link #prewarm(KeyStore, String)}, this method
+     * waits for it to complete.
+     *
+     * @param keyStore
+     *            the key store containing the client certificate and private key
+     * @param keyPassword
+     *            the password protecting the private key
+     * @return the initialized SSL context
+     * @throws AWSIotException
+     *             exception thrown if the SSL context can't be initialized
+     */
+    public static SSLContext getContext(KeyStore keyStore, String keyPassword) throws AWSIotException {
+        FutureTask<SSLContext> task = getTask(keyStore, keyPassword);
+        task.run();
+        return getResult(task);
+    }
+
+    /**
+     * Starts initializing the SSL context for the key store and key password on
+     * a background thread. Clients subsequently created with the same key
+     * store content and password reuse the context.
+     *
+     * @param keyStore
+     *            the key store containing the client certificate and private key
+     * @param keyPassword
+     *            the password protecting the private key
+     * @return the future holding the initialized SSL context
+     * @throws AWSIotException
+     *             exception thrown if the key store can't be read
+     */
+    public static Future<SSLContext> prewarm(KeyStore keyStore, String keyPassword) throws AWSIotException {
+        FutureTask<SSLContext> task = getTask(keyStore, keyPassword);
+        if (!task.isDone()) {
+            // a task already running or completed by another thread is a no-op
+            PREWARM_EXECUTOR.execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * Removes the cached SSL context of the key store and key password, if
+     * any. Clients already created keep using the context.
+     *
+     * @param keyStore
+     *            the key store containing the client certificate and private key
+     * @param keyPassword
+     *            the password protecting the private key
+     * @throws AWSIotException
+     *             exception thrown if the key store can't be read
+     */
+    public static void invalidate(KeyStore keyStore, String keyPassword) throws AWSIotException {
+        String key = getCacheKey(keyStore, keyPassword);
+        synchronized (CONTEXTS) {
+            CONTEXTS.remove(key);
+        }
+    }
+
+    /**
+     * Removes all the cached SSL contexts. Clients already created keep using
+     * their contexts.
+     */
+    public static void clear() {
+        synchronized (CONTEXTS) {
+            CONTEXTS.clear();
+        }
+    }
+
+    public static int size() {
+        synchronized (CONTEXTS) {
+            return CONTEXTS.size();
+        }
+    }
+
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of cached SSL contexts. The least recently used
+     * contexts are evicted beyond that.
+     *
+     * @param maxSize
+     *            the new maximum number of cached contexts. The default value
+     *            is 16.
+     */
+    public static void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid maximum cache size: " + maxSize);
+        }
+        synchronized (CONTEXTS) {
+            AwsIotSslContextCache.maxSize = maxSize;
+            for (Iterator<String> it = CONTEXTS.keySet().iterator(); CONTEXTS.size() > maxSize;) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    public static int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of TLS sessions cached for resumption by each
+     * SSL context. When a connection is re-established, a cached session
+     * allows the TLS handshake to be abbreviated, skipping the client
+     * certificate signature and saving round trips. The new value applies to
+     * the contexts already cached and to those initialized later.
+     *
+     * @param sessionCacheSize
+     *            the new session cache size, or 0 for no limit. The default
+     *            value is 64.
+     */
+    public static void setSessionCacheSize(int sessionCacheSize) {
+        if (sessionCacheSize < 0) {
+            throw new IllegalArgumentException("Invalid session cache size: " + sessionCacheSize);
+        }
+        synchronized (CONTEXTS) {
+            AwsIotSslContextCache.sessionCacheSize = sessionCacheSize;
+            applySessionSettings();
+        }
+    }
+
+    public static int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * Sets the lifetime in milliseconds of the TLS sessions cached by each SSL
+     * context. Sessions older than this value are not resumed, and a full
+     * handshake is performed instead. The new value applies to the contexts
+     * already cached and to those initialized later.
+     *
+     * @param sessionTimeout
+     *            the new session timeout, or 0 for no limit, though the server
+     *            may still refuse to resume sessions it considers expired. The
+     *            default value is 86,400,000ms (24 hours).
+     */
+    public static void setSessionTimeout(int sessionTimeout) {
+        if (sessionTimeout < 0) {
+            throw new IllegalArgumentException("Invalid session timeout: " + sessionTimeout);
+        }
+        synchronized (CONTEXTS) {
+            AwsIotSslContextCache.sessionTimeout = sessionTimeout;
+            applySessionSettings();
+        }
+    }
+
+    private static void applySessionSettings() {
+        for (FutureTask<SSLContext> task : CONTEXTS.values()) {
+            if (task.isDone()) {
+                try {
+                    applySessionSettings(task.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    // failed initializations are removed by getResult()
+                }
+            }
+        }
+    }
+
+    private static void applySessionSettings(SSLContext context) {
+        SSLSessionContext sessionContext = context.getClientSessionContext();
+        sessionContext.setSessionCacheSize(sessionCacheSize);
+        sessionContext.setSessionTimeout(sessionTimeout / 1000);
+    }
+
+    private static FutureTask<SSLContext> getTask(final KeyStore keyStore, final String keyPassword)
+            throws AWSIotException {
+        String key = getCacheKey(keyStore, keyPassword);
+
+        synchronized (CONTEXTS) {
+            FutureTask<SSLContext> task = CONTEXTS.get(key);
+            if (task == null) {
+                task = new FutureTask<>(new Callable<SSLContext>() {
+                    @Override
+                    public SSLContext call() throws AWSIotException {
+                        return createContext(keyStore, keyPassword);
+                    }
+                });
+                CONTEXTS.put(key, task);
+            }
+            return task;
+        }
+    }
+
+    private static SSLContext getResult(FutureTask<SSLContext> task) throws AWSIotException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AWSIotException(e);
+        } catch (ExecutionException e) {
+            // failed initializations are not cached so they can be retried
+            synchronized (CONTEXTS) {
+                CONTEXTS.values().remove(task);
+            }
+
+            if (e.getCause() instanceof AWSIotException) {
+                throw (AWSIotException) e.getCause();
+            }
+            throw new AWSIotException(e.getCause());
+        }
+    }
+
+    private static SSLContext createContext(KeyStore keyStore, String keyPassword) throws AWSIotException {
+        long start = System.currentTimeMillis();
+        try {
+            SSLContext context = SSLContext.getInstance(TLS);
+
+            KeyManagerFactory managerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            managerFactory.init(keyStore, keyPassword.toCharArray());
+            context.init(managerFactory.getKeyManagers(), null, null);
+            applySessionSettings(context);
+
+            // loads the protocol and cipher suite configuration of the provider
+            context.createSSLEngine();
+
+            LOGGER.fine("SSL context initialized in " + (System.currentTimeMillis() - start) + "ms");
+            return context;
+        } catch (NoSuchAlgorithmException | KeyStoreException | UnrecoverableKeyException | KeyManagementException e) {
+            throw new AWSIotException(e);
+        }
+    }
+
+    private static String getCacheKey(KeyStore keyStore, String keyPassword) throws AWSIotException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+
+            List<String> aliases = Collections.list(keyStore.aliases());
+            Collections.sort(aliases);
+            for (String alias : aliases) {
+                digest.update(alias.getBytes(UTF_8));
+                digest.update((byte) 0);
+
+                Certificate[] chain = keyStore.getCertificateChain(alias);
+                if (chain == null) {
+                    Certificate certificate = keyStore.getCertificate(alias);
+                    chain = (certificate != null) ? new Certificate[] { certificate } : new Certificate[0];
+                }
+                for (Certificate certificate : chain) {
+                    digest.update(certificate.getEncoded());
+                }
+                digest.update((byte) 0);
+            }
+            digest.update(keyPassword.getBytes(UTF_8));
+
+            return keyStore.getType() + ":" + toHex(digest.digest());
+        } catch (NoSuchAlgorithmException | KeyStoreException | CertificateEncodingException e) {
+            throw new AWSIotException(e);
+        }
+    }
+
+    private static ExecutorService createPrewarmExecutor() {
+        // a single shared thread, stopped when idle
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, PREWARM_THREAD_NAME);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.iot.client.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps track of the TLS handshakes completed on sockets created by
+ * {@link AwsIotTlsSocketFactory}, distinguishing full handshakes from
+ * abbreviated handshakes that resumed a cached session. A full handshake
+ * requires the client certificate to be signed with the private key, while a
+ * resumed one doesn't, so a low resumed ratio on a device that reconnects
+ * often usually means the session cache is too small or its entries expire
+ * too early.
+ * <p>
+ * The distinction is a heuristic based on the creation time of the negotiated
+ * session, see {@link AwsIotTlsSocketFactory#onHandshakeCompleted}. It is
+ * reliable for session ID resumption, typical of TLS 1.2, but depending on the
+ * JSSE provider, TLS 1.3 resumptions may be counted as full handshakes. The
+ * resumed count and ratio are therefore estimates, usually lower bounds,
+ * rather than exact values.
+ * </p>
+ */
+public class AwsIotTlsHandshakeMetrics {
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    /**
+     * Gets the estimated number of handshakes that resumed a cached session.
+     * See the class description for the accuracy of the estimate.
+     *
+     * @return the estimated number of resumed handshakes
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    public long getTotalHandshakes() {
+        return fullHandshakes.get() + resumedHandshakes.get();
+    }
+
+    /**
+     * Gets the estimated ratio of resumed handshakes to all the handshakes
+     * completed so far. See the class description for the accuracy of the
+     * estimate.
+     *
+     * @return the resumed handshake ratio between 0 and 1, or 0 if no handshake
+     *         has been completed yet
+     */
+    public double getResumedRatio() {
+        long resumed = resumedHandshakes.get();
+        long total = resumed + fullHandshakes.get();
+        return (total == 0) ? 0 : (double) resumed / total;
+    }
+
+    public void reset() {
+        fullHandshakes.set(0);
+        resumedHandshakes.set(0);
+    }
+
+    void onHandshakeCompleted(boolean resumed) {
+        if (resumed) {
+            resumedHandshakes.incrementAndGet();
+        } else {
+            fullHandshakes.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "full=" + getFullHandshakes() + ", resumed=" + getResumedHandshakes() + ", resumedRatio="
+                + getResumedRatio();
+    }
+
+}
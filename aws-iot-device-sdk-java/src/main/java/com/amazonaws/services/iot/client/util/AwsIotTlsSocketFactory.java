@@ -16,53 +16,164 @@
 package com.amazonaws.services.iot.client.util;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.security.KeyManagementException;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
 
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
-
-import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
 import com.amazonaws.services.iot.client.AWSIotException;
 
 /**
- * This class extends {@link SSLSocketFactory} to enforce TLS v1.2 to be used
- * for SSL sockets created by the library.
+ * This class extends {@link SSLSocketFactory} to restrict the TLS protocol
+ * versions used by SSL sockets created by the library. By default, TLS v1.3 is
+ * preferred and TLS v1.2 is used as fallback; protocols not supported by the
+ * JSSE provider are skipped, so older Java runtimes still connect over TLS
+ * v1.2.
+ * <p>
+ * When created from a {@link KeyStore}, the underlying {@link SSLContext} is
+ * obtained from {@link AwsIotSslContextCache}, and shared by all the factories
+ * created from the same certificate and password, so TLS sessions cached by one
+ * connection can be resumed by reconnects and by other clients using the same
+ * certificate, skipping the full handshake and the client certificate
+ * signature. Whether resumption uses session IDs or session tickets is
+ * negotiated by the JSSE provider.
+ * </p>
+ * <p>
+ * Application protocols can be offered through ALPN, e.g. to run MQTT over
+ * port 443. ALPN requires a Java runtime providing
+ * {@code SSLParameters.setApplicationProtocols}, i.e. Java 9 or later, or Java
+ * 8u251 or later.
+ * </p>
  */
 public class AwsIotTlsSocketFactory extends SSLSocketFactory {
+
+    private static final Logger LOGGER = Logger.getLogger(AwsIotTlsSocketFactory.class.getName());
+
     private static final String TLS_V_1_2 = "TLSv1.2";
+    private static final String TLS_V_1_3 = "TLSv1.3";
+
+    /**
+     * The protocols enabled by default, in order of preference.
+     */
+    public static final List<String> DEFAULT_PROTOCOLS = Collections
+            .unmodifiableList(Arrays.asList(TLS_V_1_3, TLS_V_1_2));
+
+    /**
+     * {@code SSLParameters.setApplicationProtocols}, looked up at runtime as it
+     * is not available on all the supported Java runtimes.
+     */
+    private static final Method SET_APPLICATION_PROTOCOLS = getSslParametersMethod("setApplicationProtocols",
+            String[].class);
 
     /**
      * SSL Socket Factory A SSL socket factory is created and passed into this
-     * class which decorates it to enable TLS 1.2 when sockets are created.
+     * class which decorates it to enable TLS 1.3 and 1.2 when sockets are
+     * created.
      */
     private final SSLSocketFactory sslSocketFactory;
 
-    public AwsIotTlsSocketFactory(KeyStore keyStore, String keyPassword) throws AWSIotException {
-        try {
-            SSLContext context = SSLContext.getInstance(TLS_V_1_2);
+    /**
+     * The SSL context owning the TLS session cache, or null if the SSL socket
+     * factory was provided by the application.
+     */
+    private final SSLContext sslContext;
 
-            KeyManagerFactory managerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-            managerFactory.init(keyStore, keyPassword.toCharArray());
-            context.init(managerFactory.getKeyManagers(), null, null);
+    private final AwsIotTlsHandshakeMetrics handshakeMetrics = new AwsIotTlsHandshakeMetrics();
 
-            sslSocketFactory = context.getSocketFactory();
-        } catch (NoSuchAlgorithmException | KeyStoreException | UnrecoverableKeyException | KeyManagementException e) {
-            throw new AWSIotException(e);
-        }
+    private volatile String[] enabledProtocols = DEFAULT_PROTOCOLS.toArray(new String[0]);
+
+    private volatile String[] applicationProtocols = new String[0];
+
+    public AwsIotTlsSocketFactory(KeyStore keyStore, String keyPassword) throws AWSIotException {
+        sslContext = AwsIotSslContextCache.getContext(keyStore, keyPassword);
+        sslSocketFactory = sslContext.getSocketFactory();
     }
 
     public AwsIotTlsSocketFactory(SSLSocketFactory sslSocketFactory) {
         this.sslSocketFactory = sslSocketFactory;
+        this.sslContext = null;
+    }
+
+    /**
+     * Gets the client session context holding the TLS sessions that can be
+     * resumed by the sockets created by this factory. As the context may be
+     * shared with other factories, its cache size and session timeout are
+     * configured through {@link AwsIotSslContextCache#setSessionCacheSize(int)}
+     * and {@link AwsIotSslContextCache#setSessionTimeout(int)} rather than per
+     * factory.
+     *
+     * @return the client session context, or null if the SSL socket factory
+     *         was provided by the application
+     */
+    public SSLSessionContext getSessionContext() {
+        return (sslContext != null) ? sslContext.getClientSessionContext() : null;
+    }
+
+    public AwsIotTlsHandshakeMetrics getHandshakeMetrics() {
+        return handshakeMetrics;
+    }
+
+    public List<String> getEnabledProtocols() {
+        return Collections.unmodifiableList(Arrays.asList(enabledProtocols));
+    }
+
+    /**
+     * Sets the TLS protocols to be enabled on the sockets created afterwards.
+     * Protocols not supported by a socket are skipped for that socket.
+     *
+     * @param protocols
+     *            the protocol names, e.g. {@code TLSv1.3}, in order of
+     *            preference
+     */
+    public void setEnabledProtocols(List<String> protocols) {
+        if (protocols == null || protocols.isEmpty()) {
+            throw new IllegalArgumentException("At least one TLS protocol must be enabled");
+        }
+        enabledProtocols = protocols.toArray(new String[protocols.size()]);
+    }
+
+    public List<String> getApplicationProtocols() {
+        return Collections.unmodifiableList(Arrays.asList(applicationProtocols));
+    }
+
+    /**
+     * Sets the application protocols to be offered through ALPN on the sockets
+     * created afterwards. An empty list disables ALPN.
+     *
+     * @param protocols
+     *            the application protocol names, e.g. {@code x-amzn-mqtt-ca},
+     *            in order of preference
+     */
+    public void setApplicationProtocols(List<String> protocols) {
+        if (protocols == null) {
+            protocols = Collections.emptyList();
+        }
+        if (!protocols.isEmpty() && !isAlpnSupported()) {
+            LOGGER.warning("ALPN is not supported by the Java runtime, application protocols won't be offered: "
+                    + protocols);
+        }
+        applicationProtocols = protocols.toArray(new String[protocols.size()]);
+    }
+
+    public static boolean isAlpnSupported() {
+        return SET_APPLICATION_PROTOCOLS != null;
     }
 
     @Override
@@ -108,23 +219,136 @@ public class AwsIotTlsSocketFactory extends SSLSocketFactory {
     }
 
     /**
-     * Enable TLS 1.2 on any socket created by the underlying SSL Socket
-     * Factory.
+     * Creates an SSL engine for non-blocking connections to the given server,
+     * configured with the same TLS protocols, hostname verification and
+     * application protocols as the sockets created by this factory. The
+     * completed handshakes should be reported through
+     * {@link #onHandshakeCompleted(SSLSession, long)}.
+     *
+     * @param host
+     *            the server host name, also used for SNI and hostname
+     *            verification
+     * @param port
+     *            the server port
+     * @return the SSL engine in client mode, or null if the SSL socket factory
+     *         was provided by the application
+     */
+    public SSLEngine createSSLEngine(String host, int port) {
+        if (sslContext == null) {
+            return null;
+        }
+
+        SSLEngine engine = sslContext.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        engine.setEnabledProtocols(getSupportedProtocols(engine.getSupportedProtocols()));
+        engine.setSSLParameters(createSslParameters());
+        return engine;
+    }
+
+    /**
+     * Records a completed handshake in the handshake metrics. JSSE doesn't
+     * expose whether a handshake resumed a session, so this is a heuristic: a
+     * session resumed through its session ID keeps the creation time of the
+     * original session, which is earlier than the start of the connection,
+     * while a full handshake creates a new session. Sessions resumed with a
+     * TLS 1.3 pre-shared key may be given a new creation time by the JSSE
+     * provider and counted as full handshakes, and changes of the system clock
+     * during the handshake may misclassify it either way.
+     *
+     * @param session
+     *            the session negotiated by the handshake
+     * @param connectionStartTime
+     *            the time the connection was started, in milliseconds since
+     *            the epoch
+     */
+    public void onHandshakeCompleted(SSLSession session, long connectionStartTime) {
+        boolean resumed = session != null && session.getCreationTime() < connectionStartTime;
+        handshakeMetrics.onHandshakeCompleted(resumed);
+    }
+
+    /**
+     * Enable the configured TLS protocols on any socket created by the
+     * underlying SSL Socket Factory.
      *
      * @param socket
-     *            newly created socket which may not have TLS 1.2 enabled.
-     * @return TLS 1.2 enabled socket.
+     *            newly created socket which may have other protocols enabled.
+     * @return TLS enabled socket.
      */
     private Socket ensureTls(Socket socket) {
         if (socket != null && (socket instanceof SSLSocket)) {
-            ((SSLSocket) socket).setEnabledProtocols(new String[] { TLS_V_1_2 });
-
-            // Ensure hostname is validated againt the CN in the certificate
-            SSLParameters sslParams = new SSLParameters();
-            sslParams.setEndpointIdentificationAlgorithm("HTTPS");
-            ((SSLSocket) socket).setSSLParameters(sslParams);
+            SSLSocket sslSocket = (SSLSocket) socket;
+            sslSocket.setEnabledProtocols(getSupportedProtocols(sslSocket.getSupportedProtocols()));
+            sslSocket.setSSLParameters(createSslParameters());
+            sslSocket.addHandshakeCompletedListener(new HandshakeListener(System.currentTimeMillis()));
         }
         return socket;
     }
 
+    private SSLParameters createSslParameters() {
+        // Ensure hostname is validated againt the CN in the certificate
+        SSLParameters sslParams = new SSLParameters();
+        sslParams.setEndpointIdentificationAlgorithm("HTTPS");
+        setApplicationProtocols(sslParams, applicationProtocols);
+        return sslParams;
+    }
+
+    /**
+     * Gets the configured protocols supported by the socket or engine. If none
+     * of them is supported, the configured protocols are returned unchanged so
+     * the socket reports the error.
+     */
+    private String[] getSupportedProtocols(String[] supportedProtocols) {
+        String[] protocols = enabledProtocols;
+        if (supportedProtocols == null) {
+            return protocols;
+        }
+
+        List<String> supported = Arrays.asList(supportedProtocols);
+        List<String> result = new ArrayList<>(protocols.length);
+        for (String protocol : protocols) {
+            if (supported.contains(protocol)) {
+                result.add(protocol);
+            }
+        }
+        return result.isEmpty() ? protocols : result.toArray(new String[result.size()]);
+    }
+
+    private static void setApplicationProtocols(SSLParameters sslParams, String[] protocols) {
+        if (protocols.length == 0 || SET_APPLICATION_PROTOCOLS == null) {
+            return;
+        }
+
+        try {
+            SET_APPLICATION_PROTOCOLS.invoke(sslParams, (Object) protocols);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            LOGGER.warning("Failed to set application protocols: " + e);
+        }
+    }
+
+    private static Method getSslParametersMethod(String name, Class<?>... parameterTypes) {
+        try {
+            return SSLParameters.class.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records the completed handshakes of sockets in the metrics.
+     */
+    private class HandshakeListener implements HandshakeCompletedListener {
+
+        private final long socketCreationTime;
+
+        public HandshakeListener(long socketCreationTime) {
+            this.socketCreationTime = socketCreationTime;
+        }
+
+        @Override
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            onHandshakeCompleted(event.getSession(), socketCreationTime);
+        }
+
+    }
+
 }
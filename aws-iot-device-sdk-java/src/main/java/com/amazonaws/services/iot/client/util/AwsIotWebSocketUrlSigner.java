@@ -17,9 +17,7 @@ package com.amazonaws.services.iot.client.util;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.security.InvalidKeyException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.TimeZone;
@@ -68,12 +66,37 @@ public class AwsIotWebSocketUrlSigner {
     private static final String ServiceName = "iotdata";
     /** Blank region, placeholder until region is determined from the endpoint */
     private static final String REGION_TO_BE_DETERMINED = "";
+    /** Hex-encoded SHA-256 hash of the empty payload of the WebSocket request. */
+    private static final String EMPTY_PAYLOAD_HASH = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    /** Digits used for hex encoding. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** MAC instances confined to the signing threads, re-keyed for each use. */
+    private static final ThreadLocal<Mac> MACS = new ThreadLocal<>();
+    /** Digest instances confined to the signing threads. */
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<>();
+    /** Formatters confined to the signing threads, as SimpleDateFormat isn't thread safe. */
+    private static final ThreadLocal<SimpleDateFormat> TIME_FORMATTERS = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return createFormatter(TIME_PATTERN);
+        }
+    };
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMATTERS = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return createFormatter(DATE_PATTERN);
+        }
+    };
 
     private String endpoint;
     private String regionName;
 
     private CredentialsProvider credentialsProvider;
 
+    /** The signing key derived last, reused until the date or secret changes. */
+    private volatile SigningKey signingKey;
+
     /**
      * Instantiates a new URL signer instance with endpoint only.
      *
@@ -222,6 +245,17 @@ public class AwsIotWebSocketUrlSigner {
      *             information.
      */
     public String getSignedUrl(final Date signingDate) throws AWSIotException {
+        return getSignedUrl(signingDate, getCredentials());
+    }
+
+    /**
+     * Gets the credentials to sign with from the credentials provider.
+     *
+     * @return the current credentials.
+     * @throws AWSIotException
+     *             Exception thrown when no credentials are available.
+     */
+    public Credentials getCredentials() throws AWSIotException {
         CredentialsProvider provider = null;
         synchronized (this) {
             provider = credentialsProvider;
@@ -235,7 +269,25 @@ public class AwsIotWebSocketUrlSigner {
         if (credentials == null) {
             throw new AWSIotException("Could not source AWS credentials from provider");
         }
+        return credentials;
+    }
 
+    /**
+     * Given the signing date and credentials return a signed connection URL to
+     * be used when connecting via WebSocket to AWS IoT.
+     *
+     * @param signingDate
+     *            time value to be used in SigV4 calculations. System current
+     *            time will be used if null.
+     * @param credentials
+     *            the credentials to sign with, e.g. from
+     *            {@link #getCredentials()}.
+     * @return a URL with SigV4 signature formatted to be used with AWS IoT.
+     * @throws AWSIotException
+     *             Exception thrown when signed URL can be generated with given
+     *             information.
+     */
+    public String getSignedUrl(final Date signingDate, final Credentials credentials) throws AWSIotException {
         String awsAccessKeyId = credentials.getAccessKeyId();
 
         Date dateToUse = signingDate;
@@ -263,7 +315,7 @@ public class AwsIotWebSocketUrlSigner {
         // headers and payload for the signing request
         // not used in an WebSocket URL, but encoded into the signature string
         String canonicalHeaders = "host:" + endpoint + "\n";
-        String payloadHash = stringToHex(hash(""));
+        String payloadHash = EMPTY_PAYLOAD_HASH;
 
         // The request to sign includes the HTTP method, path, query string,
         // headers and payload
@@ -324,24 +376,18 @@ public class AwsIotWebSocketUrlSigner {
      * @return hex-encoded string.
      */
     private String stringToHex(final byte[] data) {
-        StringBuilder sb = new StringBuilder(data.length * 2);
+        char[] hex = new char[data.length * 2];
         for (int i = 0; i < data.length; i++) {
-            String hex = Integer.toHexString(data[i]);
-            if (hex.length() == 1) {
-                // Append leading zero.
-                sb.append("0");
-            } else if (hex.length() == 8) {
-                // Remove ff prefix from negative numbers.
-                hex = hex.substring(6);
-            }
-            sb.append(hex);
+            hex[i * 2] = HEX_DIGITS[(data[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[data[i] & 0x0f];
         }
-        return sb.toString().toLowerCase();
+        return new String(hex);
     }
 
     /**
      * The SigV4 signing key is made up by consecutively hashing a number of
-     * unique pieces of data.
+     * unique pieces of data. As it only depends on the secret key, the date and
+     * the region, the key derived last is reused until one of them changes.
      * 
      * @param dateStamp
      *            the current date in short date format.
@@ -349,22 +395,28 @@ public class AwsIotWebSocketUrlSigner {
      * @throws AWSIotException
      */
     private byte[] getSigningKey(Credentials credentials, String dateStamp) throws AWSIotException {
+        String secretAccessKey = credentials.getSecretAccessKey();
+        SigningKey cachedKey = signingKey;
+        if (cachedKey != null && cachedKey.matches(secretAccessKey, dateStamp)) {
+            return cachedKey.key;
+        }
 
-        Mac signingSecretMac = null;
+        byte[] signingSecret;
         try {
-            byte[] signingSecret = (KEY_PREFIX + credentials.getSecretAccessKey()).getBytes(UTF8);
-            signingSecretMac = Mac.getInstance(HMAC_ALGORITHM);
-            signingSecretMac.init(new SecretKeySpec(signingSecret, HMAC_ALGORITHM));
-        } catch (UnsupportedEncodingException | NoSuchAlgorithmException | InvalidKeyException e) {
+            signingSecret = (KEY_PREFIX + secretAccessKey).getBytes(UTF8);
+        } catch (UnsupportedEncodingException e) {
             throw new AWSIotException("Error in initializing signing secret MAC");
         }
 
         // AWS4 uses a series of derived keys, formed by hashing different
         // pieces of data
-        byte[] signingDate = sign(dateStamp, signingSecretMac);
+        byte[] signingDate = sign(dateStamp, signingSecret);
         byte[] signingRegion = sign(regionName, signingDate);
         byte[] signingService = sign(ServiceName, signingRegion);
-        return sign(TERMINATOR, signingService);
+        byte[] key = sign(TERMINATOR, signingService);
+
+        signingKey = new SigningKey(secretAccessKey, dateStamp, key);
+        return key;
     }
 
     /**
@@ -376,9 +428,7 @@ public class AwsIotWebSocketUrlSigner {
      * @return date formatted string in ISO 8601 date + time format.
      */
     private String getAmzDate(final Date date) {
-        SimpleDateFormat fomatter = new SimpleDateFormat(TIME_PATTERN);
-        fomatter.setTimeZone(TIME_ZONE);
-        return fomatter.format(date);
+        return TIME_FORMATTERS.get().format(date);
     }
 
     /**
@@ -390,9 +440,13 @@ public class AwsIotWebSocketUrlSigner {
      * @return date formatted string in short date format.
      */
     private String getDateStamp(final Date date) {
-        SimpleDateFormat fomatter = new SimpleDateFormat(DATE_PATTERN);
-        fomatter.setTimeZone(TIME_ZONE);
-        return fomatter.format(date);
+        return DATE_FORMATTERS.get().format(date);
+    }
+
+    private static SimpleDateFormat createFormatter(String pattern) {
+        SimpleDateFormat formatter = new SimpleDateFormat(pattern);
+        formatter.setTimeZone(TIME_ZONE);
+        return formatter;
     }
 
     /**
@@ -407,9 +461,12 @@ public class AwsIotWebSocketUrlSigner {
      */
     private byte[] hash(String text) throws AWSIotException {
         try {
-            MessageDigest md = MessageDigest.getInstance(HASH_ALGORITHM);
-            md.update(text.getBytes(UTF8));
-            return md.digest();
+            MessageDigest md = DIGESTS.get();
+            if (md == null) {
+                md = MessageDigest.getInstance(HASH_ALGORITHM);
+                DIGESTS.set(md);
+            }
+            return md.digest(text.getBytes(UTF8));
         } catch (Exception e) {
             throw new AWSIotException("Unable to compute hash while signing request: " + e.getMessage());
         }
@@ -429,7 +486,11 @@ public class AwsIotWebSocketUrlSigner {
     private byte[] sign(String stringData, final byte[] key) throws AWSIotException {
         try {
             byte[] data = stringData.getBytes(UTF8);
-            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            Mac mac = MACS.get();
+            if (mac == null) {
+                mac = Mac.getInstance(HMAC_ALGORITHM);
+                MACS.set(mac);
+            }
             mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
             return mac.doFinal(data);
         } catch (Exception e) {
@@ -438,23 +499,25 @@ public class AwsIotWebSocketUrlSigner {
     }
 
     /**
-     * Sign the given data with the key provided.
-     *
-     * @param stringData
-     *            String to be signed.
-     * @param mac
-     *            the signing algorithm with key initialized.
-     * @return a byte array containing the signed string.
-     * @throws AmazonClientException
-     *             in the case of a signature error.
+     * This class holds a derived signing key along with the secret key and the
+     * date it was derived from.
      */
-    private byte[] sign(String stringData, final Mac mac) throws AWSIotException {
-        try {
-            byte[] data = stringData.getBytes(UTF8);
-            return mac.doFinal(data);
-        } catch (Exception e) {
-            throw new AWSIotException("Unable to calculate a request signature: " + e.getMessage());
+    private static class SigningKey {
+
+        private final String secretAccessKey;
+        private final String dateStamp;
+        private final byte[] key;
+
+        SigningKey(String secretAccessKey, String dateStamp, byte[] key) {
+            this.secretAccessKey = secretAccessKey;
+            this.dateStamp = dateStamp;
+            this.key = key;
         }
+
+        boolean matches(String secretAccessKey, String dateStamp) {
+            return this.secretAccessKey.equals(secretAccessKey) && this.dateStamp.equals(dateStamp);
+        }
+
     }
 
 }
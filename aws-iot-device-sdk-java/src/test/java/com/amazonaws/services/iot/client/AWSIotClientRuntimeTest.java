@@ -0,0 +1,89 @@
+package com.amazonaws.services.iot.client;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotTransport;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
+import com.amazonaws.services.iot.client.mqtt.AwsIotPahoTransport;
+import com.amazonaws.services.iot.client.nio.AwsIotNioTransport;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AWSIotClientRuntimeTest {
+
+    private static final String TEST_ENDPOINT = "iot.us-east-1.amazonaws.com";
+
+    @Mock
+    private AbstractAwsIotClient client;
+    @Mock
+    private AwsIotTransportListener listener;
+
+    private AWSIotClientRuntime runtime;
+
+    @Before
+    public void setup() throws AWSIotException {
+        runtime = new AWSIotClientRuntime(2, 1);
+
+        when(client.getClientId()).thenReturn("client");
+        when(client.getProtocolVersion()).thenReturn(AWSIotProtocolVersion.MQTT_3_1_1);
+    }
+
+    @After
+    public void cleanup() {
+        runtime.shutdown();
+    }
+
+    @Test
+    public void testNioTransportForTcpConnections() throws AWSIotException {
+        AwsIotTransport transport = runtime.getTransportFactory().createTransport(client, null,
+                "tcp://" + TEST_ENDPOINT + ":1883", listener);
+
+        assertTrue(transport instanceof AwsIotNioTransport);
+    }
+
+    @Test
+    public void testNioTransportForWebsocketConnections() throws AWSIotException {
+        AwsIotTransport transport = runtime.getTransportFactory().createTransport(client, null,
+                "wss://" + TEST_ENDPOINT + ":443/mqtt", listener);
+
+        assertTrue(transport instanceof AwsIotNioTransport);
+    }
+
+    @Test
+    public void testPahoTransportForCustomSocketFactory() throws AWSIotException {
+        AwsIotTransport transport = runtime.getTransportFactory().createTransport(client,
+                SSLSocketFactory.getDefault(), "ssl://" + TEST_ENDPOINT + ":8883", listener);
+
+        assertTrue(transport instanceof AwsIotPahoTransport);
+    }
+
+    @Test
+    public void testClientsShareExecutionService() {
+        AWSIotMqttClient client1 = new AWSIotMqttClient(TEST_ENDPOINT, "client1", "AKIDEXAMPLE", "secret");
+        AWSIotMqttClient client2 = new AWSIotMqttClient(TEST_ENDPOINT, "client2", "AKIDEXAMPLE", "secret");
+        client1.setClientRuntime(runtime);
+        client2.setClientRuntime(runtime);
+
+        assertSame(runtime.getTransportFactory(), client1.getTransportFactory());
+        assertSame(runtime.getTransportFactory(), client2.getTransportFactory());
+        assertSame(runtime, client1.getClientRuntime());
+    }
+
+    @Test
+    public void testShutdown() {
+        runtime.shutdown();
+
+        assertTrue(runtime.getExecutionService().isShutdown());
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.amazonaws.services.iot.client;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.amazonaws.services.iot.client.auth.Credentials;
+import com.amazonaws.services.iot.client.auth.StaticCredentialsProvider;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AWSIotMqttShardedClientTest {
+
+    private static final String TEST_ENDPOINT = "iot.us-east-1.amazonaws.com";
+    private static final String TEST_REGION = "us-east-1";
+
+    @Mock
+    private AWSIotMqttClient shard0;
+    @Mock
+    private AWSIotMqttClient shard1;
+    @Mock
+    private AWSIotMqttClient shard2;
+
+    private AWSIotMqttShardedClient client;
+
+    @Before
+    public void setup() {
+        when(shard0.getClientId()).thenReturn("shard-0");
+        when(shard1.getClientId()).thenReturn("shard-1");
+        when(shard2.getClientId()).thenReturn("shard-2");
+        client = new AWSIotMqttShardedClient(Arrays.asList(shard0, shard1, shard2));
+        clearInvocations(shard0, shard1, shard2);
+    }
+
+    @Test
+    public void testClientIdsFromTemplate() {
+        StaticCredentialsProvider provider = new StaticCredentialsProvider(new Credentials("id", "secret"));
+        AWSIotMqttShardedClient sharded = new AWSIotMqttShardedClient(TEST_ENDPOINT, "client-%d", 4, provider,
+                TEST_REGION);
+
+        assertEquals(4, sharded.getNumOfShards());
+        for (int i = 0; i < 4; i++) {
+            assertEquals("client-" + i, sharded.getShards().get(i).getClientId());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateClientIds() {
+        StaticCredentialsProvider provider = new StaticCredentialsProvider(new Credentials("id", "secret"));
+        new AWSIotMqttShardedClient(TEST_ENDPOINT, "client", 2, provider, TEST_REGION);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNumOfShards() {
+        StaticCredentialsProvider provider = new StaticCredentialsProvider(new Credentials("id", "secret"));
+        new AWSIotMqttShardedClient(TEST_ENDPOINT, "client-%d", 0, provider, TEST_REGION);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoShards() {
+        new AWSIotMqttShardedClient(new ArrayList<AWSIotMqttClient>());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateShardClientIds() {
+        when(shard2.getClientId()).thenReturn("shard-0");
+        new AWSIotMqttShardedClient(Arrays.asList(shard0, shard1, shard2));
+    }
+
+    @Test
+    public void testShardSelectionIsStable() {
+        Set<AWSIotMqttClient> used = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            String topic = "topic/" + i;
+            AWSIotMqttClient shard = client.getShard(topic);
+
+            assertSame(shard, client.getShard(topic));
+            used.add(shard);
+        }
+
+        assertEquals(3, used.size());
+    }
+
+    @Test
+    public void testPublishRoutedByTopic() throws AWSIotException {
+        List<AWSIotMqttClient> shards = client.getShards();
+        for (int i = 0; i < 30; i++) {
+            String topic = "topic/" + i;
+            client.publish(topic, AWSIotQos.QOS1, "payload");
+
+            AWSIotMqttClient expected = shards.get((topic.hashCode() & Integer.MAX_VALUE) % shards.size());
+            verify(expected).publish(topic, AWSIotQos.QOS1, "payload");
+        }
+    }
+
+    @Test
+    public void testSubscribeAndUnsubscribeUseHomeShard() throws AWSIotException {
+        AWSIotTopic topic = new AWSIotTopic("sensors/+/temperature", AWSIotQos.QOS1);
+        AWSIotMqttClient home = client.getShard(topic.getTopic());
+
+        client.subscribe(topic);
+        client.unsubscribe(topic);
+
+        verify(home).subscribe(topic);
+        verify(home).unsubscribe(topic);
+        for (AWSIotMqttClient shard : client.getShards()) {
+            if (shard != home) {
+                verifyZeroInteractions(shard);
+            }
+        }
+    }
+
+    @Test
+    public void testAttachRoutedByThingName() throws AWSIotException {
+        AWSIotDevice device = new AWSIotDevice("thing");
+        AWSIotMqttClient shard = client.getShard("thing");
+
+        client.attach(device);
+        client.detach(device);
+
+        verify(shard).attach(device);
+        verify(shard).detach(device);
+    }
+
+    @Test
+    public void testConnectAllShards() throws AWSIotException {
+        client.connect();
+
+        verify(shard0).connect();
+        verify(shard1).connect();
+        verify(shard2).connect();
+    }
+
+    @Test
+    public void testConnectFailureDisconnectsShards() throws AWSIotException {
+        AWSIotException error = new AWSIotException("failed");
+        doThrow(error).when(shard2).connect();
+
+        try {
+            client.connect();
+            fail("Exception should be thrown");
+        } catch (AWSIotException e) {
+            assertSame(error, e);
+        }
+
+        verify(shard0).disconnect();
+        verify(shard1).disconnect();
+        verify(shard2, never()).disconnect();
+    }
+
+    @Test
+    public void testConnectTimeoutDisconnectsShards() throws AWSIotException, AWSIotTimeoutException {
+        AWSIotTimeoutException error = new AWSIotTimeoutException("timeout");
+        doThrow(error).when(shard1).connect(anyLong());
+
+        try {
+            client.connect(1000);
+            fail("Exception should be thrown");
+        } catch (AWSIotTimeoutException e) {
+            assertSame(error, e);
+        }
+
+        verify(shard0).disconnect();
+        verify(shard1).disconnect();
+        verify(shard2, never()).connect(anyLong());
+    }
+
+    @Test
+    public void testDisconnectContinuesOnFailure() throws AWSIotException {
+        AWSIotException error = new AWSIotException("failed");
+        doThrow(error).when(shard1).disconnect();
+
+        try {
+            client.disconnect();
+            fail("Exception should be thrown");
+        } catch (AWSIotException e) {
+            assertSame(error, e);
+        }
+
+        verify(shard0).disconnect();
+        verify(shard2).disconnect();
+    }
+
+    @Test
+    public void testConnectionStatus() {
+        when(shard0.getConnectionStatus()).thenReturn(AWSIotConnectionStatus.CONNECTED);
+        when(shard1.getConnectionStatus()).thenReturn(AWSIotConnectionStatus.CONNECTED);
+        when(shard2.getConnectionStatus()).thenReturn(AWSIotConnectionStatus.CONNECTED);
+        assertEquals(AWSIotConnectionStatus.CONNECTED, client.getConnectionStatus());
+
+        when(shard1.getConnectionStatus()).thenReturn(AWSIotConnectionStatus.DISCONNECTED);
+        assertEquals(AWSIotConnectionStatus.RECONNECTING, client.getConnectionStatus());
+
+        when(shard0.getConnectionStatus()).thenReturn(AWSIotConnectionStatus.DISCONNECTED);
+        when(shard2.getConnectionStatus()).thenReturn(AWSIotConnectionStatus.DISCONNECTED);
+        assertEquals(AWSIotConnectionStatus.DISCONNECTED, client.getConnectionStatus());
+    }
+
+}
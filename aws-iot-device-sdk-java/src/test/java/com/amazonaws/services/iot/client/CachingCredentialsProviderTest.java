@@ -0,0 +1,166 @@
+package com.amazonaws.services.iot.client;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.services.iot.client.auth.CachingCredentialsProvider;
+import com.amazonaws.services.iot.client.auth.Credentials;
+import com.amazonaws.services.iot.client.auth.CredentialsProvider;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachingCredentialsProviderTest {
+
+    private static final long TIMEOUT = 2000;
+    private static final long REFRESH_BEFORE_EXPIRY = 5 * 60 * 1000;
+
+    @Mock
+    private CredentialsProvider provider;
+
+    @Test
+    public void testCredentialsWithoutExpirationCached() {
+        Credentials credentials = new Credentials("id", "secret");
+        when(provider.getCredentials()).thenReturn(credentials);
+        CachingCredentialsProvider cachingProvider = new CachingCredentialsProvider(provider);
+
+        assertSame(credentials, cachingProvider.getCredentials());
+        assertSame(credentials, cachingProvider.getCredentials());
+        verify(provider, times(1)).getCredentials();
+    }
+
+    @Test
+    public void testCredentialsRefreshedInBackgroundBeforeExpiry() {
+        Credentials expiring = newCredentials(60 * 1000);
+        Credentials fresh = newCredentials(60 * 60 * 1000);
+        when(provider.getCredentials()).thenReturn(expiring, fresh);
+        CachingCredentialsProvider cachingProvider = new CachingCredentialsProvider(provider,
+                REFRESH_BEFORE_EXPIRY, 0);
+
+        assertSame(expiring, cachingProvider.getCredentials());
+        // the cached credentials are returned while the refresh is running
+        assertSame(expiring, cachingProvider.getCredentials());
+
+        verify(provider, timeout(TIMEOUT).times(2)).getCredentials();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (cachingProvider.getCredentials() != fresh && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertSame(fresh, cachingProvider.getCredentials());
+        verify(provider, times(2)).getCredentials();
+    }
+
+    @Test
+    public void testExpiredCredentialsRefreshedInline() {
+        Credentials expired = newCredentials(-1000);
+        Credentials fresh = newCredentials(60 * 60 * 1000);
+        when(provider.getCredentials()).thenReturn(expired, fresh);
+        CachingCredentialsProvider cachingProvider = new CachingCredentialsProvider(provider);
+
+        assertSame(expired, cachingProvider.getCredentials());
+        assertSame(fresh, cachingProvider.getCredentials());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneRefresh() throws Exception {
+        final Credentials credentials = newCredentials(60 * 60 * 1000);
+        when(provider.getCredentials()).thenAnswer(new Answer<Credentials>() {
+            @Override
+            public Credentials answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(200);
+                return credentials;
+            }
+        });
+        final CachingCredentialsProvider cachingProvider = new CachingCredentialsProvider(provider);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Callable<Credentials> request = new Callable<Credentials>() {
+                @Override
+                public Credentials call() {
+                    return cachingProvider.getCredentials();
+                }
+            };
+            Future<Credentials> result1 = executor.submit(request);
+            Future<Credentials> result2 = executor.submit(request);
+            Future<Credentials> result3 = executor.submit(request);
+
+            assertSame(credentials, result1.get());
+            assertSame(credentials, result2.get());
+            assertSame(credentials, result3.get());
+        } finally {
+            executor.shutdown();
+        }
+        verify(provider, times(1)).getCredentials();
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneFailedRefresh() throws Exception {
+        final Credentials credentials = newCredentials(60 * 60 * 1000);
+        when(provider.getCredentials()).thenAnswer(new Answer<Credentials>() {
+            @Override
+            public Credentials answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(200);
+                throw new IllegalStateException("provider unavailable");
+            }
+        }).thenReturn(credentials);
+        final CachingCredentialsProvider cachingProvider = new CachingCredentialsProvider(provider);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Callable<Credentials> request = new Callable<Credentials>() {
+                @Override
+                public Credentials call() {
+                    return cachingProvider.getCredentials();
+                }
+            };
+            List<Future<Credentials>> results = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(request));
+            }
+
+            for (Future<Credentials> result : results) {
+                try {
+                    result.get();
+                    fail("Exception should be thrown");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        verify(provider, times(1)).getCredentials();
+
+        // the failed refresh is not reused
+        assertSame(credentials, cachingProvider.getCredentials());
+        verify(provider, times(2)).getCredentials();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFailurePropagatedWithoutCachedCredentials() {
+        when(provider.getCredentials()).thenThrow(new IllegalStateException("provider unavailable"));
+        CachingCredentialsProvider cachingProvider = new CachingCredentialsProvider(provider);
+
+        cachingProvider.getCredentials();
+    }
+
+    private static Credentials newCredentials(long expiresIn) {
+        return new Credentials("id", "secret", "token", new Date(System.currentTimeMillis() + expiresIn));
+    }
+
+}
@@ -2,12 +2,17 @@ package com.amazonaws.services.iot.client.core;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
@@ -18,6 +23,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 
+import com.amazonaws.services.iot.client.AWSIotClientRuntime;
 import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
 import com.amazonaws.services.iot.client.AWSIotException;
 import com.amazonaws.services.iot.client.AWSIotDevice;
@@ -100,6 +106,23 @@ public class AbstractAwsIotClientTest {
                 return null;
             }
         }).when(connection).unsubscribe(any(AwsIotCompletion.class));
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                for (Object message : (List<?>) invocation.getArguments()[0]) {
+                    AwsIotCompletion completion = (AwsIotCompletion) message;
+                    if (requestSuccess) {
+                        completion.onSuccess();
+                    } else if (requestFailure) {
+                        completion.onFailure();
+                    } else if (requestTimeout) {
+                        completion.onTimeout();
+                    }
+                }
+                return null;
+            }
+        }).when(connection).subscribe(anyListOf(AWSIotMessage.class));
     }
 
     @Test
@@ -181,6 +204,32 @@ public class AbstractAwsIotClientTest {
         assertEquals(0, client.getSubscriptions().size());
     }
 
+    @Test
+    public void testSubscribeMultipleTopics() throws AWSIotException, AWSIotTimeoutException {
+        requestSuccess = true;
+        requestFailure = requestTimeout = false;
+
+        List<AWSIotTopic> topics = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            topics.add(new AWSIotTopic(TEST_TOPIC + "/" + i, TEST_QOS));
+        }
+        client.subscribe(topics, 10, true);
+
+        verify(connection, times(1)).subscribe(anyListOf(AWSIotMessage.class));
+        verify(connection, never()).subscribe(any(AwsIotCompletion.class));
+        assertEquals(10, client.getSubscriptions().size());
+    }
+
+    @Test(expected = AWSIotException.class)
+    public void testSubscribeMultipleTopicsFailure() throws AWSIotException, AWSIotTimeoutException {
+        requestFailure = true;
+        requestSuccess = requestTimeout = false;
+
+        List<AWSIotTopic> topics = new ArrayList<>();
+        topics.add(new AWSIotTopic(TEST_TOPIC, TEST_QOS));
+        client.subscribe(topics, 10, true);
+    }
+
     @Test
     public void testUnsubscribeSuccess() throws AWSIotException {
         client.getSubscriptions().put(TEST_TOPIC, new AWSIotTopic(TEST_TOPIC, TEST_QOS));
@@ -231,6 +280,66 @@ public class AbstractAwsIotClientTest {
         assertEquals(1, client.getSubscriptions().size());
     }
 
+    @Test
+    public void testOnConnectionSuccessWithSessionPresent() throws AWSIotException {
+        when(connection.getConnectionStatus()).thenReturn(AWSIotConnectionStatus.DISCONNECTED);
+        when(connection.isSessionPresent()).thenReturn(true);
+        when(device.getThingName()).thenReturn(TEST_THING);
+        when(device.isSuspended()).thenReturn(true);
+        client.setCleanSession(false);
+
+        requestSuccess = true;
+        requestFailure = requestTimeout = false;
+        AWSIotTopic topic = new AWSIotTopic(TEST_TOPIC, TEST_QOS);
+        client.subscribe(topic, true);
+
+        client.attach(device);
+
+        client.onConnectionSuccess();
+
+        verify(connection, never()).subscribe(anyListOf(AWSIotMessage.class));
+        verify(device, times(1)).resume(true);
+        verify(device, never()).activate();
+        assertEquals(1, client.getSubscriptions().size());
+    }
+
+    @Test
+    public void testOnConnectionSuccessWithoutSessionPresent() throws AWSIotException {
+        when(connection.getConnectionStatus()).thenReturn(AWSIotConnectionStatus.DISCONNECTED);
+        when(connection.isSessionPresent()).thenReturn(false);
+        when(device.getThingName()).thenReturn(TEST_THING);
+        when(device.isSuspended()).thenReturn(true);
+        client.setCleanSession(false);
+
+        requestSuccess = true;
+        requestFailure = requestTimeout = false;
+        AWSIotTopic topic = new AWSIotTopic(TEST_TOPIC, TEST_QOS);
+        client.subscribe(topic, true);
+
+        client.attach(device);
+
+        client.onConnectionSuccess();
+
+        verify(connection, times(1)).subscribe(anyListOf(AWSIotMessage.class));
+        verify(device, times(1)).resume(false);
+    }
+
+    @Test
+    public void testOnConnectionFailureWithPersistentSession() throws AWSIotException {
+        when(connection.getConnectionStatus()).thenReturn(AWSIotConnectionStatus.CONNECTED);
+        when(device.getThingName()).thenReturn(TEST_THING);
+        client.setCleanSession(false);
+
+        requestSuccess = true;
+        requestFailure = requestTimeout = false;
+        client.attach(device);
+
+        client.onConnectionFailure();
+
+        verify(device, times(1)).suspend();
+        verify(device, never()).deactivate();
+    }
+
     @Test
     public void testOnConnectionFailure() throws AWSIotException {
         when(connection.getConnectionStatus()).thenReturn(AWSIotConnectionStatus.CONNECTED);
@@ -270,6 +379,26 @@ public class AbstractAwsIotClientTest {
         assertEquals(0, client.getSubscriptions().size());
     }
 
+    @Test
+    public void testOnConnectionClosedWithClientRuntime() throws AWSIotException {
+        AWSIotClientRuntime clientRuntime = mock(AWSIotClientRuntime.class);
+        when(clientRuntime.getExecutionService()).thenReturn(executionService);
+        Runnable task = mock(Runnable.class);
+        ScheduledFuture<?> future = mock(ScheduledFuture.class);
+        doReturn(future).when(executionService).scheduleAtFixedRate(any(Runnable.class), eq(0L), eq(1000L),
+                eq(TimeUnit.MILLISECONDS));
+
+        client.setClientRuntime(clientRuntime);
+        client.setExecutionService(executionService);
+        client.scheduleRoutineTask(task, 0, 1000);
+
+        client.onConnectionClosed();
+
+        verify(future, times(1)).cancel(false);
+        verify(executionService, never()).shutdown();
+        assertNull(client.getExecutionService());
+    }
+
     @Test
     public void testTopicFilterMatch() {
         assertTrue(client.topicFilterMatch("/a", "/a"));
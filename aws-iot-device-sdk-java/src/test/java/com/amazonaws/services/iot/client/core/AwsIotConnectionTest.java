@@ -6,6 +6,9 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.*;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -24,6 +27,7 @@ import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
 import com.amazonaws.services.iot.client.AWSIotException;
 import com.amazonaws.services.iot.client.AWSIotMessage;
 import com.amazonaws.services.iot.client.AWSIotQos;
+import com.amazonaws.services.iot.client.retry.RetryPolicy;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AwsIotConnectionTest {
@@ -95,6 +99,24 @@ public class AwsIotConnectionTest {
         }
     }
 
+    @Test
+    public void testPartiallyFailedSubscribe() throws AWSIotException {
+        TestConnection connection = new TestConnection(client);
+        connection.setConnectionStatus(AWSIotConnectionStatus.CONNECTED);
+        connection.maxSubscribeCount = 2;
+
+        List<AWSIotMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            messages.add(new AWSIotMessage(TEST_TOPIC + i, TEST_QOS));
+        }
+        connection.subscribe(messages);
+
+        // only the topics not subscribed to are queued
+        assertEquals(2, connection.subscribeCount);
+        assertEquals(3, connection.getSubscribeQueue().size());
+        assertEquals(TEST_TOPIC + 2, connection.getSubscribeQueue().peek().getTopic());
+    }
+
     @Test
     public void testConnectedSubscribe() throws AWSIotException {
         TestConnection connection = new TestConnection(client);
@@ -209,6 +231,20 @@ public class AwsIotConnectionTest {
         assertEquals(client.getMaxRetryDelay(), connection.getRetryDelay());
     }
 
+    @Test
+    public void testRetryDelayFromRetryPolicy() {
+        RetryPolicy retryPolicy = mock(RetryPolicy.class);
+        when(client.getRetryPolicy()).thenReturn(retryPolicy);
+        when(retryPolicy.getRetryDelay(0, 0, 1, 10)).thenReturn(7L);
+        when(retryPolicy.getRetryDelay(0, 7, 1, 10)).thenReturn(9L);
+
+        TestConnection connection = new TestConnection(client);
+
+        assertEquals(7, connection.getRetryDelay());
+        assertEquals(9, connection.getRetryDelay());
+        assertEquals(9, connection.getLastRetryDelay());
+    }
+
     @Test
     public void testOnConnectionSuccess() throws AWSIotException {
         TestConnection connection = new TestConnection(client);
@@ -254,6 +290,188 @@ public class AwsIotConnectionTest {
         verify(client, times(1)).onConnectionClosed();
     }
 
+    @Test
+    public void testDrainWaitsForPendingPublishes() throws AWSIotException {
+        final TestConnection connection = new TestConnection(client);
+        connection.setConnectionStatus(AWSIotConnectionStatus.CONNECTED);
+
+        AWSIotMessage message = new AWSIotMessage(TEST_TOPIC, AWSIotQos.QOS1);
+        connection.pendingPublishes.add(message);
+        scheduleTimeoutTask(new Runnable() {
+            @Override
+            public void run() {
+                connection.pendingPublishes.clear();
+                connection.onRequestCompleted();
+            }
+        }, 50);
+
+        List<AWSIotMessage> undelivered = connection.drain(5000);
+
+        assertTrue(undelivered.isEmpty());
+        assertTrue(connection.isDraining());
+    }
+
+    @Test
+    public void testDrainReportsUndeliveredMessages() throws AWSIotException {
+        TestConnection connection = new TestConnection(client);
+        connection.setConnectionStatus(AWSIotConnectionStatus.RECONNECTING);
+
+        AWSIotMessage queued = mock(AWSIotMessage.class);
+        when(queued.getQos()).thenReturn(AWSIotQos.QOS1);
+        connection.publish(new AwsIotCompletion(queued, 0, true));
+        AWSIotMessage inFlight = new AWSIotMessage(TEST_TOPIC, AWSIotQos.QOS1);
+        connection.pendingPublishes.add(inFlight);
+
+        List<AWSIotMessage> undelivered = connection.drain(20);
+
+        assertEquals(2, undelivered.size());
+        assertSame(inFlight, undelivered.get(0));
+        assertSame(queued, undelivered.get(1));
+        assertEquals(0, connection.getPublishQueue().size());
+        verify(queued, times(1)).onFailure();
+    }
+
+    @Test
+    public void testDrainAcceptsRecoveryAfterReconnect() throws AWSIotException {
+        final TestConnection connection = new TestConnection(client);
+        connection.setConnectionStatus(AWSIotConnectionStatus.RECONNECTING);
+        connection.publish(new AWSIotMessage(TEST_TOPIC, AWSIotQos.QOS1));
+
+        // the client restores its subscriptions once the connection is back
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                connection.subscribe(new AWSIotMessage(TEST_TOPIC, TEST_QOS));
+                return null;
+            }
+        }).when(client).onConnectionSuccess();
+
+        scheduleTimeoutTask(new Runnable() {
+            @Override
+            public void run() {
+                connection.onConnectionSuccess();
+            }
+        }, 50);
+
+        long start = System.currentTimeMillis();
+        List<AWSIotMessage> undelivered = connection.drain(5000);
+
+        assertTrue(undelivered.isEmpty());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        waitBeforeShutdown(50);
+        assertEquals(1, connection.publishCount);
+        assertEquals(1, connection.subscribeCount);
+        assertEquals(AWSIotConnectionStatus.CONNECTED, connection.getConnectionStatus());
+
+        try {
+            connection.subscribe(new AWSIotMessage(TEST_TOPIC, TEST_QOS));
+            fail("subscribe from the application should be rejected while draining");
+        } catch (AWSIotException e) {
+            assertEquals(1, connection.subscribeCount);
+        }
+    }
+
+    @Test
+    public void testDrainRejectsNewRequests() throws AWSIotException {
+        TestConnection connection = new TestConnection(client);
+        connection.setConnectionStatus(AWSIotConnectionStatus.CONNECTED);
+
+        assertTrue(connection.drain(0).isEmpty());
+
+        try {
+            connection.publish(new AWSIotMessage(TEST_TOPIC, TEST_QOS));
+            fail("publish should be rejected while draining");
+        } catch (AWSIotException e) {
+            assertEquals(0, connection.publishCount);
+        }
+
+        // a new connection accepts requests again
+        connection.shouldConnect = true;
+        connection.connect(null);
+        assertFalse(connection.isDraining());
+    }
+
+    @Test
+    public void testReconnect() throws AWSIotException {
+        TestConnection connection = new TestConnection(client);
+        connection.setConnectionStatus(AWSIotConnectionStatus.CONNECTED);
+        connection.shouldConnect = true;
+        connection.closeReportsClosed = true;
+
+        connection.reconnect();
+
+        waitBeforeShutdown(100);
+        assertEquals(AWSIotConnectionStatus.CONNECTED, connection.getConnectionStatus());
+        assertFalse(connection.isReconnecting());
+        verify(client, times(1)).onConnectionFailure();
+        verify(client, times(1)).onConnectionSuccess();
+        verify(client, never()).onConnectionClosed();
+    }
+
+    @Test
+    public void testReconnectQuiescesInFlight() throws AWSIotException, InterruptedException {
+        when(client.getServerAckTimeout()).thenReturn(5000);
+
+        TestConnection connection = new TestConnection(client);
+        connection.setConnectionStatus(AWSIotConnectionStatus.CONNECTED);
+        connection.shouldConnect = true;
+        connection.closeReportsClosed = true;
+        AWSIotMessage inFlight = new AWSIotMessage(TEST_TOPIC, AWSIotQos.QOS1);
+        connection.pendingPublishes.add(inFlight);
+
+        connection.reconnect();
+        assertTrue(connection.isQuiescing());
+
+        // held until the connection is re-established
+        connection.publish(new AWSIotMessage(TEST_TOPIC, TEST_QOS));
+        assertEquals(0, connection.publishCount);
+        assertEquals(1, connection.getPublishQueue().size());
+
+        Thread.sleep(50);
+        assertEquals(AWSIotConnectionStatus.CONNECTED, connection.getConnectionStatus());
+        verify(client, never()).onConnectionFailure();
+
+        connection.pendingPublishes.remove(inFlight);
+        connection.onRequestCompleted();
+
+        waitBeforeShutdown(100);
+        assertFalse(connection.isQuiescing());
+        assertEquals(1, connection.publishCount);
+        assertEquals(0, connection.getPublishQueue().size());
+        verify(client, times(1)).onConnectionFailure();
+        verify(client, times(1)).onConnectionSuccess();
+    }
+
+    @Test
+    public void testReconnectQuiesceTimeout() throws AWSIotException {
+        when(client.getServerAckTimeout()).thenReturn(20);
+
+        TestConnection connection = new TestConnection(client);
+        connection.setConnectionStatus(AWSIotConnectionStatus.CONNECTED);
+        connection.shouldConnect = true;
+        connection.closeReportsClosed = true;
+        connection.pendingPublishes.add(new AWSIotMessage(TEST_TOPIC, AWSIotQos.QOS1));
+
+        connection.reconnect();
+
+        waitBeforeShutdown(200);
+        assertEquals(AWSIotConnectionStatus.CONNECTED, connection.getConnectionStatus());
+        assertFalse(connection.isQuiescing());
+        verify(client, times(1)).onConnectionFailure();
+        verify(client, times(1)).onConnectionSuccess();
+    }
+
+    @Test
+    public void testReconnectWhenNotConnected() throws AWSIotException {
+        TestConnection connection = new TestConnection(client);
+        connection.setConnectionStatus(AWSIotConnectionStatus.DISCONNECTED);
+
+        connection.reconnect();
+
+        assertFalse(connection.isReconnecting());
+        verify(client, never()).scheduleTimeoutTask(any(Runnable.class), anyLong());
+    }
+
     private void waitBeforeShutdown(long timeout) {
         try {
             Thread.sleep(timeout);
@@ -272,6 +490,9 @@ public class AwsIotConnectionTest {
         public boolean shouldConnect;
         public int connectDelay = 10;
         public int disconnectDelay = 10;
+        public final List<AWSIotMessage> pendingPublishes = new CopyOnWriteArrayList<>();
+        public boolean closeReportsClosed;
+        public int maxSubscribeCount = Integer.MAX_VALUE;
 
         public TestConnection(AbstractAwsIotClient client) {
             super(client);
@@ -296,11 +517,20 @@ public class AwsIotConnectionTest {
             scheduleTimeoutTask(new Runnable() {
                 @Override
                 public void run() {
-                    onConnectionFailure();
+                    if (closeReportsClosed) {
+                        onConnectionClosed();
+                    } else {
+                        onConnectionFailure();
+                    }
                 }
             }, disconnectDelay);
         }
 
+        @Override
+        protected List<AWSIotMessage> getPendingPublishes() {
+            return new ArrayList<>(pendingPublishes);
+        }
+
         @Override
         protected void publishMessage(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException {
             if (AWSIotConnectionStatus.CONNECTED.equals(connectionStatus)) {
@@ -312,7 +542,7 @@ public class AwsIotConnectionTest {
 
         @Override
         protected void subscribeTopic(AWSIotMessage message) throws AWSIotException, AwsIotRetryableException {
-            if (AWSIotConnectionStatus.CONNECTED.equals(connectionStatus)) {
+            if (AWSIotConnectionStatus.CONNECTED.equals(connectionStatus) && subscribeCount < maxSubscribeCount) {
                 subscribeCount++;
             } else {
                 throw new AwsIotRetryableException("connection is down");
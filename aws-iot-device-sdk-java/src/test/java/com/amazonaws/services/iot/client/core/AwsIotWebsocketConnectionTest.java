@@ -1,17 +1,29 @@
 package com.amazonaws.services.iot.client.core;
 
 import static org.junit.Assert.*;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
 
+import java.util.Date;
 import java.util.Set;
+import java.util.concurrent.Future;
+
+import javax.net.SocketFactory;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.auth.Credentials;
+import com.amazonaws.services.iot.client.auth.CredentialsProvider;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AwsIotWebsocketConnectionTest {
@@ -24,13 +36,20 @@ public class AwsIotWebsocketConnectionTest {
 
     @Mock
     private AbstractAwsIotClient client;
+    @Mock
+    private CredentialsProvider provider;
+    @Mock
+    private AwsIotTransportFactory transportFactory;
+    @Mock
+    private AwsIotTransport transport;
 
     private AwsIotWebsocketConnection connection;
 
     @Before
     public void setup() throws AWSIotException {
         when(client.getClientEndpoint()).thenReturn(EndPoint);
-        when(client.getClientId()).thenReturn(ClientId);
+        // the client ID is only used once the transport is created on connect
+        lenient().when(client.getClientId()).thenReturn(ClientId);
 
         connection = new AwsIotWebsocketConnection(client, AccessKeyId, SecretAccessKey);
     }
@@ -53,4 +72,89 @@ public class AwsIotWebsocketConnectionTest {
         assertEquals(1, uris2.size());
         assertTrue(!uris1.equals(uris2));
     }
+
+    @Test
+    public void testServerUrisCached() throws AWSIotException {
+        when(provider.getCredentials()).thenReturn(new Credentials(AccessKeyId, SecretAccessKey));
+        connection = new AwsIotWebsocketConnection(client, provider, "us-east-1");
+
+        Set<String> uris1 = connection.getServerUris();
+        Set<String> uris2 = connection.getServerUris();
+
+        assertEquals(uris1, uris2);
+        verify(provider, times(1)).getCredentials();
+    }
+
+    @Test
+    public void testSignedUrlRefreshedInBackground() throws AWSIotException {
+        when(provider.getCredentials()).thenReturn(new Credentials(AccessKeyId, SecretAccessKey))
+                .thenThrow(new IllegalStateException("provider unavailable"));
+        connection = new AwsIotWebsocketConnection(client, provider, "us-east-1");
+        Runnable refresh = connect();
+
+        // a failed refresh keeps the cached URL
+        refresh.run();
+        assertEquals(1, connection.getServerUris().size());
+        verify(provider, times(2)).getCredentials();
+
+        // the refresh task is only scheduled once
+        connection.openConnection(null);
+        verify(client, times(1)).scheduleRoutineTask(any(Runnable.class), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testReconnectBeforeCredentialsExpire() throws AWSIotException {
+        long now = System.currentTimeMillis();
+        when(provider.getCredentials()).thenReturn(
+                new Credentials(AccessKeyId, SecretAccessKey, "token1", new Date(now + 3600000)),
+                new Credentials(AccessKeyId, SecretAccessKey, "token2", new Date(now + 7200000)));
+        connection = new AwsIotWebsocketConnection(client, provider, "us-east-1");
+        connect();
+
+        ArgumentCaptor<Runnable> reconnect = ArgumentCaptor.forClass(Runnable.class);
+        ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+        when(client.scheduleTimeoutTask(reconnect.capture(), delay.capture())).thenReturn(null);
+        connection.onConnectionSuccess();
+
+        // scheduled a minute before the credentials expire
+        assertTrue(delay.getValue() <= 3540000 && delay.getValue() > 3500000);
+
+        reconnect.getValue().run();
+        assertTrue(connection.isReconnecting());
+        verify(transport).disconnect(nullable(AwsIotMessageCallback.class));
+        assertTrue(connection.getServerUris().iterator().next().endsWith("token2"));
+    }
+
+    @Test
+    public void testNoReconnectWithoutNewCredentials() throws AWSIotException {
+        Credentials credentials = new Credentials(AccessKeyId, SecretAccessKey, "token",
+                new Date(System.currentTimeMillis() + 3600000));
+        when(provider.getCredentials()).thenReturn(credentials);
+        connection = new AwsIotWebsocketConnection(client, provider, "us-east-1");
+        connect();
+
+        ArgumentCaptor<Runnable> reconnect = ArgumentCaptor.forClass(Runnable.class);
+        when(client.scheduleTimeoutTask(reconnect.capture(), anyLong())).thenReturn(null);
+        connection.onConnectionSuccess();
+
+        reconnect.getValue().run();
+        assertFalse(connection.isReconnecting());
+        verify(transport, never()).disconnect(nullable(AwsIotMessageCallback.class));
+    }
+
+    private Runnable connect() throws AWSIotException {
+        when(client.getTransportFactory()).thenReturn(transportFactory);
+        when(transportFactory.createTransport(any(AbstractAwsIotClient.class), nullable(SocketFactory.class),
+                anyString(), any(AwsIotTransportListener.class))).thenReturn(transport);
+        Future<?> refreshTask = mock(Future.class);
+        ArgumentCaptor<Runnable> refresh = ArgumentCaptor.forClass(Runnable.class);
+        doReturn(refreshTask).when(client).scheduleRoutineTask(refresh.capture(), anyLong(), anyLong());
+
+        connection.openConnection(null);
+
+        verify(transport).connect(nullable(String.class), anySetOf(String.class),
+                nullable(AwsIotMessageCallback.class));
+        return refresh.getValue();
+    }
+
 }
@@ -0,0 +1,173 @@
+package com.amazonaws.services.iot.client.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.internal.ClientComms;
+import org.eclipse.paho.client.mqttv3.internal.ClientState;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AwsIotAdaptivePingSenderTest {
+
+    private static final long KEEP_ALIVE_INTERVAL = 60000;
+    private static final int MIN_KEEP_ALIVE_INTERVAL = 5000;
+
+    @Mock
+    private AbstractAwsIotClient client;
+    @Mock
+    private ClientComms comms;
+    @Mock
+    private ClientState clientState;
+    @Mock
+    private ScheduledExecutorService timer;
+
+    private AwsIotAdaptivePingSender pingSender;
+
+    @Before
+    public void setup() {
+        when(comms.getKeepAlive()).thenReturn(KEEP_ALIVE_INTERVAL);
+        when(comms.getClientState()).thenReturn(clientState);
+
+        pingSender = new AwsIotAdaptivePingSender(client) {
+            @Override
+            ScheduledExecutorService createTimer() {
+                return timer;
+            }
+        };
+        pingSender.init(comms);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInitWithoutComms() {
+        pingSender.init(null);
+    }
+
+    @Test
+    public void testStartWithoutAdaptiveMode() {
+        when(client.isAdaptiveKeepAlive()).thenReturn(false);
+
+        pingSender.start();
+        pingSender.onPingResponse(10000);
+
+        assertEquals(KEEP_ALIVE_INTERVAL, pingSender.getKeepAliveInterval());
+        verify(clientState).setKeepAliveInterval(KEEP_ALIVE_INTERVAL);
+        verify(timer).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+        verify(timer, never()).scheduleAtFixedRate(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void testIntervalGrowsOnHealthyLink() {
+        startAdaptive();
+        assertEquals(MIN_KEEP_ALIVE_INTERVAL, pingSender.getKeepAliveInterval());
+        verify(timer).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+        verify(timer).scheduleAtFixedRate(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+
+        long[] expected = { 10000, 20000, 40000, KEEP_ALIVE_INTERVAL, KEEP_ALIVE_INTERVAL };
+        for (long interval : expected) {
+            pingSender.onPingResponse(100);
+            assertEquals(interval, pingSender.getKeepAliveInterval());
+        }
+        assertEquals(100, pingSender.getSmoothedRtt());
+        verify(clientState, times(2)).setKeepAliveInterval(KEEP_ALIVE_INTERVAL);
+    }
+
+    @Test
+    public void testIntervalTightenedOnLateResponse() {
+        startAdaptive();
+        pingSender.onPingResponse(100);
+        pingSender.onPingResponse(100);
+        assertEquals(20000, pingSender.getKeepAliveInterval());
+
+        pingSender.onPingResponse(1000);
+
+        assertEquals(MIN_KEEP_ALIVE_INTERVAL, pingSender.getKeepAliveInterval());
+        // an immediate activity check in addition to the one scheduled on start
+        verify(timer).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testIntervalTightenedOnUnacknowledgedMessages() {
+        when(client.getServerAckTimeout()).thenReturn(0);
+        startAdaptive();
+        pingSender.onPingResponse(0);
+        assertEquals(10000, pingSender.getKeepAliveInterval());
+
+        when(comms.getActualInFlight()).thenReturn(0);
+        pingSender.checkAcknowledgements();
+        assertEquals(10000, pingSender.getKeepAliveInterval());
+
+        when(comms.getActualInFlight()).thenReturn(2);
+        pingSender.checkAcknowledgements();
+        assertEquals(MIN_KEEP_ALIVE_INTERVAL, pingSender.getKeepAliveInterval());
+    }
+
+    @Test
+    public void testPingResponseMeasured() {
+        startAdaptive();
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+
+        pingSender.sendPing();
+
+        verify(comms).checkForActivity(listener.capture());
+        listener.getValue().onSuccess(null);
+        assertEquals(10000, pingSender.getKeepAliveInterval());
+    }
+
+    @Test
+    public void testMinIntervalCappedByKeepAlive() {
+        when(client.isAdaptiveKeepAlive()).thenReturn(true);
+        when(client.getMinKeepAliveInterval()).thenReturn(120000);
+
+        pingSender.start();
+
+        assertEquals(KEEP_ALIVE_INTERVAL, pingSender.getKeepAliveInterval());
+    }
+
+    @Test
+    public void testStopShutsDownTimer() {
+        startAdaptive();
+
+        pingSender.stop();
+
+        verify(timer).shutdown();
+    }
+
+    @Test
+    public void testRejectedPingLogged() {
+        doThrow(new RejectedExecutionException()).when(timer).schedule(any(Runnable.class), anyLong(),
+                any(TimeUnit.class));
+        when(client.isAdaptiveKeepAlive()).thenReturn(false);
+
+        pingSender.start();
+
+        assertEquals(KEEP_ALIVE_INTERVAL, pingSender.getKeepAliveInterval());
+        verify(timer).schedule(any(Runnable.class), eq(KEEP_ALIVE_INTERVAL), eq(TimeUnit.MILLISECONDS));
+    }
+
+    private void startAdaptive() {
+        when(client.isAdaptiveKeepAlive()).thenReturn(true);
+        when(client.getMinKeepAliveInterval()).thenReturn(MIN_KEEP_ALIVE_INTERVAL);
+        pingSender.start();
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.amazonaws.services.iot.client.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.internal.NetworkModule;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.amazonaws.services.iot.client.util.AwsIotTlsSocketFactory;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AwsIotMqttAsyncClientTest {
+
+    private static final String TEST_ENDPOINT = "iot.us-east-1.amazonaws.com";
+    private static final String TEST_CLIENT_ID = "client";
+
+    @Mock
+    private SSLSocketFactory sslSocketFactory;
+    @Mock
+    private HostnameVerifier hostnameVerifier;
+
+    private AwsIotTlsSocketFactory socketFactory;
+    private MqttConnectOptions options;
+
+    @Before
+    public void setup() {
+        socketFactory = new AwsIotTlsSocketFactory(sslSocketFactory);
+        options = new MqttConnectOptions();
+        options.setSocketFactory(socketFactory);
+        options.setConnectionTimeout(5);
+    }
+
+    @Test
+    public void testTlsNetworkModuleWithAlpn() throws MqttException {
+        socketFactory.setApplicationProtocols(Arrays.asList("x-amzn-mqtt-ca"));
+        String serverUri = "ssl://" + TEST_ENDPOINT + ":443";
+        AwsIotMqttAsyncClient client = new AwsIotMqttAsyncClient(serverUri, TEST_CLIENT_ID, new MemoryPersistence());
+
+        NetworkModule[] networkModules = client.createNetworkModules(serverUri, options);
+
+        assertEquals(1, networkModules.length);
+        assertTrue(networkModules[0] instanceof AwsIotTlsNetworkModule);
+        AwsIotTlsNetworkModule networkModule = (AwsIotTlsNetworkModule) networkModules[0];
+        assertEquals(TEST_ENDPOINT, networkModule.getHost());
+        assertEquals(443, networkModule.getPort());
+        assertEquals(serverUri, networkModule.getServerURI());
+    }
+
+    @Test
+    public void testTlsNetworkModuleWithoutAlpn() throws MqttException {
+        String serverUri = "ssl://" + TEST_ENDPOINT + ":8883";
+        AwsIotMqttAsyncClient client = new AwsIotMqttAsyncClient(serverUri, TEST_CLIENT_ID, new MemoryPersistence());
+
+        NetworkModule[] networkModules = client.createNetworkModules(serverUri, options);
+
+        assertEquals(1, networkModules.length);
+        assertTrue(networkModules[0] instanceof AwsIotTlsNetworkModule);
+        assertEquals(8883, ((AwsIotTlsNetworkModule) networkModules[0]).getPort());
+    }
+
+    @Test
+    public void testTlsNetworkModuleWithConnectOptions() throws MqttException {
+        Properties sslProperties = new Properties();
+        sslProperties.setProperty("com.ibm.ssl.enabledCipherSuites",
+                "TLS_AES_128_GCM_SHA256,TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256");
+        options.setSSLProperties(sslProperties);
+        options.setSSLHostnameVerifier(hostnameVerifier);
+        options.setHttpsHostnameVerificationEnabled(false);
+        String serverUri = "ssl://" + TEST_ENDPOINT + ":8883";
+        AwsIotMqttAsyncClient client = new AwsIotMqttAsyncClient(serverUri, TEST_CLIENT_ID, new MemoryPersistence());
+
+        AwsIotTlsNetworkModule networkModule = (AwsIotTlsNetworkModule) client.createNetworkModules(serverUri,
+                options)[0];
+
+        assertArrayEquals(new String[] { "TLS_AES_128_GCM_SHA256", "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256" },
+                networkModule.getEnabledCipherSuites());
+        assertSame(hostnameVerifier, networkModule.getHostnameVerifier());
+        assertFalse(networkModule.isHttpsHostnameVerificationEnabled());
+    }
+
+    @Test
+    public void testTlsNetworkModuleWithDefaultConnectOptions() throws MqttException {
+        String serverUri = "ssl://" + TEST_ENDPOINT + ":8883";
+        AwsIotMqttAsyncClient client = new AwsIotMqttAsyncClient(serverUri, TEST_CLIENT_ID, new MemoryPersistence());
+
+        AwsIotTlsNetworkModule networkModule = (AwsIotTlsNetworkModule) client.createNetworkModules(serverUri,
+                options)[0];
+
+        assertNull(networkModule.getEnabledCipherSuites());
+        assertNull(networkModule.getHostnameVerifier());
+        assertTrue(networkModule.isHttpsHostnameVerificationEnabled());
+    }
+
+    @Test
+    public void testPahoNetworkModuleWithoutTlsSocketFactory() throws MqttException {
+        options.setSocketFactory(sslSocketFactory);
+        String serverUri = "ssl://" + TEST_ENDPOINT + ":443";
+        AwsIotMqttAsyncClient client = new AwsIotMqttAsyncClient(serverUri, TEST_CLIENT_ID, new MemoryPersistence());
+
+        NetworkModule[] networkModules = client.createNetworkModules(serverUri, options);
+
+        assertEquals(1, networkModules.length);
+        assertFalse(networkModules[0] instanceof AwsIotTlsNetworkModule);
+    }
+
+}
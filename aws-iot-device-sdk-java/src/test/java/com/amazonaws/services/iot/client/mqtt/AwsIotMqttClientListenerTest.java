@@ -25,6 +25,7 @@ import org.mockito.stubbing.Answer;
 import com.amazonaws.services.iot.client.AWSIotMessage;
 import com.amazonaws.services.iot.client.AWSIotQos;
 import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotTransportDispatcher;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AwsIotMqttClientListenerTest {
@@ -53,7 +54,7 @@ public class AwsIotMqttClientListenerTest {
 
     @Test
     public void testConnectionLost() {
-        AwsIotMqttClientListener listener = new AwsIotMqttClientListener(client);
+        AwsIotMqttClientListener listener = new AwsIotMqttClientListener(new AwsIotTransportDispatcher(client));
 
         listener.connectionLost(null);
 
@@ -62,7 +63,7 @@ public class AwsIotMqttClientListenerTest {
 
     @Test
     public void testOnMessageArrived() throws Exception {
-        AwsIotMqttClientListener listener = new AwsIotMqttClientListener(client);
+        AwsIotMqttClientListener listener = new AwsIotMqttClientListener(new AwsIotTransportDispatcher(client));
 
         MqttMessage mqttMessage = new MqttMessage();
         mqttMessage.setQos(0);
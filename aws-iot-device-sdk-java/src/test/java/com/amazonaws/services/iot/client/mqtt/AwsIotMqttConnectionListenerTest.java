@@ -8,6 +8,7 @@ import static org.mockito.Mockito.when;
 
 import java.util.concurrent.Future;
 
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -18,6 +19,7 @@ import org.mockito.stubbing.Answer;
 
 import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
 import com.amazonaws.services.iot.client.core.AwsIotMessageCallback;
+import com.amazonaws.services.iot.client.core.AwsIotTransportDispatcher;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AwsIotMqttConnectionListenerTest {
@@ -28,6 +30,10 @@ public class AwsIotMqttConnectionListenerTest {
     private AwsIotMqttConnection connection;
     @Mock
     AwsIotMessageCallback userCallback;
+    @Mock
+    private IMqttToken token;
+
+    private AwsIotTransportDispatcher dispatcher;
 
     @Before
     public void setup() {
@@ -41,11 +47,12 @@ public class AwsIotMqttConnectionListenerTest {
         }).when(client).scheduleTask(any(Runnable.class));
 
         when(client.getConnection()).thenReturn(connection);
+        dispatcher = new AwsIotTransportDispatcher(client);
     }
 
     @Test
     public void testOnConnectSuccess() {
-        AwsIotMqttConnectionListener listener = new AwsIotMqttConnectionListener(client, true, userCallback);
+        AwsIotMqttConnectionListener listener = new AwsIotMqttConnectionListener(dispatcher, true, userCallback);
 
         listener.onSuccess(null);
 
@@ -53,9 +60,20 @@ public class AwsIotMqttConnectionListenerTest {
         verify(userCallback, times(1)).onSuccess();
     }
 
+    @Test
+    public void testOnConnectSuccessWithSessionPresent() {
+        AwsIotMqttConnectionListener listener = new AwsIotMqttConnectionListener(dispatcher, true, userCallback);
+        when(token.getSessionPresent()).thenReturn(true);
+
+        listener.onSuccess(token);
+
+        verify(connection, times(1)).setSessionPresent(true);
+        verify(connection, times(1)).onConnectionSuccess();
+    }
+
     @Test
     public void testOnConnectFailure() {
-        AwsIotMqttConnectionListener listener = new AwsIotMqttConnectionListener(client, true, userCallback);
+        AwsIotMqttConnectionListener listener = new AwsIotMqttConnectionListener(dispatcher, true, userCallback);
 
         listener.onFailure(null, null);
 
@@ -65,7 +83,7 @@ public class AwsIotMqttConnectionListenerTest {
 
     @Test
     public void testOnDisconnectSuccess() {
-        AwsIotMqttConnectionListener listener = new AwsIotMqttConnectionListener(client, false, userCallback);
+        AwsIotMqttConnectionListener listener = new AwsIotMqttConnectionListener(dispatcher, false, userCallback);
 
         listener.onSuccess(null);
 
@@ -75,7 +93,7 @@ public class AwsIotMqttConnectionListenerTest {
 
     @Test
     public void testOnDisconnectFailure() {
-        AwsIotMqttConnectionListener listener = new AwsIotMqttConnectionListener(client, false, userCallback);
+        AwsIotMqttConnectionListener listener = new AwsIotMqttConnectionListener(dispatcher, false, userCallback);
 
         listener.onFailure(null, null);
 
@@ -3,18 +3,27 @@ package com.amazonaws.services.iot.client.mqtt;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.nullable;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.lenient;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Future;
 
+import javax.net.SocketFactory;
+
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
@@ -27,6 +36,7 @@ import org.eclipse.paho.client.mqttv3.MqttToken;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -36,7 +46,11 @@ import com.amazonaws.services.iot.client.AWSIotException;
 import com.amazonaws.services.iot.client.AWSIotMessage;
 import com.amazonaws.services.iot.client.AWSIotQos;
 import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotMessageCallback;
 import com.amazonaws.services.iot.client.core.AwsIotRetryableException;
+import com.amazonaws.services.iot.client.core.AwsIotTransport;
+import com.amazonaws.services.iot.client.core.AwsIotTransportFactory;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AwsIotMqttConnectionTest {
@@ -204,6 +218,74 @@ public class AwsIotMqttConnectionTest {
         assertEquals(1, mqttQos);
     }
 
+    @Test
+    public void testSubscribeTopics()
+            throws MqttPersistenceException, MqttException, AWSIotException, AwsIotRetryableException {
+        List<AWSIotMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(new AWSIotMessage("test/topic/" + i, AWSIotQos.QOS1));
+        }
+
+        final List<String[]> mqttTopics = new ArrayList<>();
+        doAnswer(new Answer<IMqttToken>() {
+            @Override
+            public IMqttToken answer(InvocationOnMock invocation) throws Throwable {
+                String[] topics = (String[]) invocation.getArguments()[0];
+                int[] qos = (int[]) invocation.getArguments()[1];
+                assertEquals(topics.length, qos.length);
+                assertEquals(1, qos[0]);
+                mqttTopics.add(topics);
+                return null;
+            }
+        }).when(mqttClient).subscribe(nullable(String[].class), nullable(int[].class), nullable(Object.class),
+                nullable(IMqttActionListener.class));
+
+        connection.subscribeTopics(messages);
+
+        assertEquals(3, mqttTopics.size());
+        assertEquals(8, mqttTopics.get(0).length);
+        assertEquals(8, mqttTopics.get(1).length);
+        assertEquals(4, mqttTopics.get(2).length);
+        assertEquals("test/topic/0", mqttTopics.get(0)[0]);
+        assertEquals("test/topic/19", mqttTopics.get(2)[3]);
+    }
+
+    @Test
+    public void testSubscribeTopicsSecondBatchFails()
+            throws MqttPersistenceException, MqttException, AWSIotException {
+        List<AWSIotMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(new AWSIotMessage("test/topic/" + i, AWSIotQos.QOS1));
+        }
+
+        when(mqttClient.subscribe(nullable(String[].class), nullable(int[].class), nullable(Object.class),
+                nullable(IMqttActionListener.class))).thenReturn(null)
+                        .thenThrow(new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+
+        try {
+            connection.subscribeTopics(messages);
+            fail("Exception should be thrown");
+        } catch (AwsIotRetryableException e) {
+            // the first batch was sent, so only the rest is to be retried
+            assertEquals(12, e.getUnsentMessages().size());
+            assertEquals("test/topic/8", e.getUnsentMessages().get(0).getTopic());
+        }
+    }
+
+    @Test(expected = AwsIotRetryableException.class)
+    public void testSubscribeTopicsRetryableException()
+            throws MqttPersistenceException, MqttException, AWSIotException, AwsIotRetryableException {
+        List<AWSIotMessage> messages = new ArrayList<>();
+        messages.add(new AWSIotMessage("test/topic/1", AWSIotQos.QOS1));
+        messages.add(new AWSIotMessage("test/topic/2", AWSIotQos.QOS1));
+
+        when(mqttClient.subscribe(nullable(String[].class), nullable(int[].class), nullable(Object.class),
+                nullable(IMqttActionListener.class)))
+                        .thenThrow(new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+
+        connection.subscribeTopics(messages);
+    }
+
     @Test(expected = AWSIotException.class)
     public void testSubscribeTopicException()
             throws MqttPersistenceException, MqttException, AWSIotException, AwsIotRetryableException {
@@ -267,4 +349,56 @@ public class AwsIotMqttConnectionTest {
         connection.unsubscribeTopic(message);
     }
 
+    @Test
+    public void testTransportCreatedThroughFactory() throws AWSIotException {
+        AwsIotTransportFactory transportFactory = mock(AwsIotTransportFactory.class);
+        AwsIotTransport transport = mock(AwsIotTransport.class);
+        when(client.getTransportFactory()).thenReturn(transportFactory);
+        when(transportFactory.createTransport(eq(client), nullable(SocketFactory.class),
+                eq("ssl://endpoint:8883"), any(AwsIotTransportListener.class))).thenReturn(transport);
+
+        connection = new AwsIotMqttConnection(client, null, "ssl://endpoint:8883");
+        connection.openConnection(null);
+        connection.openConnection(null);
+
+        verify(transportFactory, times(1)).createTransport(eq(client), nullable(SocketFactory.class),
+                eq("ssl://endpoint:8883"), any(AwsIotTransportListener.class));
+        verify(transport, times(2)).connect(null, Collections.<String> emptySet(), null);
+    }
+
+    @Test
+    public void testOpenConnectionThroughTransport() throws AWSIotException {
+        AwsIotTransport transport = mock(AwsIotTransport.class);
+        when(client.isClientEnableMetrics()).thenReturn(true);
+        connection = new AwsIotMqttConnection(client, transport);
+
+        connection.openConnection(null);
+
+        ArgumentCaptor<String> userName = ArgumentCaptor.forClass(String.class);
+        verify(transport).connect(userName.capture(), eq(Collections.<String> emptySet()),
+                nullable(AwsIotMessageCallback.class));
+        assertTrue(userName.getValue().startsWith(USERNAME_METRIC_PREFIX));
+    }
+
+    @Test
+    public void testSubscribeTopicsThroughTransport() throws AWSIotException, AwsIotRetryableException {
+        AwsIotTransport transport = mock(AwsIotTransport.class);
+        connection = new AwsIotMqttConnection(client, transport);
+        List<AWSIotMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(new AWSIotMessage("test/topic/" + i, AWSIotQos.QOS1));
+        }
+
+        connection.subscribeTopics(messages);
+        connection.unsubscribeTopic(messages.get(0));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AWSIotMessage>> batches = ArgumentCaptor
+                .forClass((Class<List<AWSIotMessage>>) (Class<?>) List.class);
+        verify(transport, times(2)).subscribe(batches.capture());
+        assertEquals(8, batches.getAllValues().get(0).size());
+        assertEquals(2, batches.getAllValues().get(1).size());
+        verify(transport).unsubscribe(messages.get(0));
+    }
+
 }
@@ -2,10 +2,12 @@ package com.amazonaws.services.iot.client.mqtt;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.concurrent.Future;
 
 import org.eclipse.paho.client.mqttv3.MqttToken;
@@ -20,6 +22,8 @@ import org.mockito.stubbing.Answer;
 
 import com.amazonaws.services.iot.client.AWSIotMessage;
 import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotConnection;
+import com.amazonaws.services.iot.client.core.AwsIotTransportDispatcher;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AwsIotMqttMessageListenerTest {
@@ -27,12 +31,16 @@ public class AwsIotMqttMessageListenerTest {
     @Mock
     private AbstractAwsIotClient client;
     @Mock
+    private AwsIotConnection connection;
+    @Mock
     private AWSIotMessage message;
     @Mock
     private MqttToken token;
     @Mock
     private MqttSuback subAck;
 
+    private AwsIotTransportDispatcher dispatcher;
+
     @Before
     public void setup() {
         doAnswer(new Answer<Future<?>>() {
@@ -44,20 +52,23 @@ public class AwsIotMqttMessageListenerTest {
             }
         }).when(client).scheduleTask(any(Runnable.class));
 
+        when(client.getConnection()).thenReturn(connection);
         when(token.getUserContext()).thenReturn(message);
+        dispatcher = new AwsIotTransportDispatcher(client);
     }
 
     @Test
     public void testOnSuccess() {
-        AwsIotMqttMessageListener listener = new AwsIotMqttMessageListener(client);
+        AwsIotMqttMessageListener listener = new AwsIotMqttMessageListener(dispatcher);
         listener.onSuccess(token);
 
         verify(message, times(1)).onSuccess();
+        verify(connection, times(1)).onRequestCompleted();
     }
 
     @Test
     public void testOnSuccessWithSubAckAccepted() {
-        AwsIotMqttMessageListener listener = new AwsIotMqttMessageListener(client);
+        AwsIotMqttMessageListener listener = new AwsIotMqttMessageListener(dispatcher);
 
         when(token.getResponse()).thenReturn(subAck);
         when(subAck.getGrantedQos()).thenReturn(new int[] { 1 });
@@ -69,7 +80,7 @@ public class AwsIotMqttMessageListenerTest {
 
     @Test
     public void testOnSuccessWithSubAckRejected() {
-        AwsIotMqttMessageListener listener = new AwsIotMqttMessageListener(client);
+        AwsIotMqttMessageListener listener = new AwsIotMqttMessageListener(dispatcher);
 
         when(token.getResponse()).thenReturn(subAck);
         when(subAck.getGrantedQos()).thenReturn(new int[] { 128 });
@@ -81,10 +92,40 @@ public class AwsIotMqttMessageListenerTest {
 
     @Test
     public void testOnFailure() {
-        AwsIotMqttMessageListener listener = new AwsIotMqttMessageListener(client);
+        AwsIotMqttMessageListener listener = new AwsIotMqttMessageListener(dispatcher);
         listener.onFailure(token, null);
 
         verify(message, times(1)).onFailure();
     }
 
+    @Test
+    public void testOnSuccessWithMultipleTopics() {
+        AwsIotMqttMessageListener listener = new AwsIotMqttMessageListener(dispatcher);
+        AWSIotMessage message1 = mock(AWSIotMessage.class);
+        AWSIotMessage message2 = mock(AWSIotMessage.class);
+
+        when(token.getUserContext()).thenReturn(Arrays.asList(message1, message2));
+        when(token.getResponse()).thenReturn(subAck);
+        when(subAck.getGrantedQos()).thenReturn(new int[] { 1, 128 });
+
+        listener.onSuccess(token);
+
+        verify(message1, times(1)).onSuccess();
+        verify(message2, times(1)).onFailure();
+    }
+
+    @Test
+    public void testOnFailureWithMultipleTopics() {
+        AwsIotMqttMessageListener listener = new AwsIotMqttMessageListener(dispatcher);
+        AWSIotMessage message1 = mock(AWSIotMessage.class);
+        AWSIotMessage message2 = mock(AWSIotMessage.class);
+
+        when(token.getUserContext()).thenReturn(Arrays.asList(message1, message2));
+
+        listener.onFailure(token, null);
+
+        verify(message1, times(1)).onFailure();
+        verify(message2, times(1)).onFailure();
+    }
+
 }
@@ -0,0 +1,149 @@
+package com.amazonaws.services.iot.client.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.amazonaws.services.iot.client.util.AwsIotEndpointResolver;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AwsIotTlsNetworkModuleTest {
+
+    private static final String TEST_HOST = "iot.us-east-1.amazonaws.com";
+
+    @Mock
+    private SSLSocketFactory socketFactory;
+    @Mock
+    private AwsIotEndpointResolver resolver;
+    @Mock
+    private Socket tcpSocket;
+    @Mock
+    private SSLSocket socket;
+    @Mock
+    private SSLSession session;
+    @Mock
+    private HostnameVerifier hostnameVerifier;
+
+    private AwsIotTlsNetworkModule networkModule;
+
+    @Before
+    public void setup() {
+        networkModule = new AwsIotTlsNetworkModule(socketFactory, resolver, TEST_HOST, 443, 5);
+    }
+
+    @Test
+    public void testStart() throws IOException, MqttException {
+        when(resolver.connect(TEST_HOST, 443, 5000)).thenReturn(tcpSocket);
+        when(socketFactory.createSocket(tcpSocket, TEST_HOST, 443, true)).thenReturn(socket);
+        when(socket.getSoTimeout()).thenReturn(1000);
+
+        networkModule.start();
+
+        InOrder inOrder = inOrder(socket);
+        inOrder.verify(socket).setSoTimeout(5000);
+        inOrder.verify(socket).startHandshake();
+        inOrder.verify(socket).setSoTimeout(1000);
+    }
+
+    @Test
+    public void testStartWithConnectOptions() throws IOException, MqttException {
+        when(resolver.connect(TEST_HOST, 443, 5000)).thenReturn(tcpSocket);
+        when(socketFactory.createSocket(tcpSocket, TEST_HOST, 443, true)).thenReturn(socket);
+        SSLParameters sslParams = new SSLParameters();
+        sslParams.setEndpointIdentificationAlgorithm("HTTPS");
+        when(socket.getSSLParameters()).thenReturn(sslParams);
+        when(socket.getSession()).thenReturn(session);
+        when(hostnameVerifier.verify(TEST_HOST, session)).thenReturn(true);
+
+        String[] cipherSuites = new String[] { "TLS_AES_128_GCM_SHA256" };
+        networkModule.setEnabledCipherSuites(cipherSuites);
+        networkModule.setHostnameVerifier(hostnameVerifier);
+        networkModule.setHttpsHostnameVerificationEnabled(false);
+        networkModule.start();
+
+        InOrder inOrder = inOrder(socket, hostnameVerifier);
+        inOrder.verify(socket).setEnabledCipherSuites(cipherSuites);
+        inOrder.verify(socket).setSSLParameters(sslParams);
+        inOrder.verify(socket).startHandshake();
+        inOrder.verify(hostnameVerifier).verify(TEST_HOST, session);
+        assertNull(sslParams.getEndpointIdentificationAlgorithm());
+        verify(socket, never()).close();
+    }
+
+    @Test
+    public void testStartHostnameNotVerified() throws IOException, MqttException {
+        when(resolver.connect(TEST_HOST, 443, 5000)).thenReturn(tcpSocket);
+        when(socketFactory.createSocket(tcpSocket, TEST_HOST, 443, true)).thenReturn(socket);
+        when(socket.getSession()).thenReturn(session);
+
+        networkModule.setHostnameVerifier(hostnameVerifier);
+        try {
+            networkModule.start();
+            fail("Exception should be thrown");
+        } catch (SSLPeerUnverifiedException e) {
+            verify(socket).close();
+        }
+        verify(socket, never()).setSSLParameters(any(SSLParameters.class));
+    }
+
+    @Test
+    public void testStartConnectionRefused() throws IOException {
+        when(resolver.connect(TEST_HOST, 443, 5000)).thenThrow(new ConnectException());
+
+        try {
+            networkModule.start();
+            fail("Exception should be thrown");
+        } catch (MqttException e) {
+            assertEquals(MqttException.REASON_CODE_SERVER_CONNECT_ERROR, e.getReasonCode());
+        }
+    }
+
+    @Test
+    public void testStartTlsSocketFailure() throws IOException, MqttException {
+        when(resolver.connect(TEST_HOST, 443, 5000)).thenReturn(tcpSocket);
+        when(socketFactory.createSocket(tcpSocket, TEST_HOST, 443, true)).thenThrow(new IOException());
+
+        try {
+            networkModule.start();
+            fail("Exception should be thrown");
+        } catch (IOException e) {
+            verify(tcpSocket).close();
+        }
+    }
+
+    @Test
+    public void testStop() throws IOException, MqttException {
+        when(resolver.connect(TEST_HOST, 443, 5000)).thenReturn(tcpSocket);
+        when(socketFactory.createSocket(tcpSocket, TEST_HOST, 443, true)).thenReturn(socket);
+
+        networkModule.start();
+        networkModule.stop();
+
+        verify(socket).close();
+    }
+
+}
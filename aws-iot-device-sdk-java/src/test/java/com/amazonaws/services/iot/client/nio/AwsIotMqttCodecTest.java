@@ -0,0 +1,245 @@
+package com.amazonaws.services.iot.client.nio;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotProtocolVersion;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.amazonaws.services.iot.client.nio.AwsIotMqttCodec.Packet;
+
+public class AwsIotMqttCodecTest {
+
+    private final AwsIotMqttCodec codec = new AwsIotMqttCodec(AWSIotProtocolVersion.MQTT_3_1_1);
+    private final AwsIotMqttCodec codec5 = new AwsIotMqttCodec(AWSIotProtocolVersion.MQTT_5);
+
+    @Test
+    public void testEncodeConnect() {
+        AWSIotMessage will = new AWSIotMessage("w", AWSIotQos.QOS1, "x");
+        ByteBuffer buffer = codec.encodeConnect("id", "u", true, 30, 3600, will);
+
+        byte[] expected = { 0x10, 23, 0, 4, 'M', 'Q', 'T', 'T', 4, (byte) 0x8e, 0, 30, 0, 2, 'i', 'd', 0, 1, 'w',
+                0, 1, 'x', 0, 1, 'u' };
+        assertArrayEquals(expected, toBytes(buffer));
+    }
+
+    @Test
+    public void testEncodeConnectWithoutOptionalFields() {
+        ByteBuffer buffer = codec.encodeConnect("id", null, false, 0, 3600, null);
+
+        byte[] expected = { 0x10, 14, 0, 4, 'M', 'Q', 'T', 'T', 4, 0, 0, 0, 0, 2, 'i', 'd' };
+        assertArrayEquals(expected, toBytes(buffer));
+    }
+
+    @Test
+    public void testEncodePublish() {
+        byte[] qos0 = toBytes(codec.encodePublish("t", 0, new byte[] { 1, 2 }, 0, 0, null));
+        assertArrayEquals(new byte[] { 0x30, 5, 0, 1, 't', 1, 2 }, qos0);
+
+        byte[] qos1 = toBytes(codec.encodePublish("t", 1, null, 0x1234, 0, null));
+        assertArrayEquals(new byte[] { 0x32, 5, 0, 1, 't', 0x12, 0x34 }, qos1);
+    }
+
+    @Test
+    public void testEncodeLongRemainingLength() {
+        ByteBuffer buffer = codec.encodePublish("t", 0, new byte[200], 0, 0, null);
+
+        assertEquals(206, buffer.remaining());
+        assertEquals(0x30, buffer.get(0));
+        assertEquals((byte) 0xcb, buffer.get(1));
+        assertEquals(0x01, buffer.get(2));
+    }
+
+    @Test
+    public void testEncodeSubscribe() {
+        ByteBuffer buffer = codec.encodeSubscribe(1, Arrays.asList(new AWSIotMessage("a", AWSIotQos.QOS0),
+                new AWSIotMessage("b", AWSIotQos.QOS1)));
+
+        byte[] expected = { (byte) 0x82, 10, 0, 1, 0, 1, 'a', 0, 0, 1, 'b', 1 };
+        assertArrayEquals(expected, toBytes(buffer));
+    }
+
+    @Test
+    public void testEncodeUnsubscribe() {
+        byte[] expected = { (byte) 0xa2, 5, 0, 2, 0, 1, 'a' };
+        assertArrayEquals(expected, toBytes(codec.encodeUnsubscribe(2, "a")));
+    }
+
+    @Test
+    public void testDecodeConnack() throws IOException {
+        Packet packet = codec.decode(ByteBuffer.wrap(new byte[] { 0x20, 2, 1, 5 }));
+
+        assertEquals(AwsIotMqttCodec.CONNACK, packet.type);
+        assertTrue(packet.sessionPresent);
+        assertEquals(5, packet.returnCode);
+    }
+
+    @Test
+    public void testDecodePublish() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 0x32, 7, 0, 1, 't', 0, 9, 'h', 'i' });
+        Packet packet = codec.decode(buffer);
+
+        assertEquals(AwsIotMqttCodec.PUBLISH, packet.type);
+        assertEquals(1, packet.qos);
+        assertEquals(9, packet.packetId);
+        assertEquals("t", packet.topic);
+        assertArrayEquals(new byte[] { 'h', 'i' }, packet.payload);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testDecodeSuback() throws IOException {
+        Packet packet = codec.decode(ByteBuffer.wrap(new byte[] { (byte) 0x90, 4, 0, 3, 1, (byte) 0x80 }));
+
+        assertEquals(AwsIotMqttCodec.SUBACK, packet.type);
+        assertEquals(3, packet.packetId);
+        assertArrayEquals(new int[] { 1, AwsIotMqttCodec.FAILURE }, packet.returnCodes);
+    }
+
+    @Test
+    public void testDecodeMultiplePackets() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 0x40, 2, 0, 7, (byte) 0xd0, 0 });
+
+        assertEquals(AwsIotMqttCodec.PUBACK, codec.decode(buffer).type);
+        assertEquals(AwsIotMqttCodec.PINGRESP, codec.decode(buffer).type);
+        assertNull(codec.decode(buffer));
+    }
+
+    @Test
+    public void testDecodeIncompletePacket() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 0x32, 7, 0, 1, 't' });
+
+        assertNull(codec.decode(buffer));
+        assertEquals(0, buffer.position());
+
+        ByteBuffer header = ByteBuffer.wrap(new byte[] { 0x30, (byte) 0xcb });
+        assertNull(codec.decode(header));
+        assertEquals(0, header.position());
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeMalformedPacket() throws IOException {
+        // topic length exceeds the remaining length
+        codec.decode(ByteBuffer.wrap(new byte[] { 0x30, 3, 0, 9, 't', 0x40, 2, 0, 1 }));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeUnexpectedPacket() throws IOException {
+        codec.decode(ByteBuffer.wrap(new byte[] { 0x10, 0 }));
+    }
+
+    @Test
+    public void testEncodeMqtt5Connect() {
+        AWSIotMessage will = new AWSIotMessage("w", AWSIotQos.QOS0, "x");
+        ByteBuffer buffer = codec5.encodeConnect("id", null, true, 30, 3600, will);
+
+        byte[] expected = { 0x10, 22, 0, 4, 'M', 'Q', 'T', 'T', 5, 0x06, 0, 30, 0, 0, 2, 'i', 'd', 0, 0, 1, 'w', 0,
+                1, 'x' };
+        assertArrayEquals(expected, toBytes(buffer));
+    }
+
+    @Test
+    public void testEncodeMqtt5ConnectWithSessionExpiry() {
+        AWSIotMessage will = new AWSIotMessage("w", AWSIotQos.QOS0, "x");
+        ByteBuffer buffer = codec5.encodeConnect("id", null, false, 30, 0x12345678L, will);
+
+        // the session expiry interval is only sent in the connect properties
+        byte[] expected = { 0x10, 27, 0, 4, 'M', 'Q', 'T', 'T', 5, 0x04, 0, 30, 5, 0x11, 0x12, 0x34, 0x56, 0x78, 0,
+                2, 'i', 'd', 0, 0, 1, 'w', 0, 1, 'x' };
+        assertArrayEquals(expected, toBytes(buffer));
+
+        byte[] never = toBytes(codec5.encodeConnect("id", null, false, 30, 0xffffffffL, null));
+        assertArrayEquals(new byte[] { 5, 0x11, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff },
+                Arrays.copyOfRange(never, 12, 18));
+
+        // clean sessions end with the connection
+        byte[] clean = toBytes(codec5.encodeConnect("id", null, true, 30, 3600, null));
+        assertEquals(0, clean[12]);
+    }
+
+    @Test
+    public void testEncodeMqtt5Publish() {
+        byte[] aliased = toBytes(codec5.encodePublish("", 1, new byte[] { 7 }, 2, 3,
+                Collections.singletonMap("k", "v")));
+
+        byte[] expected = { 0x32, 16, 0, 0, 0, 2, 10, 0x23, 0, 3, 0x26, 0, 1, 'k', 0, 1, 'v', 7 };
+        assertArrayEquals(expected, aliased);
+
+        byte[] plain = toBytes(codec5.encodePublish("t", 0, new byte[] { 7 }, 0, 0, null));
+        assertArrayEquals(new byte[] { 0x30, 5, 0, 1, 't', 0, 7 }, plain);
+    }
+
+    @Test
+    public void testEncodeMqtt5Subscribe() {
+        ByteBuffer buffer = codec5.encodeSubscribe(1, Arrays.asList(new AWSIotMessage("a", AWSIotQos.QOS1)));
+
+        assertArrayEquals(new byte[] { (byte) 0x82, 7, 0, 1, 0, 0, 1, 'a', 1 }, toBytes(buffer));
+    }
+
+    @Test
+    public void testDecodeMqtt5Connack() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 0x20, 17, 0, 0, 14, 0x21, 0, 10, 0x22, 0, 8, 0x27, 0, 1, 0,
+                0, 0x13, 0, 60 });
+        Packet packet = codec5.decode(buffer);
+
+        assertEquals(0, packet.returnCode);
+        assertEquals(10, packet.receiveMaximum);
+        assertEquals(8, packet.topicAliasMaximum);
+        assertEquals(60, packet.serverKeepAlive);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testDecodeMqtt5Publish() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 0x30, 16, 0, 1, 't', 10, 0x01, 1, 0x26, 0, 1, 'k', 0, 2,
+                'v', '1', 'h', 'i' });
+        Packet packet = codec5.decode(buffer);
+
+        assertEquals("t", packet.topic);
+        assertEquals(Collections.singletonMap("k", "v1"), packet.userProperties);
+        assertArrayEquals(new byte[] { 'h', 'i' }, packet.payload);
+    }
+
+    @Test
+    public void testDecodeMqtt5Acks() throws IOException {
+        Packet puback = codec5.decode(ByteBuffer.wrap(new byte[] { 0x40, 2, 0, 1 }));
+        assertEquals(0, puback.returnCode);
+
+        Packet rejected = codec5.decode(ByteBuffer.wrap(new byte[] { 0x40, 4, 0, 1, (byte) 0x87, 0 }));
+        assertEquals(0x87, rejected.returnCode);
+
+        Packet suback = codec5.decode(ByteBuffer.wrap(new byte[] { (byte) 0x90, 5, 0, 1, 0, 1, (byte) 0x80 }));
+        assertArrayEquals(new int[] { 1, AwsIotMqttCodec.FAILURE }, suback.returnCodes);
+
+        Packet unsuback = codec5.decode(ByteBuffer.wrap(new byte[] { (byte) 0xb0, 4, 0, 1, 0, 0x11 }));
+        assertArrayEquals(new int[] { 0x11 }, unsuback.returnCodes);
+    }
+
+    @Test
+    public void testDecodeMqtt5Disconnect() throws IOException {
+        Packet packet = codec5.decode(ByteBuffer.wrap(new byte[] { (byte) 0xe0, 6, (byte) 0x8e, 4, 0x1f, 0, 1,
+                'x' }));
+
+        assertEquals(AwsIotMqttCodec.DISCONNECT, packet.type);
+        assertEquals(0x8e, packet.returnCode);
+        assertEquals("x", packet.reasonString);
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeMqtt5UnknownProperty() throws IOException {
+        codec5.decode(ByteBuffer.wrap(new byte[] { 0x20, 4, 0, 0, 1, 0x7f }));
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,508 @@
+package com.amazonaws.services.iot.client.nio;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.net.SocketFactory;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotProtocolVersion;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotMessageCallback;
+import com.amazonaws.services.iot.client.core.AwsIotRetryableException;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
+import com.amazonaws.services.iot.client.util.AwsIotEndpointResolver;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AwsIotNioTransportTest {
+
+    private static final long TIMEOUT = 3000;
+
+    private static AwsIotNioEventLoopGroup eventLoopGroup;
+
+    @Mock
+    private AbstractAwsIotClient client;
+    @Mock
+    private AwsIotTransportListener listener;
+    @Mock
+    private AwsIotMessageCallback callback;
+
+    private ServerSocket serverSocket;
+    private Socket broker;
+    private AwsIotNioTransport transport;
+
+    @BeforeClass
+    public static void setupClass() throws AWSIotException {
+        eventLoopGroup = new AwsIotNioEventLoopGroup(1);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        eventLoopGroup.shutdown();
+    }
+
+    @Before
+    public void setup() throws Exception {
+        when(client.getClientId()).thenReturn("client");
+        when(client.isCleanSession()).thenReturn(true);
+        when(client.getConnectionTimeout()).thenReturn((int) TIMEOUT);
+        when(client.getProtocolVersion()).thenReturn(AWSIotProtocolVersion.MQTT_3_1_1);
+
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        serverSocket.setSoTimeout((int) TIMEOUT);
+        transport = new AwsIotNioTransport(client, null, "tcp://127.0.0.1:" + serverSocket.getLocalPort(), listener,
+                eventLoopGroup);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (broker != null) {
+            broker.close();
+        }
+        serverSocket.close();
+    }
+
+    @Test
+    public void testConnect() throws Exception {
+        transport.connect("user", null, callback);
+        accept();
+
+        byte[] connect = readPacket();
+        assertEquals(0x10, connect[0]);
+        writePacket(0x20, 2, 1, 0);
+
+        verify(listener, timeout(TIMEOUT)).onConnected(true, callback);
+        assertEquals(AwsIotNioTransport.State.CONNECTED, transport.getState());
+    }
+
+    @Test
+    public void testConnectRefused() throws Exception {
+        transport.connect(null, null, callback);
+        accept();
+        readPacket();
+        writePacket(0x20, 2, 0, 5);
+
+        verify(listener, timeout(TIMEOUT)).onConnectFailed(any(IOException.class), eq(callback));
+        assertEquals(AwsIotNioTransport.State.DISCONNECTED, transport.getState());
+    }
+
+    @Test
+    public void testConnectTimeout() throws Exception {
+        when(client.getConnectionTimeout()).thenReturn(200);
+
+        transport.connect(null, null, callback);
+        accept();
+        readPacket();
+
+        verify(listener, timeout(TIMEOUT)).onConnectFailed(any(SocketTimeoutException.class), eq(callback));
+    }
+
+    @Test(expected = AWSIotException.class)
+    public void testConnectWhenConnected() throws Exception {
+        connect();
+
+        transport.connect(null, null, callback);
+    }
+
+    @Test(expected = AwsIotRetryableException.class)
+    public void testPublishWhenNotConnected() throws Exception {
+        transport.publish(new AWSIotMessage("t", AWSIotQos.QOS1));
+    }
+
+    @Test
+    public void testPublish() throws Exception {
+        connect();
+
+        AWSIotMessage qos0 = new AWSIotMessage("t", AWSIotQos.QOS0, "a");
+        transport.publish(qos0);
+        assertEquals(0x30, readPacket()[0]);
+        verify(listener, timeout(TIMEOUT)).onAcknowledged(qos0, true);
+
+        AWSIotMessage qos1 = new AWSIotMessage("t", AWSIotQos.QOS1, "b");
+        transport.publish(qos1);
+        byte[] publish = readPacket();
+        assertEquals(0x32, publish[0]);
+        verify(listener, after(100).never()).onAcknowledged(qos1, true);
+
+        writePacket(0x40, 2, publish[5], publish[6]);
+        verify(listener, timeout(TIMEOUT)).onAcknowledged(qos1, true);
+    }
+
+    @Test
+    public void testPendingPublishes() throws Exception {
+        connect();
+
+        AWSIotMessage message = new AWSIotMessage("t", AWSIotQos.QOS1, "a");
+        transport.publish(message);
+        byte[] publish = readPacket();
+        assertEquals(Collections.singletonList(message), transport.getPendingPublishes());
+
+        writePacket(0x40, 2, publish[5], publish[6]);
+        verify(listener, timeout(TIMEOUT)).onAcknowledged(message, true);
+        assertTrue(transport.getPendingPublishes().isEmpty());
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+        connect();
+
+        AWSIotMessage topic1 = new AWSIotMessage("a", AWSIotQos.QOS0);
+        AWSIotMessage topic2 = new AWSIotMessage("b", AWSIotQos.QOS1);
+        transport.subscribe(Arrays.asList(topic1, topic2));
+
+        byte[] subscribe = readPacket();
+        assertEquals((byte) 0x82, subscribe[0]);
+        writePacket(0x90, 4, subscribe[2], subscribe[3], 0, 0x80);
+
+        verify(listener, timeout(TIMEOUT)).onAcknowledged(topic1, true);
+        verify(listener, timeout(TIMEOUT)).onAcknowledged(topic2, false);
+    }
+
+    @Test
+    public void testUnsubscribe() throws Exception {
+        connect();
+
+        AWSIotMessage topic = new AWSIotMessage("a", AWSIotQos.QOS0);
+        transport.unsubscribe(topic);
+
+        byte[] unsubscribe = readPacket();
+        assertEquals((byte) 0xa2, unsubscribe[0]);
+        writePacket(0xb0, 2, unsubscribe[2], unsubscribe[3]);
+
+        verify(listener, timeout(TIMEOUT)).onAcknowledged(topic, true);
+    }
+
+    @Test
+    public void testMessageArrived() throws Exception {
+        connect();
+
+        writePacket(0x32, 7, 0, 1, 't', 0, 9, 'h', 'i');
+
+        ArgumentCaptor<AWSIotMessage> captor = ArgumentCaptor.forClass(AWSIotMessage.class);
+        verify(listener, timeout(TIMEOUT)).onMessageArrived(captor.capture());
+        assertEquals("t", captor.getValue().getTopic());
+        assertEquals(AWSIotQos.QOS1, captor.getValue().getQos());
+        assertEquals("hi", captor.getValue().getStringPayload());
+
+        assertArrayEquals(new byte[] { 0x40, 2, 0, 9 }, readPacket());
+    }
+
+    @Test
+    public void testConnectionLost() throws Exception {
+        connect();
+
+        AWSIotMessage message = new AWSIotMessage("t", AWSIotQos.QOS1, "a");
+        transport.publish(message);
+        readPacket();
+        broker.close();
+
+        verify(listener, timeout(TIMEOUT)).onConnectionLost(any(IOException.class));
+        verify(listener, timeout(TIMEOUT)).onAcknowledged(message, false);
+        assertEquals(AwsIotNioTransport.State.DISCONNECTED, transport.getState());
+    }
+
+    @Test
+    public void testPingTimeout() throws Exception {
+        when(client.getKeepAliveInterval()).thenReturn(500);
+        connect();
+
+        assertArrayEquals(new byte[] { (byte) 0xc0, 0 }, readPacket());
+        verify(listener, timeout(TIMEOUT)).onConnectionLost(any(SocketTimeoutException.class));
+    }
+
+    @Test
+    public void testNothingReceivedFromServer() throws Exception {
+        when(client.getKeepAliveInterval()).thenReturn(500);
+        connect();
+
+        // the connection is not idle, but the server has stopped responding
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                transport.publish(new AWSIotMessage("t", AWSIotQos.QOS0, "m"));
+                Thread.sleep(50);
+            }
+        } catch (AwsIotRetryableException e) {
+            // the connection is lost
+        }
+        verify(listener, timeout(TIMEOUT)).onConnectionLost(any(SocketTimeoutException.class));
+    }
+
+    @Test
+    public void testConnectRacesEndpoints() throws Exception {
+        // the first address doesn't answer connection requests as its backlog is full
+        ServerSocket unresponsive = new ServerSocket();
+        unresponsive.bind(new InetSocketAddress("127.0.0.2", serverSocket.getLocalPort()), 1);
+        List<Socket> backlog = new ArrayList<>();
+        try {
+            while (true) {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(unresponsive.getLocalSocketAddress(), 200);
+                    backlog.add(socket);
+                } catch (SocketTimeoutException e) {
+                    socket.close();
+                    break;
+                }
+            }
+
+            TestResolver resolver = new TestResolver(InetAddress.getByName("127.0.0.2"),
+                    InetAddress.getByName("127.0.0.1"));
+            resolver.setAttemptDelay(50);
+            transport = new AwsIotNioTransport(client, null, "tcp://broker.test:" + serverSocket.getLocalPort(),
+                    listener, eventLoopGroup, resolver);
+
+            long start = System.currentTimeMillis();
+            connect();
+            assertTrue(System.currentTimeMillis() - start < TIMEOUT / 2);
+            assertTrue(resolver.invalidated.isEmpty());
+        } finally {
+            for (Socket socket : backlog) {
+                socket.close();
+            }
+            unresponsive.close();
+        }
+    }
+
+    @Test
+    public void testEndpointsInvalidatedOnFailure() throws Exception {
+        // nothing listens on the second loopback address
+        TestResolver resolver = new TestResolver(InetAddress.getByName("127.0.0.2"));
+        transport = new AwsIotNioTransport(client, null, "tcp://broker.test:" + serverSocket.getLocalPort(),
+                listener, eventLoopGroup, resolver);
+
+        transport.connect(null, null, callback);
+
+        verify(listener, timeout(TIMEOUT)).onConnectFailed(any(IOException.class), eq(callback));
+        assertEquals(Arrays.asList("broker.test"), resolver.invalidated);
+    }
+
+    @Test
+    public void testDisconnect() throws Exception {
+        connect();
+
+        AwsIotMessageCallback disconnectCallback = mock(AwsIotMessageCallback.class);
+        transport.disconnect(disconnectCallback);
+
+        assertArrayEquals(new byte[] { (byte) 0xe0, 0 }, readPacket());
+        verify(listener, timeout(TIMEOUT)).onDisconnected(true, disconnectCallback);
+        assertEquals(AwsIotNioTransport.State.DISCONNECTED, transport.getState());
+    }
+
+    @Test
+    public void testMqtt5TopicAliases() throws Exception {
+        when(client.getProtocolVersion()).thenReturn(AWSIotProtocolVersion.MQTT_5);
+        when(client.getMaxTopicAliases()).thenReturn(2);
+        // server allows 8 topic aliases
+        connect(0x20, 6, 0, 0, 3, 0x22, 0, 8);
+
+        String[] topics = { "t1", "t1", "t2", "t3", "t2" };
+        byte[][] expected = { { 0x30, 8, 0, 2, 't', '1', 3, 0x23, 0, 1 }, { 0x30, 6, 0, 0, 3, 0x23, 0, 1 },
+                { 0x30, 8, 0, 2, 't', '2', 3, 0x23, 0, 2 }, { 0x30, 8, 0, 2, 't', '3', 3, 0x23, 0, 1 },
+                { 0x30, 6, 0, 0, 3, 0x23, 0, 2 } };
+        for (int i = 0; i < topics.length; i++) {
+            transport.publish(new AWSIotMessage(topics[i], AWSIotQos.QOS0));
+            assertArrayEquals(expected[i], readPacket());
+        }
+    }
+
+    @Test
+    public void testMqtt5ReceiveMaximum() throws Exception {
+        when(client.getProtocolVersion()).thenReturn(AWSIotProtocolVersion.MQTT_5);
+        // server allows one unacknowledged QoS 1 message
+        connect(0x20, 6, 0, 0, 3, 0x21, 0, 1);
+
+        AWSIotMessage message1 = new AWSIotMessage("t", AWSIotQos.QOS1, "1");
+        AWSIotMessage message2 = new AWSIotMessage("t", AWSIotQos.QOS1, "2");
+        transport.publish(message1);
+        transport.publish(message2);
+
+        byte[] publish1 = readPacket();
+        assertEquals('1', publish1[publish1.length - 1]);
+        broker.setSoTimeout(200);
+        try {
+            readPacket();
+            fail("second message must be held back");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        broker.setSoTimeout((int) TIMEOUT);
+
+        writePacket(0x40, 2, publish1[5], publish1[6]);
+        verify(listener, timeout(TIMEOUT)).onAcknowledged(message1, true);
+        byte[] publish2 = readPacket();
+        assertEquals('2', publish2[publish2.length - 1]);
+    }
+
+    @Test
+    public void testMqtt5UserProperties() throws Exception {
+        when(client.getProtocolVersion()).thenReturn(AWSIotProtocolVersion.MQTT_5);
+        connect(0x20, 3, 0, 0, 0);
+
+        writePacket(0x30, 12, 0, 1, 't', 7, 0x26, 0, 1, 'k', 0, 1, 'v', 'x');
+
+        ArgumentCaptor<AWSIotMessage> captor = ArgumentCaptor.forClass(AWSIotMessage.class);
+        verify(listener, timeout(TIMEOUT)).onMessageArrived(captor.capture());
+        assertEquals(Collections.singletonMap("k", "v"), captor.getValue().getUserProperties());
+    }
+
+    @Test
+    public void testMqtt5ServerDisconnect() throws Exception {
+        when(client.getProtocolVersion()).thenReturn(AWSIotProtocolVersion.MQTT_5);
+        connect(0x20, 3, 0, 0, 0);
+
+        writePacket(0xe0, 2, 0x8e, 0);
+
+        verify(listener, timeout(TIMEOUT)).onConnectionLost(any(IOException.class));
+    }
+
+    @Test(expected = AWSIotException.class)
+    public void testUnsupportedUri() throws AWSIotException {
+        new AwsIotNioTransport(client, null, "http://localhost:443/mqtt", listener, eventLoopGroup);
+    }
+
+    @Test
+    public void testIsSupported() {
+        assertTrue(AwsIotNioTransport.isSupported(null, "tcp://localhost:1883"));
+        assertTrue(AwsIotNioTransport.isSupported(null, "ws://localhost:80/mqtt"));
+        assertTrue(AwsIotNioTransport.isSupported(null, "wss://localhost:443/mqtt"));
+        assertFalse(AwsIotNioTransport.isSupported(SocketFactory.getDefault(), "wss://localhost:443/mqtt"));
+        assertFalse(AwsIotNioTransport.isSupported(SocketFactory.getDefault(), "ssl://localhost:8883"));
+    }
+
+    @Test(expected = AWSIotException.class)
+    public void testTlsRequiresKeyStoreSocketFactory() throws AWSIotException {
+        new AwsIotNioTransport(client, SocketFactory.getDefault(), "ssl://localhost:8883", listener, eventLoopGroup);
+    }
+
+    @Test
+    public void testManyConnectionsShareEventLoop() throws Exception {
+        final int numOfConnections = 200;
+        final ServerSocket server = new ServerSocket(0, numOfConnections, InetAddress.getByName("127.0.0.1"));
+        final List<Socket> sockets = new ArrayList<>();
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < numOfConnections; i++) {
+                        Socket socket = server.accept();
+                        sockets.add(socket);
+                        socket.getInputStream().read(new byte[64]);
+                        socket.getOutputStream().write(new byte[] { 0x20, 2, 0, 0 });
+                    }
+                } catch (IOException e) {
+                    // fails the verification below
+                }
+            }
+        };
+        acceptor.start();
+
+        int threadCount = Thread.activeCount();
+        try {
+            for (int i = 0; i < numOfConnections; i++) {
+                new AwsIotNioTransport(client, null, "tcp://127.0.0.1:" + server.getLocalPort(), listener,
+                        eventLoopGroup).connect(null, null, callback);
+            }
+
+            verify(listener, timeout(TIMEOUT * 3).times(numOfConnections)).onConnected(false, callback);
+            assertTrue(Thread.activeCount() <= threadCount + 1);
+        } finally {
+            acceptor.join(TIMEOUT);
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.close();
+        }
+    }
+
+    private void connect() throws Exception {
+        connect(0x20, 2, 0, 0);
+    }
+
+    private void connect(int... connack) throws Exception {
+        transport.connect(null, null, callback);
+        accept();
+        readPacket();
+        writePacket(connack);
+        verify(listener, timeout(TIMEOUT)).onConnected(false, callback);
+    }
+
+    private void accept() throws IOException {
+        broker = serverSocket.accept();
+        broker.setSoTimeout((int) TIMEOUT);
+    }
+
+    private byte[] readPacket() throws IOException {
+        DataInputStream in = new DataInputStream(broker.getInputStream());
+        int header = in.readUnsignedByte();
+        int length = in.readUnsignedByte();
+        if (length > 127) {
+            length = (length & 0x7f) + in.readUnsignedByte() * 128;
+        }
+
+        byte[] packet = new byte[2 + length];
+        packet[0] = (byte) header;
+        packet[1] = (byte) length;
+        in.readFully(packet, 2, length);
+        return packet;
+    }
+
+    private void writePacket(int... bytes) throws IOException {
+        OutputStream out = broker.getOutputStream();
+        for (int b : bytes) {
+            out.write(b);
+        }
+        out.flush();
+    }
+
+    private static class TestResolver extends AwsIotEndpointResolver {
+
+        private final InetAddress[] addresses;
+        private final List<String> invalidated = new ArrayList<>();
+
+        TestResolver(InetAddress... addresses) {
+            this.addresses = addresses;
+        }
+
+        @Override
+        protected InetAddress[] lookup(String host) throws UnknownHostException {
+            return addresses;
+        }
+
+        @Override
+        public void invalidate(String host) {
+            invalidated.add(host);
+            super.invalidate(host);
+        }
+
+    }
+
+}
@@ -0,0 +1,514 @@
+package com.amazonaws.services.iot.client.nio;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotProtocolVersion;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.amazonaws.services.iot.client.AWSIotWebSocketCompression;
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotMessageCallback;
+import com.amazonaws.services.iot.client.core.AwsIotTransportListener;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AwsIotNioWebSocketSessionTest {
+
+    private static final long TIMEOUT = 3000;
+    private static final byte[] DEFLATE_TAIL = { 0, 0, (byte) 0xff, (byte) 0xff };
+    private static final String SHADOW_DOCUMENT = "{\"state\":{\"reported\":{\"temperature\":21.5,"
+            + "\"humidity\":48,\"firmwareVersion\":\"1.4.2\",\"connectivity\":{\"signalStrength\":-67,"
+            + "\"networkType\":\"wifi\"}},\"desired\":{\"temperature\":22.0,\"firmwareVersion\":\"1.4.2\"}},"
+            + "\"metadata\":{\"reported\":{\"temperature\":{\"timestamp\":1700000000},"
+            + "\"humidity\":{\"timestamp\":1700000000},\"firmwareVersion\":{\"timestamp\":1700000000}}},"
+            + "\"version\":42,\"timestamp\":1700000000,\"clientToken\":\"client-0001\"}";
+
+    private static AwsIotNioEventLoopGroup eventLoopGroup;
+
+    @Mock
+    private AbstractAwsIotClient client;
+    @Mock
+    private AwsIotTransportListener listener;
+    @Mock
+    private AwsIotMessageCallback callback;
+
+    private ServerSocket serverSocket;
+    private Socket broker;
+    private String request;
+    private Inflater brokerInflater;
+    private Deflater brokerDeflater;
+    private boolean brokerContextTakeover;
+
+    @BeforeClass
+    public static void setupClass() throws AWSIotException {
+        eventLoopGroup = new AwsIotNioEventLoopGroup(1);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        eventLoopGroup.shutdown();
+    }
+
+    @Before
+    public void setup() throws Exception {
+        when(client.getClientId()).thenReturn("client");
+        when(client.isCleanSession()).thenReturn(true);
+        when(client.getConnectionTimeout()).thenReturn((int) TIMEOUT);
+        when(client.getProtocolVersion()).thenReturn(AWSIotProtocolVersion.MQTT_3_1_1);
+
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        serverSocket.setSoTimeout((int) TIMEOUT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (broker != null) {
+            broker.close();
+        }
+        serverSocket.close();
+    }
+
+    @Test
+    public void testAcceptKey() {
+        // the example of RFC 6455
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=",
+                AwsIotNioWebSocketSession.getAcceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+        assertEquals("", AwsIotNioWebSocketSession.base64(new byte[0]));
+        assertEquals("YQ==", AwsIotNioWebSocketSession.base64("a".getBytes()));
+        assertEquals("YWI=", AwsIotNioWebSocketSession.base64("ab".getBytes()));
+        assertEquals("YWJj", AwsIotNioWebSocketSession.base64("abc".getBytes()));
+    }
+
+    @Test
+    public void testConnectWithoutCompression() throws Exception {
+        AwsIotNioTransport transport = createTransport();
+        transport.connect(null, null, callback);
+        accept(null);
+
+        assertTrue(request.startsWith("GET /mqtt?X-Amz-Signature=a%2Fb HTTP/1.1\r\n"));
+        assertTrue(request.contains("\r\nHost: 127.0.0.1:" + serverSocket.getLocalPort() + "\r\n"));
+        assertTrue(request.contains("\r\nSec-WebSocket-Protocol: mqtt\r\n"));
+        assertFalse(request.contains("Sec-WebSocket-Extensions"));
+
+        Frame connect = readFrame();
+        assertEquals(0x82, connect.header);
+        assertEquals(0x10, connect.payload[0]);
+
+        writeFrame(0x82, new byte[] { 0x20, 2, 0, 0 });
+        verify(listener, timeout(TIMEOUT)).onConnected(false, callback);
+    }
+
+    @Test
+    public void testConnectWithCompression() throws Exception {
+        when(client.getWebSocketCompression()).thenReturn(new AWSIotWebSocketCompression(10, false, true));
+
+        AwsIotNioTransport transport = createTransport();
+        transport.connect(null, null, callback);
+        accept("permessage-deflate; server_max_window_bits=10; server_no_context_takeover");
+
+        assertTrue(request.contains("\r\nSec-WebSocket-Extensions: permessage-deflate; server_max_window_bits=10; "
+                + "server_no_context_takeover\r\n"));
+
+        Frame connect = readFrame();
+        assertEquals(0xc2, connect.header);
+        assertEquals(0x10, inflate(connect.payload)[0]);
+
+        writeFrame(0xc2, deflate(new byte[] { 0x20, 2, 0, 0 }));
+        verify(listener, timeout(TIMEOUT)).onConnected(false, callback);
+
+        AWSIotMessage message = new AWSIotMessage("t", AWSIotQos.QOS0, SHADOW_DOCUMENT);
+        transport.publish(message);
+        Frame first = readFrame();
+        byte[] publish = inflate(first.payload);
+        assertEquals(0x30, publish[0]);
+        assertTrue(new String(publish, "UTF-8").endsWith(SHADOW_DOCUMENT));
+
+        // the second copy refers back to the first one in the compression context
+        transport.publish(message);
+        Frame second = readFrame();
+        assertArrayEquals(publish, inflate(second.payload));
+        assertTrue(second.payload.length < first.payload.length / 4);
+
+        writeFrame(0xc2, deflate(new byte[] { 0x30, 5, 0, 1, 't', 'h', 'i' }));
+        ArgumentCaptor<AWSIotMessage> captor = ArgumentCaptor.forClass(AWSIotMessage.class);
+        verify(listener, timeout(TIMEOUT)).onMessageArrived(captor.capture());
+        assertEquals("hi", captor.getValue().getStringPayload());
+    }
+
+    @Test
+    public void testClientNoContextTakeover() throws Exception {
+        when(client.getWebSocketCompression()).thenReturn(new AWSIotWebSocketCompression(15, true, false));
+
+        AwsIotNioTransport transport = createTransport();
+        transport.connect(null, null, callback);
+        accept("permessage-deflate; client_no_context_takeover");
+        assertTrue(request.contains(
+                "\r\nSec-WebSocket-Extensions: permessage-deflate; client_no_context_takeover\r\n"));
+        readFrame();
+        writeFrame(0x82, new byte[] { 0x20, 2, 0, 0 });
+        verify(listener, timeout(TIMEOUT)).onConnected(false, callback);
+
+        AWSIotMessage message = new AWSIotMessage("t", AWSIotQos.QOS0, SHADOW_DOCUMENT);
+        transport.publish(message);
+        Frame first = readFrame();
+        transport.publish(message);
+        Frame second = readFrame();
+
+        assertArrayEquals(first.payload, second.payload);
+        assertTrue(first.payload.length < SHADOW_DOCUMENT.length() / 2);
+    }
+
+    @Test
+    public void testCompressionDeclinedByServer() throws Exception {
+        when(client.getWebSocketCompression()).thenReturn(new AWSIotWebSocketCompression());
+
+        AwsIotNioTransport transport = createTransport();
+        transport.connect(null, null, callback);
+        accept(null);
+
+        assertTrue(request.contains("\r\nSec-WebSocket-Extensions: permessage-deflate\r\n"));
+        assertEquals(0x82, readFrame().header);
+    }
+
+    @Test
+    public void testClientWindowBitsLimitedByServer() throws Exception {
+        when(client.getWebSocketCompression()).thenReturn(new AWSIotWebSocketCompression());
+
+        AwsIotNioTransport transport = createTransport();
+        transport.connect(null, null, callback);
+        accept("permessage-deflate; client_max_window_bits=9");
+
+        // messages are sent uncompressed, while received ones are decompressed
+        Frame connect = readFrame();
+        assertEquals(0x82, connect.header);
+        assertEquals(0x10, connect.payload[0]);
+        writeFrame(0xc2, deflate(new byte[] { 0x20, 2, 0, 0 }));
+        verify(listener, timeout(TIMEOUT)).onConnected(false, callback);
+    }
+
+    @Test
+    public void testUnexpectedExtension() throws Exception {
+        AwsIotNioTransport transport = createTransport();
+        transport.connect(null, null, callback);
+        accept("permessage-deflate");
+
+        verify(listener, timeout(TIMEOUT)).onConnectFailed(any(IOException.class), eq(callback));
+    }
+
+    @Test
+    public void testUpgradeRejected() throws Exception {
+        AwsIotNioTransport transport = createTransport();
+        transport.connect(null, null, callback);
+        acceptSocket();
+        readRequest();
+        writeRaw("HTTP/1.1 403 Forbidden\r\nContent-Length: 0\r\n\r\n".getBytes("US-ASCII"));
+
+        verify(listener, timeout(TIMEOUT)).onConnectFailed(any(IOException.class), eq(callback));
+    }
+
+    @Test
+    public void testInvalidAcceptKey() throws Exception {
+        AwsIotNioTransport transport = createTransport();
+        transport.connect(null, null, callback);
+        acceptSocket();
+        readRequest();
+        writeRaw(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: invalid\r\n\r\n").getBytes("US-ASCII"));
+
+        verify(listener, timeout(TIMEOUT)).onConnectFailed(any(IOException.class), eq(callback));
+    }
+
+    @Test
+    public void testFragmentedMessageAndPing() throws Exception {
+        AwsIotNioTransport transport = createTransport();
+        transport.connect(null, null, callback);
+        accept(null);
+        readFrame();
+
+        writeFrame(0x02, new byte[] { 0x20, 2 });
+        writeFrame(0x89, new byte[] { 'p' });
+        writeFrame(0x80, new byte[] { 0, 0 });
+        verify(listener, timeout(TIMEOUT)).onConnected(false, callback);
+
+        Frame pong = readFrame();
+        assertEquals(0x8a, pong.header);
+        assertArrayEquals(new byte[] { 'p' }, pong.payload);
+    }
+
+    @Test
+    public void testCloseFrame() throws Exception {
+        AwsIotNioTransport transport = createTransport();
+        transport.connect(null, null, callback);
+        accept(null);
+        readFrame();
+        writeFrame(0x82, new byte[] { 0x20, 2, 0, 0 });
+        verify(listener, timeout(TIMEOUT)).onConnected(false, callback);
+
+        writeFrame(0x88, new byte[] { 0x03, (byte) 0xe8 });
+        verify(listener, timeout(TIMEOUT)).onConnectionLost(any(IOException.class));
+    }
+
+    @Test
+    public void testCompressionRatio() throws Exception {
+        AwsIotNioSession plain = mock(AwsIotNioSession.class);
+        when(plain.handshake()).thenReturn(true);
+        final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        when(plain.write(any(ByteBuffer.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                ByteBuffer src = (ByteBuffer) invocation.getArguments()[0];
+                while (src.hasRemaining()) {
+                    wire.write(src.get());
+                }
+                return true;
+            }
+        });
+
+        AwsIotNioWebSocketSession session = new AwsIotNioWebSocketSession(plain, "localhost", 443, "/mqtt",
+                new AWSIotWebSocketCompression());
+        final byte[] response = ("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\n"
+                + "Sec-WebSocket-Extensions: permessage-deflate\r\n").getBytes("US-ASCII");
+        when(plain.read(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Exception {
+                String key = wire.toString("US-ASCII").replaceAll("(?s).*Sec-WebSocket-Key: ([^\r]*).*", "$1");
+                ByteBuffer dst = (ByteBuffer) invocation.getArguments()[0];
+                dst.put(response);
+                dst.put(("Sec-WebSocket-Accept: " + AwsIotNioWebSocketSession.getAcceptKey(key) + "\r\n\r\n")
+                        .getBytes("US-ASCII"));
+                return 1;
+            }
+        });
+
+        assertTrue(session.handshake());
+        assertTrue(session.isCompressing());
+        wire.reset();
+
+        int numOfMessages = 20;
+        for (int i = 0; i < numOfMessages; i++) {
+            session.write(ByteBuffer.wrap(SHADOW_DOCUMENT.replace("42", Integer.toString(i)).getBytes("UTF-8")));
+        }
+        assertTrue(wire.size() < SHADOW_DOCUMENT.length() * numOfMessages / 5);
+
+        session.close();
+        assertFalse(session.isCompressing());
+        verify(plain).close();
+    }
+
+    /**
+     * Measures the bytes on the wire for shadow updates sent to, and deltas
+     * received from, the local broker stand-in, with and without compression.
+     */
+    @Test
+    public void testBytesOnWire() throws Exception {
+        long[] plain = measureBytesOnWire(null, null);
+        long[] deflate = measureBytesOnWire(new AWSIotWebSocketCompression(), "permessage-deflate");
+        long[] deflateNoContext = measureBytesOnWire(new AWSIotWebSocketCompression(15, true, true),
+                "permessage-deflate; client_no_context_takeover; server_no_context_takeover");
+
+        String result = "no extension: " + Arrays.toString(plain) + ", context takeover: "
+                + Arrays.toString(deflate) + ", no context takeover: " + Arrays.toString(deflateNoContext);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(result, deflate[i] < plain[i] / 5);
+            assertTrue(result, deflateNoContext[i] < plain[i]);
+            assertTrue(result, deflate[i] < deflateNoContext[i]);
+        }
+    }
+
+    private long[] measureBytesOnWire(AWSIotWebSocketCompression compression, String extensions)
+            throws Exception {
+        final int numOfMessages = 200;
+        final String topic = "$aws/things/thing/shadow/update";
+        AwsIotTransportListener listener = mock(AwsIotTransportListener.class);
+        when(client.getWebSocketCompression()).thenReturn(compression);
+        brokerContextTakeover = (extensions != null && !extensions.contains("server_no_context_takeover"));
+
+        AwsIotNioTransport transport = new AwsIotNioTransport(client, null,
+                "ws://127.0.0.1:" + serverSocket.getLocalPort() + "/mqtt", listener, eventLoopGroup);
+        transport.connect(null, null, callback);
+        accept(extensions);
+        readFrame();
+        writeFrame(0x82, new byte[] { 0x20, 2, 0, 0 });
+        verify(listener, timeout(TIMEOUT)).onConnected(false, callback);
+
+        long up = 0;
+        for (int i = 0; i < numOfMessages; i++) {
+            String document = SHADOW_DOCUMENT.replace("42", Integer.toString(i));
+            transport.publish(new AWSIotMessage(topic, AWSIotQos.QOS0, document));
+            Frame frame = readFrame();
+            up += 2 + ((frame.payload.length < 126) ? 0 : 2) + 4 + frame.payload.length;
+        }
+
+        long down = 0;
+        for (int i = 0; i < numOfMessages; i++) {
+            byte[] publish = encodePublish(topic + "/delta", SHADOW_DOCUMENT.replace("42", Integer.toString(i)));
+            byte[] payload = (extensions != null) ? deflate(publish) : publish;
+            writeFrame((extensions != null) ? 0xc2 : 0x82, payload);
+            down += 2 + ((payload.length < 126) ? 0 : 2) + payload.length;
+        }
+        verify(listener, timeout(TIMEOUT).times(numOfMessages)).onMessageArrived(any(AWSIotMessage.class));
+
+        transport.disconnect(null);
+        broker.close();
+        broker = null;
+        if (brokerInflater != null) {
+            brokerInflater.end();
+            brokerDeflater.end();
+        }
+        return new long[] { up, down };
+    }
+
+    private AwsIotNioTransport createTransport() throws AWSIotException {
+        return new AwsIotNioTransport(client, null,
+                "ws://127.0.0.1:" + serverSocket.getLocalPort() + "/mqtt?X-Amz-Signature=a%2Fb", listener,
+                eventLoopGroup);
+    }
+
+    private void accept(String extensions) throws IOException {
+        acceptSocket();
+        String key = readRequest().replaceAll("(?s).*\r\nSec-WebSocket-Key: ([^\r]*)\r\n.*", "$1");
+
+        StringBuilder response = new StringBuilder("HTTP/1.1 101 Switching Protocols\r\n");
+        response.append("Upgrade: websocket\r\nConnection: Upgrade\r\n");
+        response.append("Sec-WebSocket-Accept: ").append(AwsIotNioWebSocketSession.getAcceptKey(key)).append("\r\n");
+        response.append("Sec-WebSocket-Protocol: mqtt\r\n");
+        if (extensions != null) {
+            response.append("Sec-WebSocket-Extensions: ").append(extensions).append("\r\n");
+            brokerInflater = new Inflater(true);
+            brokerDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        response.append("\r\n");
+        writeRaw(response.toString().getBytes("US-ASCII"));
+    }
+
+    private void acceptSocket() throws IOException {
+        broker = serverSocket.accept();
+        broker.setSoTimeout((int) TIMEOUT);
+    }
+
+    private String readRequest() throws IOException {
+        InputStream in = broker.getInputStream();
+        StringBuilder builder = new StringBuilder();
+        while (!builder.toString().endsWith("\r\n\r\n")) {
+            builder.append((char) in.read());
+        }
+        request = builder.toString();
+        return request;
+    }
+
+    private Frame readFrame() throws IOException {
+        DataInputStream in = new DataInputStream(broker.getInputStream());
+        Frame frame = new Frame();
+        frame.header = in.readUnsignedByte();
+        int length = in.readUnsignedByte();
+        assertTrue((length & 0x80) != 0);
+        length &= 0x7f;
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = (int) in.readLong();
+        }
+
+        byte[] mask = new byte[4];
+        in.readFully(mask);
+        frame.payload = new byte[length];
+        in.readFully(frame.payload);
+        for (int i = 0; i < length; i++) {
+            frame.payload[i] ^= mask[i & 3];
+        }
+        return frame;
+    }
+
+    private void writeFrame(int header, byte[] payload) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(header);
+        if (payload.length < 126) {
+            frame.write(payload.length);
+        } else {
+            frame.write(126);
+            frame.write(payload.length >> 8);
+            frame.write(payload.length);
+        }
+        frame.write(payload);
+        writeRaw(frame.toByteArray());
+    }
+
+    private void writeRaw(byte[] data) throws IOException {
+        OutputStream out = broker.getOutputStream();
+        out.write(data);
+        out.flush();
+    }
+
+    private byte[] inflate(byte[] payload) throws Exception {
+        byte[] input = Arrays.copyOf(payload, payload.length + DEFLATE_TAIL.length);
+        System.arraycopy(DEFLATE_TAIL, 0, input, payload.length, DEFLATE_TAIL.length);
+        brokerInflater.setInput(input);
+
+        byte[] output = new byte[65536];
+        int length = brokerInflater.inflate(output);
+        return Arrays.copyOf(output, length);
+    }
+
+    private byte[] deflate(byte[] data) {
+        brokerDeflater.setInput(data);
+        byte[] output = new byte[65536];
+        int length = brokerDeflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+        if (!brokerContextTakeover) {
+            brokerDeflater.reset();
+        }
+        return Arrays.copyOf(output, length - DEFLATE_TAIL.length);
+    }
+
+    private static byte[] encodePublish(String topic, String payload) throws IOException {
+        byte[] topicBytes = topic.getBytes("UTF-8");
+        byte[] payloadBytes = payload.getBytes("UTF-8");
+        int remaining = 2 + topicBytes.length + payloadBytes.length;
+
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        packet.write(0x30);
+        do {
+            int digit = remaining & 0x7f;
+            remaining >>= 7;
+            packet.write((remaining > 0) ? (digit | 0x80) : digit);
+        } while (remaining > 0);
+        packet.write(topicBytes.length >> 8);
+        packet.write(topicBytes.length);
+        packet.write(topicBytes);
+        packet.write(payloadBytes);
+        return packet.toByteArray();
+    }
+
+    private static class Frame {
+        private int header;
+        private byte[] payload;
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.amazonaws.services.iot.client.retry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    private static final long BASE_RETRY_DELAY = 3000;
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    // simulation of a fleet losing its connections at the same time
+    private static final int FLEET_SIZE = 200000;
+    private static final int ATTEMPTS_PER_DEVICE = 6;
+    private static final long BUCKET_SIZE = 100;
+
+    @Test
+    public void testExponentialRetryDelay() {
+        RetryPolicy policy = new ExponentialRetryPolicy();
+
+        assertEquals(3000, policy.getRetryDelay(0, 0, BASE_RETRY_DELAY, MAX_RETRY_DELAY));
+        assertEquals(6000, policy.getRetryDelay(1, 3000, BASE_RETRY_DELAY, MAX_RETRY_DELAY));
+        assertEquals(24000, policy.getRetryDelay(3, 12000, BASE_RETRY_DELAY, MAX_RETRY_DELAY));
+        assertEquals(30000, policy.getRetryDelay(4, 24000, BASE_RETRY_DELAY, MAX_RETRY_DELAY));
+        assertEquals(30000, policy.getRetryDelay(Integer.MAX_VALUE, 30000, BASE_RETRY_DELAY, MAX_RETRY_DELAY));
+    }
+
+    @Test
+    public void testFullJitterRetryDelay() {
+        RetryPolicy policy = new FullJitterRetryPolicy(new Random(1));
+
+        for (int retryTimes = 0; retryTimes < 64; retryTimes++) {
+            long cap = Math.min(BASE_RETRY_DELAY << Math.min(retryTimes, 32), MAX_RETRY_DELAY);
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.getRetryDelay(retryTimes, 0, BASE_RETRY_DELAY, MAX_RETRY_DELAY);
+                assertTrue(delay >= 0);
+                assertTrue(delay <= cap);
+            }
+        }
+    }
+
+    @Test
+    public void testDecorrelatedJitterRetryDelay() {
+        RetryPolicy policy = new DecorrelatedJitterRetryPolicy(new Random(1));
+
+        long previousDelay = 0;
+        for (int retryTimes = 0; retryTimes < 1000; retryTimes++) {
+            long delay = policy.getRetryDelay(retryTimes, previousDelay, BASE_RETRY_DELAY, MAX_RETRY_DELAY);
+            assertTrue(delay >= BASE_RETRY_DELAY);
+            assertTrue(delay <= MAX_RETRY_DELAY);
+            assertTrue(delay <= Math.max(previousDelay, BASE_RETRY_DELAY) * 3);
+            previousDelay = delay;
+        }
+
+        assertEquals(MAX_RETRY_DELAY,
+                policy.getRetryDelay(0, Long.MAX_VALUE / 2, MAX_RETRY_DELAY, MAX_RETRY_DELAY));
+    }
+
+    @Test
+    public void testFleetReconnectionIsSpreadOut() {
+        int exponentialPeak = getPeakAttempts(new ExponentialRetryPolicy());
+        int fullJitterPeak = getPeakAttempts(new FullJitterRetryPolicy(new Random(1)));
+        int decorrelatedJitterPeak = getPeakAttempts(new DecorrelatedJitterRetryPolicy(new Random(1)));
+
+        // without jitter, the whole fleet retries in the same instant
+        assertEquals(FLEET_SIZE, exponentialPeak);
+
+        // with jitter, no window sees more than a small fraction of the fleet
+        assertTrue("Full jitter peak: " + fullJitterPeak, fullJitterPeak < FLEET_SIZE / 10);
+        assertTrue("Decorrelated jitter peak: " + decorrelatedJitterPeak, decorrelatedJitterPeak < FLEET_SIZE / 10);
+    }
+
+    /**
+     * Simulates the whole fleet losing connection at time 0 and the broker
+     * rejecting the first attempts of every device, and returns the largest
+     * number of connection attempts seen in a 100ms window.
+     */
+    private int getPeakAttempts(RetryPolicy policy) {
+        long horizon = MAX_RETRY_DELAY * (ATTEMPTS_PER_DEVICE + 1);
+        int[] buckets = new int[(int) (horizon / BUCKET_SIZE) + 1];
+
+        for (int device = 0; device < FLEET_SIZE; device++) {
+            long time = 0;
+            long previousDelay = 0;
+            for (int retryTimes = 0; retryTimes < ATTEMPTS_PER_DEVICE; retryTimes++) {
+                previousDelay = policy.getRetryDelay(retryTimes, previousDelay, BASE_RETRY_DELAY, MAX_RETRY_DELAY);
+                time += previousDelay;
+                buckets[(int) (time / BUCKET_SIZE)]++;
+            }
+        }
+
+        int peak = 0;
+        for (int count : buckets) {
+            peak = Math.max(peak, count);
+        }
+        return peak;
+    }
+
+}
@@ -1,12 +1,18 @@
 package com.amazonaws.services.iot.client.shadow;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -19,6 +25,7 @@ import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -27,9 +34,12 @@ import org.mockito.stubbing.Answer;
 import com.amazonaws.services.iot.client.AWSIotDeviceProperty;
 import com.amazonaws.services.iot.client.AWSIotException;
 import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotQos;
 import com.amazonaws.services.iot.client.AWSIotTopic;
 import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
 import com.amazonaws.services.iot.client.shadow.AwsIotDeviceCommandManager.Command;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -78,13 +88,14 @@ public class AbstractAwsIotDeviceTest {
         doAnswer(new Answer<Void>() {
             @Override
             public Void answer(InvocationOnMock invocation) throws Throwable {
-                AWSIotTopic topic = (AWSIotTopic) invocation.getArguments()[0];
-                // simulate a success call
-                topic.onSuccess();
-                subscribedTopics.add(topic);
+                for (Object topic : (List<?>) invocation.getArguments()[0]) {
+                    // simulate a success call
+                    ((AWSIotTopic) topic).onSuccess();
+                    subscribedTopics.add((AWSIotTopic) topic);
+                }
                 return null;
             }
-        }).when(client).subscribe(any(AWSIotTopic.class), anyLong());
+        }).when(client).subscribe(anyListOf(AWSIotTopic.class), anyLong());
 
         doAnswer(new Answer<Void>() {
             @Override
@@ -116,6 +127,23 @@ public class AbstractAwsIotDeviceTest {
         assertEquals(device, anotherDevice);
     }
 
+    @Test
+    public void testJsonObjectMapperNotShared() {
+        TestDevice device1 = newTestDevice(SHADOW_NAME);
+        TestDevice device2 = newTestDevice(SHADOW_NAME);
+        assertSame(AbstractAwsIotDevice.JSON_OBJECT_MAPPER, device1.getJsonMapper());
+
+        ObjectMapper mapper = device1.getJsonObjectMapper();
+        assertNotSame(AbstractAwsIotDevice.JSON_OBJECT_MAPPER, mapper);
+        assertSame(mapper, device1.getJsonObjectMapper());
+        assertSame(mapper, device1.getJsonMapper());
+        assertNotSame(mapper, device2.getJsonObjectMapper());
+        assertSame(AbstractAwsIotDevice.JSON_OBJECT_MAPPER, newTestDevice(SHADOW_NAME).getJsonMapper());
+
+        device1.setIntValue(5);
+        assertTrue(device1.onDeviceReport().contains("\"intValue\":5"));
+    }
+
     @Test
     public void testDeviceSyncWithoutVersioning() {
         TestDevice device = newTestDevice(SHADOW_NAME);
@@ -155,6 +183,149 @@ public class AbstractAwsIotDeviceTest {
         assertEquals(Command.GET, command.getCommand());
     }
 
+    @Test
+    public void testDeviceSyncWithDeltaReporting() {
+        TestDevice device = newTestDevice(SHADOW_NAME);
+        device.setClient(client);
+        device.setEnableDeltaReporting(true);
+        // long enough for the scheduled task not to run by itself
+        device.setReportInterval(60000);
+        for (String topic : device.getDeviceSubscriptions().keySet()) {
+            device.getDeviceSubscriptions().put(topic, true);
+        }
+
+        device.startSync();
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(client).scheduleRoutineTask(task.capture(), anyLong(), anyLong());
+
+        task.getValue().run();
+        assertEquals(1, publishedMessages.size());
+        acceptReport(publishedMessages.get(0));
+        String payload = ((AwsIotDeviceCommand) publishedMessages.get(0)).getStringPayload();
+        assertTrue(payload.contains("\"intValue\":-100"));
+        assertTrue(payload.contains("\"stringObject\""));
+
+        // nothing changed
+        task.getValue().run();
+        assertEquals(1, publishedMessages.size());
+
+        device.setIntValue(5);
+        device.getIntegerList().add(7);
+        task.getValue().run();
+        assertEquals(2, publishedMessages.size());
+        acceptReport(publishedMessages.get(1));
+        payload = ((AwsIotDeviceCommand) publishedMessages.get(1)).getStringPayload();
+        assertTrue(payload.startsWith("{\"state\":{\"reported\":{"));
+        assertTrue(payload.contains("\"intValue\":5"));
+        assertTrue(payload.contains("\"integerList\":[1000,-1111,0,7]"));
+        assertTrue(payload.contains("\"mapLists\""));
+        assertFalse(payload.contains("\"stringObject\""));
+
+        // the full state is reported again once the state of the shadow is unknown
+        device.stopSync();
+        task.getValue().run();
+        assertEquals(3, publishedMessages.size());
+        payload = ((AwsIotDeviceCommand) publishedMessages.get(2)).getStringPayload();
+        assertTrue(payload.contains("\"stringObject\""));
+    }
+
+    @Test
+    public void testDeltaReportAccepted() throws IOException {
+        TestDevice device = newTestDevice(SHADOW_NAME);
+        device.setClient(client);
+        device.setEnableDeltaReporting(true);
+        device.setReportInterval(60000);
+        for (String topic : device.getDeviceSubscriptions().keySet()) {
+            device.getDeviceSubscriptions().put(topic, true);
+        }
+
+        device.startSync();
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(client).scheduleRoutineTask(task.capture(), anyLong(), anyLong());
+
+        // delta reports accepted after the acknowledged state is reset are dropped
+        ObjectNode fullState = (ObjectNode) device.getJsonMapper().readTree(device.onDeviceReport());
+        device.onDeviceReportAccepted(fullState, fullState);
+        task.getValue().run();
+        assertEquals(1, publishedMessages.size());
+        acceptReport(publishedMessages.get(0));
+
+        // a failed report falls back to the acknowledged state
+        ObjectNode changedState = device.getJsonMapper().createObjectNode().put("intValue", 5);
+        device.onDeviceReportAccepted(fullState, changedState);
+        task.getValue().run();
+        assertEquals(1, publishedMessages.size());
+        device.onDeviceReportFailed();
+        task.getValue().run();
+        assertEquals(2, publishedMessages.size());
+        assertTrue(((AwsIotDeviceCommand) publishedMessages.get(1)).getStringPayload()
+                .startsWith("{\"state\":{\"reported\":{\"intValue\":-100}},"));
+    }
+
+    @Test
+    public void testDeltaReportInFlight() {
+        TestDevice device = newTestDevice(SHADOW_NAME);
+        device.setClient(client);
+        device.setEnableDeltaReporting(true);
+        device.setReportInterval(60000);
+        for (String topic : device.getDeviceSubscriptions().keySet()) {
+            device.getDeviceSubscriptions().put(topic, true);
+        }
+
+        device.startSync();
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(client).scheduleRoutineTask(task.capture(), anyLong(), anyLong());
+
+        // changes are computed against the reports not acknowledged yet
+        task.getValue().run();
+        device.setIntValue(5);
+        task.getValue().run();
+        assertEquals(2, publishedMessages.size());
+        assertTrue(((AwsIotDeviceCommand) publishedMessages.get(1)).getStringPayload()
+                .startsWith("{\"state\":{\"reported\":{\"intValue\":5}},"));
+
+        task.getValue().run();
+        assertEquals(2, publishedMessages.size());
+
+        // the properties of a failed report are sent again
+        acceptReport(publishedMessages.get(0));
+        rejectReport(publishedMessages.get(1));
+        task.getValue().run();
+        assertEquals(3, publishedMessages.size());
+        assertTrue(((AwsIotDeviceCommand) publishedMessages.get(2)).getStringPayload()
+                .startsWith("{\"state\":{\"reported\":{\"intValue\":5}},"));
+    }
+
+    @Test
+    public void testDeviceSyncWithDeadband() {
+        SensorDevice device = new SensorDevice(SHADOW_NAME);
+        device.setClient(client);
+        device.setReportInterval(60000);
+        for (String topic : device.getDeviceSubscriptions().keySet()) {
+            device.getDeviceSubscriptions().put(topic, true);
+        }
+
+        device.startSync();
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(client).scheduleRoutineTask(task.capture(), anyLong(), anyLong());
+
+        // properties with a reporting policy enable delta reporting
+        task.getValue().run();
+        assertEquals(1, publishedMessages.size());
+        acceptReport(publishedMessages.get(0));
+
+        device.setTemperature(20.3);
+        task.getValue().run();
+        assertEquals(1, publishedMessages.size());
+
+        // changes are measured against the last reported value
+        device.setTemperature(20.6);
+        task.getValue().run();
+        assertEquals(2, publishedMessages.size());
+        assertTrue(((AwsIotDeviceCommand) publishedMessages.get(1)).getStringPayload()
+                .startsWith("{\"state\":{\"reported\":{\"temperature\":20.6}},"));
+    }
+
     @Test
     public void testActivate() throws AWSIotException {
         TestDevice device = newTestDevice(SHADOW_NAME);
@@ -173,6 +344,41 @@ public class AbstractAwsIotDeviceTest {
         assertEquals(7, subscribedTopics.size());
     }
 
+    @Test
+    public void testSuspendAndResumeWithSessionPresent() throws AWSIotException {
+        TestDevice device = newTestDevice(SHADOW_NAME);
+        device.setClient(client);
+        device.setReportInterval(0);
+
+        device.activate();
+        assertTrue(device.isCommandReady(Command.UPDATE));
+
+        device.suspend();
+        assertTrue(device.isSuspended());
+        assertFalse(device.isCommandReady(Command.UPDATE));
+        assertEquals(0, unsubscribedTopics.size());
+
+        device.resume(true);
+        assertFalse(device.isSuspended());
+        assertTrue(device.isCommandReady(Command.UPDATE));
+        assertEquals(7, subscribedTopics.size());
+    }
+
+    @Test
+    public void testSuspendAndResumeWithoutSession() throws AWSIotException {
+        TestDevice device = newTestDevice(SHADOW_NAME);
+        device.setClient(client);
+        device.setReportInterval(0);
+
+        device.activate();
+        device.suspend();
+        device.resume(false);
+
+        // topics are resubscribed by the client along with other subscriptions
+        assertFalse(device.isCommandReady(Command.UPDATE));
+        assertEquals(7, subscribedTopics.size());
+    }
+
     @Test
     public void testDeactivate() throws AWSIotException {
         TestDevice device = newTestDevice(SHADOW_NAME);
@@ -187,6 +393,18 @@ public class AbstractAwsIotDeviceTest {
         assertEquals(7, unsubscribedTopics.size());
     }
 
+    private void acceptReport(AWSIotMessage message) {
+        // simulate the response on the update/accepted topic
+        AwsIotDeviceCommand command = (AwsIotDeviceCommand) message;
+        command.setResponse(new AWSIotMessage(null, AWSIotQos.QOS0, "{}"));
+        command.onSuccess();
+    }
+
+    private void rejectReport(AWSIotMessage message) {
+        // simulate the response on the update/rejected topic
+        ((AwsIotDeviceCommand) message).onFailure();
+    }
+
     private void waitBeforeShutdown(long timeout) {
         try {
             Thread.sleep(timeout);
@@ -301,6 +519,19 @@ public class AbstractAwsIotDeviceTest {
         }
     }
 
+    @Getter
+    @Setter
+    class SensorDevice extends AbstractAwsIotDevice {
+        @AWSIotDeviceProperty(deadband = 0.5)
+        double temperature = 20;
+        @AWSIotDeviceProperty
+        String mode = "auto";
+
+        protected SensorDevice(String thingName) {
+            super(thingName);
+        }
+    }
+
     public static enum TestEnum {
         RED, BLACK, BLUE
     }
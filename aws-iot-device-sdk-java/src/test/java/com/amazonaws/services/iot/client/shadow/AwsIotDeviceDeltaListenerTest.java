@@ -1,7 +1,9 @@
 package com.amazonaws.services.iot.client.shadow;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -38,6 +40,8 @@ public class AwsIotDeviceDeltaListenerTest {
         objectMapper = new ObjectMapper();
         device.enableVersioning = false;
         when(device.getThingName()).thenReturn(TEST_SHADOW);
+        // the listener delegates to the device, so the delta handling is run
+        doCallRealMethod().when(device).onShadowDelta(any(AWSIotMessage.class));
     }
 
     @Test
@@ -47,51 +51,51 @@ public class AwsIotDeviceDeltaListenerTest {
         AwsIotDeviceDeltaListener listener = new AwsIotDeviceDeltaListener(TEST_TOPIC, TEST_QOS, device);
         listener.onMessage(message);
 
-        verify(device, never()).getJsonObjectMapper();
+        verify(device, never()).getJsonMapper();
     }
 
     @Test
     public void testReadTreeNonObject() throws JsonProcessingException, IOException {
-        when(device.getJsonObjectMapper()).thenReturn(objectMapper);
+        when(device.getJsonMapper()).thenReturn(objectMapper);
 
         AWSIotMessage message = new AWSIotMessage(TEST_TOPIC, TEST_QOS, "123");
 
         AwsIotDeviceDeltaListener listener = new AwsIotDeviceDeltaListener(TEST_TOPIC, TEST_QOS, device);
         listener.onMessage(message);
 
-        verify(device, times(1)).getJsonObjectMapper();
+        verify(device, times(1)).getJsonMapper();
         verify(device, never()).onShadowUpdate(anyString());
     }
 
     @Test
     public void testReadTreeMissingState() throws JsonProcessingException, IOException {
-        when(device.getJsonObjectMapper()).thenReturn(objectMapper);
+        when(device.getJsonMapper()).thenReturn(objectMapper);
 
         AWSIotMessage message = new AWSIotMessage(TEST_TOPIC, TEST_QOS, "{}");
 
         AwsIotDeviceDeltaListener listener = new AwsIotDeviceDeltaListener(TEST_TOPIC, TEST_QOS, device);
         listener.onMessage(message);
 
-        verify(device, times(1)).getJsonObjectMapper();
+        verify(device, times(1)).getJsonMapper();
         verify(device, never()).onShadowUpdate(anyString());
     }
 
     @Test
     public void testOnShadowUpdate() throws JsonProcessingException, IOException {
-        when(device.getJsonObjectMapper()).thenReturn(objectMapper);
+        when(device.getJsonMapper()).thenReturn(objectMapper);
 
         AWSIotMessage message = new AWSIotMessage(TEST_TOPIC, TEST_QOS, "{\"state\":{}}");
 
         AwsIotDeviceDeltaListener listener = new AwsIotDeviceDeltaListener(TEST_TOPIC, TEST_QOS, device);
         listener.onMessage(message);
 
-        verify(device, times(1)).getJsonObjectMapper();
+        verify(device, times(1)).getJsonMapper();
         verify(device, times(1)).onShadowUpdate(anyString());
     }
 
     @Test
     public void testVersioningEnabledMissingVersion() throws JsonProcessingException, IOException {
-        when(device.getJsonObjectMapper()).thenReturn(objectMapper);
+        when(device.getJsonMapper()).thenReturn(objectMapper);
         device.enableVersioning = true;
 
         AWSIotMessage message = new AWSIotMessage(TEST_TOPIC, TEST_QOS, "{\"state\":{}}");
@@ -99,13 +103,13 @@ public class AwsIotDeviceDeltaListenerTest {
         AwsIotDeviceDeltaListener listener = new AwsIotDeviceDeltaListener(TEST_TOPIC, TEST_QOS, device);
         listener.onMessage(message);
 
-        verify(device, times(1)).getJsonObjectMapper();
+        verify(device, times(1)).getJsonMapper();
         verify(device, never()).getLocalVersion();
     }
 
     @Test
     public void testVersioningEnabledReceivedOldVersion() throws JsonProcessingException, IOException {
-        when(device.getJsonObjectMapper()).thenReturn(objectMapper);
+        when(device.getJsonMapper()).thenReturn(objectMapper);
         when(device.getLocalVersion()).thenReturn(new AtomicLong(2));
         device.enableVersioning = true;
 
@@ -114,14 +118,14 @@ public class AwsIotDeviceDeltaListenerTest {
         AwsIotDeviceDeltaListener listener = new AwsIotDeviceDeltaListener(TEST_TOPIC, TEST_QOS, device);
         listener.onMessage(message);
 
-        verify(device, times(1)).getJsonObjectMapper();
+        verify(device, times(1)).getJsonMapper();
         verify(device, never()).onShadowUpdate(anyString());
     }
 
     @Test
     public void testVersioningEnabledReceivedNewerVersion() throws JsonProcessingException, IOException {
         AtomicLong localVersion = new AtomicLong(2);
-        when(device.getJsonObjectMapper()).thenReturn(objectMapper);
+        when(device.getJsonMapper()).thenReturn(objectMapper);
         when(device.getLocalVersion()).thenReturn(localVersion);
         device.enableVersioning = true;
 
@@ -131,7 +135,7 @@ public class AwsIotDeviceDeltaListenerTest {
         listener.onMessage(message);
 
         assertEquals(3, localVersion.get());
-        verify(device, times(1)).getJsonObjectMapper();
+        verify(device, times(1)).getJsonMapper();
         verify(device, times(1)).onShadowUpdate(anyString());
     }
 
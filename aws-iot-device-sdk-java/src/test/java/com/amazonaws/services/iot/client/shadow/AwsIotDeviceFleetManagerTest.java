@@ -0,0 +1,294 @@
+package com.amazonaws.services.iot.client.shadow;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.services.iot.client.AWSIotDevice;
+import com.amazonaws.services.iot.client.AWSIotDeviceProperty;
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.amazonaws.services.iot.client.AWSIotTopic;
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.shadow.AwsIotDeviceCommandManager.Command;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AwsIotDeviceFleetManagerTest {
+
+    @Mock
+    private AbstractAwsIotClient client;
+
+    private AwsIotDeviceFleetManager fleetManager;
+    private List<AWSIotTopic> subscribedTopics;
+    private List<AWSIotTopic> unsubscribedTopics;
+    private boolean failSubscribe;
+
+    @Before
+    public void setup() throws AWSIotException {
+        fleetManager = new AwsIotDeviceFleetManager(client);
+        subscribedTopics = new ArrayList<>();
+        unsubscribedTopics = new ArrayList<>();
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                for (Object topic : (List<?>) invocation.getArguments()[0]) {
+                    subscribedTopics.add((AWSIotTopic) topic);
+                }
+                if (failSubscribe) {
+                    throw new AWSIotException("failed");
+                }
+                return null;
+            }
+        }).when(client).subscribe(anyListOf(AWSIotTopic.class), anyLong());
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                unsubscribedTopics.add((AWSIotTopic) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(client).unsubscribe(any(AWSIotTopic.class), anyLong());
+    }
+
+    @Test
+    public void testWildcardsSubscribedOnce() throws AWSIotException {
+        fleetManager.activate(new AWSIotDevice("thing1"));
+        fleetManager.activate(new AWSIotDevice("thing2"));
+        fleetManager.activate(new AWSIotDevice("thing3"));
+
+        assertEquals(7, subscribedTopics.size());
+        for (AWSIotTopic topic : subscribedTopics) {
+            assertTrue(AwsIotDeviceFleetManager.getTopics().contains(topic.getTopic()));
+        }
+    }
+
+    @Test
+    public void testReadinessAfterSubscriptionAck() throws AWSIotException {
+        AWSIotDevice device1 = new AWSIotDevice("thing1");
+        fleetManager.activate(device1);
+        assertFalse(device1.isCommandReady(Command.UPDATE));
+
+        ackSubscriptions();
+        assertTrue(device1.isCommandReady(Command.GET));
+        assertTrue(device1.isCommandReady(Command.UPDATE));
+        assertTrue(device1.isCommandReady(Command.DELETE));
+
+        // devices activated later are ready immediately
+        AWSIotDevice device2 = new AWSIotDevice("thing2");
+        fleetManager.activate(device2);
+        assertTrue(device2.isCommandReady(Command.UPDATE));
+    }
+
+    @Test
+    public void testReadinessAfterSubscriptionFailure() throws AWSIotException {
+        AWSIotDevice device = new AWSIotDevice("thing1");
+        fleetManager.activate(device);
+
+        for (AWSIotTopic topic : subscribedTopics) {
+            if (topic.getTopic().endsWith("/update/accepted")) {
+                topic.onFailure();
+            } else {
+                topic.onSuccess();
+            }
+        }
+
+        assertTrue(device.isCommandReady(Command.GET));
+        assertFalse(device.isCommandReady(Command.UPDATE));
+    }
+
+    @Test
+    public void testFailedTopicRetriedOnActivation() throws AWSIotException {
+        AWSIotDevice device1 = new AWSIotDevice("thing1");
+        fleetManager.activate(device1);
+        for (AWSIotTopic topic : subscribedTopics) {
+            if (topic.getTopic().endsWith("/update/accepted")) {
+                topic.onTimeout();
+            } else {
+                topic.onSuccess();
+            }
+        }
+
+        AWSIotDevice device2 = new AWSIotDevice("thing2");
+        fleetManager.activate(device2);
+        assertEquals(8, subscribedTopics.size());
+        assertEquals("$aws/things/+/shadow/update/accepted", subscribedTopics.get(7).getTopic());
+        assertFalse(device2.isCommandReady(Command.UPDATE));
+
+        subscribedTopics.get(7).onSuccess();
+        assertTrue(device1.isCommandReady(Command.UPDATE));
+        assertTrue(device2.isCommandReady(Command.UPDATE));
+
+        // nothing left to retry
+        fleetManager.activate(new AWSIotDevice("thing3"));
+        assertEquals(8, subscribedTopics.size());
+    }
+
+    @Test
+    public void testActivateFailureUnsubscribes() throws AWSIotException {
+        failSubscribe = true;
+        AWSIotDevice device = new AWSIotDevice("thing1");
+        try {
+            fleetManager.activate(device);
+            fail("Exception should be thrown");
+        } catch (AWSIotException e) {
+            assertEquals(7, unsubscribedTopics.size());
+        }
+
+        // acknowledgements of the abandoned subscriptions are ignored
+        ackSubscriptions();
+        assertFalse(fleetManager.isTopicReady("$aws/things/+/shadow/update/accepted"));
+        assertFalse(device.isCommandReady(Command.UPDATE));
+
+        // the next activation subscribes to all the topics again
+        failSubscribe = false;
+        fleetManager.activate(device);
+        assertEquals(14, subscribedTopics.size());
+    }
+
+    @Test
+    public void testCommandAckRoutedByThingName() throws AWSIotException {
+        AbstractAwsIotDevice device1 = mockDevice("thing1");
+        AbstractAwsIotDevice device2 = mockDevice("thing2");
+        fleetManager.activate(device1);
+        fleetManager.activate(device2);
+
+        AWSIotMessage message = new AWSIotMessage("$aws/things/thing2/shadow/get/accepted", AWSIotQos.QOS0, "{}");
+        getSubscribedTopic("$aws/things/+/shadow/get/accepted").onMessage(message);
+
+        verify(device2).onCommandAck(message);
+        verify(device1, never()).onCommandAck(any(AWSIotMessage.class));
+    }
+
+    @Test
+    public void testDeltaRoutedByThingName() throws AWSIotException {
+        TestDevice device1 = new TestDevice("thing1");
+        TestDevice device2 = new TestDevice("thing2");
+        fleetManager.activate(device1);
+        fleetManager.activate(device2);
+
+        AWSIotMessage message = new AWSIotMessage("$aws/things/thing1/shadow/update/delta", AWSIotQos.QOS0,
+                "{\"state\":{\"reportedLong\":42}}");
+        getSubscribedTopic("$aws/things/+/shadow/update/delta").onMessage(message);
+
+        assertEquals(42, device1.getReportedLong());
+        assertEquals(0, device2.getReportedLong());
+    }
+
+    @Test
+    public void testUnsubscribeWhenLastDeviceDeactivated() throws AWSIotException {
+        AWSIotDevice device1 = new AWSIotDevice("thing1");
+        AWSIotDevice device2 = new AWSIotDevice("thing2");
+        fleetManager.activate(device1);
+        fleetManager.activate(device2);
+        ackSubscriptions();
+
+        fleetManager.deactivate(device1);
+        assertTrue(unsubscribedTopics.isEmpty());
+
+        fleetManager.deactivate(device2);
+        assertEquals(7, unsubscribedTopics.size());
+        assertFalse(fleetManager.isTopicReady("$aws/things/+/shadow/update/accepted"));
+
+        // subscribes again when a device is activated
+        fleetManager.activate(device1);
+        assertEquals(14, subscribedTopics.size());
+    }
+
+    @Test
+    public void testSuspendAndResumeWithSessionPresent() throws AWSIotException {
+        AWSIotDevice device = new AWSIotDevice("thing1");
+        fleetManager.activate(device);
+        ackSubscriptions();
+
+        fleetManager.suspend();
+        device.getDeviceSubscriptions().put("$aws/things/thing1/shadow/update/accepted", false);
+        assertFalse(fleetManager.isTopicReady("$aws/things/+/shadow/update/accepted"));
+
+        fleetManager.resume(true);
+        assertTrue(fleetManager.isTopicReady("$aws/things/+/shadow/update/accepted"));
+        assertTrue(device.isCommandReady(Command.UPDATE));
+        assertEquals(7, subscribedTopics.size());
+    }
+
+    @Test
+    public void testResumeResubscribesMissingTopics() throws AWSIotException {
+        fleetManager.activate(new AWSIotDevice("thing1"));
+        for (AWSIotTopic topic : subscribedTopics) {
+            if (topic.getTopic().endsWith("/delete/rejected")) {
+                topic.onFailure();
+            } else {
+                topic.onSuccess();
+            }
+        }
+
+        fleetManager.suspend();
+        fleetManager.resume(true);
+
+        assertEquals(8, subscribedTopics.size());
+        assertEquals("$aws/things/+/shadow/delete/rejected", subscribedTopics.get(7).getTopic());
+    }
+
+    @Test
+    public void testGetThingName() {
+        assertEquals("thing", AwsIotDeviceFleetManager.getThingName("$aws/things/thing/shadow/update/delta"));
+        assertNull(AwsIotDeviceFleetManager.getThingName("sensors/thing/shadow/update"));
+        assertNull(AwsIotDeviceFleetManager.getThingName("$aws/things/thing"));
+        assertNull(AwsIotDeviceFleetManager.getThingName(null));
+    }
+
+    private void ackSubscriptions() {
+        for (AWSIotTopic topic : subscribedTopics) {
+            topic.onSuccess();
+        }
+    }
+
+    private AWSIotTopic getSubscribedTopic(String topic) {
+        for (AWSIotTopic subscribedTopic : subscribedTopics) {
+            if (subscribedTopic.getTopic().equals(topic)) {
+                return subscribedTopic;
+            }
+        }
+        return null;
+    }
+
+    private AbstractAwsIotDevice mockDevice(String thingName) {
+        AbstractAwsIotDevice device = mock(AbstractAwsIotDevice.class);
+        when(device.getThingName()).thenReturn(thingName);
+        return device;
+    }
+
+    public static class TestDevice extends AWSIotDevice {
+
+        @AWSIotDeviceProperty
+        private long reportedLong;
+
+        public TestDevice(String thingName) {
+            super(thingName);
+        }
+
+        public long getReportedLong() {
+            return reportedLong;
+        }
+
+        public void setReportedLong(long reportedLong) {
+            this.reportedLong = reportedLong;
+        }
+
+    }
+
+}
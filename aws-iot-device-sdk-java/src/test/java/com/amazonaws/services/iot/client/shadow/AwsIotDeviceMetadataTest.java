@@ -0,0 +1,205 @@
+package com.amazonaws.services.iot.client.shadow;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.amazonaws.services.iot.client.AWSIotDevice;
+import com.amazonaws.services.iot.client.AWSIotDeviceProperty;
+import com.amazonaws.services.iot.client.shadow.AwsIotDeviceMetadata.Property;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+
+import lombok.Getter;
+import lombok.Setter;
+
+public class AwsIotDeviceMetadataTest {
+
+    @Test
+    public void testMetadataIsSharedByClass() {
+        AwsIotDeviceMetadata metadata = AwsIotDeviceMetadata.forClass(TestDevice.class);
+
+        assertSame(metadata, AwsIotDeviceMetadata.forClass(TestDevice.class));
+        assertNotSame(metadata, AwsIotDeviceMetadata.forClass(OtherDevice.class));
+    }
+
+    @Test
+    public void testDevicesShareMetadata() {
+        TestDevice device1 = new TestDevice("thing1");
+        TestDevice device2 = new TestDevice("thing2");
+
+        assertSame(device1.getDeviceMetadata(), device2.getDeviceMetadata());
+        assertSame(device1.getReportedProperties(), device2.getReportedProperties());
+        assertSame(device1.getUpdatableProperties(), device2.getUpdatableProperties());
+    }
+
+    @Test
+    public void testProperties() {
+        AwsIotDeviceMetadata metadata = AwsIotDeviceMetadata.forClass(TestDevice.class);
+
+        assertEquals(Arrays.asList("temperature", "on", "reportOnly"),
+                Arrays.asList(metadata.getReportedProperties().keySet().toArray()));
+        assertEquals(Arrays.asList("temperature", "on", "updateOnly"),
+                Arrays.asList(metadata.getUpdatableProperties().keySet().toArray()));
+        assertEquals(metadata.getReportedProperties().keySet(), metadata.getReportedFields().keySet());
+        assertEquals("value", metadata.getReportedProperties().get("temperature").getField().getName());
+    }
+
+    @Test
+    public void testPropertyAccessors() throws IOException {
+        AwsIotDeviceMetadata metadata = AwsIotDeviceMetadata.forClass(TestDevice.class);
+        TestDevice device = new TestDevice("thing");
+
+        Property temperature = metadata.getUpdatableProperties().get("temperature");
+        temperature.setValue(device, 21.5);
+        assertEquals(21.5, device.getValue(), 0);
+        assertEquals(21.5, temperature.getValue(device));
+
+        Property on = metadata.getUpdatableProperties().get("on");
+        on.setValue(device, true);
+        assertEquals(true, on.getValue(device));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingGetter() throws IOException {
+        AwsIotDeviceMetadata metadata = AwsIotDeviceMetadata.forClass(OtherDevice.class);
+
+        metadata.getReportedProperties().get("noAccessors").getValue(new OtherDevice("thing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingSetter() throws IOException {
+        AwsIotDeviceMetadata metadata = AwsIotDeviceMetadata.forClass(OtherDevice.class);
+
+        metadata.getUpdatableProperties().get("noAccessors").setValue(new OtherDevice("thing"), "a");
+    }
+
+    @Test
+    public void testGeneratedAccessor() throws IOException {
+        AwsIotDeviceMetadata metadata = AwsIotDeviceMetadata.forClass(AccessorDevice.class);
+
+        assertEquals(AwsIotDeviceMetadataTest.class.getName() + "_AccessorDevice_AwsIotShadowAccessor",
+                AwsIotDeviceMetadata.getAccessorClassName(AccessorDevice.class));
+        assertTrue(metadata.getAccessor() instanceof AwsIotDeviceMetadataTest_AccessorDevice_AwsIotShadowAccessor);
+        assertNull(AwsIotDeviceMetadata.forClass(TestDevice.class).getAccessor());
+
+        AccessorDevice device = new AccessorDevice("thing");
+        AwsIotJsonDeserializer.deserialize(device, "{\"count\":5}");
+        assertEquals(6, device.getCount());
+        assertEquals("{\"count\":7}", device.onDeviceReport());
+    }
+
+    @Test
+    public void testReportPolicies() {
+        AwsIotDeviceMetadata metadata = AwsIotDeviceMetadata.forClass(PolicyDevice.class);
+        assertTrue(metadata.isReportPolicyDefined());
+        assertFalse(AwsIotDeviceMetadata.forClass(TestDevice.class).isReportPolicyDefined());
+
+        Property absolute = metadata.getReportedProperties().get("absolute");
+        assertTrue(absolute.isReportDue(null, number(20), 1000, 1000));
+        assertFalse(absolute.isReportDue(number(20), number(20.5), 1000, 1000));
+        assertFalse(absolute.isReportDue(number(20), number(19.5), 1000, 1000));
+        assertTrue(absolute.isReportDue(number(20), number(21.5), 1000, 1000));
+        // deadbands only apply to numbers
+        assertTrue(absolute.isReportDue(BooleanNode.TRUE, BooleanNode.FALSE, 1000, 1000));
+
+        Property percent = metadata.getReportedProperties().get("percent");
+        assertFalse(percent.isReportDue(number(-200), number(-190), 1000, 1000));
+        assertTrue(percent.isReportDue(number(-200), number(-189), 1000, 1000));
+        assertTrue(percent.isReportDue(number(0), number(0.1), 1000, 1000));
+
+        Property interval = metadata.getReportedProperties().get("interval");
+        assertFalse(interval.isReportDue(number(1), number(2), 1000, 1999));
+        assertTrue(interval.isReportDue(number(1), number(2), 1000, 2000));
+        assertFalse(interval.isReportDue(number(1), number(1), 1000, 9999));
+        assertTrue(interval.isReportDue(number(1), number(1), 1000, 11000));
+
+        Property plain = AwsIotDeviceMetadata.forClass(TestDevice.class).getReportedProperties().get("temperature");
+        assertFalse(plain.isReportDue(number(1), number(1), 0, 0));
+        assertTrue(plain.isReportDue(number(1), number(1.000001), 0, 0));
+    }
+
+    private static DoubleNode number(double value) {
+        return DoubleNode.valueOf(value);
+    }
+
+    @Getter
+    @Setter
+    public static class TestDevice extends AWSIotDevice {
+        @AWSIotDeviceProperty(name = "temperature")
+        private double value;
+        @AWSIotDeviceProperty
+        private boolean on;
+        @AWSIotDeviceProperty(allowUpdate = false)
+        private String reportOnly;
+        @AWSIotDeviceProperty(enableReport = false)
+        private String updateOnly;
+
+        private String notAProperty;
+
+        public TestDevice(String thingName) {
+            super(thingName);
+        }
+    }
+
+    public static class OtherDevice extends AWSIotDevice {
+        @AWSIotDeviceProperty
+        private String noAccessors;
+
+        public OtherDevice(String thingName) {
+            super(thingName);
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class PolicyDevice extends AWSIotDevice {
+        @AWSIotDeviceProperty(deadband = 1)
+        private double absolute;
+        @AWSIotDeviceProperty(deadbandPercent = 5)
+        private double percent;
+        @AWSIotDeviceProperty(minReportInterval = 1000, maxReportInterval = 10000)
+        private int interval;
+
+        public PolicyDevice(String thingName) {
+            super(thingName);
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class AccessorDevice extends AWSIotDevice {
+        @AWSIotDeviceProperty
+        private int count;
+
+        public AccessorDevice(String thingName) {
+            super(thingName);
+        }
+    }
+
+}
+
+class AwsIotDeviceMetadataTest_AccessorDevice_AwsIotShadowAccessor implements AwsIotDeviceShadowAccessor {
+
+    @Override
+    public void writeReportedProperties(AbstractAwsIotDevice device, JsonGenerator generator) throws IOException {
+        generator.writeNumberField("count", ((AwsIotDeviceMetadataTest.AccessorDevice) device).getCount() + 1);
+    }
+
+    @Override
+    public boolean readUpdatableProperty(AbstractAwsIotDevice device, String property, JsonNode node,
+            ObjectMapper objectMapper) throws IOException {
+        if (!"count".equals(property)) {
+            return false;
+        }
+        ((AwsIotDeviceMetadataTest.AccessorDevice) device).setCount(node.asInt() + 1);
+        return true;
+    }
+
+}
@@ -15,6 +15,8 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import com.amazonaws.services.iot.client.AWSIotDeviceErrorCode;
 import com.amazonaws.services.iot.client.AWSIotQos;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AwsIotDeviceReportMessageTest {
@@ -51,6 +53,19 @@ public class AwsIotDeviceReportMessageTest {
         assertEquals(4, localVersion.get());
     }
 
+    @Test
+    public void testOnSuccessDeltaReport() {
+        when(device.getLocalVersion()).thenReturn(new AtomicLong(-1));
+        ObjectNode baseState = JsonNodeFactory.instance.objectNode();
+        ObjectNode reportedState = JsonNodeFactory.instance.objectNode().put("value", 1);
+
+        AwsIotDeviceReportMessage message = new AwsIotDeviceReportMessage(TEST_TOPIC, TEST_QOS, -1, "", device,
+                baseState, reportedState);
+        message.onSuccess();
+
+        verify(device, times(1)).onDeviceReportAccepted(baseState, reportedState);
+    }
+
     @Test
     public void testOnFailureVersionConflict() {
         AwsIotDeviceReportMessage message = new AwsIotDeviceReportMessage(TEST_TOPIC, TEST_QOS, 1, "", device);
@@ -71,4 +86,15 @@ public class AwsIotDeviceReportMessageTest {
         verify(device, never()).startVersionSync();
     }
 
+    @Test
+    public void testOnTimeoutDeltaReport() {
+        ObjectNode reportedState = JsonNodeFactory.instance.objectNode().put("value", 1);
+        AwsIotDeviceReportMessage message = new AwsIotDeviceReportMessage(TEST_TOPIC, TEST_QOS, -1, "", device,
+                null, reportedState);
+
+        message.onTimeout();
+
+        verify(device, times(1)).onDeviceReportFailed();
+    }
+
 }
@@ -32,7 +32,7 @@ public class AwsIotDeviceSyncMessageTest {
     @Before
     public void setup() {
         objectMapper = new ObjectMapper();
-        when(device.getJsonObjectMapper()).thenReturn(objectMapper);
+        when(device.getJsonMapper()).thenReturn(objectMapper);
 
     }
 
@@ -0,0 +1,278 @@
+package com.amazonaws.services.iot.client.shadow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.services.iot.client.AWSIotDevice;
+import com.amazonaws.services.iot.client.AWSIotDeviceErrorCode;
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.amazonaws.services.iot.client.core.AbstractAwsIotClient;
+import com.amazonaws.services.iot.client.core.AwsIotRuntimeException;
+import com.amazonaws.services.iot.client.shadow.AwsIotDeviceCommandManager.Command;
+import com.amazonaws.services.iot.client.shadow.AwsIotDeviceCommandManager.CommandAck;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AwsIotDeviceUpdateCoalescerTest {
+
+    private static final String THING_NAME = "thing";
+
+    @Mock
+    private AbstractAwsIotClient client;
+
+    private AWSIotDevice device;
+    private List<Runnable> scheduledTasks;
+    private List<Future<?>> scheduledFutures;
+    private List<AWSIotMessage> publishedMessages;
+
+    @Before
+    public void setup() throws AWSIotException {
+        scheduledTasks = new ArrayList<>();
+        scheduledFutures = new ArrayList<>();
+        publishedMessages = new CopyOnWriteArrayList<>();
+
+        doAnswer(new Answer<Future<?>>() {
+            @Override
+            public Future<?> answer(InvocationOnMock invocation) throws Throwable {
+                scheduledTasks.add((Runnable) invocation.getArguments()[0]);
+                Future<?> future = mock(Future.class);
+                scheduledFutures.add(future);
+                return future;
+            }
+        }).when(client).scheduleTimeoutTask(any(Runnable.class), anyLong());
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                publishedMessages.add((AWSIotMessage) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(client).publish(any(AWSIotMessage.class), anyLong());
+
+        device = new AWSIotDevice(THING_NAME);
+        device.setClient(client);
+        device.setUpdateCoalescingWindow(100);
+        for (String topic : device.getDeviceSubscriptions().keySet()) {
+            device.getDeviceSubscriptions().put(topic, true);
+        }
+    }
+
+    @Test
+    public void testUpdatesCoalesced() throws AWSIotException, IOException {
+        TestMessage first = new TestMessage("{\"state\":{\"reported\":{\"a\":1,\"b\":{\"x\":1}}}}");
+        TestMessage second = new TestMessage(
+                "{\"state\":{\"reported\":{\"a\":2,\"b\":{\"y\":2}},\"desired\":{\"c\":null}}}");
+
+        device.update(first, 0);
+        device.update(second, 0);
+        assertEquals(1, scheduledTasks.size());
+        assertEquals(0, publishedMessages.size());
+
+        scheduledTasks.get(0).run();
+        assertEquals(1, publishedMessages.size());
+
+        JsonNode state = getPublishedDocument(0).get("state");
+        assertEquals(2, state.get("reported").get("a").intValue());
+        assertEquals(1, state.get("reported").get("b").get("x").intValue());
+        assertEquals(2, state.get("reported").get("b").get("y").intValue());
+        assertTrue(state.get("desired").get("c").isNull());
+
+        acknowledge(0, CommandAck.ACCEPTED, "");
+        assertEquals(1, first.successes);
+        assertEquals(1, second.successes);
+        assertTrue(first.getStringPayload().contains("clientToken"));
+        assertEquals(0, device.getCommandManager().getPendingCommands().size());
+    }
+
+    @Test
+    public void testRejectedBatchFailsAllUpdates() throws AWSIotException, IOException {
+        TestMessage first = new TestMessage("{\"state\":{\"reported\":{\"a\":1}}}");
+        TestMessage second = new TestMessage("{\"state\":{\"reported\":{\"b\":1}}}");
+
+        device.update(first, 0);
+        device.update(second, 0);
+        scheduledTasks.get(0).run();
+        acknowledge(0, CommandAck.REJECTED, ",\"code\":400,\"message\":\"Invalid JSON\"");
+
+        assertEquals(1, first.failures);
+        assertEquals(1, second.failures);
+        assertEquals(AWSIotDeviceErrorCode.BAD_REQUEST, second.getErrorCode());
+        assertEquals("Invalid JSON", second.getErrorMessage());
+    }
+
+    @Test
+    public void testVersionedUpdateNotCoalesced() throws AWSIotException, IOException {
+        device.update(new TestMessage("{\"state\":{\"reported\":{\"a\":1}}}"), 0);
+        device.update(new TestMessage("{\"state\":{\"reported\":{\"a\":2}},\"version\":7}"), 0);
+
+        // the pending update is sent first
+        assertEquals(2, publishedMessages.size());
+        verify(scheduledFutures.get(0)).cancel(false);
+        assertNull(getPublishedDocument(0).get("version"));
+        assertEquals(7, getPublishedDocument(1).get("version").intValue());
+    }
+
+    @Test
+    public void testPendingUpdatesSentBeforeDelete() throws AWSIotException, IOException {
+        device.update(new TestMessage("{\"state\":{\"reported\":{\"a\":1}}}"), 0);
+        device.delete(new TestMessage(null), 0);
+
+        assertEquals(2, publishedMessages.size());
+        assertTrue(publishedMessages.get(0).getTopic().endsWith("/update"));
+        assertTrue(publishedMessages.get(1).getTopic().endsWith("/delete"));
+    }
+
+    @Test
+    public void testSyncUpdate() throws Exception {
+        final List<Exception> errors = new ArrayList<>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    device.update("{\"state\":{\"reported\":{\"a\":1}}}");
+                } catch (AWSIotException e) {
+                    errors.add(e);
+                }
+            }
+        };
+        thread.start();
+
+        while (scheduledTasks.isEmpty()) {
+            Thread.sleep(5);
+        }
+        scheduledTasks.get(0).run();
+        acknowledge(0, CommandAck.ACCEPTED, "");
+
+        thread.join(1000);
+        assertTrue(!thread.isAlive());
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void testUpdateWhileDisconnected() throws AWSIotException, IOException {
+        doThrow(new AwsIotRuntimeException("Client is not connected")).when(client)
+                .scheduleTimeoutTask(any(Runnable.class), anyLong());
+
+        try {
+            device.update("{\"state\":{\"reported\":{\"a\":1}}}");
+            fail("Update should fail while disconnected");
+        } catch (AWSIotException e) {
+            // expected
+        }
+
+        // the failed update is not left pending, so the next one starts a new batch
+        doAnswer(new Answer<Future<?>>() {
+            @Override
+            public Future<?> answer(InvocationOnMock invocation) throws Throwable {
+                scheduledTasks.add((Runnable) invocation.getArguments()[0]);
+                return mock(Future.class);
+            }
+        }).when(client).scheduleTimeoutTask(any(Runnable.class), anyLong());
+        TestMessage message = new TestMessage("{\"state\":{\"reported\":{\"b\":1}}}");
+        device.update(message, 0);
+        assertEquals(1, scheduledTasks.size());
+
+        scheduledTasks.get(0).run();
+        assertEquals(1, publishedMessages.size());
+        assertNull(getPublishedDocument(0).get("state").get("reported").get("a"));
+    }
+
+    @Test
+    public void testSyncUpdateFromClientThread() throws Exception {
+        // a single client thread, which the topic callback is running on
+        ExecutorService clientThread = Executors.newSingleThreadExecutor();
+        try {
+            when(client.isClientThread()).thenReturn(true);
+
+            Future<Void> result = clientThread.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    device.update("{\"state\":{\"reported\":{\"a\":1}}}", 5000);
+                    return null;
+                }
+            });
+
+            // the update is sent without waiting for the flush task
+            long deadline = System.currentTimeMillis() + 1000;
+            while (publishedMessages.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, publishedMessages.size());
+
+            acknowledge(0, CommandAck.ACCEPTED, "");
+            result.get(1, TimeUnit.SECONDS);
+            assertTrue(result.isDone());
+        } finally {
+            clientThread.shutdownNow();
+        }
+    }
+
+    @Test(expected = AWSIotException.class)
+    public void testInvalidDocument() throws AWSIotException {
+        device.update(new TestMessage("[1]"), 0);
+    }
+
+    private ObjectNode getPublishedDocument(int index) throws IOException {
+        String payload = publishedMessages.get(index).getStringPayload();
+        return (ObjectNode) AbstractAwsIotDevice.JSON_OBJECT_MAPPER.readTree(payload);
+    }
+
+    private void acknowledge(int index, CommandAck ack, String fields) throws IOException {
+        String commandId = getPublishedDocument(index).get("clientToken").textValue();
+        String topic = device.getCommandManager().getTopic(Command.UPDATE, ack);
+        device.onCommandAck(new AWSIotMessage(topic, AWSIotQos.QOS0, "{\"clientToken\":\"" + commandId + "\""
+                + fields + "}"));
+    }
+
+    private static class TestMessage extends AWSIotMessage {
+
+        private int successes;
+        private int failures;
+
+        TestMessage(String payload) {
+            super(null, AWSIotQos.QOS0, payload);
+        }
+
+        @Override
+        public void onSuccess() {
+            successes++;
+        }
+
+        @Override
+        public void onFailure() {
+            failures++;
+        }
+
+    }
+
+}
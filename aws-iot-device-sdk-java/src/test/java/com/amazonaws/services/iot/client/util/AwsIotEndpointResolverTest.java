@@ -0,0 +1,157 @@
+package com.amazonaws.services.iot.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AwsIotEndpointResolverTest {
+
+    // the reserved .invalid domain never resolves, lookups are served by
+    // TestResolver
+    private static final String TEST_HOST = "endpoint.iot.invalid";
+
+    private TestResolver resolver;
+    private ServerSocket server;
+
+    @Before
+    public void setup() throws IOException {
+        resolver = new TestResolver();
+        server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testResolveCached() throws UnknownHostException {
+        resolver.addresses = new InetAddress[] { address("10.0.0.1") };
+
+        resolver.resolve(TEST_HOST);
+        resolver.resolve(TEST_HOST);
+
+        assertEquals(1, resolver.lookups);
+    }
+
+    @Test
+    public void testResolveExpired() throws UnknownHostException {
+        resolver.setCacheTtl(0);
+        resolver.addresses = new InetAddress[] { address("10.0.0.1") };
+
+        resolver.resolve(TEST_HOST);
+        resolver.resolve(TEST_HOST);
+
+        assertEquals(2, resolver.lookups);
+    }
+
+    @Test
+    public void testResolveFailureUsesExpiredAddresses() throws UnknownHostException {
+        resolver.setCacheTtl(0);
+        resolver.addresses = new InetAddress[] { address("10.0.0.1") };
+        resolver.resolve(TEST_HOST);
+
+        resolver.addresses = null;
+
+        assertEquals(Arrays.asList(address("10.0.0.1")), resolver.resolve(TEST_HOST));
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void testResolveFailure() throws UnknownHostException {
+        resolver.resolve(TEST_HOST);
+    }
+
+    @Test
+    public void testInvalidate() throws UnknownHostException {
+        resolver.addresses = new InetAddress[] { address("10.0.0.1") };
+
+        resolver.resolve(TEST_HOST);
+        resolver.invalidate(TEST_HOST);
+        resolver.resolve(TEST_HOST);
+
+        assertEquals(2, resolver.lookups);
+    }
+
+    @Test
+    public void testInterleave() throws UnknownHostException {
+        List<InetAddress> addresses = AwsIotEndpointResolver.interleave(new InetAddress[] { address("::1"),
+                address("::2"), address("::3"), address("10.0.0.1"), address("10.0.0.2") });
+
+        assertEquals(Arrays.asList(address("::1"), address("10.0.0.1"), address("::2"), address("10.0.0.2"),
+                address("::3")), addresses);
+    }
+
+    @Test
+    public void testConnectSkipsDeadAddress() throws IOException {
+        // nothing listens on 127.0.0.2, so the first attempt is refused
+        resolver.addresses = new InetAddress[] { address("127.0.0.2"), address("127.0.0.1") };
+
+        try (Socket socket = resolver.connect(TEST_HOST, server.getLocalPort(), 5000)) {
+            assertTrue(socket.isConnected());
+            assertEquals(address("127.0.0.1"), ((InetSocketAddress) socket.getRemoteSocketAddress()).getAddress());
+        }
+
+        // the address connected to is tried first next time
+        assertEquals(address("127.0.0.1"), resolver.resolve(TEST_HOST).get(0));
+    }
+
+    @Test
+    public void testConnectAfterAttemptDelay() throws IOException {
+        resolver.setAttemptDelay(10);
+        resolver.addresses = new InetAddress[] { address("127.0.0.1"), address("127.0.0.2") };
+
+        try (Socket socket = resolver.connect(TEST_HOST, server.getLocalPort(), 5000)) {
+            assertEquals(address("127.0.0.1"), ((InetSocketAddress) socket.getRemoteSocketAddress()).getAddress());
+        }
+    }
+
+    @Test
+    public void testConnectAllAddressesFail() throws IOException {
+        resolver.addresses = new InetAddress[] { address("127.0.0.2"), address("127.0.0.3") };
+
+        try {
+            resolver.connect(TEST_HOST, server.getLocalPort(), 5000);
+            fail("Exception should be thrown");
+        } catch (ConnectException e) {
+            // addresses are resolved again after a failure
+            resolver.resolve(TEST_HOST);
+            assertEquals(2, resolver.lookups);
+        }
+    }
+
+    private static InetAddress address(String address) throws UnknownHostException {
+        // only IP literals are used, which are parsed without any DNS lookup
+        return InetAddress.getByName(address);
+    }
+
+    private static class TestResolver extends AwsIotEndpointResolver {
+
+        private InetAddress[] addresses;
+        private int lookups;
+
+        @Override
+        protected InetAddress[] lookup(String host) throws UnknownHostException {
+            lookups++;
+            if (addresses == null) {
+                throw new UnknownHostException(host);
+            }
+            return addresses;
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.amazonaws.services.iot.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+
+public class AwsIotSslContextCacheTest {
+
+    @Before
+    public void setup() {
+        AwsIotSslContextCache.clear();
+        AwsIotSslContextCache.setMaxSize(AwsIotSslContextCache.DEFAULT_MAX_SIZE);
+        AwsIotSslContextCache.setSessionCacheSize(AwsIotSslContextCache.DEFAULT_SESSION_CACHE_SIZE);
+        AwsIotSslContextCache.setSessionTimeout(AwsIotSslContextCache.DEFAULT_SESSION_TIMEOUT);
+    }
+
+    @Test
+    public void testContextSharedBySameContent() throws AWSIotException, GeneralSecurityException, IOException {
+        SSLContext context1 = AwsIotSslContextCache.getContext(newKeyStore(), "password");
+        SSLContext context2 = AwsIotSslContextCache.getContext(newKeyStore(), "password");
+
+        assertSame(context1, context2);
+        assertEquals(1, AwsIotSslContextCache.size());
+    }
+
+    @Test
+    public void testContextNotSharedWithDifferentPassword()
+            throws AWSIotException, GeneralSecurityException, IOException {
+        KeyStore keyStore = newKeyStore();
+
+        SSLContext context1 = AwsIotSslContextCache.getContext(keyStore, "password");
+        SSLContext context2 = AwsIotSslContextCache.getContext(keyStore, "another");
+
+        assertNotSame(context1, context2);
+        assertEquals(2, AwsIotSslContextCache.size());
+    }
+
+    @Test
+    public void testPrewarm() throws AWSIotException, GeneralSecurityException, IOException, InterruptedException,
+            ExecutionException, TimeoutException {
+        Future<SSLContext> future = AwsIotSslContextCache.prewarm(newKeyStore(), "password");
+        SSLContext prewarmed = future.get(10, TimeUnit.SECONDS);
+
+        assertSame(prewarmed, AwsIotSslContextCache.getContext(newKeyStore(), "password"));
+        assertSame(future, AwsIotSslContextCache.prewarm(newKeyStore(), "password"));
+    }
+
+    @Test
+    public void testClear() throws AWSIotException, GeneralSecurityException, IOException {
+        SSLContext context = AwsIotSslContextCache.getContext(newKeyStore(), "password");
+
+        AwsIotSslContextCache.clear();
+
+        assertEquals(0, AwsIotSslContextCache.size());
+        assertNotSame(context, AwsIotSslContextCache.getContext(newKeyStore(), "password"));
+    }
+
+    @Test
+    public void testInvalidate() throws AWSIotException, GeneralSecurityException, IOException {
+        SSLContext context = AwsIotSslContextCache.getContext(newKeyStore(), "password");
+        SSLContext other = AwsIotSslContextCache.getContext(newKeyStore(), "another");
+
+        AwsIotSslContextCache.invalidate(newKeyStore(), "password");
+
+        assertEquals(1, AwsIotSslContextCache.size());
+        assertNotSame(context, AwsIotSslContextCache.getContext(newKeyStore(), "password"));
+        assertSame(other, AwsIotSslContextCache.getContext(newKeyStore(), "another"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws AWSIotException, GeneralSecurityException, IOException {
+        AwsIotSslContextCache.setMaxSize(2);
+
+        SSLContext context1 = AwsIotSslContextCache.getContext(newKeyStore(), "password1");
+        SSLContext context2 = AwsIotSslContextCache.getContext(newKeyStore(), "password2");
+        // uses the first context, so the second one is the least recently used
+        AwsIotSslContextCache.getContext(newKeyStore(), "password1");
+        AwsIotSslContextCache.getContext(newKeyStore(), "password3");
+
+        assertEquals(2, AwsIotSslContextCache.size());
+        assertSame(context1, AwsIotSslContextCache.getContext(newKeyStore(), "password1"));
+        assertNotSame(context2, AwsIotSslContextCache.getContext(newKeyStore(), "password2"));
+
+        AwsIotSslContextCache.setMaxSize(1);
+        assertEquals(1, AwsIotSslContextCache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxSize() {
+        AwsIotSslContextCache.setMaxSize(0);
+    }
+
+    @Test
+    public void testSessionSettingsApplied() throws AWSIotException, GeneralSecurityException, IOException {
+        SSLContext context = AwsIotSslContextCache.getContext(newKeyStore(), "password");
+
+        SSLSessionContext sessionContext = context.getClientSessionContext();
+        assertEquals(AwsIotSslContextCache.DEFAULT_SESSION_CACHE_SIZE, sessionContext.getSessionCacheSize());
+        assertEquals(AwsIotSslContextCache.DEFAULT_SESSION_TIMEOUT / 1000, sessionContext.getSessionTimeout());
+
+        AwsIotSslContextCache.setSessionCacheSize(16);
+        AwsIotSslContextCache.setSessionTimeout(3600000);
+        SSLContext other = AwsIotSslContextCache.getContext(newKeyStore(), "another");
+
+        // applies to the cached context and to the new one
+        for (SSLContext c : new SSLContext[] { context, other }) {
+            assertEquals(16, c.getClientSessionContext().getSessionCacheSize());
+            assertEquals(3600, c.getClientSessionContext().getSessionTimeout());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSessionTimeout() {
+        AwsIotSslContextCache.setSessionTimeout(-1);
+    }
+
+    @Test
+    public void testKeyStoreNotLoaded() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+
+        // the key store is not loaded
+        try {
+            AwsIotSslContextCache.getContext(keyStore, "password");
+            fail("Exception should be thrown");
+        } catch (AWSIotException e) {
+            assertEquals(0, AwsIotSslContextCache.size());
+        }
+    }
+
+    private KeyStore newKeyStore() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        return keyStore;
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.amazonaws.services.iot.client.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Measures the connect latency of {@link AwsIotTlsSocketFactory} with TLS 1.2
+ * and TLS 1.3 against a local TLS test broker. Each connect is a mutual-TLS
+ * handshake followed by one 4-byte request and response, the same shape as
+ * CONNECT/CONNACK. Sessions are invalidated after each connect so every
+ * handshake is a full one.
+ * <p>
+ * On loopback the round trip saved by TLS 1.3 is within noise, so an optional
+ * round-trip time can be added by a relay between the client and the broker.
+ * It's not run as part of the unit tests. To run it after {@code mvn
+ * test-compile}:
+ * </p>
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:$(cat classpath.txt) \
+ *     com.amazonaws.services.iot.client.util.AwsIotTlsHandshakeBenchmark [connects] [rttMillis]
+ * </pre>
+ *
+ * where {@code classpath.txt} is written by
+ * {@code mvn dependency:build-classpath -Dmdep.outputFile=classpath.txt}.
+ */
+public class AwsIotTlsHandshakeBenchmark {
+
+    private static final String PASSWORD = "benchmark";
+    private static final int WARM_UP_CONNECTS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int connects = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        int rtt = (args.length > 1) ? Integer.parseInt(args[1]) : 0;
+
+        SSLContext context = createContext();
+        List<String> supported = Arrays.asList(context.getSupportedSSLParameters().getProtocols());
+
+        try (SSLServerSocket broker = startBroker(context)) {
+            int port = broker.getLocalPort();
+            ServerSocket relay = null;
+            if (rtt > 0) {
+                relay = startRelay(port, rtt);
+                port = relay.getLocalPort();
+            }
+
+            try {
+                for (String protocol : new String[] { "TLSv1.2", "TLSv1.3" }) {
+                    if (!supported.contains(protocol)) {
+                        System.out.println(protocol + ": not supported by this runtime");
+                        continue;
+                    }
+
+                    AwsIotTlsSocketFactory factory = new AwsIotTlsSocketFactory(context.getSocketFactory());
+                    factory.setEnabledProtocols(Collections.singletonList(protocol));
+                    for (int i = 0; i < WARM_UP_CONNECTS; i++) {
+                        connect(factory, port);
+                    }
+
+                    long[] latencies = new long[connects];
+                    for (int i = 0; i < connects; i++) {
+                        latencies[i] = connect(factory, port);
+                    }
+                    Arrays.sort(latencies);
+                    System.out.printf("%s: median %.2f ms, p90 %.2f ms over %d connects (added RTT %d ms)%n",
+                            protocol, latencies[connects / 2] / 1e6, latencies[connects * 9 / 10] / 1e6, connects,
+                            rtt);
+                }
+            } finally {
+                if (relay != null) {
+                    relay.close();
+                }
+            }
+        }
+    }
+
+    private static long connect(AwsIotTlsSocketFactory factory, int port) throws IOException {
+        long start = System.nanoTime();
+        try (SSLSocket socket = (SSLSocket) factory.createSocket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            socket.startHandshake();
+            socket.getOutputStream().write(new byte[] { 0x10, 2, 0, 0 });
+            readFully(socket.getInputStream(), 4);
+            long latency = System.nanoTime() - start;
+
+            // the next handshake is a full one
+            socket.getSession().invalidate();
+            return latency;
+        }
+    }
+
+    private static SSLContext createContext() throws IOException, GeneralSecurityException, InterruptedException {
+        File file = File.createTempFile("benchmark", ".jks");
+        file.delete();
+        try {
+            // a self-signed P-256 certificate, used by both the client and the broker
+            String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+            Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "benchmark", "-keyalg", "EC",
+                    "-keysize", "256", "-sigalg", "SHA256withECDSA", "-dname", "CN=localhost", "-validity", "1",
+                    "-storetype", "JKS", "-keystore", file.getPath(), "-storepass", PASSWORD, "-keypass",
+                    PASSWORD).inheritIO().start();
+            if (process.waitFor() != 0) {
+                throw new IOException("Failed to generate the benchmark key store");
+            }
+
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            try (InputStream in = new FileInputStream(file)) {
+                keyStore.load(in, PASSWORD.toCharArray());
+            }
+
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory
+                    .getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keyStore, PASSWORD.toCharArray());
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory
+                    .getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(keyStore);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+            return context;
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static SSLServerSocket startBroker(SSLContext context) throws IOException {
+        final SSLServerSocket broker = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 50,
+                InetAddress.getLoopbackAddress());
+        broker.setNeedClientAuth(true);
+
+        startDaemon(new Runnable() {
+            @Override
+            public void run() {
+                while (!broker.isClosed()) {
+                    try (Socket socket = broker.accept()) {
+                        socket.setTcpNoDelay(true);
+                        readFully(socket.getInputStream(), 4);
+                        socket.getOutputStream().write(new byte[] { 0x20, 2, 0, 0 });
+                        // waits for the client to close the connection
+                        socket.getInputStream().read();
+                    } catch (IOException e) {
+                        // the connection or the broker is closed
+                    }
+                }
+            }
+        });
+        return broker;
+    }
+
+    /**
+     * Starts a relay delaying every chunk of data by half the round-trip time
+     * in each direction.
+     */
+    private static ServerSocket startRelay(final int brokerPort, final int rtt) throws IOException {
+        final ServerSocket relay = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+        startDaemon(new Runnable() {
+            @Override
+            public void run() {
+                while (!relay.isClosed()) {
+                    try {
+                        Socket client = relay.accept();
+                        Socket broker = new Socket(InetAddress.getLoopbackAddress(), brokerPort);
+                        client.setTcpNoDelay(true);
+                        broker.setTcpNoDelay(true);
+                        forward(client, broker, rtt / 2);
+                        forward(broker, client, rtt / 2);
+                    } catch (IOException e) {
+                        // the relay is closed
+                    }
+                }
+            }
+        });
+        return relay;
+    }
+
+    private static void forward(final Socket from, final Socket to, final int delay) {
+        startDaemon(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[16384];
+                try {
+                    InputStream in = from.getInputStream();
+                    OutputStream out = to.getOutputStream();
+                    int count;
+                    while ((count = in.read(buffer)) >= 0) {
+                        Thread.sleep(delay);
+                        out.write(buffer, 0, count);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // the connection is closed
+                } finally {
+                    closeQuietly(from);
+                    closeQuietly(to);
+                }
+            }
+        });
+    }
+
+    private static void readFully(InputStream in, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            if (in.read() < 0) {
+                throw new IOException("Connection closed");
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    private static void startDaemon(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+}
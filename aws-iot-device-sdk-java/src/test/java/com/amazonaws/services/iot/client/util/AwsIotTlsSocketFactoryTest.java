@@ -1,10 +1,17 @@
 package com.amazonaws.services.iot.client.util;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.nullable;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -13,16 +20,27 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
-
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.amazonaws.services.iot.client.AWSIotException;
+
 @RunWith(MockitoJUnitRunner.class)
 public class AwsIotTlsSocketFactoryTest {
 
@@ -58,7 +76,7 @@ public class AwsIotTlsSocketFactoryTest {
 
         tlsSocketFactory.createSocket();
 
-        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.2" });
+        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.3", "TLSv1.2" });
     }
 
     @Test
@@ -67,7 +85,7 @@ public class AwsIotTlsSocketFactoryTest {
 
         tlsSocketFactory.createSocket(nullable(Socket.class), anyString(), anyInt(), anyBoolean());
 
-        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.2" });
+        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.3", "TLSv1.2" });
     }
 
     @Test
@@ -76,7 +94,7 @@ public class AwsIotTlsSocketFactoryTest {
 
         tlsSocketFactory.createSocket(anyString(), anyInt());
 
-        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.2" });
+        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.3", "TLSv1.2" });
     }
 
     @Test
@@ -85,7 +103,7 @@ public class AwsIotTlsSocketFactoryTest {
 
         tlsSocketFactory.createSocket(anyString(), anyInt(), nullable(InetAddress.class), anyInt());
 
-        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.2" });
+        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.3", "TLSv1.2" });
     }
 
     @Test
@@ -94,7 +112,7 @@ public class AwsIotTlsSocketFactoryTest {
 
         tlsSocketFactory.createSocket(nullable(InetAddress.class), anyInt());
 
-        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.2" });
+        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.3", "TLSv1.2" });
     }
 
     @Test
@@ -104,7 +122,111 @@ public class AwsIotTlsSocketFactoryTest {
 
         tlsSocketFactory.createSocket(nullable(InetAddress.class), anyInt(), nullable(InetAddress.class), anyInt());
 
+        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.3", "TLSv1.2" });
+    }
+
+    @Test
+    public void testCreateSocketFallbackToTls12() throws IOException {
+        when(sslSocketFactory.createSocket()).thenReturn(socket);
+        when(socket.getSupportedProtocols()).thenReturn(new String[] { "TLSv1", "TLSv1.1", "TLSv1.2" });
+
+        tlsSocketFactory.createSocket();
+
         verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.2" });
     }
 
+    @Test
+    public void testCreateSocketWithConfiguredProtocols() throws IOException {
+        when(sslSocketFactory.createSocket()).thenReturn(socket);
+        when(socket.getSupportedProtocols()).thenReturn(new String[] { "TLSv1.2", "TLSv1.3" });
+
+        tlsSocketFactory.setEnabledProtocols(Arrays.asList("TLSv1.2"));
+        tlsSocketFactory.createSocket();
+
+        verify(socket, times(1)).setEnabledProtocols(new String[] { "TLSv1.2" });
+        assertEquals(Arrays.asList("TLSv1.2"), tlsSocketFactory.getEnabledProtocols());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetEmptyProtocols() {
+        tlsSocketFactory.setEnabledProtocols(new ArrayList<String>());
+    }
+
+    @Test
+    public void testCreateSocketWithApplicationProtocols() throws IOException {
+        when(sslSocketFactory.createSocket()).thenReturn(socket);
+
+        tlsSocketFactory.setApplicationProtocols(Arrays.asList("x-amzn-mqtt-ca"));
+        tlsSocketFactory.createSocket();
+
+        ArgumentCaptor<SSLParameters> sslParams = ArgumentCaptor.forClass(SSLParameters.class);
+        verify(socket).setSSLParameters(sslParams.capture());
+        assertEquals("HTTPS", sslParams.getValue().getEndpointIdentificationAlgorithm());
+        assertArrayEquals(new String[] { "x-amzn-mqtt-ca" }, sslParams.getValue().getApplicationProtocols());
+    }
+
+    @Test
+    public void testCreateSocketWithoutApplicationProtocols() throws IOException {
+        when(sslSocketFactory.createSocket()).thenReturn(socket);
+
+        tlsSocketFactory.createSocket();
+
+        ArgumentCaptor<SSLParameters> sslParams = ArgumentCaptor.forClass(SSLParameters.class);
+        verify(socket).setSSLParameters(sslParams.capture());
+        assertEquals(0, sslParams.getValue().getApplicationProtocols().length);
+        assertTrue(tlsSocketFactory.getApplicationProtocols().isEmpty());
+    }
+
+    @Test
+    public void testHandshakeMetrics() throws IOException {
+        when(sslSocketFactory.createSocket()).thenReturn(socket);
+        SSLSession cachedSession = mock(SSLSession.class);
+        SSLSession newSession = mock(SSLSession.class);
+        when(cachedSession.getCreationTime()).thenReturn(System.currentTimeMillis() - 60000);
+        when(newSession.getCreationTime()).thenReturn(System.currentTimeMillis() + 60000);
+
+        tlsSocketFactory.createSocket();
+
+        ArgumentCaptor<HandshakeCompletedListener> listener = ArgumentCaptor.forClass(HandshakeCompletedListener.class);
+        verify(socket).addHandshakeCompletedListener(listener.capture());
+        listener.getValue().handshakeCompleted(new HandshakeCompletedEvent(socket, newSession));
+        listener.getValue().handshakeCompleted(new HandshakeCompletedEvent(socket, cachedSession));
+        listener.getValue().handshakeCompleted(new HandshakeCompletedEvent(socket, cachedSession));
+        listener.getValue().handshakeCompleted(new HandshakeCompletedEvent(socket, cachedSession));
+
+        AwsIotTlsHandshakeMetrics metrics = tlsSocketFactory.getHandshakeMetrics();
+        assertEquals(1, metrics.getFullHandshakes());
+        assertEquals(3, metrics.getResumedHandshakes());
+        assertEquals(0.75, metrics.getResumedRatio(), 0.0);
+
+        metrics.reset();
+        assertEquals(0, metrics.getTotalHandshakes());
+        assertEquals(0.0, metrics.getResumedRatio(), 0.0);
+    }
+
+    @Test
+    public void testSessionContextSharedByKeyStore() throws AWSIotException, GeneralSecurityException, IOException {
+        AwsIotTlsSocketFactory factory1 = new AwsIotTlsSocketFactory(newKeyStore(), "password");
+        AwsIotTlsSocketFactory factory2 = new AwsIotTlsSocketFactory(newKeyStore(), "password");
+        AwsIotTlsSocketFactory factory3 = new AwsIotTlsSocketFactory(newKeyStore(), "another");
+
+        assertSame(factory1.getSessionContext(), factory2.getSessionContext());
+        assertNotSame(factory1.getSessionContext(), factory3.getSessionContext());
+        assertNotSame(factory1.getHandshakeMetrics(), factory2.getHandshakeMetrics());
+
+        factory1.getSessionContext().setSessionCacheSize(16);
+        assertEquals(16, factory2.getSessionContext().getSessionCacheSize());
+    }
+
+    @Test
+    public void testNoSessionContextForProvidedFactory() {
+        assertNull(tlsSocketFactory.getSessionContext());
+    }
+
+    private KeyStore newKeyStore() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        return keyStore;
+    }
+
 }
@@ -8,6 +8,8 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.util.Date;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AwsIotWebSocketUrlSignerTest {
@@ -50,6 +52,31 @@ public class AwsIotWebSocketUrlSignerTest {
         assertEquals(EndPointSigned + "&X-Amz-Security-Token=" + SessionToken, url);
     }
 
+    @Test
+    public void testSigningKeyRederivedWhenSecretChanges() throws AWSIotException {
+        AwsIotWebSocketUrlSigner urlSigner = new AwsIotWebSocketUrlSigner(EndPoint, AccessKeyId, SecretAccessKey, null);
+        assertEquals(EndPointSigned, urlSigner.getSignedUrl(SigningDate));
+
+        urlSigner.updateCredentials(AccessKeyId, "789", null);
+        assertNotEquals(EndPointSigned, urlSigner.getSignedUrl(SigningDate));
+
+        urlSigner.updateCredentials(AccessKeyId, SecretAccessKey, null);
+        assertEquals(EndPointSigned, urlSigner.getSignedUrl(SigningDate));
+    }
+
+    @Test
+    public void testSigningKeyRederivedWhenDateChanges() throws AWSIotException {
+        AwsIotWebSocketUrlSigner urlSigner = new AwsIotWebSocketUrlSigner(EndPoint, AccessKeyId, SecretAccessKey, null);
+        assertEquals(EndPointSigned, urlSigner.getSignedUrl(SigningDate));
+
+        String url = urlSigner.getSignedUrl(new Date(SigningDate.getTime() + 86400000L));
+        assertTrue(url.contains("X-Amz-Credential=123%2F20160102%2Fus-east-1"));
+        assertNotEquals(EndPointSigned.substring(EndPointSigned.indexOf("X-Amz-Signature")),
+                url.substring(url.indexOf("X-Amz-Signature")));
+
+        assertEquals(EndPointSigned, urlSigner.getSignedUrl(SigningDate));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testSigningWithInvalidEndpoint() throws AWSIotException {
         AwsIotWebSocketUrlSigner urlSigner = new AwsIotWebSocketUrlSigner("hostname.iot.us-east-1.AMAZON.COM",